@@ -0,0 +1,147 @@
+package eu.eidas.auth.engine.configuration.dom;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ImmutableMap;
+
+import eu.eidas.auth.commons.io.SingletonAccessor;
+import eu.eidas.auth.commons.io.SingletonAccessors;
+import eu.eidas.auth.engine.ProtocolEngineI;
+import eu.eidas.auth.engine.SamlEngineClock;
+import eu.eidas.auth.engine.configuration.ProtocolEngineConfiguration;
+import eu.eidas.auth.engine.core.SamlEngineCoreProperties;
+import eu.eidas.benchmarks.BenchmarkFixtures;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+/**
+ * Benchmarks a call on a component of a reloadable configuration: directly on the component, through the holders of
+ * {@link ReloadableProtocolConfiguration} and through a JDK proxy looking up the current configuration on each call
+ * (as the reloadable configuration did before the holders, without the check of the configuration file).
+ *
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ReloadableComponentBenchmark {
+
+    private static final class LookupInvocationHandler implements InvocationHandler {
+
+        private final String name;
+
+        private final SingletonAccessor<ImmutableMap<String, ProtocolEngineConfiguration>> accessor;
+
+        private final boolean clock;
+
+        LookupInvocationHandler(String name,
+                                SingletonAccessor<ImmutableMap<String, ProtocolEngineConfiguration>> accessor,
+                                boolean clock) {
+            this.name = name;
+            this.accessor = accessor;
+            this.clock = clock;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            ProtocolEngineConfiguration configuration = accessor.get().get(name);
+            Object target = clock ? configuration.getClock() : configuration.getCoreProperties();
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private SamlEngineCoreProperties directCoreProperties;
+
+    private SamlEngineClock directClock;
+
+    private SamlEngineCoreProperties holderCoreProperties;
+
+    private SamlEngineClock holderClock;
+
+    private SamlEngineCoreProperties proxyCoreProperties;
+
+    private SamlEngineClock proxyClock;
+
+    @Setup
+    public void setUp() throws EIDASSAMLEngineException {
+        ProtocolEngineI protocolEngine = BenchmarkFixtures.newProtocolEngine(false);
+        String name = BenchmarkFixtures.PLAIN_INSTANCE;
+        ProtocolEngineConfiguration configuration = ProtocolEngineConfiguration.builder()
+                .instanceName(name)
+                .coreProperties(ReloadableProtocolConfiguration.getCurrentComponent(protocolEngine.getCoreProperties()))
+                .signer(ReloadableProtocolConfiguration.getCurrentComponent(protocolEngine.getSigner()))
+                .cipher(ReloadableProtocolConfiguration.getCurrentComponent(protocolEngine.getCipher()))
+                .protocolProcessor(
+                        ReloadableProtocolConfiguration.getCurrentComponent(protocolEngine.getProtocolProcessor()))
+                .clock(ReloadableProtocolConfiguration.getCurrentComponent(protocolEngine.getClock()))
+                .build();
+
+        directCoreProperties = configuration.getCoreProperties();
+        directClock = configuration.getClock();
+
+        ProtocolEngineConfiguration reloadable =
+                new ReloadableProtocolConfiguration(name, configuration).getReloadableConfiguration();
+        holderCoreProperties = reloadable.getCoreProperties();
+        holderClock = reloadable.getClock();
+
+        SingletonAccessor<ImmutableMap<String, ProtocolEngineConfiguration>> accessor =
+                SingletonAccessors.immutableAccessor(ImmutableMap.of(name, configuration));
+        ClassLoader classLoader = getClass().getClassLoader();
+        proxyCoreProperties = (SamlEngineCoreProperties) Proxy.newProxyInstance(classLoader,
+                new Class<?>[] {SamlEngineCoreProperties.class}, new LookupInvocationHandler(name, accessor, false));
+        proxyClock = (SamlEngineClock) Proxy.newProxyInstance(classLoader, new Class<?>[] {SamlEngineClock.class},
+                                                              new LookupInvocationHandler(name, accessor, true));
+    }
+
+    @Benchmark
+    public Integer directCoreProperties() {
+        return directCoreProperties.getTimeNotOnOrAfter();
+    }
+
+    @Benchmark
+    public Integer holderCoreProperties() {
+        return holderCoreProperties.getTimeNotOnOrAfter();
+    }
+
+    @Benchmark
+    public Integer proxyCoreProperties() {
+        return proxyCoreProperties.getTimeNotOnOrAfter();
+    }
+
+    @Benchmark
+    public DateTime directClock() {
+        return directClock.getCurrentTime();
+    }
+
+    @Benchmark
+    public DateTime holderClock() {
+        return holderClock.getCurrentTime();
+    }
+
+    @Benchmark
+    public DateTime proxyClock() {
+        return proxyClock.getCurrentTime();
+    }
+}
@@ -0,0 +1,93 @@
+package eu.eidas.benchmarks;
+
+import javax.annotation.Nonnull;
+
+import eu.eidas.auth.commons.EIDASStatusCode;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.attribute.impl.StringAttributeValue;
+import eu.eidas.auth.commons.protocol.eidas.impl.EidasAuthenticationRequest;
+import eu.eidas.auth.commons.protocol.impl.AuthenticationResponse;
+import eu.eidas.auth.engine.ProtocolEngineFactory;
+import eu.eidas.auth.engine.ProtocolEngineI;
+import eu.eidas.auth.engine.core.eidas.EidasProtocolProcessor;
+import eu.eidas.auth.engine.core.eidas.spec.EidasSpec;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+/**
+ * Engines and sample messages shared by the benchmarks.
+ * <p>
+ * The engines are configured from the {@code SamlEngine.xml} of the benchmark module: they use a self-signed keyStore
+ * and no metadata, so that the benchmarks run offline.
+ *
+ * @since 1.1
+ */
+public final class BenchmarkFixtures {
+
+    /**
+     * Signed but unencrypted messages.
+     */
+    public static final String PLAIN_INSTANCE = "BENCHMARK";
+
+    /**
+     * Signed messages whose responses are encrypted to BE.
+     */
+    public static final String ENCRYPTED_INSTANCE = "BENCHMARK_ENCRYPTED";
+
+    public static final String SERVICE_ISSUER = "https://destination.europa.eu/metadata";
+
+    public static final String IP_ADDRESS = "127.0.0.1";
+
+    @Nonnull
+    public static ProtocolEngineI newProtocolEngine(boolean encrypted) throws EIDASSAMLEngineException {
+        return ProtocolEngineFactory.createProtocolEngine(encrypted ? ENCRYPTED_INSTANCE : PLAIN_INSTANCE,
+                                                          new EidasProtocolProcessor(null, null));
+    }
+
+    @Nonnull
+    public static ImmutableAttributeMap newRequestedAttributes() {
+        return ImmutableAttributeMap.builder()
+                .put(EidasSpec.Definitions.PERSON_IDENTIFIER)
+                .put(EidasSpec.Definitions.CURRENT_FAMILY_NAME)
+                .put(EidasSpec.Definitions.CURRENT_GIVEN_NAME)
+                .put(EidasSpec.Definitions.DATE_OF_BIRTH)
+                .build();
+    }
+
+    @Nonnull
+    public static ImmutableAttributeMap newResponseAttributes() {
+        return ImmutableAttributeMap.builder()
+                .put(EidasSpec.Definitions.PERSON_IDENTIFIER, new StringAttributeValue("BE/BE/123456", false))
+                .put(EidasSpec.Definitions.CURRENT_FAMILY_NAME, new StringAttributeValue("Garcia", false))
+                .put(EidasSpec.Definitions.CURRENT_GIVEN_NAME, new StringAttributeValue("Javier", false))
+                .build();
+    }
+
+    @Nonnull
+    public static EidasAuthenticationRequest newRequest() {
+        return EidasAuthenticationRequest.builder()
+                .id("_benchmarkRequest")
+                .issuer("https://source.europa.eu/metadata")
+                .destination("https://destination.europa.eu")
+                .citizenCountryCode("BE")
+                .originCountryCode("BE")
+                .providerName("Benchmark")
+                .assertionConsumerServiceURL("https://source.europa.eu/metadata")
+                .requestedAttributes(newRequestedAttributes())
+                .build();
+    }
+
+    @Nonnull
+    public static AuthenticationResponse newResponse(@Nonnull EidasAuthenticationRequest request) {
+        return AuthenticationResponse.builder()
+                .statusCode(EIDASStatusCode.SUCCESS_URI.toString())
+                .id("_benchmarkResponse")
+                .inResponseTo(request.getId())
+                .issuer(SERVICE_ISSUER)
+                .ipAddress(IP_ADDRESS)
+                .attributes(newResponseAttributes())
+                .build();
+    }
+
+    private BenchmarkFixtures() {
+    }
+}
@@ -0,0 +1,93 @@
+package eu.eidas.benchmarks;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import org.opensaml.saml2.core.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.eidas.auth.commons.protocol.eidas.impl.EidasAuthenticationRequest;
+import eu.eidas.auth.commons.xml.opensaml.OpenSamlHelper;
+import eu.eidas.auth.engine.ProtocolEngineI;
+import eu.eidas.auth.engine.configuration.dom.ReloadableProtocolConfiguration;
+import eu.eidas.auth.engine.core.ProtocolCipherI;
+import eu.eidas.auth.engine.core.ProtocolDecrypterI;
+import eu.eidas.auth.engine.core.ProtocolEncrypterI;
+import eu.eidas.encryption.exception.UnmarshallException;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+/**
+ * Benchmarks the encryption and the decryption of the assertions of a response by the cipher of the engine (i.e.
+ * {@code SAMLAuthnResponseEncrypter} and {@code SAMLAuthnResponseDecrypter}).
+ * <p>
+ * Both operations mutate the response, therefore each invocation works on a freshly unmarshalled response (the
+ * unmarshalling is not measured).
+ *
+ * @since 1.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class EncryptionBenchmark {
+
+    private ProtocolEncrypterI encrypter;
+
+    private ProtocolDecrypterI decrypter;
+
+    private X509Certificate encryptionCertificate;
+
+    private byte[] plainResponseBytes;
+
+    private byte[] encryptedResponseBytes;
+
+    private Response plainResponse;
+
+    private Response encryptedResponse;
+
+    @Setup
+    public void setUp() throws EIDASSAMLEngineException {
+        ProtocolEngineI plainEngine = BenchmarkFixtures.newProtocolEngine(false);
+        ProtocolEngineI encryptedEngine = BenchmarkFixtures.newProtocolEngine(true);
+
+        ProtocolCipherI cipher = ReloadableProtocolConfiguration.getCurrentComponent(encryptedEngine.getCipher());
+        encrypter = (ProtocolEncrypterI) cipher;
+        decrypter = (ProtocolDecrypterI) cipher;
+
+        EidasAuthenticationRequest request = BenchmarkFixtures.newRequest();
+        encryptionCertificate = encrypter.getEncryptionCertificate(request.getOriginCountryCode());
+        plainResponseBytes = plainEngine.generateResponseMessage(request, BenchmarkFixtures.newResponse(request), false,
+                                                                 BenchmarkFixtures.IP_ADDRESS).getMessageBytes();
+        encryptedResponseBytes =
+                encryptedEngine.generateResponseMessage(request, BenchmarkFixtures.newResponse(request), false,
+                                                        BenchmarkFixtures.IP_ADDRESS).getMessageBytes();
+    }
+
+    @Setup(Level.Invocation)
+    public void newResponses() throws UnmarshallException {
+        plainResponse = (Response) OpenSamlHelper.unmarshall(plainResponseBytes);
+        encryptedResponse = (Response) OpenSamlHelper.unmarshall(encryptedResponseBytes);
+    }
+
+    @Benchmark
+    public Response encryptSamlResponse() throws EIDASSAMLEngineException {
+        return encrypter.encryptSamlResponse(plainResponse, encryptionCertificate);
+    }
+
+    @Benchmark
+    public Response decryptSamlResponse() throws EIDASSAMLEngineException {
+        return decrypter.decryptSamlResponse(encryptedResponse);
+    }
+}
@@ -0,0 +1,71 @@
+package eu.eidas.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+
+/**
+ * Benchmarks the construction and the Java serialization of {@link ImmutableAttributeMap}s, as done when the
+ * requested and the returned attributes are stored in the HTTP session or in the correlation maps.
+ *
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ImmutableAttributeMapBenchmark {
+
+    private ImmutableAttributeMap attributeMap;
+
+    private byte[] serializedAttributeMap;
+
+    private static byte[] serialize(ImmutableAttributeMap attributeMap) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(attributeMap);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        attributeMap = BenchmarkFixtures.newResponseAttributes();
+        serializedAttributeMap = serialize(attributeMap);
+    }
+
+    @Benchmark
+    public ImmutableAttributeMap build() {
+        return BenchmarkFixtures.newResponseAttributes();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return serialize(attributeMap);
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serializedAttributeMap))) {
+            return in.readObject();
+        }
+    }
+}
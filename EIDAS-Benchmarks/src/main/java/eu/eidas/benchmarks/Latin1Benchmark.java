@@ -0,0 +1,69 @@
+package eu.eidas.benchmarks;
+
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.eidas.auth.commons.EidasStringUtil;
+
+/**
+ * Compares the ways of checking whether an attribute value needs a transliterated version, from several threads:
+ * <ul>
+ * <li>a {@link CharsetEncoder} shared by all threads under a lock,</li>
+ * <li>one {@link CharsetEncoder} per thread,</li>
+ * <li>the char scan of {@link EidasStringUtil#isLatin1(CharSequence)}.</li>
+ * </ul>
+ *
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@Threads(4)
+public class Latin1Benchmark {
+
+    private static final ThreadLocal<CharsetEncoder> PER_THREAD_ENCODER = new ThreadLocal<CharsetEncoder>() {
+
+        @Override
+        protected CharsetEncoder initialValue() {
+            return StandardCharsets.ISO_8859_1.newEncoder();
+        }
+    };
+
+    @Param({"Jean-Claude Juncker", "J\u00E9r\u00F4me \u00D1\u00FA\u00F1ez", "\u0396\u03B1\u03BD-\u039A\u03BB\u03BF\u03BD\u03C4"})
+    public String value;
+
+    private final CharsetEncoder sharedEncoder = StandardCharsets.ISO_8859_1.newEncoder();
+
+    @Benchmark
+    public boolean sharedEncoder() {
+        synchronized (sharedEncoder) {
+            return sharedEncoder.canEncode(value);
+        }
+    }
+
+    @Benchmark
+    public boolean perThreadEncoder() {
+        return PER_THREAD_ENCODER.get().canEncode(value);
+    }
+
+    @Benchmark
+    public boolean scan() {
+        return EidasStringUtil.isLatin1(value);
+    }
+}
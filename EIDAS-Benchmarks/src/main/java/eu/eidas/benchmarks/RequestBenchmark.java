@@ -0,0 +1,58 @@
+package eu.eidas.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.eidas.auth.commons.protocol.IAuthenticationRequest;
+import eu.eidas.auth.commons.protocol.IRequestMessage;
+import eu.eidas.auth.commons.protocol.eidas.impl.EidasAuthenticationRequest;
+import eu.eidas.auth.engine.ProtocolEngineI;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+/**
+ * Benchmarks the generation and the validation of signed authentication requests.
+ *
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+
+    private ProtocolEngineI protocolEngine;
+
+    private EidasAuthenticationRequest request;
+
+    private byte[] requestBytes;
+
+    @Setup
+    public void setUp() throws EIDASSAMLEngineException {
+        protocolEngine = BenchmarkFixtures.newProtocolEngine(false);
+        request = BenchmarkFixtures.newRequest();
+        requestBytes = protocolEngine.generateRequestMessage(request, BenchmarkFixtures.SERVICE_ISSUER)
+                .getMessageBytes();
+    }
+
+    @Benchmark
+    public IRequestMessage generateRequestMessage() throws EIDASSAMLEngineException {
+        return protocolEngine.generateRequestMessage(request, BenchmarkFixtures.SERVICE_ISSUER);
+    }
+
+    @Benchmark
+    public IAuthenticationRequest unmarshallRequestAndValidate() throws EIDASSAMLEngineException {
+        return protocolEngine.unmarshallRequestAndValidate(requestBytes, request.getCitizenCountryCode());
+    }
+}
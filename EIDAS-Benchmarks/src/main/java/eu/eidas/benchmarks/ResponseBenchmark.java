@@ -0,0 +1,69 @@
+package eu.eidas.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.eidas.auth.commons.protocol.IAuthenticationResponse;
+import eu.eidas.auth.commons.protocol.IResponseMessage;
+import eu.eidas.auth.commons.protocol.eidas.impl.EidasAuthenticationRequest;
+import eu.eidas.auth.commons.protocol.impl.AuthenticationResponse;
+import eu.eidas.auth.engine.ProtocolEngineI;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+/**
+ * Benchmarks the generation and the validation of signed authentication responses, with and without the encryption of
+ * the assertions.
+ *
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ResponseBenchmark {
+
+    @Param({"false", "true"})
+    public boolean encrypted;
+
+    @Param({"true"})
+    public boolean signAssertion;
+
+    private ProtocolEngineI protocolEngine;
+
+    private EidasAuthenticationRequest request;
+
+    private AuthenticationResponse response;
+
+    private byte[] responseBytes;
+
+    @Setup
+    public void setUp() throws EIDASSAMLEngineException {
+        protocolEngine = BenchmarkFixtures.newProtocolEngine(encrypted);
+        request = BenchmarkFixtures.newRequest();
+        response = BenchmarkFixtures.newResponse(request);
+        responseBytes = generateResponseMessage().getMessageBytes();
+    }
+
+    @Benchmark
+    public IResponseMessage generateResponseMessage() throws EIDASSAMLEngineException {
+        return protocolEngine.generateResponseMessage(request, response, signAssertion, BenchmarkFixtures.IP_ADDRESS);
+    }
+
+    @Benchmark
+    public IAuthenticationResponse unmarshallResponseAndValidate() throws EIDASSAMLEngineException {
+        return protocolEngine.unmarshallResponseAndValidate(responseBytes, BenchmarkFixtures.IP_ADDRESS, 0L, null);
+    }
+}
@@ -0,0 +1,77 @@
+package eu.eidas.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.validation.Schema;
+
+import org.opensaml.common.xml.SAMLSchemaBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import eu.eidas.auth.commons.protocol.eidas.impl.EidasAuthenticationRequest;
+import eu.eidas.auth.commons.xml.DocumentBuilderFactoryUtil;
+import eu.eidas.auth.engine.ProtocolEngineI;
+import eu.eidas.auth.engine.xml.opensaml.XmlSchemaUtil;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+/**
+ * Benchmarks the validation of a SAML response against the SAML schema: the single pass (parsing and validating at
+ * once) against the former two passes (parsing then validating the DOM), and the parsing alone as a baseline.
+ *
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SchemaValidationBenchmark {
+
+    @Param({"false", "true"})
+    public boolean encrypted;
+
+    private Schema schema;
+
+    private byte[] responseBytes;
+
+    @Setup
+    public void setUp() throws EIDASSAMLEngineException, SAXException {
+        ProtocolEngineI protocolEngine = BenchmarkFixtures.newProtocolEngine(encrypted);
+        EidasAuthenticationRequest request = BenchmarkFixtures.newRequest();
+        responseBytes = protocolEngine.generateResponseMessage(request, BenchmarkFixtures.newResponse(request), true,
+                                                               BenchmarkFixtures.IP_ADDRESS).getMessageBytes();
+        schema = SAMLSchemaBuilder.getSAML11Schema();
+    }
+
+    @Benchmark
+    public Document parseOnly() throws ParserConfigurationException, SAXException, IOException {
+        return DocumentBuilderFactoryUtil.parse(responseBytes);
+    }
+
+    @Benchmark
+    public Document singlePass() throws EIDASSAMLEngineException {
+        return XmlSchemaUtil.validateSchema(schema, responseBytes);
+    }
+
+    @Benchmark
+    public Document twoPasses() throws EIDASSAMLEngineException, ParserConfigurationException, SAXException,
+            IOException {
+        Document document = DocumentBuilderFactoryUtil.parse(responseBytes);
+        XmlSchemaUtil.validateSchema(schema, document);
+        return document;
+    }
+}
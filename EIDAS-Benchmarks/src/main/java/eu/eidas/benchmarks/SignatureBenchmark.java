@@ -0,0 +1,73 @@
+package eu.eidas.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.opensaml.saml2.core.AuthnRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.eidas.auth.commons.xml.opensaml.OpenSamlHelper;
+import eu.eidas.auth.engine.ProtocolEngineI;
+import eu.eidas.auth.engine.configuration.dom.ReloadableProtocolConfiguration;
+import eu.eidas.auth.engine.core.ProtocolSignerI;
+import eu.eidas.encryption.exception.UnmarshallException;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+/**
+ * Benchmarks the signature and the validation of the signature of an authentication request by the signer of the
+ * engine (i.e. {@code AbstractProtocolSigner}).
+ * <p>
+ * Signing mutates the signed object, therefore each invocation signs a freshly unmarshalled request (the unmarshalling
+ * is not measured).
+ *
+ * @since 1.1
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SignatureBenchmark {
+
+    private ProtocolSignerI signer;
+
+    private byte[] requestBytes;
+
+    private AuthnRequest signedRequest;
+
+    private AuthnRequest requestToSign;
+
+    @Setup
+    public void setUp() throws EIDASSAMLEngineException, UnmarshallException {
+        ProtocolEngineI protocolEngine = BenchmarkFixtures.newProtocolEngine(false);
+        signer = ReloadableProtocolConfiguration.getCurrentComponent(protocolEngine.getSigner());
+        requestBytes = protocolEngine.generateRequestMessage(BenchmarkFixtures.newRequest(),
+                                                             BenchmarkFixtures.SERVICE_ISSUER).getMessageBytes();
+        signedRequest = (AuthnRequest) OpenSamlHelper.unmarshall(requestBytes);
+    }
+
+    @Setup(Level.Invocation)
+    public void newRequestToSign() throws UnmarshallException {
+        requestToSign = (AuthnRequest) OpenSamlHelper.unmarshall(requestBytes);
+    }
+
+    @Benchmark
+    public AuthnRequest sign() throws EIDASSAMLEngineException {
+        return signer.sign(requestToSign);
+    }
+
+    @Benchmark
+    public AuthnRequest validateSignature() throws EIDASSAMLEngineException {
+        return signer.validateSignature(signedRequest, null);
+    }
+}
@@ -0,0 +1,86 @@
+package eu.eidas.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.eidas.auth.commons.tx.AbstractStoredRequest;
+import eu.eidas.auth.commons.tx.StoredAuthenticationRequest;
+import eu.eidas.auth.commons.tx.StoredRequestCodec;
+
+/**
+ * Compares the {@link StoredRequestCodec} with the Java serialization of the stored requests put in the distributed
+ * correlation maps.
+ * <p>
+ * The encoded sizes are compared by {@code StoredRequestCodecTest}.
+ *
+ * @since 1.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StoredRequestCodecBenchmark {
+
+    private StoredAuthenticationRequest storedRequest;
+
+    private byte[] serializedRequest;
+
+    private byte[] encodedRequest;
+
+    private static byte[] serialize(AbstractStoredRequest<?> storedRequest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(storedRequest);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        storedRequest = StoredAuthenticationRequest.builder()
+                .remoteIpAddress(BenchmarkFixtures.IP_ADDRESS)
+                .request(BenchmarkFixtures.newRequest())
+                .build();
+        serializedRequest = serialize(storedRequest);
+        encodedRequest = StoredRequestCodec.getInstance().encode(storedRequest);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return serialize(storedRequest);
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serializedRequest))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return StoredRequestCodec.getInstance().encode(storedRequest);
+    }
+
+    @Benchmark
+    public AbstractStoredRequest<?> decode() throws IOException {
+        return StoredRequestCodec.getInstance().decode(encodedRequest);
+    }
+}
@@ -7,6 +7,8 @@ import org.bouncycastle.util.encoders.Base64;
 
 public final class EidasStringUtil {
 
+    private static final char LATIN_1_MAX_CHAR = '\u00FF';
+
     /**
      * Decodes the given {@link Base64} String into a byte array.
      *
@@ -76,6 +78,27 @@ public final class EidasStringUtil {
         return new String(bytes, Constants.UTF8);
     }
 
+    /**
+     * Returns whether the given value only contains ISO-8859-1 (Latin-1) characters, in which case it needs no
+     * transliterated version.
+     * <p>
+     * Latin-1 maps the first 256 code points one to one, so scanning the chars gives the same result as {@link
+     * java.nio.charset.CharsetEncoder#canEncode(CharSequence)} without the cost of the encoder, which cannot be shared
+     * between threads.
+     *
+     * @param value input value
+     * @return {@code true} if the value can be encoded in ISO-8859-1.
+     * @since 1.1
+     */
+    public static boolean isLatin1(@Nonnull CharSequence value) {
+        for (int i = 0, length = value.length(); i < length; i++) {
+            if (value.charAt(i) > LATIN_1_MAX_CHAR) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private EidasStringUtil() {
     }
 }
@@ -16,6 +16,10 @@ package eu.eidas.auth.commons.attribute;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -23,8 +27,11 @@ import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.xml.namespace.QName;
 
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 
 import org.slf4j.Logger;
@@ -46,6 +53,9 @@ import eu.eidas.util.Preconditions;
  * <p/>
  * If the configuration files are available inside a jar in the classpath, then they are loaded once and for all and
  * cannot be reloaded.
+ * <p/>
+ * Lookups are served from immutable indexes (by name, friendly name, person type, etc.) which are built once for each
+ * loaded content of the configuration files.
  *
  * @see AttributeSetPropertiesConverter
  * @since 1.1
@@ -72,13 +82,167 @@ public final class AttributeRegistry {
         boolean accept(@Nonnull AttributeDefinition<?> attributeDefinition);
     }
 
-    private static final AttributeDefinitionFilter ALL_FILTER = new AttributeDefinitionFilter() {
+    /**
+     * Immutable indexes of the attribute definitions returned by the accessors, built once per loaded content and
+     * rebuilt when an accessor returns another set (i.e. after a reload).
+     */
+    @Immutable
+    @ThreadSafe
+    private static final class AttributeIndex {
+
+        private static final ImmutableSortedSet<AttributeDefinition<?>> EMPTY =
+                ImmutableSortedSet.orderedBy(Ordering.<AttributeDefinition<?>>natural()).build();
+
+        private static <K> void addTo(@Nonnull Map<K, ImmutableSortedSet.Builder<AttributeDefinition<?>>> builders,
+                                      @Nonnull K key,
+                                      @Nonnull AttributeDefinition<?> attributeDefinition) {
+            ImmutableSortedSet.Builder<AttributeDefinition<?>> builder = builders.get(key);
+            if (null == builder) {
+                builder = new ImmutableSortedSet.Builder<>(Ordering.natural());
+                builders.put(key, builder);
+            }
+            builder.add(attributeDefinition);
+        }
+
+        @Nonnull
+        private static <K> ImmutableMap<K, ImmutableSortedSet<AttributeDefinition<?>>> build(
+                @Nonnull Map<K, ImmutableSortedSet.Builder<AttributeDefinition<?>>> builders) {
+            ImmutableMap.Builder<K, ImmutableSortedSet<AttributeDefinition<?>>> mapBuilder = ImmutableMap.builder();
+            for (final Map.Entry<K, ImmutableSortedSet.Builder<AttributeDefinition<?>>> entry : builders.entrySet()) {
+                mapBuilder.put(entry.getKey(), entry.getValue().build());
+            }
+            return mapBuilder.build();
+        }
+
+        @Nonnull
+        private static <K> ImmutableSortedSet<AttributeDefinition<?>> get(
+                @Nonnull ImmutableMap<K, ImmutableSortedSet<AttributeDefinition<?>>> index, @Nonnull K key) {
+            ImmutableSortedSet<AttributeDefinition<?>> attributeDefinitions = index.get(key);
+            return null == attributeDefinitions ? EMPTY : attributeDefinitions;
+        }
+
+        /**
+         * The sets returned by the accessors when this index was built (possibly {@code null}), compared by identity.
+         */
+        @Nonnull
+        private final Object[] sources;
+
+        @Nonnull
+        private final ImmutableSortedSet<AttributeDefinition<?>> attributes;
+
+        @Nonnull
+        private final ImmutableMap<String, AttributeDefinition<?>> byName;
+
+        @Nonnull
+        private final ImmutableMap<URI, AttributeDefinition<?>> byNameUri;
+
+        @Nonnull
+        private final ImmutableMap<String, ImmutableSortedSet<AttributeDefinition<?>>> byFriendlyName;
+
+        @Nonnull
+        private final ImmutableMap<PersonType, ImmutableSortedSet<AttributeDefinition<?>>> byPersonType;
+
+        @Nonnull
+        private final ImmutableMap<QName, ImmutableSortedSet<AttributeDefinition<?>>> byXmlType;
+
+        @Nonnull
+        private final ImmutableMap<Boolean, ImmutableSortedSet<AttributeDefinition<?>>> byRequired;
 
-        @Override
-        public boolean accept(@Nonnull AttributeDefinition<?> attributeDefinition) {
+        @Nonnull
+        private final ImmutableMap<Boolean, ImmutableSortedSet<AttributeDefinition<?>>> byTransliteration;
+
+        @Nonnull
+        private final ImmutableMap<Boolean, ImmutableSortedSet<AttributeDefinition<?>>> byUniqueIdentifier;
+
+        /**
+         * Results of the other filters, discarded with this index.
+         */
+        @Nonnull
+        private final ConcurrentMap<AttributeDefinitionFilter, ImmutableSortedSet<AttributeDefinition<?>>> byFilter =
+                CacheBuilder.newBuilder()
+                        .weakKeys()
+                        .<AttributeDefinitionFilter, ImmutableSortedSet<AttributeDefinition<?>>>build()
+                        .asMap();
+
+        @SuppressWarnings("unchecked")
+        AttributeIndex(@Nonnull Object[] sources) {
+            this.sources = sources;
+            if (sources.length == 1) {
+                attributes = null == sources[0] ? EMPTY : (ImmutableSortedSet<AttributeDefinition<?>>) sources[0];
+            } else {
+                ImmutableSortedSet.Builder<AttributeDefinition<?>> builder =
+                        new ImmutableSortedSet.Builder<>(Ordering.natural());
+                for (final Object source : sources) {
+                    if (null != source) {
+                        builder.addAll((ImmutableSortedSet<AttributeDefinition<?>>) source);
+                    }
+                }
+                attributes = builder.build();
+            }
+            Map<String, AttributeDefinition<?>> names = new LinkedHashMap<>();
+            Map<URI, AttributeDefinition<?>> nameUris = new LinkedHashMap<>();
+            Map<String, ImmutableSortedSet.Builder<AttributeDefinition<?>>> friendlyNames = new LinkedHashMap<>();
+            Map<PersonType, ImmutableSortedSet.Builder<AttributeDefinition<?>>> personTypes =
+                    new EnumMap<>(PersonType.class);
+            Map<QName, ImmutableSortedSet.Builder<AttributeDefinition<?>>> xmlTypes = new LinkedHashMap<>();
+            Map<Boolean, ImmutableSortedSet.Builder<AttributeDefinition<?>>> required = new LinkedHashMap<>();
+            Map<Boolean, ImmutableSortedSet.Builder<AttributeDefinition<?>>> transliteration = new LinkedHashMap<>();
+            Map<Boolean, ImmutableSortedSet.Builder<AttributeDefinition<?>>> uniqueIdentifier = new LinkedHashMap<>();
+            for (final AttributeDefinition<?> attributeDefinition : attributes) {
+                URI nameUri = attributeDefinition.getNameUri();
+                // the first definition in the natural order wins, as with a scan of the sorted set
+                if (!nameUris.containsKey(nameUri)) {
+                    nameUris.put(nameUri, attributeDefinition);
+                    names.put(nameUri.toString(), attributeDefinition);
+                }
+                addTo(friendlyNames, attributeDefinition.getFriendlyName(), attributeDefinition);
+                addTo(personTypes, attributeDefinition.getPersonType(), attributeDefinition);
+                addTo(xmlTypes, attributeDefinition.getXmlType(), attributeDefinition);
+                addTo(required, attributeDefinition.isRequired(), attributeDefinition);
+                addTo(transliteration, attributeDefinition.isTransliterationMandatory(), attributeDefinition);
+                addTo(uniqueIdentifier, attributeDefinition.isUniqueIdentifier(), attributeDefinition);
+            }
+            byName = ImmutableMap.copyOf(names);
+            byNameUri = ImmutableMap.copyOf(nameUris);
+            byFriendlyName = build(friendlyNames);
+            byPersonType = Maps.immutableEnumMap(build(personTypes));
+            byXmlType = build(xmlTypes);
+            byRequired = build(required);
+            byTransliteration = build(transliteration);
+            byUniqueIdentifier = build(uniqueIdentifier);
+        }
+
+        boolean isUpToDate(
+                @Nonnull ImmutableList<? extends SingletonAccessor<ImmutableSortedSet<AttributeDefinition<?>>>> accessors)
+                throws IOException {
+            if (accessors.size() != sources.length) {
+                return false;
+            }
+            for (int i = 0; i < sources.length; i++) {
+                if (accessors.get(i).get() != sources[i]) {
+                    return false;
+                }
+            }
             return true;
         }
-    };
+
+        @Nonnull
+        ImmutableSortedSet<AttributeDefinition<?>> getByFilter(@Nonnull AttributeDefinitionFilter filter) {
+            ImmutableSortedSet<AttributeDefinition<?>> result = byFilter.get(filter);
+            if (null == result) {
+                ImmutableSortedSet.Builder<AttributeDefinition<?>> builder =
+                        new ImmutableSortedSet.Builder<>(Ordering.natural());
+                for (final AttributeDefinition<?> attributeDefinition : attributes) {
+                    if (filter.accept(attributeDefinition)) {
+                        builder.add(attributeDefinition);
+                    }
+                }
+                result = builder.build();
+                byFilter.put(filter, result);
+            }
+            return result;
+        }
+    }
 
     /**
      * Logger object.
@@ -87,6 +251,9 @@ public final class AttributeRegistry {
 
     private final AttributeDefinitionDao attributeDefinitionDao;
 
+    @Nullable
+    private volatile AttributeIndex index;
+
     /**
      * Creates an attribute registry based on the given {@link SingletonAccessor}s.
      *
@@ -109,144 +276,100 @@ public final class AttributeRegistry {
      */
     public boolean contains(@Nonnull AttributeDefinition<?> attributeDefinition) {
         Preconditions.checkNotNull(attributeDefinition, "attributeDefinition");
-        try {
-            for (final SingletonAccessor<ImmutableSortedSet<AttributeDefinition<?>>> accessor : getAccessors()) {
-                ImmutableSortedSet<AttributeDefinition<?>> attributeDefinitions = accessor.get();
-                if (null != attributeDefinitions && attributeDefinitions.contains(attributeDefinition)) {
-                    return true;
-                }
-            }
-        } catch (IOException ioe) {
-            throw new InternalErrorEIDASException(EidasErrorKey.INTERNAL_ERROR.errorCode(),ioe.getMessage(),ioe);
-        }
-        return false;
+        return getIndex().attributes.contains(attributeDefinition);
     }
 
     private ImmutableList<? extends SingletonAccessor<ImmutableSortedSet<AttributeDefinition<?>>>> getAccessors() {
         return attributeDefinitionDao.getAttributeDefinitionAccessors();
     }
 
+    /**
+     * Returns the index of the attribute definitions currently returned by the accessors, rebuilding it when they have
+     * been reloaded.
+     */
     @Nonnull
-    public ImmutableSortedSet<AttributeDefinition<?>> getAttributes() {
+    private AttributeIndex getIndex() {
         try {
             ImmutableList<? extends SingletonAccessor<ImmutableSortedSet<AttributeDefinition<?>>>> accessors =
                     getAccessors();
-            if (accessors.size() == 1) {
-                return accessors.get(0).get();
+            AttributeIndex currentIndex = index;
+            if (null != currentIndex && currentIndex.isUpToDate(accessors)) {
+                return currentIndex;
+            }
+            Object[] sources = new Object[accessors.size()];
+            for (int i = 0; i < sources.length; i++) {
+                sources[i] = accessors.get(i).get();
             }
-            return getByFilter(ALL_FILTER);
+            // concurrent rebuilds are harmless: the indexes are equivalent
+            AttributeIndex newIndex = new AttributeIndex(sources);
+            index = newIndex;
+            return newIndex;
         } catch (IOException ioe) {
             throw new InternalErrorEIDASException(EidasErrorKey.INTERNAL_ERROR.errorCode(),ioe.getMessage(),ioe);
         }
     }
 
+    @Nonnull
+    public ImmutableSortedSet<AttributeDefinition<?>> getAttributes() {
+        return getIndex().attributes;
+    }
+
     @Nonnull
     public ImmutableSortedSet<AttributeDefinition<?>> getByFilter(@Nonnull AttributeDefinitionFilter filter) {
         Preconditions.checkNotNull(filter, "filter");
-        try {
-            ImmutableSortedSet.Builder<AttributeDefinition<?>> builder =
-                    new ImmutableSortedSet.Builder<>(Ordering.natural());
-            for (final SingletonAccessor<ImmutableSortedSet<AttributeDefinition<?>>> accessor : getAccessors()) {
-                ImmutableSortedSet<AttributeDefinition<?>> attributeDefinitions = accessor.get();
-                if (null != attributeDefinitions) {
-                    for (final AttributeDefinition<?> attributeDefinition : attributeDefinitions) {
-                        if (filter.accept(attributeDefinition)) {
-                            builder.add(attributeDefinition);
-                        }
-                    }
-                }
-            }
-            return builder.build();
-        } catch (IOException ioe) {
-            throw new InternalErrorEIDASException(EidasErrorKey.INTERNAL_ERROR.errorCode(),ioe.getMessage(),ioe);
-        }
+        return getIndex().getByFilter(filter);
     }
 
     @Nonnull
-    public ImmutableSortedSet<AttributeDefinition<?>> getByFriendlyName(@Nonnull final String friendlyName) {
-        return getByFilter(new AttributeDefinitionFilter() {
-
-            @Override
-            public boolean accept(@Nonnull AttributeDefinition attributeDefinition) {
-                return attributeDefinition.getFriendlyName().equals(friendlyName);
-            }
-        });
+    public ImmutableSortedSet<AttributeDefinition<?>> getByFriendlyName(@Nonnull String friendlyName) {
+        return AttributeIndex.get(getIndex().byFriendlyName, friendlyName);
     }
 
     @Nullable
     public AttributeDefinition<?> getByName(@Nonnull String name) {
+        AttributeIndex currentIndex = getIndex();
+        AttributeDefinition<?> attributeDefinition = currentIndex.byName.get(name);
+        if (null != attributeDefinition) {
+            return attributeDefinition;
+        }
+        // not the exact string form of a registered name: compare as URIs
         URI nameUri;
         try {
             nameUri = new URI(name);
         } catch (URISyntaxException use) {
             throw new IllegalArgumentException("Invalid name URI \"" + name + "\": " + use, use);
         }
-        return getByName(nameUri);
+        return currentIndex.byNameUri.get(nameUri);
     }
 
     @Nullable
     public AttributeDefinition<?> getByName(@Nonnull URI nameUri) {
-        for (final AttributeDefinition attribute : getAttributes()) {
-            if (attribute.getNameUri().equals(nameUri)) {
-                return attribute;
-            }
-        }
-        return null;
+        return getIndex().byNameUri.get(nameUri);
     }
 
     @Nonnull
-    public ImmutableSortedSet<AttributeDefinition<?>> getByPersonType(@Nonnull final PersonType type) {
-        return getByFilter(new AttributeDefinitionFilter() {
-
-            @Override
-            public boolean accept(@Nonnull AttributeDefinition attributeDefinition) {
-                return attributeDefinition.getPersonType() == type;
-            }
-        });
+    public ImmutableSortedSet<AttributeDefinition<?>> getByPersonType(@Nonnull PersonType type) {
+        return AttributeIndex.get(getIndex().byPersonType, type);
     }
 
     @Nonnull
-    public ImmutableSortedSet<AttributeDefinition<?>> getByRequired(final boolean required) {
-        return getByFilter(new AttributeDefinitionFilter() {
-
-            @Override
-            public boolean accept(@Nonnull AttributeDefinition attributeDefinition) {
-                return attributeDefinition.isRequired() == required;
-            }
-        });
+    public ImmutableSortedSet<AttributeDefinition<?>> getByRequired(boolean required) {
+        return AttributeIndex.get(getIndex().byRequired, required);
     }
 
     @Nonnull
-    public ImmutableSortedSet<AttributeDefinition<?>> getByTransliteration(final boolean isTransliterationMandatory) {
-        return getByFilter(new AttributeDefinitionFilter() {
-
-            @Override
-            public boolean accept(@Nonnull AttributeDefinition attributeDefinition) {
-                return attributeDefinition.isTransliterationMandatory() == isTransliterationMandatory;
-            }
-        });
+    public ImmutableSortedSet<AttributeDefinition<?>> getByTransliteration(boolean isTransliterationMandatory) {
+        return AttributeIndex.get(getIndex().byTransliteration, isTransliterationMandatory);
     }
 
     @Nonnull
-    public ImmutableSortedSet<AttributeDefinition<?>> getByUniqueIdentifier(final boolean isUniqueIdentifier) {
-        return getByFilter(new AttributeDefinitionFilter() {
-
-            @Override
-            public boolean accept(@Nonnull AttributeDefinition attributeDefinition) {
-                return attributeDefinition.isUniqueIdentifier() == isUniqueIdentifier;
-            }
-        });
+    public ImmutableSortedSet<AttributeDefinition<?>> getByUniqueIdentifier(boolean isUniqueIdentifier) {
+        return AttributeIndex.get(getIndex().byUniqueIdentifier, isUniqueIdentifier);
     }
 
     @Nonnull
-    public ImmutableSortedSet<AttributeDefinition<?>> getByXmlType(@Nonnull final QName xmlType) {
-        return getByFilter(new AttributeDefinitionFilter() {
-
-            @Override
-            public boolean accept(@Nonnull AttributeDefinition attributeDefinition) {
-                return attributeDefinition.getXmlType().equals(xmlType);
-            }
-        });
+    public ImmutableSortedSet<AttributeDefinition<?>> getByXmlType(@Nonnull QName xmlType) {
+        return AttributeIndex.get(getIndex().byXmlType, xmlType);
     }
 
     private void logRetrievedAttributes() {
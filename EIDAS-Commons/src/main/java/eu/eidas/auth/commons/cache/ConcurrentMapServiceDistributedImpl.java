@@ -1,23 +1,43 @@
 package eu.eidas.auth.commons.cache;
 
-import com.hazelcast.config.ClasspathXmlConfig;
 import com.hazelcast.config.Config;
 import com.hazelcast.config.MapConfig;
-import com.hazelcast.core.Hazelcast;
+import com.hazelcast.config.MaxSizeConfig;
+import com.hazelcast.config.NearCacheConfig;
 import com.hazelcast.core.HazelcastInstance;
 import eu.eidas.auth.commons.exceptions.InvalidParameterEIDASException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.util.concurrent.ConcurrentMap;
 
 /**
  * Hazelcast Distributed hashMap implementation of the cache provider.
+ * <p>
+ * All the services configured with the same Hazelcast configuration file share a single Hazelcast instance, which each
+ * service acquires on its first use and releases in {@link #destroy()}: the instance is shut down once no service uses
+ * it anymore. The service is {@link Closeable} so that a Spring container calls {@link #close()} when it is destroyed;
+ * otherwise {@code destroy-method="destroy"} must be declared on the bean.
+ * <p>
+ * The time-to-live, max-idle, max-size and near-cache settings apply to the map named {@code cacheName}; when not set,
+ * the values of the Hazelcast configuration file are kept. Hazelcast reads the configuration of a map when the map is
+ * first created, and only on the local member: the settings are therefore ignored (with a warning) when the map has
+ * already been created in the cluster before this service is first used, and all the members of a cluster must
+ * configure the same settings for the same map. Settings which must hold from the start of the cluster belong in the
+ * Hazelcast configuration file.
  */
-public class ConcurrentMapServiceDistributedImpl implements ConcurrentMapService {
+public class ConcurrentMapServiceDistributedImpl implements ConcurrentMapService, Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(ConcurrentMapServiceDistributedImpl.class.getName());
     private String cacheName;
     private String hazelcastXmlConfigClassPathFileName;
+    private Integer timeToLiveSeconds;
+    private Integer maxIdleSeconds;
+    private Integer maxSize;
+    private boolean nearCacheEnabled;
+    private Integer nearCacheTimeToLiveSeconds;
+    private Integer nearCacheMaxSize;
+    private HazelcastInstance instance;
 
     public void setCacheName(String cacheName) {
         this.cacheName = cacheName;
@@ -27,23 +47,98 @@ public class ConcurrentMapServiceDistributedImpl implements ConcurrentMapService
         this.hazelcastXmlConfigClassPathFileName = hazelcastXmlConfigClassPathFileName;
     }
 
+    public void setTimeToLiveSeconds(Integer timeToLiveSeconds) {
+        this.timeToLiveSeconds = timeToLiveSeconds;
+    }
+
+    public void setMaxIdleSeconds(Integer maxIdleSeconds) {
+        this.maxIdleSeconds = maxIdleSeconds;
+    }
+
+    public void setMaxSize(Integer maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Enables a near-cache on the map, for read-mostly maps whose entries are looked up on the member which did not
+     * store them.
+     */
+    public void setNearCacheEnabled(boolean nearCacheEnabled) {
+        this.nearCacheEnabled = nearCacheEnabled;
+    }
+
+    public void setNearCacheTimeToLiveSeconds(Integer nearCacheTimeToLiveSeconds) {
+        this.nearCacheTimeToLiveSeconds = nearCacheTimeToLiveSeconds;
+    }
+
+    public void setNearCacheMaxSize(Integer nearCacheMaxSize) {
+        this.nearCacheMaxSize = nearCacheMaxSize;
+    }
+
     @Override
     public ConcurrentMap getNewMapCache() {
         if (cacheName == null) {
             throw new InvalidParameterEIDASException("Distributed Cache Configuration mismatch");
         }
-        Config cfg;
-        if (hazelcastXmlConfigClassPathFileName != null) {
-            LOG.trace("loading hazelcast config from " + hazelcastXmlConfigClassPathFileName);
-            cfg = new ClasspathXmlConfig(hazelcastXmlConfigClassPathFileName);
-        } else {
-            LOG.trace("loading hazelcast config from <DEFAULT>");
-            cfg = new Config();
+        return getInstance().getMap(this.cacheName);
+    }
+
+    synchronized HazelcastInstance getInstance() {
+        if (instance == null || !instance.getLifecycleService().isRunning()) {
+            instance = HazelcastInstances.acquire(hazelcastXmlConfigClassPathFileName, this);
+        }
+        return instance;
+    }
+
+    /**
+     * Releases the shared Hazelcast instance used by the maps returned by this service, to be called when the
+     * application stops (e.g. as the destroy-method of the bean).
+     */
+    public synchronized void destroy() {
+        if (instance != null) {
+            instance = null;
+            HazelcastInstances.release(hazelcastXmlConfigClassPathFileName);
         }
-        MapConfig mapCfg = new MapConfig();
+    }
+
+    /**
+     * Same as {@link #destroy()}.
+     */
+    @Override
+    public void close() {
+        destroy();
+    }
+
+    String getCacheName() {
+        return cacheName;
+    }
+
+    void configureMap(Config config) {
+        MapConfig baseConfig = config.getMapConfig(cacheName);
+        MapConfig mapCfg = cacheName.equals(baseConfig.getName()) ? baseConfig : new MapConfig(baseConfig);
         mapCfg.setName(cacheName);
-        HazelcastInstance instance = Hazelcast.newHazelcastInstance(cfg);
-        cfg.addMapConfig(mapCfg);
-        return instance.getMap(this.cacheName);
+        if (timeToLiveSeconds != null) {
+            mapCfg.setTimeToLiveSeconds(timeToLiveSeconds);
+        }
+        if (maxIdleSeconds != null) {
+            mapCfg.setMaxIdleSeconds(maxIdleSeconds);
+        }
+        if (maxSize != null) {
+            mapCfg.setMaxSizeConfig(new MaxSizeConfig(maxSize, MaxSizeConfig.MaxSizePolicy.PER_NODE));
+            mapCfg.setEvictionPolicy(MapConfig.EvictionPolicy.LRU);
+        }
+        if (nearCacheEnabled) {
+            NearCacheConfig nearCacheCfg = new NearCacheConfig();
+            nearCacheCfg.setInvalidateOnChange(true);
+            if (nearCacheTimeToLiveSeconds != null) {
+                nearCacheCfg.setTimeToLiveSeconds(nearCacheTimeToLiveSeconds);
+            }
+            if (nearCacheMaxSize != null) {
+                nearCacheCfg.setMaxSize(nearCacheMaxSize);
+            }
+            mapCfg.setNearCacheConfig(nearCacheCfg);
+        }
+        LOG.trace("configuring hazelcast map " + cacheName);
+        config.addMapConfig(mapCfg);
     }
 }
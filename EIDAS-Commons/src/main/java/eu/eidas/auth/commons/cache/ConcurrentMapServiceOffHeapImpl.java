@@ -0,0 +1,140 @@
+package eu.eidas.auth.commons.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import eu.eidas.auth.commons.tx.AbstractStoredRequest;
+import eu.eidas.auth.commons.tx.StoredRequestCodec;
+
+/**
+ * Off-heap implementation of the cache provider, keeping the entries encoded in direct memory (see {@link
+ * OffHeapConcurrentMap}) so that large numbers of pending requests do not weigh on the garbage collector.
+ * <p>
+ * Entries expire {@code expireAfterWrite} seconds after they were put. The JVM must allow {@code maximumBytes} of
+ * direct memory per map (see {@code -XX:MaxDirectMemorySize}).
+ *
+ * @since 1.1
+ */
+public class ConcurrentMapServiceOffHeapImpl implements ConcurrentMapService {
+
+    /**
+     * Encodes the stored requests with the {@link StoredRequestCodec} and any other value with Java serialization.
+     */
+    private static final class DefaultValueCodec implements OffHeapConcurrentMap.ValueCodec<Object> {
+
+        private static final int SERIALIZED = 0;
+
+        private static final int STORED_REQUEST = 1;
+
+        @Nonnull
+        @Override
+        public byte[] encode(@Nonnull Object value) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            if (value instanceof AbstractStoredRequest) {
+                bytes.write(STORED_REQUEST);
+                bytes.write(StoredRequestCodec.getInstance().encode((AbstractStoredRequest<?>) value));
+            } else {
+                bytes.write(SERIALIZED);
+                try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+                    output.writeObject(value);
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        @Nonnull
+        @Override
+        public Object decode(@Nonnull byte[] bytes) throws IOException {
+            ByteArrayInputStream input = new ByteArrayInputStream(bytes);
+            int type = input.read();
+            if (type == STORED_REQUEST) {
+                byte[] encoded = new byte[bytes.length - 1];
+                System.arraycopy(bytes, 1, encoded, 0, encoded.length);
+                return StoredRequestCodec.getInstance().decode(encoded);
+            }
+            if (type != SERIALIZED) {
+                throw new IOException("Unsupported value type: " + type);
+            }
+            try (ObjectInputStream objectInput = new ObjectInputStream(input)) {
+                return objectInput.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+
+    private static final DefaultValueCodec VALUE_CODEC = new DefaultValueCodec();
+
+    private Long expireAfterWrite = 1800L;
+
+    private Long maximumSize = 1000000L;
+
+    private Long maximumBytes = 1024L * 1024L * 1024L;
+
+    private Integer concurrencyLevel = 16;
+
+    private final List<OffHeapConcurrentMap<Object>> maps = new CopyOnWriteArrayList<OffHeapConcurrentMap<Object>>();
+
+    @Override
+    public ConcurrentMap getNewMapCache() {
+        OffHeapConcurrentMap<Object> map =
+                new OffHeapConcurrentMap<Object>(VALUE_CODEC, getExpireAfterWrite(), TimeUnit.SECONDS,
+                                                 getMaximumSize(), getMaximumBytes(), getConcurrencyLevel());
+        maps.add(map);
+        return map;
+    }
+
+    /**
+     * @return the statistics of the maps created by this service, in their creation order.
+     */
+    @Nonnull
+    public List<OffHeapMapStatistics> getStatistics() {
+        List<OffHeapMapStatistics> statistics = new ArrayList<OffHeapMapStatistics>(maps.size());
+        for (OffHeapConcurrentMap<Object> map : maps) {
+            statistics.add(map.getStatistics());
+        }
+        return statistics;
+    }
+
+    public Long getExpireAfterWrite() {
+        return expireAfterWrite;
+    }
+
+    public void setExpireAfterWrite(Long expireAfterWrite) {
+        this.expireAfterWrite = expireAfterWrite;
+    }
+
+    public Long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public void setMaximumSize(Long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public Long getMaximumBytes() {
+        return maximumBytes;
+    }
+
+    public void setMaximumBytes(Long maximumBytes) {
+        this.maximumBytes = maximumBytes;
+    }
+
+    public Integer getConcurrencyLevel() {
+        return concurrencyLevel;
+    }
+
+    public void setConcurrencyLevel(Integer concurrencyLevel) {
+        this.concurrencyLevel = concurrencyLevel;
+    }
+}
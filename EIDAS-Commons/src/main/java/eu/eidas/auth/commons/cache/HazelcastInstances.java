@@ -0,0 +1,139 @@
+package eu.eidas.auth.commons.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.hazelcast.config.ClasspathXmlConfig;
+import com.hazelcast.config.Config;
+import com.hazelcast.core.DistributedObject;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hazelcast instances shared by all the distributed maps configured with the same Hazelcast configuration file.
+ * <p>
+ * An instance is started when the first map needing it is acquired and is shut down when the last map using it is
+ * released, so that the JVM runs a single cluster member per configuration instead of one per map.
+ *
+ * @since 1.1
+ */
+@ThreadSafe
+final class HazelcastInstances {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HazelcastInstances.class);
+
+    private static final String DEFAULT_CONFIG_KEY = "<DEFAULT>";
+
+    private static final class SharedInstance {
+
+        @Nonnull
+        private final HazelcastInstance instance;
+
+        private int references;
+
+        SharedInstance(@Nonnull HazelcastInstance instance) {
+            this.instance = instance;
+        }
+    }
+
+    @GuardedBy("INSTANCES")
+    private static final Map<String, SharedInstance> INSTANCES = new HashMap<String, SharedInstance>();
+
+    /**
+     * Returns the instance for the given configuration file, starting it if needed, with the map configuration of the
+     * given service applied before the map is first used. The configuration of a map which already exists in the
+     * cluster is left unchanged: Hazelcast would not apply it anyway.
+     * <p>
+     * Each call must be balanced by one call to {@link #release(String)}.
+     *
+     * @param xmlConfigClassPathFileName the classpath Hazelcast configuration file or {@code null} for the default
+     * configuration
+     * @param mapService the service about to use a map of the instance
+     * @return the shared instance
+     */
+    @Nonnull
+    static HazelcastInstance acquire(@Nullable String xmlConfigClassPathFileName,
+                                     @Nonnull ConcurrentMapServiceDistributedImpl mapService) {
+        String key = null == xmlConfigClassPathFileName ? DEFAULT_CONFIG_KEY : xmlConfigClassPathFileName;
+        synchronized (INSTANCES) {
+            SharedInstance sharedInstance = INSTANCES.get(key);
+            if (null == sharedInstance || !sharedInstance.instance.getLifecycleService().isRunning()) {
+                Config config = newConfig(xmlConfigClassPathFileName);
+                // map configurations must be known before the member joins the cluster to apply to its partitions
+                mapService.configureMap(config);
+                LOG.info("Starting the shared Hazelcast instance for " + key);
+                sharedInstance = new SharedInstance(Hazelcast.newHazelcastInstance(config));
+                INSTANCES.put(key, sharedInstance);
+            } else if (isMapCreated(sharedInstance.instance, mapService.getCacheName())) {
+                LOG.warn("The Hazelcast map " + mapService.getCacheName()
+                                 + " already exists, its settings are kept and the ones of the service are ignored");
+            } else {
+                // the map is not created yet, so the configuration still applies to it on this member
+                mapService.configureMap(sharedInstance.instance.getConfig());
+            }
+            sharedInstance.references++;
+            return sharedInstance.instance;
+        }
+    }
+
+    /**
+     * Releases an instance previously acquired, shutting it down when it is no longer used by any map.
+     *
+     * @param xmlConfigClassPathFileName the classpath Hazelcast configuration file or {@code null} for the default
+     * configuration
+     */
+    static void release(@Nullable String xmlConfigClassPathFileName) {
+        String key = null == xmlConfigClassPathFileName ? DEFAULT_CONFIG_KEY : xmlConfigClassPathFileName;
+        synchronized (INSTANCES) {
+            SharedInstance sharedInstance = INSTANCES.get(key);
+            if (null == sharedInstance) {
+                return;
+            }
+            sharedInstance.references--;
+            if (sharedInstance.references <= 0) {
+                INSTANCES.remove(key);
+                LOG.info("Shutting down the shared Hazelcast instance for " + key);
+                sharedInstance.instance.getLifecycleService().shutdown();
+            }
+        }
+    }
+
+    /**
+     * Returns whether a map of the given name has already been created in the cluster of the given instance, in which
+     * case its configuration is not read anymore.
+     */
+    private static boolean isMapCreated(@Nonnull HazelcastInstance instance, @Nonnull String mapName) {
+        for (DistributedObject distributedObject : instance.getDistributedObjects()) {
+            if (distributedObject instanceof IMap && mapName.equals(distributedObject.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Nonnull
+    private static Config newConfig(@Nullable String xmlConfigClassPathFileName) {
+        Config config;
+        if (null != xmlConfigClassPathFileName) {
+            LOG.trace("loading hazelcast config from " + xmlConfigClassPathFileName);
+            config = new ClasspathXmlConfig(xmlConfigClassPathFileName);
+        } else {
+            LOG.trace("loading hazelcast config from <DEFAULT>");
+            config = new Config();
+        }
+        StoredRequestStreamSerializer.register(config.getSerializationConfig());
+        return config;
+    }
+
+    private HazelcastInstances() {
+    }
+}
@@ -0,0 +1,807 @@
+package eu.eidas.auth.commons.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.base.Ticker;
+
+import eu.eidas.util.Preconditions;
+
+/**
+ * {@link ConcurrentMap} keeping its entries encoded in direct (off-heap) memory, for maps holding so many entries that
+ * they would otherwise inflate the old generation of the heap.
+ * <p>
+ * The map is split into segments, each guarded by its own lock. A segment appends its records to a direct buffer and
+ * only keeps on the heap an open-addressing index of one {@code long} per slot plus the heads of a hashed timer wheel
+ * whose lists are linked inside the records, so that an entry costs a few bytes of heap. When its end is reached, the
+ * buffer is compacted in place, or copied into a larger one up to its maximum size.
+ * <p>
+ * Entries expire a fixed time after they were written. Expired entries are never returned and are removed by the timer
+ * wheel as the time advances, during write operations or {@link #cleanUp()}. When a segment is full, the entries
+ * closest to their expiry are evicted first.
+ * <p>
+ * Values are encoded with a {@link ValueCodec} on write and decoded on every read, so the returned values are copies of
+ * the ones which were put. The views of the map are snapshots.
+ *
+ * @param <V> the type of the values
+ * @since 1.1
+ */
+@ThreadSafe
+public final class OffHeapConcurrentMap<V> extends AbstractMap<String, V> implements ConcurrentMap<String, V> {
+
+    /**
+     * Encodes the values of an {@link OffHeapConcurrentMap}.
+     *
+     * @param <V> the type of the values
+     */
+    public interface ValueCodec<V> {
+
+        @Nonnull
+        byte[] encode(@Nonnull V value) throws IOException;
+
+        @Nonnull
+        V decode(@Nonnull byte[] bytes) throws IOException;
+    }
+
+    private static final int MAX_SEGMENTS = 1 << 16;
+
+    private static final int MAX_SEGMENT_BYTES = 1 << 30;
+
+    private static final int INITIAL_SEGMENT_BYTES = 64 * 1024;
+
+    private static final int COMPACTION_CHUNK_BYTES = 4 * 1024;
+
+    private static final int INITIAL_TABLE_LENGTH = 16;
+
+    private static final int WHEEL_SIZE = 1024;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    // record layout: key length (bitwise complement once removed), value length, expiry, next and previous records in
+    // the timer wheel bucket (offsets plus one, 0 for none), key hash, key bytes and value bytes
+
+    private static final int KEY_LENGTH = 0;
+
+    private static final int VALUE_LENGTH = 4;
+
+    private static final int EXPIRES_AT = 8;
+
+    private static final int NEXT = 16;
+
+    private static final int PREVIOUS = 20;
+
+    private static final int HASH = 24;
+
+    private static final int HEADER_LENGTH = 28;
+
+    @Nonnull
+    private final ValueCodec<V> valueCodec;
+
+    @Nonnull
+    private final Ticker ticker;
+
+    private final long originNanos;
+
+    private final long expireAfterWriteMillis;
+
+    private final long tickMillis;
+
+    private final int segmentShift;
+
+    @Nonnull
+    private final Segment[] segments;
+
+    /**
+     * @param valueCodec the codec of the values
+     * @param expireAfterWrite the time after which an entry expires once written
+     * @param unit the unit of {@code expireAfterWrite}
+     * @param maximumSize the maximum number of entries
+     * @param maximumBytes the maximum number of off-heap bytes
+     * @param concurrencyLevel the expected number of threads updating the map concurrently
+     */
+    public OffHeapConcurrentMap(@Nonnull ValueCodec<V> valueCodec,
+                                long expireAfterWrite,
+                                @Nonnull TimeUnit unit,
+                                long maximumSize,
+                                long maximumBytes,
+                                int concurrencyLevel) {
+        this(valueCodec, expireAfterWrite, unit, maximumSize, maximumBytes, concurrencyLevel, Ticker.systemTicker());
+    }
+
+    OffHeapConcurrentMap(@Nonnull ValueCodec<V> valueCodec,
+                         long expireAfterWrite,
+                         @Nonnull TimeUnit unit,
+                         long maximumSize,
+                         long maximumBytes,
+                         int concurrencyLevel,
+                         @Nonnull Ticker ticker) {
+        Preconditions.checkNotNull(valueCodec, "valueCodec");
+        Preconditions.checkNotNull(unit, "unit");
+        Preconditions.checkNotNull(ticker, "ticker");
+        if (expireAfterWrite <= 0L || maximumSize <= 0L || maximumBytes <= 0L || concurrencyLevel <= 0) {
+            throw new IllegalArgumentException(
+                    "expireAfterWrite, maximumSize, maximumBytes and concurrencyLevel must be positive");
+        }
+        this.valueCodec = valueCodec;
+        this.ticker = ticker;
+        originNanos = ticker.read();
+        expireAfterWriteMillis = Math.max(1L, unit.toMillis(expireAfterWrite));
+        // an entry never expires more than one rotation of the wheel after the time it is written
+        tickMillis = Math.max(1L, (expireAfterWriteMillis + WHEEL_SIZE - 2L) / (WHEEL_SIZE - 1L));
+        int segmentCount = 1;
+        int shift = 0;
+        while (segmentCount < Math.min(concurrencyLevel, MAX_SEGMENTS)) {
+            segmentCount <<= 1;
+            shift++;
+        }
+        segmentShift = 32 - shift;
+        int maxEntries = (int) Math.min(Integer.MAX_VALUE, (maximumSize + segmentCount - 1L) / segmentCount);
+        int maxBytes = (int) Math.min(MAX_SEGMENT_BYTES, Math.max(HEADER_LENGTH, maximumBytes / segmentCount));
+        long now = currentTimeMillis();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Segment[] newSegments = (Segment[]) new OffHeapConcurrentMap.Segment[segmentCount];
+        segments = newSegments;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(maxEntries, maxBytes, now);
+        }
+    }
+
+    private static int hash(@Nonnull String key) {
+        Preconditions.checkNotNull(key, "key");
+        // spreads the bits of the String hash code which only differ in their high bits
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Nonnull
+    private static byte[] keyBytes(@Nonnull Object key) {
+        return ((String) key).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private long currentTimeMillis() {
+        // relative to the creation of the map so that the ticks of the timer wheel are never negative
+        return TimeUnit.NANOSECONDS.toMillis(ticker.read() - originNanos);
+    }
+
+    @Nonnull
+    private Segment segmentFor(int hash) {
+        return segments[segmentShift == 32 ? 0 : hash >>> segmentShift];
+    }
+
+    @Nonnull
+    private byte[] encode(@Nonnull V value) {
+        Preconditions.checkNotNull(value, "value");
+        try {
+            return valueCodec.encode(value);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot encode value: " + e, e);
+        }
+    }
+
+    @Nullable
+    private V decode(@Nullable byte[] bytes) {
+        if (null == bytes) {
+            return null;
+        }
+        try {
+            return valueCodec.decode(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot decode value: " + e, e);
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int hash = hash((String) key);
+        return decode(segmentFor(hash).get(keyBytes(key), hash));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof String)) {
+            return false;
+        }
+        int hash = hash((String) key);
+        return segmentFor(hash).containsKey(keyBytes(key), hash);
+    }
+
+    @Override
+    public V put(String key, V value) {
+        int hash = hash(key);
+        return decode(segmentFor(hash).put(keyBytes(key), hash, encode(value), false));
+    }
+
+    @Override
+    public V putIfAbsent(String key, V value) {
+        int hash = hash(key);
+        return decode(segmentFor(hash).put(keyBytes(key), hash, encode(value), true));
+    }
+
+    @Override
+    public V remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int hash = hash((String) key);
+        return decode(segmentFor(hash).remove(keyBytes(key), hash));
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        if (!(key instanceof String) || null == value) {
+            return false;
+        }
+        int hash = hash((String) key);
+        return segmentFor(hash).replace(keyBytes(key), hash, value, null);
+    }
+
+    @Override
+    public boolean replace(String key, V oldValue, V newValue) {
+        Preconditions.checkNotNull(oldValue, "oldValue");
+        int hash = hash(key);
+        return segmentFor(hash).replace(keyBytes(key), hash, oldValue, encode(newValue));
+    }
+
+    @Override
+    public V replace(String key, V value) {
+        int hash = hash(key);
+        return decode(segmentFor(hash).replace(keyBytes(key), hash, encode(value)));
+    }
+
+    @Override
+    public int size() {
+        long size = 0L;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the live entries of the map.
+     *
+     * @return an unmodifiable snapshot of the entries
+     */
+    @Nonnull
+    @Override
+    public Set<Entry<String, V>> entrySet() {
+        Map<String, V> snapshot = new LinkedHashMap<String, V>();
+        List<byte[]> records = new ArrayList<byte[]>();
+        for (Segment segment : segments) {
+            records.clear();
+            segment.collect(records);
+            for (int i = 0; i < records.size(); i += 2) {
+                snapshot.put(new String(records.get(i), StandardCharsets.UTF_8), decode(records.get(i + 1)));
+            }
+        }
+        return Collections.unmodifiableMap(snapshot).entrySet();
+    }
+
+    /**
+     * Removes the expired entries.
+     */
+    public void cleanUp() {
+        for (Segment segment : segments) {
+            segment.cleanUp();
+        }
+    }
+
+    /**
+     * @return a snapshot of the statistics of this map.
+     */
+    @Nonnull
+    public OffHeapMapStatistics getStatistics() {
+        long[] totals = new long[7];
+        for (Segment segment : segments) {
+            segment.addStatistics(totals);
+        }
+        return new OffHeapMapStatistics(totals[0], totals[1], totals[2], totals[3], totals[4], totals[5], totals[6]);
+    }
+
+    private final class Segment {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final int maxEntries;
+
+        private final int maxBytes;
+
+        @GuardedBy("lock")
+        private ByteBuffer buffer;
+
+        @GuardedBy("lock")
+        private int writeOffset;
+
+        @GuardedBy("lock")
+        private int deadBytes;
+
+        @GuardedBy("lock")
+        private long[] table = new long[INITIAL_TABLE_LENGTH];
+
+        @GuardedBy("lock")
+        private int count;
+
+        @GuardedBy("lock")
+        private final int[] wheel = new int[WHEEL_SIZE];
+
+        @GuardedBy("lock")
+        private long sweptTick;
+
+        @GuardedBy("lock")
+        private long hitCount;
+
+        @GuardedBy("lock")
+        private long missCount;
+
+        @GuardedBy("lock")
+        private long evictionCount;
+
+        @GuardedBy("lock")
+        private long expirationCount;
+
+        Segment(int maxEntries, int maxBytes, long now) {
+            this.maxEntries = maxEntries;
+            this.maxBytes = maxBytes;
+            buffer = ByteBuffer.allocateDirect(Math.min(INITIAL_SEGMENT_BYTES, maxBytes));
+            sweptTick = now / tickMillis - 1L;
+        }
+
+        @Nullable
+        byte[] get(@Nonnull byte[] keyBytes, int hash) {
+            lock.lock();
+            try {
+                int slot = findLive(keyBytes, hash, currentTimeMillis());
+                if (slot < 0) {
+                    missCount++;
+                    return null;
+                }
+                hitCount++;
+                return readValue(offsetAt(slot));
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        boolean containsKey(@Nonnull byte[] keyBytes, int hash) {
+            lock.lock();
+            try {
+                return findLive(keyBytes, hash, currentTimeMillis()) >= 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Nullable
+        byte[] put(@Nonnull byte[] keyBytes, int hash, @Nonnull byte[] valueBytes, boolean onlyIfAbsent) {
+            lock.lock();
+            try {
+                long now = currentTimeMillis();
+                expire(now);
+                int slot = findLive(keyBytes, hash, now);
+                byte[] previous = null;
+                if (slot >= 0) {
+                    previous = readValue(offsetAt(slot));
+                    if (onlyIfAbsent) {
+                        return previous;
+                    }
+                    removeSlot(slot);
+                }
+                insert(keyBytes, hash, valueBytes, now);
+                return previous;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Nullable
+        byte[] replace(@Nonnull byte[] keyBytes, int hash, @Nonnull byte[] valueBytes) {
+            lock.lock();
+            try {
+                long now = currentTimeMillis();
+                expire(now);
+                int slot = findLive(keyBytes, hash, now);
+                if (slot < 0) {
+                    return null;
+                }
+                byte[] previous = readValue(offsetAt(slot));
+                removeSlot(slot);
+                insert(keyBytes, hash, valueBytes, now);
+                return previous;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Replaces the value of the key, or removes the key when {@code valueBytes} is {@code null}, if its current
+         * value equals {@code expected}.
+         */
+        boolean replace(@Nonnull byte[] keyBytes, int hash, @Nonnull Object expected, @Nullable byte[] valueBytes) {
+            lock.lock();
+            try {
+                long now = currentTimeMillis();
+                expire(now);
+                int slot = findLive(keyBytes, hash, now);
+                if (slot < 0 || !expected.equals(decode(readValue(offsetAt(slot))))) {
+                    return false;
+                }
+                removeSlot(slot);
+                if (null != valueBytes) {
+                    insert(keyBytes, hash, valueBytes, now);
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Nullable
+        byte[] remove(@Nonnull byte[] keyBytes, int hash) {
+            lock.lock();
+            try {
+                long now = currentTimeMillis();
+                expire(now);
+                int slot = findLive(keyBytes, hash, now);
+                if (slot < 0) {
+                    return null;
+                }
+                byte[] previous = readValue(offsetAt(slot));
+                removeSlot(slot);
+                return previous;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                expire(currentTimeMillis());
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                writeOffset = 0;
+                deadBytes = 0;
+                count = 0;
+                Arrays.fill(table, 0L);
+                Arrays.fill(wheel, 0);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void cleanUp() {
+            lock.lock();
+            try {
+                expire(currentTimeMillis());
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void collect(@Nonnull List<byte[]> records) {
+            lock.lock();
+            try {
+                long now = currentTimeMillis();
+                for (int offset = 0; offset < writeOffset; offset += recordLength(offset)) {
+                    int keyLength = buffer.getInt(offset + KEY_LENGTH);
+                    if (keyLength >= 0 && buffer.getLong(offset + EXPIRES_AT) > now) {
+                        records.add(readBytes(offset + HEADER_LENGTH, keyLength));
+                        records.add(readValue(offset));
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void addStatistics(@Nonnull long[] totals) {
+            lock.lock();
+            try {
+                totals[0] += hitCount;
+                totals[1] += missCount;
+                totals[2] += evictionCount;
+                totals[3] += expirationCount;
+                totals[4] += count;
+                totals[5] += writeOffset - deadBytes;
+                totals[6] += buffer.capacity();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private int offsetAt(int slot) {
+            return (int) table[slot] - 1;
+        }
+
+        private int recordLength(int offset) {
+            int keyLength = buffer.getInt(offset + KEY_LENGTH);
+            return HEADER_LENGTH + (keyLength < 0 ? ~keyLength : keyLength) + buffer.getInt(offset + VALUE_LENGTH);
+        }
+
+        @Nonnull
+        private byte[] readBytes(int position, int length) {
+            byte[] bytes = new byte[length];
+            ByteBuffer source = buffer.duplicate();
+            source.position(position);
+            source.get(bytes);
+            return bytes;
+        }
+
+        @Nonnull
+        private byte[] readValue(int offset) {
+            return readBytes(offset + HEADER_LENGTH + buffer.getInt(offset + KEY_LENGTH),
+                             buffer.getInt(offset + VALUE_LENGTH));
+        }
+
+        private boolean keyEquals(int offset, @Nonnull byte[] keyBytes) {
+            if (buffer.getInt(offset + KEY_LENGTH) != keyBytes.length) {
+                return false;
+            }
+            int start = offset + HEADER_LENGTH;
+            for (int i = 0; i < keyBytes.length; i++) {
+                if (buffer.get(start + i) != keyBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Returns the slot of the key if it is live, removing it if it expired.
+         */
+        private int findLive(@Nonnull byte[] keyBytes, int hash, long now) {
+            int mask = table.length - 1;
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                long entry = table[slot];
+                if (0L == entry) {
+                    return -1;
+                }
+                if ((int) (entry >>> 32) == hash && keyEquals((int) entry - 1, keyBytes)) {
+                    if (buffer.getLong((int) entry - 1 + EXPIRES_AT) <= now) {
+                        removeSlot(slot);
+                        expirationCount++;
+                        return -1;
+                    }
+                    return slot;
+                }
+            }
+        }
+
+        private int findSlot(int offset) {
+            int mask = table.length - 1;
+            long entry = ((long) buffer.getInt(offset + HASH) << 32) | (offset + 1L);
+            int slot = buffer.getInt(offset + HASH) & mask;
+            while (table[slot] != entry) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void addToIndex(int hash, int offset) {
+            int mask = table.length - 1;
+            int slot = hash & mask;
+            while (0L != table[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = ((long) hash << 32) | (offset + 1L);
+        }
+
+        private void removeFromIndex(int slot) {
+            // backward shift deletion keeps the probe sequences of linear probing without tombstones
+            int mask = table.length - 1;
+            int hole = slot;
+            for (int next = (hole + 1) & mask; 0L != table[next]; next = (next + 1) & mask) {
+                int home = (int) (table[next] >>> 32) & mask;
+                boolean reachable = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+                if (!reachable) {
+                    table[hole] = table[next];
+                    hole = next;
+                }
+            }
+            table[hole] = 0L;
+        }
+
+        private void link(int offset) {
+            int bucket = (int) (buffer.getLong(offset + EXPIRES_AT) / tickMillis) & WHEEL_MASK;
+            int head = wheel[bucket];
+            buffer.putInt(offset + NEXT, head);
+            buffer.putInt(offset + PREVIOUS, 0);
+            if (0 != head) {
+                buffer.putInt(head - 1 + PREVIOUS, offset + 1);
+            }
+            wheel[bucket] = offset + 1;
+        }
+
+        private void unlink(int offset) {
+            int next = buffer.getInt(offset + NEXT);
+            int previous = buffer.getInt(offset + PREVIOUS);
+            if (0 != previous) {
+                buffer.putInt(previous - 1 + NEXT, next);
+            } else {
+                wheel[(int) (buffer.getLong(offset + EXPIRES_AT) / tickMillis) & WHEEL_MASK] = next;
+            }
+            if (0 != next) {
+                buffer.putInt(next - 1 + PREVIOUS, previous);
+            }
+        }
+
+        private void removeSlot(int slot) {
+            int offset = offsetAt(slot);
+            unlink(offset);
+            removeFromIndex(slot);
+            deadBytes += recordLength(offset);
+            buffer.putInt(offset + KEY_LENGTH, ~buffer.getInt(offset + KEY_LENGTH));
+            count--;
+        }
+
+        private void insert(@Nonnull byte[] keyBytes, int hash, @Nonnull byte[] valueBytes, long now) {
+            long recordLength = (long) HEADER_LENGTH + keyBytes.length + valueBytes.length;
+            if (recordLength > maxBytes) {
+                throw new IllegalArgumentException(
+                        "Entry of " + recordLength + " bytes exceeds the segment size of " + maxBytes + " bytes");
+            }
+            if (count >= maxEntries) {
+                evictOne();
+            }
+            ensureCapacity((int) recordLength);
+            int offset = writeOffset;
+            buffer.putInt(offset + KEY_LENGTH, keyBytes.length);
+            buffer.putInt(offset + VALUE_LENGTH, valueBytes.length);
+            buffer.putLong(offset + EXPIRES_AT, now + expireAfterWriteMillis);
+            buffer.putInt(offset + HASH, hash);
+            ByteBuffer target = buffer.duplicate();
+            target.position(offset + HEADER_LENGTH);
+            target.put(keyBytes);
+            target.put(valueBytes);
+            writeOffset += (int) recordLength;
+            link(offset);
+            if ((count + 1) * 4L > table.length * 3L) {
+                resizeTable(table.length * 2);
+            }
+            addToIndex(hash, offset);
+            count++;
+        }
+
+        private void resizeTable(int length) {
+            long[] oldTable = table;
+            table = new long[length];
+            for (long entry : oldTable) {
+                if (0L != entry) {
+                    addToIndex((int) (entry >>> 32), (int) entry - 1);
+                }
+            }
+        }
+
+        private boolean evictOne() {
+            // the first non-empty bucket after the swept ones holds the entries closest to their expiry
+            for (long tick = sweptTick + 1L; tick <= sweptTick + WHEEL_SIZE; tick++) {
+                int head = wheel[(int) tick & WHEEL_MASK];
+                if (0 != head) {
+                    removeSlot(findSlot(head - 1));
+                    evictionCount++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void expire(long now) {
+            long lastTick = now / tickMillis - 1L;
+            // all the entries of the buckets of the elapsed ticks expired
+            for (long tick = Math.max(sweptTick + 1L, lastTick - WHEEL_MASK); tick <= lastTick; tick++) {
+                int bucket = (int) tick & WHEEL_MASK;
+                for (int record = wheel[bucket]; 0 != record; ) {
+                    int offset = record - 1;
+                    record = buffer.getInt(offset + NEXT);
+                    if (buffer.getLong(offset + EXPIRES_AT) <= now) {
+                        removeSlot(findSlot(offset));
+                        expirationCount++;
+                    }
+                }
+            }
+            if (lastTick > sweptTick) {
+                sweptTick = lastTick;
+            }
+        }
+
+        private void ensureCapacity(int recordLength) {
+            if (writeOffset + recordLength <= buffer.capacity()) {
+                return;
+            }
+            long needed = (long) writeOffset - deadBytes + recordLength;
+            int capacity = buffer.capacity();
+            while (capacity < maxBytes && needed > capacity / 2) {
+                capacity = (int) Math.min(capacity * 2L, maxBytes);
+            }
+            // once full, keeps a quarter of the segment free so that it is not compacted on every write
+            while (needed > capacity - capacity / 4 && evictOne()) {
+                needed = (long) writeOffset - deadBytes + recordLength;
+            }
+            compact(capacity);
+        }
+
+        /**
+         * Moves the live records to the start of a buffer of the given capacity: the current buffer when its capacity
+         * does not change, otherwise a new direct buffer.
+         */
+        private void compact(int capacity) {
+            boolean inPlace = capacity == buffer.capacity();
+            ByteBuffer target = inPlace ? buffer : ByteBuffer.allocateDirect(capacity);
+            ByteBuffer source = buffer.duplicate();
+            ByteBuffer destination = target.duplicate();
+            byte[] chunk = inPlace ? new byte[COMPACTION_CHUNK_BYTES] : null;
+            int targetOffset = 0;
+            for (int offset = 0; offset < writeOffset; ) {
+                // the records already moved end before this one, so its header is still intact:
+                int recordLength = recordLength(offset);
+                if (buffer.getInt(offset + KEY_LENGTH) >= 0) {
+                    if (!inPlace) {
+                        source.limit(offset + recordLength);
+                        source.position(offset);
+                        destination.put(source);
+                    } else if (targetOffset != offset) {
+                        // the record moves towards the start of the buffer, so copying it forward by chunks never
+                        // overwrites bytes which are still to be copied
+                        for (int copied = 0; copied < recordLength; copied += chunk.length) {
+                            int length = Math.min(chunk.length, recordLength - copied);
+                            source.position(offset + copied);
+                            source.get(chunk, 0, length);
+                            destination.position(targetOffset + copied);
+                            destination.put(chunk, 0, length);
+                        }
+                    }
+                    targetOffset += recordLength;
+                }
+                offset += recordLength;
+            }
+            buffer = target;
+            writeOffset = targetOffset;
+            deadBytes = 0;
+            Arrays.fill(table, 0L);
+            Arrays.fill(wheel, 0);
+            for (int offset = 0; offset < writeOffset; offset += recordLength(offset)) {
+                addToIndex(buffer.getInt(offset + HASH), offset);
+                link(offset);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package eu.eidas.auth.commons.cache;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Snapshot of the statistics of an {@link OffHeapConcurrentMap}.
+ *
+ * @since 1.1
+ */
+@Immutable
+public final class OffHeapMapStatistics {
+
+    private final long hitCount;
+
+    private final long missCount;
+
+    private final long evictionCount;
+
+    private final long expirationCount;
+
+    private final long size;
+
+    private final long usedBytes;
+
+    private final long capacityBytes;
+
+    OffHeapMapStatistics(long hitCount,
+                         long missCount,
+                         long evictionCount,
+                         long expirationCount,
+                         long size,
+                         long usedBytes,
+                         long capacityBytes) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.expirationCount = expirationCount;
+        this.size = size;
+        this.usedBytes = usedBytes;
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * @return the number of lookups which found a live entry.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups which did not find a live entry.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return the ratio of hits to lookups, {@code 1.0} when there was no lookup.
+     */
+    public double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0L ? 1.0d : (double) hitCount / requestCount;
+    }
+
+    /**
+     * @return the number of entries removed before their expiry because the map was full.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * @return the number of entries removed because they expired.
+     */
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * @return the number of entries, including the expired entries not removed yet.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of off-heap bytes holding live entries.
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return the number of off-heap bytes allocated.
+     */
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "OffHeapMapStatistics{" +
+                "hitCount=" + hitCount +
+                ", missCount=" + missCount +
+                ", evictionCount=" + evictionCount +
+                ", expirationCount=" + expirationCount +
+                ", size=" + size +
+                ", usedBytes=" + usedBytes +
+                ", capacityBytes=" + capacityBytes +
+                '}';
+    }
+}
@@ -0,0 +1,92 @@
+package eu.eidas.auth.commons.cache;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+
+import eu.eidas.auth.commons.tx.AbstractStoredRequest;
+import eu.eidas.auth.commons.tx.StoredAuthenticationRequest;
+import eu.eidas.auth.commons.tx.StoredLightRequest;
+import eu.eidas.auth.commons.tx.StoredRequestCodec;
+import eu.eidas.util.Preconditions;
+
+/**
+ * Hazelcast serializer of the stored requests of the correlation maps, based on the {@link StoredRequestCodec}.
+ *
+ * @param <T> the type of stored request
+ * @since 1.1
+ */
+@ThreadSafe
+public final class StoredRequestStreamSerializer<T extends AbstractStoredRequest<?>> implements StreamSerializer<T> {
+
+    /**
+     * The Hazelcast type id of {@link StoredLightRequest}.
+     */
+    public static final int STORED_LIGHT_REQUEST_TYPE_ID = 1101;
+
+    /**
+     * The Hazelcast type id of {@link StoredAuthenticationRequest}.
+     */
+    public static final int STORED_AUTHENTICATION_REQUEST_TYPE_ID = 1102;
+
+    /**
+     * Registers the serializers of the stored requests in the given Hazelcast configuration.
+     *
+     * @param serializationConfig the Hazelcast serialization configuration
+     */
+    public static void register(@Nonnull SerializationConfig serializationConfig) {
+        Preconditions.checkNotNull(serializationConfig, "serializationConfig");
+        serializationConfig.addSerializerConfig(new SerializerConfig().setTypeClass(StoredLightRequest.class)
+                                                        .setImplementation(
+                                                                new StoredRequestStreamSerializer<StoredLightRequest>(
+                                                                        STORED_LIGHT_REQUEST_TYPE_ID,
+                                                                        StoredLightRequest.class)));
+        serializationConfig.addSerializerConfig(new SerializerConfig().setTypeClass(StoredAuthenticationRequest.class)
+                                                        .setImplementation(
+                                                                new StoredRequestStreamSerializer<StoredAuthenticationRequest>(
+                                                                        STORED_AUTHENTICATION_REQUEST_TYPE_ID,
+                                                                        StoredAuthenticationRequest.class)));
+    }
+
+    private final int typeId;
+
+    @Nonnull
+    private final Class<T> type;
+
+    StoredRequestStreamSerializer(int typeId, @Nonnull Class<T> type) {
+        this.typeId = typeId;
+        this.type = type;
+    }
+
+    @Override
+    public int getTypeId() {
+        return typeId;
+    }
+
+    @Override
+    public void write(ObjectDataOutput out, T object) throws IOException {
+        StoredRequestCodec.getInstance().write(out, object);
+    }
+
+    @Override
+    public T read(ObjectDataInput in) throws IOException {
+        AbstractStoredRequest<?> storedRequest = StoredRequestCodec.getInstance().read(in);
+        if (!type.isInstance(storedRequest)) {
+            throw new IOException(
+                    "Expected a " + type.getName() + " but read a " + storedRequest.getClass().getName());
+        }
+        return type.cast(storedRequest);
+    }
+
+    @Override
+    public void destroy() {
+        // stateless
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * This work is Open Source and licensed by the European Commission under the
+ * conditions of the European Public License v1.1
+ *
+ * (http://www.osor.eu/eupl/european-union-public-licence-eupl-v.1.1);
+ *
+ * any use of this file implies acceptance of the conditions of this license.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package eu.eidas.auth.commons.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.eidas.util.Preconditions;
+
+/**
+ * Monitors files on the filesystem from a single background thread and flags the files which have changed, so that
+ * readers do not need to check the modification date of a file each time they access it.
+ * <p>
+ * Changes are notified by a {@link WatchService} on the parent directories of the watched files. As a safety net for
+ * filesystems which do not notify changes (e.g. network filesystems), the modification dates of the watched files are
+ * also polled at a low frequency.
+ * <p>
+ * A watched file is only held weakly: the file is no longer monitored once its {@link Watch} is no longer referenced.
+ *
+ * @since 1.1
+ */
+@ThreadSafe
+public final class FileChangeMonitor implements Closeable {
+
+    /**
+     * Flag of one watched file.
+     */
+    @ThreadSafe
+    public static final class Watch {
+
+        @Nonnull
+        private final Path path;
+
+        @Nonnull
+        private final File file;
+
+        private final AtomicBoolean changed = new AtomicBoolean(true);
+
+        // only accessed by the monitor thread
+        private long lastModified;
+
+        Watch(@Nonnull File file) {
+            this.file = file.getAbsoluteFile();
+            path = this.file.toPath().normalize();
+            lastModified = this.file.lastModified();
+        }
+
+        @Nonnull
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return {@code true} if the file has changed since the last call to {@link #clearChanged()} (initially
+         * {@code true}).
+         */
+        public boolean isChanged() {
+            return changed.get();
+        }
+
+        /**
+         * Clears the flag.
+         *
+         * @return {@code true} if the file had changed.
+         */
+        public boolean clearChanged() {
+            // read first so that an unchanged file does not cost a write shared by all the reading threads
+            return changed.get() && changed.getAndSet(false);
+        }
+
+        /**
+         * Flags the file as changed, e.g. when its change could not be processed and must be checked again.
+         */
+        public void markChanged() {
+            changed.set(true);
+        }
+
+        @Override
+        public String toString() {
+            return "Watch{" +
+                    "file=" + file +
+                    ", changed=" + changed.get() +
+                    '}';
+        }
+    }
+
+    private static final class InstanceHolder {
+
+        private static final FileChangeMonitor INSTANCE = new FileChangeMonitor(DEFAULT_POLL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Default interval between two polls of the modification dates of the watched files.
+     */
+    public static final long DEFAULT_POLL_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5L);
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileChangeMonitor.class);
+
+    /**
+     * Returns the monitor shared by all the reloadable files of the application.
+     *
+     * @return the shared monitor.
+     */
+    @Nonnull
+    public static FileChangeMonitor getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    @Nullable
+    private static WatchService newWatchService() {
+        try {
+            return FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException e) {
+            LOG.warn("File changes will only be polled, the file system cannot be watched: " + e, e);
+            return null;
+        }
+    }
+
+    private final long pollIntervalMillis;
+
+    @Nullable
+    private final WatchService watchService;
+
+    @GuardedBy("this")
+    private final Set<Watch> watches = Collections.newSetFromMap(new WeakHashMap<Watch, Boolean>());
+
+    @GuardedBy("this")
+    private final Set<Path> watchedDirectories = new HashSet<Path>();
+
+    @GuardedBy("this")
+    @Nullable
+    private Thread thread;
+
+    @GuardedBy("this")
+    private boolean closed;
+
+    public FileChangeMonitor(long pollIntervalMillis) {
+        if (pollIntervalMillis <= 0L) {
+            throw new IllegalArgumentException("pollIntervalMillis must be positive: " + pollIntervalMillis);
+        }
+        this.pollIntervalMillis = pollIntervalMillis;
+        watchService = newWatchService();
+    }
+
+    /**
+     * Starts monitoring the given file.
+     *
+     * @param file the file to monitor
+     * @return the flag of the file, initially flagged as changed.
+     */
+    @Nonnull
+    public Watch watch(@Nonnull File file) {
+        Preconditions.checkNotNull(file, "file");
+        Watch watch = new Watch(file);
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("FileChangeMonitor is closed");
+            }
+            watches.add(watch);
+            registerDirectory(watch.path.getParent());
+            if (null == thread) {
+                thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        monitor();
+                    }
+                }, "FileChangeMonitor");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        return watch;
+    }
+
+    @GuardedBy("this")
+    private void registerDirectory(@Nullable Path directory) {
+        if (null == watchService || null == directory || !watchedDirectories.add(directory)) {
+            return;
+        }
+        try {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                               StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            LOG.warn("Changes in directory \"" + directory + "\" will only be polled: " + e, e);
+        }
+    }
+
+    @Nonnull
+    private synchronized List<Watch> getWatches() {
+        return new ArrayList<Watch>(watches);
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void monitor() {
+        long nextPoll = System.currentTimeMillis() + pollIntervalMillis;
+        while (!isClosed()) {
+            try {
+                long timeout = Math.max(1L, nextPoll - System.currentTimeMillis());
+                if (null == watchService) {
+                    Thread.sleep(timeout);
+                } else {
+                    WatchKey key = watchService.poll(timeout, TimeUnit.MILLISECONDS);
+                    if (null != key) {
+                        processEvents(key);
+                    }
+                }
+                if (System.currentTimeMillis() >= nextPoll) {
+                    pollModificationDates();
+                    nextPoll = System.currentTimeMillis() + pollIntervalMillis;
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                if (!isClosed()) {
+                    LOG.error("FileChangeMonitor interrupted: " + e, e);
+                }
+                return;
+            } catch (RuntimeException e) {
+                LOG.error("Error while monitoring file changes: " + e, e);
+            }
+        }
+    }
+
+    private void processEvents(@Nonnull WatchKey key) {
+        Path directory = (Path) key.watchable();
+        List<WatchEvent<?>> events = key.pollEvents();
+        key.reset();
+        List<Watch> currentWatches = getWatches();
+        for (final WatchEvent<?> event : events) {
+            boolean overflow = event.kind() == StandardWatchEventKinds.OVERFLOW;
+            Path changedPath = overflow ? null : directory.resolve((Path) event.context());
+            for (final Watch watch : currentWatches) {
+                if (overflow ? directory.equals(watch.path.getParent()) : changedPath.equals(watch.path)) {
+                    if (LOG.isTraceEnabled()) {
+                        LOG.trace("File change notified: " + watch.file);
+                    }
+                    watch.markChanged();
+                }
+            }
+        }
+    }
+
+    private void pollModificationDates() {
+        for (final Watch watch : getWatches()) {
+            long lastModified = watch.file.lastModified();
+            if (lastModified != watch.lastModified) {
+                watch.lastModified = lastModified;
+                watch.markChanged();
+            }
+        }
+    }
+
+    /**
+     * Stops the monitoring thread (the shared instance is not meant to be closed).
+     */
+    @Override
+    public void close() throws IOException {
+        Thread monitorThread;
+        synchronized (this) {
+            closed = true;
+            monitorThread = thread;
+        }
+        if (null != monitorThread) {
+            monitorThread.interrupt();
+        }
+        if (null != watchService) {
+            watchService.close();
+        }
+    }
+}
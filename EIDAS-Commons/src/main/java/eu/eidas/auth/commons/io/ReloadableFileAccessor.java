@@ -32,6 +32,9 @@ import eu.eidas.util.Preconditions;
 /**
  * Helper handling a reloadable file on the filesystem to marshal and unmarshal the content of a given file into one
  * instance of the given type.
+ * <p>
+ * When a {@link FileChangeMonitor} is given, the modification date of the file is only checked after the monitor has
+ * flagged the file as changed, otherwise it is checked on each access.
  *
  * @since 1.1
  */
@@ -124,6 +127,9 @@ public final class ReloadableFileAccessor<T> implements SingletonAccessor<T> {
     @Nonnull
     private final AtomicReference<AtomicState<T>> referenceToState = new AtomicReference<AtomicState<T>>();
 
+    @Nullable
+    private final FileChangeMonitor.Watch watch;
+
     public ReloadableFileAccessor(@Nonnull FileMarshaller<T> fileMarshaller, @Nonnull String filename) {
         this(fileMarshaller, filename, getResourceIgnoredException(filename));
     }
@@ -131,6 +137,13 @@ public final class ReloadableFileAccessor<T> implements SingletonAccessor<T> {
     public ReloadableFileAccessor(@Nonnull FileMarshaller<T> fileMarshaller,
                                   @Nonnull String filename,
                                   @Nonnull URL fileUrl) {
+        this(fileMarshaller, filename, fileUrl, null);
+    }
+
+    public ReloadableFileAccessor(@Nonnull FileMarshaller<T> fileMarshaller,
+                                  @Nonnull String filename,
+                                  @Nonnull URL fileUrl,
+                                  @Nullable FileChangeMonitor fileChangeMonitor) {
         Preconditions.checkNotNull(fileMarshaller, "fileMarshaller");
         Preconditions.checkNotBlank(filename, "filename");
         File file;
@@ -142,15 +155,29 @@ public final class ReloadableFileAccessor<T> implements SingletonAccessor<T> {
         this.fileMarshaller = fileMarshaller;
         this.filename = filename;
         referenceToState.set(new AtomicState<T>(file, 0L, null, false));
+        watch = null == fileChangeMonitor ? null : fileChangeMonitor.watch(file);
     }
 
     private boolean checkIfModified() throws IOException {
-        AtomicState<T> currentState = referenceToState.get();
-        if (currentState.externallyModified()) {
-            reload(currentState);
-            return true;
+        if (null != watch && !watch.clearChanged()) {
+            // no change flagged by the monitor: no need to stat the file
+            return false;
+        }
+        boolean checked = false;
+        try {
+            AtomicState<T> currentState = referenceToState.get();
+            if (currentState.externallyModified()) {
+                checked = reload(currentState);
+                return true;
+            }
+            checked = true;
+            return false;
+        } finally {
+            if (!checked && null != watch) {
+                // the change has not been loaded yet (failure or concurrent reload): check again on next access
+                watch.markChanged();
+            }
         }
-        return false;
     }
 
     private File findFile() throws IOException {
@@ -183,14 +210,16 @@ public final class ReloadableFileAccessor<T> implements SingletonAccessor<T> {
      * <p/>
      * Is called after the "currentState.externallyModified()" condition which is always false while this DAO is
      * writing.
+     *
+     * @return {@code false} if the reload has been left to another thread which holds the lock.
      */
-    private void reload(AtomicState<T> currentState) throws IOException {
+    private boolean reload(AtomicState<T> currentState) throws IOException {
         // We lock because we want to prevent reloading while writing.
         if (!lock.tryLock()) {
             // if we cannot acquire the lock, and if there is already a cached result, we keep returning this stale result rather than blocking
             //noinspection VariableNotUsedInsideIf
             if (null != referenceToState.get().value) {
-                return;
+                return false;
             } else {
                 // We care if 2 threads load the initial value concurrently - we prefer that one thread loads it and the rest waits.
                 lock.lock();
@@ -199,7 +228,7 @@ public final class ReloadableFileAccessor<T> implements SingletonAccessor<T> {
         try {
             // Is it still necessary?
             if (!referenceToState.get().externallyModified()) {
-                return;
+                return true;
             }
 
             // compute new state:
@@ -211,6 +240,7 @@ public final class ReloadableFileAccessor<T> implements SingletonAccessor<T> {
             referenceToState.compareAndSet(currentState, newState);
             // if OK, updated
             // else another thread already changed the AtomicState
+            return true;
         } finally {
             lock.unlock();
         }
@@ -203,7 +203,8 @@ public final class SingletonAccessors {
             if (null != urlProtocol) {
                 switch (urlProtocol) {
                     case FILE:
-                        return new ReloadableFileAccessor<T>(fileMarshaller, fileName, resource);
+                        return new ReloadableFileAccessor<T>(fileMarshaller, fileName, resource,
+                                                             FileChangeMonitor.getInstance());
                     default:
                         return new LazyAccessor<T>(new UrlAccessor<T>(streamMarshaller, resource));
                 }
@@ -0,0 +1,434 @@
+package eu.eidas.auth.commons.tx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.xml.namespace.QName;
+
+import com.google.common.collect.ImmutableSet;
+
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.AttributeValue;
+import eu.eidas.auth.commons.attribute.AttributeValueMarshallingException;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.attribute.PersonType;
+import eu.eidas.auth.commons.light.ILightRequest;
+import eu.eidas.auth.commons.light.impl.LightRequest;
+import eu.eidas.auth.commons.protocol.IAuthenticationRequest;
+import eu.eidas.auth.commons.protocol.eidas.LevelOfAssuranceComparison;
+import eu.eidas.auth.commons.protocol.eidas.SpType;
+import eu.eidas.auth.commons.protocol.eidas.impl.EidasAuthenticationRequest;
+import eu.eidas.util.Preconditions;
+
+/**
+ * Compact binary codec for the {@link AbstractStoredRequest}s kept in the correlation maps, used instead of the Java
+ * serialization when the maps are distributed.
+ * <p>
+ * {@link LightRequest}s and {@link EidasAuthenticationRequest}s (including their requested attributes) are written
+ * field by field, any other request type is written with the Java serialization.
+ * <p>
+ * The encoding starts with a format version so that the format can evolve while nodes of different versions share the
+ * same distributed map.
+ *
+ * @since 1.1
+ */
+@ThreadSafe
+public final class StoredRequestCodec {
+
+    /**
+     * The current version of the encoding.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int STORED_LIGHT_REQUEST = 1;
+
+    private static final int STORED_AUTHENTICATION_REQUEST = 2;
+
+    private static final int SERIALIZED_REQUEST = 0;
+
+    private static final int LIGHT_REQUEST = 1;
+
+    private static final int EIDAS_AUTHENTICATION_REQUEST = 2;
+
+    /**
+     * Maximum number of bytes allocated at once when reading a length-prefixed value from an input of unknown size.
+     */
+    private static final int READ_CHUNK_SIZE = 8192;
+
+    private static final StoredRequestCodec INSTANCE = new StoredRequestCodec();
+
+    /**
+     * Input over a byte array, which knows how many bytes remain to be read.
+     */
+    private static final class BytesInput extends DataInputStream {
+
+        BytesInput(@Nonnull byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        int remaining() throws IOException {
+            // exact for a ByteArrayInputStream:
+            return in.available();
+        }
+    }
+
+    @Nonnull
+    public static StoredRequestCodec getInstance() {
+        return INSTANCE;
+    }
+
+    private StoredRequestCodec() {
+    }
+
+    /**
+     * Encodes the given stored request.
+     *
+     * @param storedRequest the stored request
+     * @return the encoded stored request
+     * @throws IOException if the stored request cannot be encoded
+     */
+    @Nonnull
+    public byte[] encode(@Nonnull AbstractStoredRequest<?> storedRequest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream output = new DataOutputStream(bytes);
+        write(output, storedRequest);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decodes a stored request encoded by {@link #encode(AbstractStoredRequest)}.
+     *
+     * @param bytes the encoded stored request
+     * @return the decoded stored request
+     * @throws IOException if the bytes are not a valid encoding
+     */
+    @Nonnull
+    public AbstractStoredRequest<?> decode(@Nonnull byte[] bytes) throws IOException {
+        Preconditions.checkNotNull(bytes, "bytes");
+        return read(new BytesInput(bytes));
+    }
+
+    /**
+     * Writes the given stored request to the given output.
+     *
+     * @param output the output
+     * @param storedRequest the stored request
+     * @throws IOException if the stored request cannot be written
+     */
+    public void write(@Nonnull DataOutput output, @Nonnull AbstractStoredRequest<?> storedRequest)
+            throws IOException {
+        Preconditions.checkNotNull(output, "output");
+        Preconditions.checkNotNull(storedRequest, "storedRequest");
+        output.writeByte(FORMAT_VERSION);
+        if (storedRequest instanceof StoredLightRequest) {
+            output.writeByte(STORED_LIGHT_REQUEST);
+        } else if (storedRequest instanceof StoredAuthenticationRequest) {
+            output.writeByte(STORED_AUTHENTICATION_REQUEST);
+        } else {
+            throw new IOException("Unsupported stored request type: " + storedRequest.getClass().getName());
+        }
+        writeString(output, storedRequest.getRelayState());
+        writeString(output, storedRequest.getRemoteIpAddress());
+        Serializable request = storedRequest.getRequest();
+        if (request.getClass() == LightRequest.class) {
+            output.writeByte(LIGHT_REQUEST);
+            writeLightRequest(output, (ILightRequest) request);
+        } else if (request.getClass() == EidasAuthenticationRequest.class) {
+            output.writeByte(EIDAS_AUTHENTICATION_REQUEST);
+            writeEidasAuthenticationRequest(output, (EidasAuthenticationRequest) request);
+        } else {
+            output.writeByte(SERIALIZED_REQUEST);
+            writeSerialized(output, request);
+        }
+    }
+
+    /**
+     * Reads a stored request written by {@link #write(DataOutput, AbstractStoredRequest)}.
+     *
+     * @param input the input
+     * @return the stored request
+     * @throws IOException if the input does not contain a valid encoding
+     */
+    @Nonnull
+    public AbstractStoredRequest<?> read(@Nonnull DataInput input) throws IOException {
+        Preconditions.checkNotNull(input, "input");
+        int version = input.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported stored request format version: " + version);
+        }
+        int storedRequestType = input.readUnsignedByte();
+        String relayState = readString(input);
+        String remoteIpAddress = readString(input);
+        Serializable request = readRequest(input);
+        try {
+            switch (storedRequestType) {
+                case STORED_LIGHT_REQUEST:
+                    return StoredLightRequest.builder()
+                            .relayState(relayState)
+                            .remoteIpAddress(remoteIpAddress)
+                            .request((ILightRequest) request)
+                            .build();
+                case STORED_AUTHENTICATION_REQUEST:
+                    return StoredAuthenticationRequest.builder()
+                            .relayState(relayState)
+                            .remoteIpAddress(remoteIpAddress)
+                            .request((IAuthenticationRequest) request)
+                            .build();
+                default:
+                    throw new IOException("Unsupported stored request type: " + storedRequestType);
+            }
+        } catch (ClassCastException | IllegalArgumentException e) {
+            throw new IOException("Invalid stored request: " + e, e);
+        }
+    }
+
+    @Nonnull
+    private Serializable readRequest(@Nonnull DataInput input) throws IOException {
+        int requestType = input.readUnsignedByte();
+        try {
+            switch (requestType) {
+                case LIGHT_REQUEST:
+                    return readLightRequest(input);
+                case EIDAS_AUTHENTICATION_REQUEST:
+                    return readEidasAuthenticationRequest(input);
+                case SERIALIZED_REQUEST:
+                    return readSerialized(input);
+                default:
+                    throw new IOException("Unsupported request type: " + requestType);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid request: " + e, e);
+        }
+    }
+
+    private void writeLightRequest(@Nonnull DataOutput output, @Nonnull ILightRequest lightRequest)
+            throws IOException {
+        writeString(output, lightRequest.getId());
+        writeString(output, lightRequest.getIssuer());
+        writeString(output, lightRequest.getCitizenCountryCode());
+        writeString(output, lightRequest.getLevelOfAssurance());
+        writeString(output, lightRequest.getNameIdFormat());
+        writeString(output, lightRequest.getProviderName());
+        writeAttributeMap(output, lightRequest.getRequestedAttributes());
+    }
+
+    @Nonnull
+    private LightRequest readLightRequest(@Nonnull DataInput input) throws IOException {
+        return LightRequest.builder()
+                .id(readString(input))
+                .issuer(readString(input))
+                .citizenCountryCode(readString(input))
+                .levelOfAssurance(readString(input))
+                .nameIdFormat(readString(input))
+                .providerName(readString(input))
+                .requestedAttributes(readAttributeMap(input))
+                .build();
+    }
+
+    private void writeEidasAuthenticationRequest(@Nonnull DataOutput output,
+                                                 @Nonnull EidasAuthenticationRequest request) throws IOException {
+        writeLightRequest(output, request);
+        writeString(output, request.getAssertionConsumerServiceURL());
+        writeString(output, request.getBinding());
+        writeString(output, request.getDestination());
+        writeString(output, request.getOriginalIssuer());
+        writeString(output, request.getServiceProviderCountryCode());
+        writeString(output, request.getOriginCountryCode());
+        LevelOfAssuranceComparison comparison = request.getLevelOfAssuranceComparison();
+        writeString(output, null == comparison ? null : comparison.name());
+        SpType spType = request.getSpType();
+        writeString(output, null == spType ? null : spType.name());
+    }
+
+    @Nonnull
+    private EidasAuthenticationRequest readEidasAuthenticationRequest(@Nonnull DataInput input) throws IOException {
+        LightRequest lightRequest = readLightRequest(input);
+        EidasAuthenticationRequest.Builder builder = EidasAuthenticationRequest.builder()
+                .lightRequest(lightRequest)
+                .assertionConsumerServiceURL(readString(input))
+                .binding(readString(input))
+                .destination(readString(input))
+                .originalIssuer(readString(input))
+                .serviceProviderCountryCode(readString(input))
+                .originCountryCode(readString(input));
+        String comparison = readString(input);
+        if (null != comparison) {
+            builder.levelOfAssuranceComparison(LevelOfAssuranceComparison.valueOf(comparison));
+        }
+        String spType = readString(input);
+        if (null != spType) {
+            builder.spType(SpType.valueOf(spType));
+        }
+        return builder.build();
+    }
+
+    private void writeAttributeMap(@Nonnull DataOutput output, @Nullable ImmutableAttributeMap attributeMap)
+            throws IOException {
+        if (null == attributeMap) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt(attributeMap.getAttributeMap().size());
+        for (final ImmutableAttributeMap.ImmutableAttributeEntry<?> entry : attributeMap.entrySet()) {
+            writeAttributeEntry(output, entry);
+        }
+    }
+
+    private <T> void writeAttributeEntry(@Nonnull DataOutput output,
+                                         @Nonnull ImmutableAttributeMap.ImmutableAttributeEntry<T> entry)
+            throws IOException {
+        AttributeDefinition<T> definition = entry.getKey();
+        writeString(output, definition.getNameUri().toASCIIString());
+        writeString(output, definition.getFriendlyName());
+        writeString(output, definition.getPersonType().name());
+        output.writeBoolean(definition.isRequired());
+        output.writeBoolean(definition.isTransliterationMandatory());
+        output.writeBoolean(definition.isUniqueIdentifier());
+        QName xmlType = definition.getXmlType();
+        writeString(output, xmlType.getNamespaceURI());
+        writeString(output, xmlType.getLocalPart());
+        writeString(output, xmlType.getPrefix());
+        writeString(output, definition.getAttributeValueMarshaller().getClass().getName());
+        ImmutableSet<? extends AttributeValue<T>> values = entry.getValues();
+        output.writeInt(values.size());
+        try {
+            for (final AttributeValue<T> value : values) {
+                writeString(output, definition.marshal(value));
+                output.writeBoolean(value.isNonLatinScriptAlternateVersion());
+            }
+        } catch (AttributeValueMarshallingException e) {
+            throw new IOException("Cannot marshal a value of attribute " + definition.getNameUri() + ": " + e, e);
+        }
+    }
+
+    @Nullable
+    private ImmutableAttributeMap readAttributeMap(@Nonnull DataInput input) throws IOException {
+        int size = input.readInt();
+        if (size < 0) {
+            return null;
+        }
+        ImmutableAttributeMap.Builder builder = ImmutableAttributeMap.builder();
+        for (int i = 0; i < size; i++) {
+            readAttributeEntry(input, builder);
+        }
+        return builder.build();
+    }
+
+    private void readAttributeEntry(@Nonnull DataInput input, @Nonnull ImmutableAttributeMap.Builder builder)
+            throws IOException {
+        AttributeDefinition<Object> definition = AttributeDefinition.<Object>builder()
+                .nameUri(readString(input))
+                .friendlyName(readString(input))
+                .personType(PersonType.valueOf(readString(input)))
+                .required(input.readBoolean())
+                .transliterationMandatory(input.readBoolean())
+                .uniqueIdentifier(input.readBoolean())
+                .xmlType(readString(input), readString(input), readString(input))
+                .attributeValueMarshaller(readString(input))
+                .build();
+        int valueCount = input.readInt();
+        if (valueCount < 0) {
+            throw new IOException("Invalid value count of attribute " + definition.getNameUri() + ": " + valueCount);
+        }
+        // each value takes several bytes, do not trust the count to size the list:
+        List<AttributeValue<Object>> values = new ArrayList<AttributeValue<Object>>(Math.min(valueCount, 16));
+        try {
+            for (int i = 0; i < valueCount; i++) {
+                String value = readString(input);
+                values.add(definition.unmarshal(value, input.readBoolean()));
+            }
+        } catch (AttributeValueMarshallingException e) {
+            throw new IOException("Cannot unmarshal a value of attribute " + definition.getNameUri() + ": " + e, e);
+        }
+        builder.put(definition, values);
+    }
+
+    private static void writeSerialized(@Nonnull DataOutput output, @Nonnull Serializable object)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutput = new ObjectOutputStream(bytes)) {
+            objectOutput.writeObject(object);
+        }
+        output.writeInt(bytes.size());
+        output.write(bytes.toByteArray());
+    }
+
+    @Nonnull
+    private static Serializable readSerialized(@Nonnull DataInput input) throws IOException {
+        byte[] bytes = readBytes(input, input.readInt());
+        try (ObjectInputStream objectInput = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Serializable) objectInput.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Cannot deserialize the request: " + e, e);
+        }
+    }
+
+    private static void writeString(@Nonnull DataOutput output, @Nullable String value) throws IOException {
+        if (null == value) {
+            output.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    @Nullable
+    private static String readString(@Nonnull DataInput input) throws IOException {
+        int length = input.readInt();
+        if (length == -1) {
+            return null;
+        }
+        return new String(readBytes(input, length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a length-prefixed value of the given length.
+     * <p>
+     * The length is read from the input and must not be trusted: it is rejected when it is negative or when it exceeds
+     * the remaining bytes of a byte array, and an input of unknown size is read by chunks so that a corrupted length
+     * fails at the end of the input instead of allocating that length upfront.
+     */
+    @Nonnull
+    private static byte[] readBytes(@Nonnull DataInput input, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid length: " + length);
+        }
+        if (input instanceof BytesInput) {
+            int remaining = ((BytesInput) input).remaining();
+            if (length > remaining) {
+                throw new IOException("Invalid length: " + length + " exceeds the " + remaining + " remaining bytes");
+            }
+        }
+        if (length <= READ_CHUNK_SIZE || input instanceof BytesInput) {
+            byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            return bytes;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(READ_CHUNK_SIZE);
+        byte[] chunk = new byte[READ_CHUNK_SIZE];
+        for (int remaining = length; remaining > 0; remaining -= chunk.length) {
+            if (remaining < chunk.length) {
+                chunk = new byte[remaining];
+            }
+            input.readFully(chunk);
+            bytes.write(chunk);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -4,27 +4,36 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.validation.Schema;
+import javax.xml.validation.ValidatorHandler;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 import eu.eidas.auth.commons.EidasStringUtil;
 import eu.eidas.util.Preconditions;
@@ -38,18 +47,181 @@ public final class DocumentBuilderFactoryUtil {
     // See http://stackoverflow.com/questions/9828254/is-documentbuilderfactory-thread-safe-in-java-5
     // See also org.opensaml.xml.parse.ParserPool -- Code removed : private static DocumentBuilderFactory dbf = null
 
+    /**
+     * Name of the system property enabling the per-thread fast path of the parser and transformer pools (disabled by
+     * default).
+     *
+     * @since 1.1
+     */
+    public static final String PER_THREAD_POOLS_PROPERTY = "eu.eidas.auth.commons.xml.perThreadPools";
+
+    private static final boolean PER_THREAD_POOLS = Boolean.getBoolean(PER_THREAD_POOLS_PROPERTY);
+
+    /**
+     * Maximum number of idle parsers, transformers and validators kept in each pool.
+     */
+    private static final int MAX_IDLE_INSTANCES = 64;
+
+    /**
+     * Maximum number of idle factories kept in each pool.
+     */
+    private static final int MAX_IDLE_FACTORIES = 8;
+
     /**
      * The Document Builder Factory.
      */
-    private static final Queue<DocumentBuilderFactory> DOCUMENT_BUILDER_FACTORY_POOL =
-            new ConcurrentLinkedQueue<DocumentBuilderFactory>();
+    private static final XmlObjectPool<DocumentBuilderFactory, ParserConfigurationException>
+            DOCUMENT_BUILDER_FACTORY_POOL =
+            new XmlObjectPool<DocumentBuilderFactory, ParserConfigurationException>("DocumentBuilderFactory",
+                                                                                    MAX_IDLE_FACTORIES, false) {
+                @Nonnull
+                @Override
+                protected DocumentBuilderFactory create() throws ParserConfigurationException {
+                    return newSecureDocumentBuilderFactory();
+                }
+            };
+
+    private static final XmlObjectPool<DocumentBuilder, ParserConfigurationException> DOCUMENT_BUILDER_POOL =
+            new XmlObjectPool<DocumentBuilder, ParserConfigurationException>("DocumentBuilder", MAX_IDLE_INSTANCES,
+                                                                             PER_THREAD_POOLS) {
+                @Nonnull
+                @Override
+                protected DocumentBuilder create() throws ParserConfigurationException {
+                    DocumentBuilderFactory documentBuilderFactory = DOCUMENT_BUILDER_FACTORY_POOL.borrow();
+                    try {
+                        return documentBuilderFactory.newDocumentBuilder();
+                    } finally {
+                        DOCUMENT_BUILDER_FACTORY_POOL.release(documentBuilderFactory);
+                    }
+                }
 
-    private static final Queue<DocumentBuilder> DOCUMENT_BUILDER_POOL = new ConcurrentLinkedQueue<DocumentBuilder>();
+                @Override
+                protected boolean reset(@Nonnull DocumentBuilder documentBuilder) {
+                    documentBuilder.reset();
+                    return true;
+                }
+            };
+
+    private static final XmlObjectPool<TransformerFactory, RuntimeException> TRANSFORMER_FACTORY_POOL =
+            new XmlObjectPool<TransformerFactory, RuntimeException>("TransformerFactory", MAX_IDLE_FACTORIES, false) {
+                @Nonnull
+                @Override
+                protected TransformerFactory create() {
+                    return TransformerFactory.newInstance();
+                }
+            };
+
+    private static final XmlObjectPool<Transformer, TransformerConfigurationException> TRANSFORMER_POOL =
+            new XmlObjectPool<Transformer, TransformerConfigurationException>("Transformer", MAX_IDLE_INSTANCES,
+                                                                              PER_THREAD_POOLS) {
+                @Nonnull
+                @Override
+                protected Transformer create() throws TransformerConfigurationException {
+                    TransformerFactory transformerFactory = TRANSFORMER_FACTORY_POOL.borrow();
+                    try {
+                        return transformerFactory.newTransformer();
+                    } finally {
+                        TRANSFORMER_FACTORY_POOL.release(transformerFactory);
+                    }
+                }
 
-    private static final Queue<TransformerFactory> TRANSFORMER_FACTORY_POOL =
-            new ConcurrentLinkedQueue<TransformerFactory>();
+                @Override
+                protected boolean reset(@Nonnull Transformer transformer) {
+                    transformer.reset();
+                    return true;
+                }
+            };
+
+    private static final XmlObjectPool<SAXParserFactory, ParserConfigurationException> SAX_PARSER_FACTORY_POOL =
+            new XmlObjectPool<SAXParserFactory, ParserConfigurationException>("SAXParserFactory", MAX_IDLE_FACTORIES,
+                                                                              false) {
+                @Nonnull
+                @Override
+                protected SAXParserFactory create() throws ParserConfigurationException {
+                    try {
+                        return newSecureSAXParserFactory();
+                    } catch (SAXException e) {
+                        throw toParserConfigurationException(e);
+                    }
+                }
+            };
+
+    private static final XmlObjectPool<SAXParser, ParserConfigurationException> SAX_PARSER_POOL =
+            new XmlObjectPool<SAXParser, ParserConfigurationException>("SAXParser", MAX_IDLE_INSTANCES,
+                                                                       PER_THREAD_POOLS) {
+                @Nonnull
+                @Override
+                protected SAXParser create() throws ParserConfigurationException {
+                    SAXParserFactory saxParserFactory = SAX_PARSER_FACTORY_POOL.borrow();
+                    try {
+                        return saxParserFactory.newSAXParser();
+                    } catch (SAXException e) {
+                        throw toParserConfigurationException(e);
+                    } finally {
+                        SAX_PARSER_FACTORY_POOL.release(saxParserFactory);
+                    }
+                }
 
-    private static final Queue<Transformer> TRANSFORMER_POOL = new ConcurrentLinkedQueue<Transformer>();
+                @Override
+                protected boolean reset(@Nonnull SAXParser saxParser) {
+                    saxParser.reset();
+                    // the handlers of the last parse reference the last document, which must not be kept alive:
+                    try {
+                        XMLReader xmlReader = saxParser.getXMLReader();
+                        if (null != xmlReader.getContentHandler()) {
+                            xmlReader.setContentHandler(null);
+                        }
+                        return null == xmlReader.getContentHandler();
+                    } catch (SAXException | RuntimeException e) {
+                        return false;
+                    }
+                }
+            };
+
+    /**
+     * Pool of the validator handlers of a schema (a schema is thread-safe, its validator handlers are not).
+     * <p>
+     * The pool only references its schema weakly, so that it does not prevent the schema from being collected.
+     */
+    static final class ValidatorHandlerPool extends XmlObjectPool<ValidatorHandler, RuntimeException> {
+
+        @Nonnull
+        private final WeakReference<Schema> schemaRef;
+
+        ValidatorHandlerPool(@Nonnull Schema schema) {
+            super("ValidatorHandler@" + Integer.toHexString(System.identityHashCode(schema)), MAX_IDLE_INSTANCES,
+                  false);
+            schemaRef = new WeakReference<Schema>(schema);
+        }
+
+        @Nonnull
+        @Override
+        protected ValidatorHandler create() {
+            Schema schema = schemaRef.get();
+            if (null == schema) {
+                // cannot happen while a caller holds the schema it validates against
+                throw new IllegalStateException("The schema of pool " + getName() + " has been collected");
+            }
+            return schema.newValidatorHandler();
+        }
+
+        @Override
+        protected boolean reset(@Nonnull ValidatorHandler validatorHandler) {
+            validatorHandler.setContentHandler(null);
+            return true;
+        }
+    }
+
+    /**
+     * Pools of validator handlers per schema.
+     * <p>
+     * The idle validator handlers reference the grammar of their schema (which, depending on the JAXP implementation,
+     * can be the schema itself): the pools are therefore softly referenced, so that the pool of a schema which is no
+     * longer used is cleared under memory pressure, and the schema can then be collected. In practice, the schemas
+     * are long-lived singletons (e.g. the SAML schema) and their pools are kept.
+     */
+    private static final ConcurrentMap<Schema, ValidatorHandlerPool> VALIDATOR_HANDLER_POOLS =
+            CacheBuilder.newBuilder().weakKeys().softValues().<Schema, ValidatorHandlerPool>build().asMap();
 
     /**
      * Configures a given DocumentBuilderFactory with security features turned on.
@@ -74,6 +246,27 @@ public final class DocumentBuilderFactoryUtil {
         documentBuilderFactory.setExpandEntityReferences(false);
     }
 
+    /**
+     * Configures a given SAXParserFactory with the same security features as the DocumentBuilderFactory instances.
+     *
+     * @param saxParserFactory the instance to configure
+     * @throws ParserConfigurationException if one of the features is not supported
+     * @throws SAXException if one of the features is not recognized
+     * @since 1.1
+     */
+    public static void configureSecurity(@Nonnull SAXParserFactory saxParserFactory)
+            throws ParserConfigurationException, SAXException {
+        Preconditions.checkNotNull(saxParserFactory, "saxParserFactory");
+
+        saxParserFactory.setNamespaceAware(true);
+
+        for (final Map.Entry<String, Boolean> entry : getSecureDocumentBuilderFeatures().entrySet()) {
+            saxParserFactory.setFeature(entry.getKey(), entry.getValue().booleanValue());
+        }
+
+        saxParserFactory.setXIncludeAware(false);
+    }
+
     /**
      * Build the default set of parser features to use. The default features set are: <ul> <li>{@link
      * javax.xml.XMLConstants#FEATURE_SECURE_PROCESSING} = true</li> <li>http://apache.org/xml/features/disallow-doctype-decl
@@ -108,19 +301,8 @@ public final class DocumentBuilderFactoryUtil {
         Preconditions.checkNotNull(node, "node");
 
         // See http://stackoverflow.com/questions/9828254/is-documentbuilderfactory-thread-safe-in-java-5
-        Transformer transformer = TRANSFORMER_POOL.poll();
+        Transformer transformer = TRANSFORMER_POOL.borrow();
         try {
-            if (null == transformer) {
-                TransformerFactory transformerFactory = TRANSFORMER_FACTORY_POOL.poll();
-                try {
-                    if (null == transformerFactory) {
-                        transformerFactory = TransformerFactory.newInstance();
-                    }
-                    transformer = transformerFactory.newTransformer();
-                } finally {
-                    TRANSFORMER_FACTORY_POOL.offer(transformerFactory);
-                }
-            }
             transformer.setOutputProperty(OutputKeys.METHOD, "xml");
 
             final String omitXmlDeclarationString = omitXMLDeclaration ? "yes" : "false";
@@ -134,19 +316,18 @@ public final class DocumentBuilderFactoryUtil {
             transformer.transform(domSource, result);
             return baos.toByteArray();
         } finally {
-            TRANSFORMER_POOL.offer(transformer);
+            TRANSFORMER_POOL.release(transformer);
         }
     }
 
     @Nonnull
     public static Document newDocument() throws ParserConfigurationException {
         // See http://stackoverflow.com/questions/9828254/is-documentbuilderfactory-thread-safe-in-java-5
-        DocumentBuilder documentBuilder = DOCUMENT_BUILDER_POOL.poll();
+        DocumentBuilder documentBuilder = DOCUMENT_BUILDER_POOL.borrow();
         try {
-            documentBuilder = validateDocumentBuilder(documentBuilder);
             return documentBuilder.newDocument();
         } finally {
-            DOCUMENT_BUILDER_POOL.offer(documentBuilder);
+            DOCUMENT_BUILDER_POOL.release(documentBuilder);
         }
     }
 
@@ -163,18 +344,32 @@ public final class DocumentBuilderFactoryUtil {
         return documentBuilderFactory;
     }
 
+    /**
+     * Returns a new SAXParserFactory instance already set up with security features turned on.
+     *
+     * @return a new SAXParserFactory instance already set up with security features turned on.
+     * @throws ParserConfigurationException if one of the features is not supported
+     * @throws SAXException if one of the features is not recognized
+     * @since 1.1
+     */
+    @Nonnull
+    public static SAXParserFactory newSecureSAXParserFactory() throws ParserConfigurationException, SAXException {
+        SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+        configureSecurity(saxParserFactory);
+        return saxParserFactory;
+    }
+
     @Nonnull
     public static Document parse(@Nonnull InputStream xmlInputStream)
             throws IOException, SAXException, ParserConfigurationException {
         Preconditions.checkNotNull(xmlInputStream, "xmlInputStream");
 
         // See http://stackoverflow.com/questions/9828254/is-documentbuilderfactory-thread-safe-in-java-5
-        DocumentBuilder documentBuilder = DOCUMENT_BUILDER_POOL.poll();
+        DocumentBuilder documentBuilder = DOCUMENT_BUILDER_POOL.borrow();
         try {
-            documentBuilder = validateDocumentBuilder(documentBuilder);
             return documentBuilder.parse(xmlInputStream);
         } finally {
-            DOCUMENT_BUILDER_POOL.offer(documentBuilder);
+            DOCUMENT_BUILDER_POOL.release(documentBuilder);
         }
     }
 
@@ -194,33 +389,107 @@ public final class DocumentBuilderFactoryUtil {
         return parse(new ByteArrayInputStream(EidasStringUtil.getBytes(xmlString.trim())));
     }
 
+    /**
+     * Parses the given XML and validates it against the given schema in a single pass.
+     * <p>
+     * The secured parser feeds the same SAX events to a DOM builder and to a pooled validator of the schema, so the
+     * document is neither parsed nor traversed a second time for validation. The validator does not augment the
+     * returned DOM: schema default values are not added, the DOM is exactly the one returned by {@link
+     * #parse(InputStream)} (which matters for XML signatures).
+     *
+     * @param xmlInputStream the XML to parse
+     * @param schema the schema to validate the XML against
+     * @return the parsed and valid document
+     * @throws IOException if the XML cannot be read
+     * @throws SAXException if the XML is not well-formed or not valid
+     * @throws ParserConfigurationException if a parser cannot be created
+     * @since 1.1
+     */
+    @Nonnull
+    public static Document parseAndValidate(@Nonnull InputStream xmlInputStream, @Nonnull Schema schema)
+            throws IOException, SAXException, ParserConfigurationException {
+        Preconditions.checkNotNull(xmlInputStream, "xmlInputStream");
+        Preconditions.checkNotNull(schema, "schema");
+
+        ValidatorHandlerPool validatorHandlerPool = getValidatorHandlerPool(schema);
+        ValidatorHandler validatorHandler = validatorHandlerPool.borrow();
+        boolean completed = false;
+        try {
+            DomBuilderContentHandler domBuilder = new DomBuilderContentHandler(newDocument());
+            SAXParser saxParser = SAX_PARSER_POOL.borrow();
+            try {
+                XMLReader xmlReader = saxParser.getXMLReader();
+                xmlReader.setContentHandler(new TeeContentHandler(domBuilder, validatorHandler));
+                xmlReader.parse(new InputSource(xmlInputStream));
+            } finally {
+                SAX_PARSER_POOL.release(saxParser);
+            }
+            completed = true;
+            return domBuilder.getDocument();
+        } finally {
+            // only a validator which went through a complete document is reused
+            if (completed) {
+                validatorHandlerPool.release(validatorHandler);
+            } else {
+                validatorHandlerPool.invalidate(validatorHandler);
+            }
+        }
+    }
+
+    @Nonnull
+    public static Document parseAndValidate(@Nonnull byte[] xmlBytes, @Nonnull Schema schema)
+            throws IOException, SAXException, ParserConfigurationException {
+        Preconditions.checkNotNull(xmlBytes, "xmlBytes");
+
+        return parseAndValidate(new ByteArrayInputStream(xmlBytes), schema);
+    }
+
+    @Nonnull
+    public static Document parseAndValidate(@Nonnull String xmlString, @Nonnull Schema schema)
+            throws IOException, SAXException, ParserConfigurationException {
+        Preconditions.checkNotNull(xmlString, "xmlString");
+
+        return parseAndValidate(new ByteArrayInputStream(EidasStringUtil.getBytes(xmlString.trim())), schema);
+    }
+
     @Nonnull
     public static String toString(@Nonnull Node node) throws TransformerException {
         return EidasStringUtil.toString(marshall(node, true));
     }
 
     /**
-     * If the instance retrieved from the Pool is null, create a new one using a pooled factory.
+     * Returns the pools of parsers, transformers, validators and factories, to export their gauges.
      *
-     * @param documentBuilder a nullable instance
-     * @return a non-null instance
-     * @throws ParserConfigurationException if an instance could not be created
+     * @return the pools used by this class.
+     * @since 1.1
      */
     @Nonnull
-    private static DocumentBuilder validateDocumentBuilder(@Nullable DocumentBuilder documentBuilder)
-            throws ParserConfigurationException {
-        if (null == documentBuilder) {
-            DocumentBuilderFactory documentBuilderFactory = DOCUMENT_BUILDER_FACTORY_POOL.poll();
-            try {
-                if (null == documentBuilderFactory) {
-                    documentBuilderFactory = newSecureDocumentBuilderFactory();
-                }
-                documentBuilder = documentBuilderFactory.newDocumentBuilder();
-            } finally {
-                DOCUMENT_BUILDER_FACTORY_POOL.offer(documentBuilderFactory);
+    public static ImmutableList<XmlObjectPool<?, ?>> getPools() {
+        ImmutableList.Builder<XmlObjectPool<?, ?>> pools = ImmutableList.builder();
+        pools.add(DOCUMENT_BUILDER_FACTORY_POOL, DOCUMENT_BUILDER_POOL, TRANSFORMER_FACTORY_POOL, TRANSFORMER_POOL,
+                  SAX_PARSER_FACTORY_POOL, SAX_PARSER_POOL);
+        pools.addAll(VALIDATOR_HANDLER_POOLS.values());
+        return pools.build();
+    }
+
+    @Nonnull
+    private static ValidatorHandlerPool getValidatorHandlerPool(@Nonnull Schema schema) {
+        ValidatorHandlerPool pool = VALIDATOR_HANDLER_POOLS.get(schema);
+        if (null == pool) {
+            pool = new ValidatorHandlerPool(schema);
+            ValidatorHandlerPool existing = VALIDATOR_HANDLER_POOLS.putIfAbsent(schema, pool);
+            if (null != existing) {
+                pool = existing;
             }
         }
-        return documentBuilder;
+        return pool;
+    }
+
+    @Nonnull
+    private static ParserConfigurationException toParserConfigurationException(@Nonnull SAXException e) {
+        ParserConfigurationException pce = new ParserConfigurationException(e.getMessage());
+        pce.initCause(e);
+        return pce;
     }
 
     private DocumentBuilderFactoryUtil() {
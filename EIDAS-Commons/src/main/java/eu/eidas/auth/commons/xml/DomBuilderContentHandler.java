@@ -0,0 +1,123 @@
+package eu.eidas.auth.commons.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+
+/**
+ * Builds a namespace-aware DOM from SAX events the way a non-validating {@code DocumentBuilder} would: namespace
+ * declarations become {@code xmlns} attributes, adjacent character events are merged into a single text node, and
+ * comments are ignored.
+ *
+ * @since 1.1
+ */
+final class DomBuilderContentHandler implements ContentHandler {
+
+    @Nonnull
+    private final Document document;
+
+    private Node current;
+
+    private final List<String> pendingPrefixes = new ArrayList<String>();
+
+    private final List<String> pendingUris = new ArrayList<String>();
+
+    private final StringBuilder text = new StringBuilder();
+
+    DomBuilderContentHandler(@Nonnull Document document) {
+        this.document = document;
+        current = document;
+    }
+
+    @Nonnull
+    Document getDocument() {
+        return document;
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+    }
+
+    @Override
+    public void startDocument() {
+    }
+
+    @Override
+    public void endDocument() {
+        flushText();
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) {
+        pendingPrefixes.add(prefix);
+        pendingUris.add(uri);
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) {
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) {
+        flushText();
+        Element element = document.createElementNS(uri.isEmpty() ? null : uri, qName);
+        for (int i = 0, n = pendingPrefixes.size(); i < n; i++) {
+            String prefix = pendingPrefixes.get(i);
+            String name = prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ':' + prefix;
+            element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, pendingUris.get(i));
+        }
+        pendingPrefixes.clear();
+        pendingUris.clear();
+        for (int i = 0, n = atts.getLength(); i < n; i++) {
+            String attributeUri = atts.getURI(i);
+            element.setAttributeNS(attributeUri.isEmpty() ? null : attributeUri, atts.getQName(i), atts.getValue(i));
+        }
+        current.appendChild(element);
+        current = element;
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        flushText();
+        current = current.getParentNode();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        text.append(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        text.append(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) {
+        flushText();
+        current.appendChild(document.createProcessingInstruction(target, data));
+    }
+
+    @Override
+    public void skippedEntity(String name) {
+    }
+
+    private void flushText() {
+        if (text.length() > 0) {
+            // text outside of the document element is not part of the DOM
+            if (current != document) {
+                current.appendChild(document.createTextNode(text.toString()));
+            }
+            text.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package eu.eidas.auth.commons.xml;
+
+import javax.annotation.Nonnull;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * Forwards every SAX event to two {@link ContentHandler}s, the primary one first.
+ * <p>
+ * Used to build a DOM and validate it against a schema from the same parse, without the validator being able to alter
+ * what the DOM builder receives (e.g. by adding attributes defaulted by the schema).
+ *
+ * @since 1.1
+ */
+final class TeeContentHandler implements ContentHandler {
+
+    @Nonnull
+    private final ContentHandler primary;
+
+    @Nonnull
+    private final ContentHandler secondary;
+
+    TeeContentHandler(@Nonnull ContentHandler primary, @Nonnull ContentHandler secondary) {
+        this.primary = primary;
+        this.secondary = secondary;
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+        primary.setDocumentLocator(locator);
+        secondary.setDocumentLocator(locator);
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        primary.startDocument();
+        secondary.startDocument();
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        primary.endDocument();
+        secondary.endDocument();
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        primary.startPrefixMapping(prefix, uri);
+        secondary.startPrefixMapping(prefix, uri);
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+        primary.endPrefixMapping(prefix);
+        secondary.endPrefixMapping(prefix);
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        primary.startElement(uri, localName, qName, atts);
+        secondary.startElement(uri, localName, qName, atts);
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        primary.endElement(uri, localName, qName);
+        secondary.endElement(uri, localName, qName);
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        primary.characters(ch, start, length);
+        secondary.characters(ch, start, length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        primary.ignorableWhitespace(ch, start, length);
+        secondary.ignorableWhitespace(ch, start, length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        primary.processingInstruction(target, data);
+        secondary.processingInstruction(target, data);
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException {
+        primary.skippedEntity(name);
+        secondary.skippedEntity(name);
+    }
+}
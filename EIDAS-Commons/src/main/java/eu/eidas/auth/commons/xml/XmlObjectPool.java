@@ -0,0 +1,203 @@
+package eu.eidas.auth.commons.xml;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import eu.eidas.util.Preconditions;
+
+/**
+ * Bounded pool of XML objects which are expensive to create and not thread-safe (parsers, transformers, their
+ * factories...).
+ * <p>
+ * At most {@code maxIdle} instances are kept idle: instances returned while the pool is full are discarded, so that
+ * a burst of concurrent requests does not keep parser internals alive forever. Instances are reset before being
+ * returned to the pool, and instances which cannot be reset are discarded.
+ * <p>
+ * When the per-thread fast path is enabled, each thread keeps the last instance it returned and reuses it without
+ * touching the shared queue. This should only be enabled when the threads are long-lived and owned by the
+ * application (the instances are only released when the thread dies).
+ * <p>
+ * The pool exposes gauges of its borrowed, idle and created instances.
+ *
+ * @param <T> the type of the pooled instances
+ * @param <E> the type of the exception thrown when an instance cannot be created
+ * @since 1.1
+ */
+@ThreadSafe
+public abstract class XmlObjectPool<T, E extends Exception> {
+
+    @Nonnull
+    private final String name;
+
+    private final int maxIdle;
+
+    private final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    private final AtomicInteger borrowedCount = new AtomicInteger();
+
+    private final AtomicLong createdCount = new AtomicLong();
+
+    private final AtomicLong discardedCount = new AtomicLong();
+
+    @Nullable
+    private final ThreadLocal<T> perThread;
+
+    protected XmlObjectPool(@Nonnull String name, int maxIdle, boolean perThreadFastPath) {
+        Preconditions.checkNotBlank(name, "name");
+        Preconditions.checkNotNegative(maxIdle, "maxIdle");
+        this.name = name;
+        this.maxIdle = maxIdle;
+        perThread = perThreadFastPath ? new ThreadLocal<T>() : null;
+    }
+
+    /**
+     * Creates a new instance when none is available in the pool.
+     *
+     * @return a new instance
+     * @throws E if the instance cannot be created
+     */
+    @Nonnull
+    protected abstract T create() throws E;
+
+    /**
+     * Resets the given instance before it goes back to the pool.
+     *
+     * @param instance the returned instance
+     * @return {@code true} if the instance can be reused, {@code false} if it must be discarded.
+     */
+    protected boolean reset(@Nonnull T instance) {
+        return true;
+    }
+
+    /**
+     * Borrows an instance, which must be given back with {@link #release(Object)} (or {@link #invalidate(Object)}).
+     *
+     * @return an instance of the pool or a new instance
+     * @throws E if a new instance cannot be created
+     */
+    @Nonnull
+    public final T borrow() throws E {
+        T instance = null;
+        if (null != perThread) {
+            instance = perThread.get();
+            if (null != instance) {
+                perThread.set(null);
+            }
+        }
+        if (null == instance) {
+            instance = idle.poll();
+            if (null != instance) {
+                idleCount.decrementAndGet();
+            }
+        }
+        if (null == instance) {
+            instance = create();
+            createdCount.incrementAndGet();
+        }
+        borrowedCount.incrementAndGet();
+        return instance;
+    }
+
+    /**
+     * Gives back a borrowed instance, which is reset and kept if the pool is not full.
+     *
+     * @param instance the borrowed instance, {@code null} is ignored
+     */
+    public final void release(@Nullable T instance) {
+        if (null == instance) {
+            return;
+        }
+        borrowedCount.decrementAndGet();
+        boolean reusable;
+        try {
+            reusable = reset(instance);
+        } catch (RuntimeException ignored) {
+            reusable = false;
+        }
+        if (!reusable) {
+            discardedCount.incrementAndGet();
+            return;
+        }
+        if (null != perThread && null == perThread.get()) {
+            perThread.set(instance);
+            return;
+        }
+        if (idleCount.incrementAndGet() <= maxIdle) {
+            idle.offer(instance);
+        } else {
+            idleCount.decrementAndGet();
+            discardedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gives back a borrowed instance which must not be reused (e.g. left in an unknown state by an error).
+     *
+     * @param instance the borrowed instance, {@code null} is ignored
+     */
+    public final void invalidate(@Nullable T instance) {
+        if (null == instance) {
+            return;
+        }
+        borrowedCount.decrementAndGet();
+        discardedCount.incrementAndGet();
+    }
+
+    @Nonnull
+    public final String getName() {
+        return name;
+    }
+
+    public final int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * @return the number of instances currently borrowed.
+     */
+    public final int getBorrowedCount() {
+        return borrowedCount.get();
+    }
+
+    /**
+     * @return the number of instances currently idle in the shared pool (excluding the per-thread instances).
+     */
+    public final int getIdleCount() {
+        return idleCount.get();
+    }
+
+    /**
+     * @return the number of instances created since the pool was created.
+     */
+    public final long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * @return the number of instances discarded (pool full, reset failure or invalidation) since the pool was
+     * created.
+     */
+    public final long getDiscardedCount() {
+        return discardedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "XmlObjectPool{" +
+                "name='" + name + '\'' +
+                ", maxIdle=" + maxIdle +
+                ", borrowed=" + borrowedCount.get() +
+                ", idle=" + idleCount.get() +
+                ", created=" + createdCount.get() +
+                ", discarded=" + discardedCount.get() +
+                '}';
+    }
+}
@@ -0,0 +1,99 @@
+package eu.eidas.auth.commons;
+
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test for {@link EidasStringUtil}.
+ *
+ * @since 1.1
+ */
+public final class EidasStringUtilTest {
+
+    private static final int THREADS = 8;
+
+    private static final int VALUES = 10000;
+
+    private static String[] newRandomValues(long seed) {
+        Random random = new Random(seed);
+        String[] values = new String[VALUES];
+        for (int i = 0; i < values.length; i++) {
+            char[] chars = new char[1 + random.nextInt(30)];
+            for (int j = 0; j < chars.length; j++) {
+                // mostly ASCII, sometimes Latin-1 and sometimes Greek, Cyrillic or any other char
+                int kind = random.nextInt(20);
+                chars[j] = (char) (kind < 17 ? 0x20 + random.nextInt(0x5F)
+                                             : kind < 19 ? 0xA0 + random.nextInt(0x60) : 0x100 + random.nextInt(0xFF00));
+            }
+            values[i] = new String(chars);
+        }
+        return values;
+    }
+
+    @Test
+    public void testIsLatin1() {
+        assertThat(EidasStringUtil.isLatin1(""), is(true));
+        assertThat(EidasStringUtil.isLatin1("Juncker"), is(true));
+        assertThat(EidasStringUtil.isLatin1("J\u00E9r\u00F4me \u00D1\u00FA\u00F1ez \u00FF"), is(true));
+        assertThat(EidasStringUtil.isLatin1("\u0396\u03B1\u03BD-\u039A\u03BB\u03BF\u03BD\u03C4"), is(false));
+        assertThat(EidasStringUtil.isLatin1("Jean-Claude \u0100"), is(false));
+        assertThat(EidasStringUtil.isLatin1("\uD83D\uDE00"), is(false));
+    }
+
+    @Test
+    public void testIsLatin1MatchesCharsetEncoder() {
+        CharsetEncoder encoder = StandardCharsets.ISO_8859_1.newEncoder();
+        for (String value : newRandomValues(42L)) {
+            assertThat(value, EidasStringUtil.isLatin1(value), is(encoder.canEncode(value)));
+        }
+    }
+
+    @Test
+    public void testConcurrentIsLatin1() throws Exception {
+        final String[] values = newRandomValues(7L);
+        final boolean[] expected = new boolean[values.length];
+        CharsetEncoder encoder = StandardCharsets.ISO_8859_1.newEncoder();
+        for (int i = 0; i < values.length; i++) {
+            expected[i] = encoder.canEncode(values[i]);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < THREADS; t++) {
+                final int offset = t;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int mismatches = 0;
+                        for (int round = 0; round < 20; round++) {
+                            for (int i = 0; i < values.length; i++) {
+                                int index = (i + offset * 997) % values.length;
+                                if (EidasStringUtil.isLatin1(values[index]) != expected[index]) {
+                                    mismatches++;
+                                }
+                            }
+                        }
+                        return mismatches;
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertThat(future.get(), is(0));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
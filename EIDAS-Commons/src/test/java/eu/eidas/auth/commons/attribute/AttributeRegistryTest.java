@@ -1,5 +1,6 @@
 package eu.eidas.auth.commons.attribute;
 
+import javax.annotation.Nonnull;
 import javax.xml.namespace.QName;
 
 import com.google.common.collect.ImmutableSortedSet;
@@ -13,6 +14,8 @@ import eu.eidas.auth.commons.attribute.impl.StringAttributeValueMarshaller;
 
 import static org.hamcrest.CoreMatchers.endsWith;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.CoreMatchers.startsWith;
 import static org.junit.Assert.assertThat;
 
@@ -146,4 +149,28 @@ public final class AttributeRegistryTest {
         ImmutableSortedSet<AttributeDefinition<?>> attributes = attributeRegistry.getAttributes();
         assertThat(attributes.contains(TOTALLY_WRONG_ATTRIBUTE), is(Boolean.FALSE));
     }
+
+    @Test
+    public void testGetByName() throws Exception {
+        assertThat(attributeRegistry.getByName("http://eidas.europa.eu/attributes/naturalperson/CurrentFamilyName"),
+                   is((Object) CURRENT_FAMILY_NAME));
+        assertThat(attributeRegistry.getByName(CURRENT_FAMILY_NAME.getNameUri()), is((Object) CURRENT_FAMILY_NAME));
+        assertThat(attributeRegistry.getByName(TOTALLY_WRONG_ATTRIBUTE.getNameUri()), nullValue());
+        assertThat(attributeRegistry.getByFriendlyName("WrongAttribute").isEmpty(), is(Boolean.TRUE));
+    }
+
+    @Test
+    public void testFilteredViewsAreComputedOnce() throws Exception {
+        AttributeRegistry.AttributeDefinitionFilter filter = new AttributeRegistry.AttributeDefinitionFilter() {
+
+            @Override
+            public boolean accept(@Nonnull AttributeDefinition<?> attributeDefinition) {
+                return attributeDefinition.isUniqueIdentifier();
+            }
+        };
+
+        assertThat(attributeRegistry.getByRequired(true), sameInstance(attributeRegistry.getByRequired(true)));
+        assertThat(attributeRegistry.getByFilter(filter), sameInstance(attributeRegistry.getByFilter(filter)));
+        assertThat(attributeRegistry.getByFilter(filter), is(attributeRegistry.getByUniqueIdentifier(true)));
+    }
 }
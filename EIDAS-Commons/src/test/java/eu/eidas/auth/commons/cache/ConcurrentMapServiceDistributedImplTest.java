@@ -0,0 +1,140 @@
+package eu.eidas.auth.commons.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+
+import com.hazelcast.core.Hazelcast;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Integration test for {@link ConcurrentMapServiceDistributedImpl} running an embedded two-member cluster on the
+ * loopback interface.
+ *
+ * @since 1.1
+ */
+public final class ConcurrentMapServiceDistributedImplTest {
+
+    private static final String MEMBER_1_CONFIG = "hazelcastTestMember1.xml";
+
+    private static final String MEMBER_2_CONFIG = "hazelcastTestMember2.xml";
+
+    private static final long TIMEOUT_MILLIS = 20000L;
+
+    private final List<ConcurrentMapServiceDistributedImpl> services =
+            new ArrayList<ConcurrentMapServiceDistributedImpl>();
+
+    @AfterClass
+    public static void tearDownClass() {
+        Hazelcast.shutdownAll();
+    }
+
+    @After
+    public void tearDown() {
+        for (ConcurrentMapServiceDistributedImpl service : services) {
+            service.destroy();
+        }
+        services.clear();
+    }
+
+    private ConcurrentMapServiceDistributedImpl newService(String config, String cacheName) {
+        ConcurrentMapServiceDistributedImpl service = new ConcurrentMapServiceDistributedImpl();
+        service.setHazelcastXmlConfigClassPathFileName(config);
+        service.setCacheName(cacheName);
+        services.add(service);
+        return service;
+    }
+
+    private static String awaitRemoval(ConcurrentMap<String, String> map, String key) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        String value = map.get(key);
+        while (null != value && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100L);
+            value = map.get(key);
+        }
+        return value;
+    }
+
+    @Test
+    public void testMapsShareOneInstance() {
+        int instancesBefore = Hazelcast.getAllHazelcastInstances().size();
+
+        ConcurrentMap<String, String> first = newService(MEMBER_1_CONFIG, "first").getNewMapCache();
+        ConcurrentMap<String, String> second = newService(MEMBER_1_CONFIG, "second").getNewMapCache();
+        first.put("key", "first");
+        second.put("key", "second");
+
+        assertThat(Hazelcast.getAllHazelcastInstances().size(), is(instancesBefore + 1));
+        assertThat(first.get("key"), is("first"));
+        assertThat(second.get("key"), is("second"));
+
+        tearDown();
+
+        assertThat(Hazelcast.getAllHazelcastInstances().size(), is(instancesBefore));
+    }
+
+    @Test
+    public void testEntriesAreSharedBetweenMembers() throws Exception {
+        // the near-cache invalidations are sent by the owner of the key, so every member is configured alike
+        ConcurrentMapServiceDistributedImpl member1Service = newService(MEMBER_1_CONFIG, "shared");
+        member1Service.setNearCacheEnabled(true);
+        ConcurrentMap<String, String> onMember1 = member1Service.getNewMapCache();
+        ConcurrentMapServiceDistributedImpl member2Service = newService(MEMBER_2_CONFIG, "shared");
+        member2Service.setNearCacheEnabled(true);
+        ConcurrentMap<String, String> onMember2 = member2Service.getNewMapCache();
+
+        onMember1.put("key", "value");
+
+        assertThat(onMember2.get("key"), is("value"));
+        // served by the near-cache, then invalidated by the removal on the other member
+        assertThat(onMember2.get("key"), is("value"));
+        onMember1.remove("key");
+        assertThat(awaitRemoval(onMember2, "key"), is(nullValue()));
+    }
+
+    @Test
+    public void testTimeToLiveIsApplied() throws Exception {
+        ConcurrentMapServiceDistributedImpl service = newService(MEMBER_1_CONFIG, "expiring");
+        service.setTimeToLiveSeconds(1);
+        ConcurrentMap<String, String> map = service.getNewMapCache();
+
+        map.put("key", "value");
+
+        assertThat(awaitRemoval(map, "key"), is(nullValue()));
+    }
+
+    @Test
+    public void testServiceAcquiresTheInstanceOnce() {
+        int instancesBefore = Hazelcast.getAllHazelcastInstances().size();
+        ConcurrentMapServiceDistributedImpl service = newService(MEMBER_1_CONFIG, "reused");
+
+        ConcurrentMap<String, String> first = service.getNewMapCache();
+        ConcurrentMap<String, String> second = service.getNewMapCache();
+        first.put("key", "value");
+        assertThat(second.get("key"), is("value"));
+
+        // a single release shuts the instance down:
+        service.close();
+
+        assertThat(Hazelcast.getAllHazelcastInstances().size(), is(instancesBefore));
+    }
+
+    @Test
+    public void testSettingsOfAnExistingMapAreKept() {
+        ConcurrentMapServiceDistributedImpl first = newService(MEMBER_1_CONFIG, "configured");
+        first.setTimeToLiveSeconds(3600);
+        first.getNewMapCache();
+        ConcurrentMapServiceDistributedImpl second = newService(MEMBER_1_CONFIG, "configured");
+        second.setTimeToLiveSeconds(1);
+        second.getNewMapCache();
+
+        assertThat(second.getInstance().getConfig().getMapConfig("configured").getTimeToLiveSeconds(), is(3600));
+    }
+}
@@ -0,0 +1,205 @@
+package eu.eidas.auth.commons.cache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.base.Ticker;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test for {@link OffHeapConcurrentMap}.
+ *
+ * @since 1.1
+ */
+public final class OffHeapConcurrentMapTest {
+
+    private static final class StringCodec implements OffHeapConcurrentMap.ValueCodec<String> {
+
+        @Nonnull
+        @Override
+        public byte[] encode(@Nonnull String value) throws IOException {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Nonnull
+        @Override
+        public String decode(@Nonnull byte[] bytes) throws IOException {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class FakeTicker extends Ticker {
+
+        private long nanos = 123456789L;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long time, TimeUnit unit) {
+            nanos += unit.toNanos(time);
+        }
+    }
+
+    private final FakeTicker ticker = new FakeTicker();
+
+    private OffHeapConcurrentMap<String> newMap(long maximumSize, long maximumBytes, int concurrencyLevel) {
+        return new OffHeapConcurrentMap<String>(new StringCodec(), 30L, TimeUnit.MINUTES, maximumSize, maximumBytes,
+                                                concurrencyLevel, ticker);
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        OffHeapConcurrentMap<String> map = newMap(1000L, 1024L * 1024L, 4);
+
+        assertThat(map.put("id", "first"), is(nullValue()));
+        assertThat(map.put("id", "second"), is("first"));
+        assertThat(map.get("id"), is("second"));
+        assertThat(map.containsKey("id"), is(true));
+        assertThat(map.size(), is(1));
+        assertThat(map.remove("id"), is("second"));
+        assertThat(map.get("id"), is(nullValue()));
+        assertThat(map.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testConditionalOperations() {
+        OffHeapConcurrentMap<String> map = newMap(1000L, 1024L * 1024L, 4);
+
+        assertThat(map.putIfAbsent("id", "first"), is(nullValue()));
+        assertThat(map.putIfAbsent("id", "second"), is("first"));
+        assertThat(map.replace("id", "second", "third"), is(false));
+        assertThat(map.replace("id", "first", "third"), is(true));
+        assertThat(map.replace("id", "fourth"), is("third"));
+        assertThat(map.replace("other", "fourth"), is(nullValue()));
+        assertThat(map.remove("id", "third"), is(false));
+        assertThat(map.remove("id", "fourth"), is(true));
+        assertThat(map.isEmpty(), is(true));
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        OffHeapConcurrentMap<String> map = newMap(1000L, 1024L * 1024L, 4);
+        map.put("old", "value");
+        ticker.advance(20L, TimeUnit.MINUTES);
+        map.put("recent", "value");
+
+        ticker.advance(11L, TimeUnit.MINUTES);
+
+        assertThat(map.get("old"), is(nullValue()));
+        assertThat(map.get("recent"), is("value"));
+        assertThat(map.size(), is(1));
+
+        ticker.advance(20L, TimeUnit.MINUTES);
+        map.cleanUp();
+
+        assertThat(map.size(), is(0));
+        OffHeapMapStatistics statistics = map.getStatistics();
+        assertThat(statistics.getExpirationCount(), is(2L));
+        assertThat(statistics.getHitCount(), is(1L));
+        assertThat(statistics.getMissCount(), is(1L));
+        assertThat(statistics.getUsedBytes(), is(0L));
+    }
+
+    @Test
+    public void testEntriesClosestToExpiryAreEvicted() {
+        OffHeapConcurrentMap<String> map = newMap(3L, 1024L * 1024L, 1);
+        for (int i = 0; i < 5; i++) {
+            map.put("id" + i, "value" + i);
+            ticker.advance(1L, TimeUnit.MINUTES);
+        }
+
+        assertThat(map.size(), is(3));
+        assertThat(map.get("id0"), is(nullValue()));
+        assertThat(map.get("id1"), is(nullValue()));
+        assertThat(map.get("id4"), is("value4"));
+        assertThat(map.getStatistics().getEvictionCount(), is(2L));
+    }
+
+    @Test
+    public void testBufferIsGrownAndCompacted() {
+        OffHeapConcurrentMap<String> map = newMap(100000L, 8L * 1024L * 1024L, 2);
+        Map<String, String> expected = new HashMap<String, String>();
+        Random random = new Random(42L);
+
+        for (int i = 0; i < 200000; i++) {
+            String key = "_" + random.nextInt(20000);
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key), is(expected.remove(key)));
+            } else {
+                String value = "value-" + i;
+                assertThat(map.put(key, value), is(expected.put(key, value)));
+            }
+        }
+
+        assertThat(map.size(), is(expected.size()));
+        assertThat(map.entrySet(), is(expected.entrySet()));
+        assertThat(map.getStatistics().getEvictionCount(), is(0L));
+    }
+
+    @Test
+    public void testBufferIsCompactedInPlace() {
+        OffHeapConcurrentMap<String> map = newMap(1000L, 1024L * 1024L, 1);
+        Map<String, String> expected = new HashMap<String, String>();
+        Random random = new Random(42L);
+
+        // few live entries rewritten many times: the segment is compacted without growing
+        for (int i = 0; i < 100000; i++) {
+            String key = "_" + random.nextInt(50);
+            String value = "value-" + i + new String(new char[random.nextInt(100)]).replace('\0', 'x');
+            assertThat(map.put(key, value), is(expected.put(key, value)));
+        }
+
+        assertThat(map.entrySet(), is(expected.entrySet()));
+        assertThat(map.getStatistics().getCapacityBytes(), is(64L * 1024L));
+        assertThat(map.getStatistics().getEvictionCount(), is(0L));
+    }
+
+    @Test
+    public void testFullSegmentEvicts() {
+        OffHeapConcurrentMap<String> map = newMap(100000L, 64L * 1024L, 1);
+
+        for (int i = 0; i < 10000; i++) {
+            map.put("id" + i, "value" + i);
+        }
+
+        OffHeapMapStatistics statistics = map.getStatistics();
+        assertThat(statistics.getEvictionCount() > 0L, is(true));
+        assertThat(statistics.getCapacityBytes(), is(64L * 1024L));
+        assertThat(map.get("id9999"), is("value9999"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEntryLargerThanSegment() {
+        OffHeapConcurrentMap<String> map = newMap(1000L, 1024L, 1);
+
+        map.put("id", new String(new char[2048]));
+    }
+
+    @Test
+    public void testClear() {
+        OffHeapConcurrentMap<String> map = newMap(1000L, 1024L * 1024L, 4);
+        for (int i = 0; i < 100; i++) {
+            map.put("id" + i, "value" + i);
+        }
+
+        map.clear();
+
+        assertThat(map.size(), is(0));
+        assertThat(map.get("id1"), is(nullValue()));
+        map.put("id1", "value");
+        assertThat(map.get("id1"), is("value"));
+    }
+}
@@ -0,0 +1,146 @@
+package eu.eidas.auth.commons.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test for {@link ReloadableFileAccessor} and {@link FileChangeMonitor}.
+ *
+ * @since 1.1
+ */
+public final class ReloadableFileAccessorTest {
+
+    private static final class CountingStringMarshaller implements FileMarshaller<String> {
+
+        private final AtomicInteger unmarshalCount = new AtomicInteger();
+
+        @Override
+        public void marshal(@Nonnull String newValue, @Nonnull File output) throws IOException {
+            Files.write(output.toPath(), newValue.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Nonnull
+        @Override
+        public String unmarshal(@Nonnull File input) throws IOException {
+            unmarshalCount.incrementAndGet();
+            return new String(Files.readAllBytes(input.toPath()), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final long TIMEOUT_MILLIS = 10000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FileChangeMonitor monitor;
+
+    private CountingStringMarshaller marshaller;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        monitor = new FileChangeMonitor(50L);
+        marshaller = new CountingStringMarshaller();
+        file = temporaryFolder.newFile("reloadable.txt");
+        marshaller.marshal("first", file);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        monitor.close();
+    }
+
+    private ReloadableFileAccessor<String> newAccessor(FileChangeMonitor fileChangeMonitor) throws IOException {
+        return new ReloadableFileAccessor<String>(marshaller, file.getAbsolutePath(), file.toURI().toURL(),
+                                                  fileChangeMonitor);
+    }
+
+    private void modifyFile(String content) throws IOException {
+        long lastModified = file.lastModified();
+        marshaller.marshal(content, file);
+        // make sure the modification date changes on filesystems with a coarse resolution
+        file.setLastModified(lastModified + 2000L);
+    }
+
+    private static String awaitValue(ReloadableFileAccessor<String> accessor, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        String value = accessor.get();
+        while (!expected.equals(value) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+            value = accessor.get();
+        }
+        return value;
+    }
+
+    @Test
+    public void testUnmodifiedFileIsNotReloaded() throws Exception {
+        ReloadableFileAccessor<String> accessor = newAccessor(monitor);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(accessor.get(), is("first"));
+        }
+        assertThat(marshaller.unmarshalCount.get(), is(1));
+    }
+
+    @Test
+    public void testModifiedFileIsReloaded() throws Exception {
+        ReloadableFileAccessor<String> accessor = newAccessor(monitor);
+        assertThat(accessor.get(), is("first"));
+
+        modifyFile("second");
+
+        assertThat(awaitValue(accessor, "second"), is("second"));
+        assertThat(marshaller.unmarshalCount.get(), is(2));
+    }
+
+    @Test
+    public void testFileChangeIsFlagged() throws Exception {
+        FileChangeMonitor.Watch watch = monitor.watch(file);
+        assertThat(watch.clearChanged(), is(true));
+        assertThat(watch.isChanged(), is(false));
+
+        modifyFile("second");
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!watch.isChanged() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(watch.isChanged(), is(true));
+    }
+
+    @Test
+    public void testWithoutMonitorModifiedFileIsReloadedImmediately() throws Exception {
+        ReloadableFileAccessor<String> accessor = newAccessor(null);
+        assertThat(accessor.get(), is("first"));
+
+        modifyFile("second");
+
+        assertThat(accessor.get(), is("second"));
+    }
+
+    @Test
+    public void testSetWritesTheFile() throws Exception {
+        ReloadableFileAccessor<String> accessor = newAccessor(monitor);
+        assertThat(accessor.get(), is("first"));
+
+        accessor.set("written");
+
+        assertThat(accessor.get(), is("written"));
+        assertThat(marshaller.unmarshal(file), is("written"));
+    }
+}
@@ -0,0 +1,202 @@
+package eu.eidas.auth.commons.tx;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.attribute.PersonType;
+import eu.eidas.auth.commons.attribute.impl.StringAttributeValue;
+import eu.eidas.auth.commons.attribute.impl.StringAttributeValueMarshaller;
+import eu.eidas.auth.commons.light.impl.LightRequest;
+import eu.eidas.auth.commons.protocol.eidas.LevelOfAssuranceComparison;
+import eu.eidas.auth.commons.protocol.eidas.SpType;
+import eu.eidas.auth.commons.protocol.eidas.impl.EidasAuthenticationRequest;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+/**
+ * JUnit test for {@link StoredRequestCodec}.
+ *
+ * @since 1.1
+ */
+public final class StoredRequestCodecTest {
+
+    private static final AttributeDefinition<String> CURRENT_FAMILY_NAME =
+            new AttributeDefinition.Builder<String>().nameUri(
+                    "http://eidas.europa.eu/attributes/naturalperson/CurrentFamilyName")
+                    .friendlyName("FamilyName")
+                    .personType(PersonType.NATURAL_PERSON)
+                    .required(true)
+                    .xmlType("http://eidas.europa.eu/attributes/naturalperson", "CurrentFamilyNameType",
+                             "eidas-natural")
+                    .attributeValueMarshaller(new StringAttributeValueMarshaller())
+                    .build();
+
+    private static final AttributeDefinition<String> CURRENT_GIVEN_NAME =
+            new AttributeDefinition.Builder<String>().nameUri(
+                    "http://eidas.europa.eu/attributes/naturalperson/CurrentGivenName")
+                    .friendlyName("FirstName")
+                    .personType(PersonType.NATURAL_PERSON)
+                    .required(false)
+                    .xmlType("http://eidas.europa.eu/attributes/naturalperson", "CurrentGivenNameType",
+                             "eidas-natural")
+                    .attributeValueMarshaller(new StringAttributeValueMarshaller())
+                    .build();
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static ImmutableAttributeMap newAttributeMap() {
+        return new ImmutableAttributeMap.Builder().put(CURRENT_FAMILY_NAME,
+                                                       new StringAttributeValue("Juncker", false))
+                .put(CURRENT_GIVEN_NAME, new StringAttributeValue("Jean-Claude", false),
+                     new StringAttributeValue("Ζαν-Κλοντ", true))
+                .build();
+    }
+
+    private static StoredLightRequest newStoredLightRequest() {
+        return StoredLightRequest.builder()
+                .relayState("relayState")
+                .remoteIpAddress("127.0.0.1")
+                .request(LightRequest.builder()
+                                 .id("_1")
+                                 .issuer("https://source.europa.eu/metadata")
+                                 .citizenCountryCode("BE")
+                                 .levelOfAssurance("http://eidas.europa.eu/LoA/high")
+                                 .providerName("Prov")
+                                 .requestedAttributes(newAttributeMap())
+                                 .build())
+                .build();
+    }
+
+    private static StoredAuthenticationRequest newStoredAuthenticationRequest() {
+        return StoredAuthenticationRequest.builder()
+                .remoteIpAddress("127.0.0.1")
+                .request(EidasAuthenticationRequest.builder()
+                                 .id("_2")
+                                 .issuer("https://source.europa.eu/metadata")
+                                 .destination("https://destination.europa.eu")
+                                 .citizenCountryCode("BE")
+                                 .originCountryCode("BE")
+                                 .providerName("Prov")
+                                 .levelOfAssurance("http://eidas.europa.eu/LoA/substantial")
+                                 .levelOfAssuranceComparison(LevelOfAssuranceComparison.MINIMUM)
+                                 .spType(SpType.PUBLIC)
+                                 .assertionConsumerServiceURL("https://source.europa.eu/metadata")
+                                 .requestedAttributes(newAttributeMap())
+                                 .build())
+                .build();
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return input.readObject();
+        }
+    }
+
+    @Test
+    public void testStoredLightRequestRoundTrip() throws Exception {
+        StoredLightRequest storedRequest = newStoredLightRequest();
+
+        AbstractStoredRequest<?> decoded =
+                StoredRequestCodec.getInstance().decode(StoredRequestCodec.getInstance().encode(storedRequest));
+
+        assertThat(decoded, is((Object) storedRequest));
+        assertThat(decoded, is(deserialize(serialize(storedRequest))));
+    }
+
+    @Test
+    public void testStoredAuthenticationRequestRoundTrip() throws Exception {
+        StoredAuthenticationRequest storedRequest = newStoredAuthenticationRequest();
+
+        AbstractStoredRequest<?> decoded =
+                StoredRequestCodec.getInstance().decode(StoredRequestCodec.getInstance().encode(storedRequest));
+
+        assertThat(decoded, is((Object) storedRequest));
+        assertThat(decoded, is(deserialize(serialize(storedRequest))));
+    }
+
+    @Test
+    public void testEncodingIsSmallerThanSerialization() throws Exception {
+        StoredAuthenticationRequest storedRequest = newStoredAuthenticationRequest();
+
+        assertThat(StoredRequestCodec.getInstance().encode(storedRequest).length,
+                   lessThan(serialize(storedRequest).length));
+    }
+
+    @Test
+    public void testUnknownVersion() throws Exception {
+        byte[] bytes = StoredRequestCodec.getInstance().encode(newStoredLightRequest());
+        bytes[0] = (byte) (StoredRequestCodec.FORMAT_VERSION + 1);
+
+        thrown.expect(IOException.class);
+        StoredRequestCodec.getInstance().decode(bytes);
+    }
+
+    @Test
+    public void testTruncatedInput() throws Exception {
+        byte[] bytes = StoredRequestCodec.getInstance().encode(newStoredLightRequest());
+        byte[] truncated = new byte[bytes.length / 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+        thrown.expect(IOException.class);
+        StoredRequestCodec.getInstance().decode(truncated);
+    }
+
+    @Test
+    public void testNegativeStringLength() throws Exception {
+        byte[] bytes = StoredRequestCodec.getInstance().encode(newStoredLightRequest());
+        // the length of the relay state follows the version and the stored request type:
+        writeInt(bytes, 2, -2);
+
+        thrown.expect(IOException.class);
+        thrown.expectMessage("Invalid length");
+        StoredRequestCodec.getInstance().decode(bytes);
+    }
+
+    @Test
+    public void testStringLengthBeyondTheInput() throws Exception {
+        byte[] bytes = StoredRequestCodec.getInstance().encode(newStoredLightRequest());
+        writeInt(bytes, 2, Integer.MAX_VALUE);
+
+        thrown.expect(IOException.class);
+        thrown.expectMessage("remaining bytes");
+        StoredRequestCodec.getInstance().decode(bytes);
+    }
+
+    @Test
+    public void testStringLengthBeyondAnInputOfUnknownSize() throws Exception {
+        byte[] bytes = StoredRequestCodec.getInstance().encode(newStoredLightRequest());
+        writeInt(bytes, 2, Integer.MAX_VALUE);
+
+        thrown.expect(EOFException.class);
+        StoredRequestCodec.getInstance().read(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+}
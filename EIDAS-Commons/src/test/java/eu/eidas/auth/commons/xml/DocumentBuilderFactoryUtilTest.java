@@ -0,0 +1,109 @@
+package eu.eidas.auth.commons.xml;
+
+import java.io.StringReader;
+import java.lang.ref.WeakReference;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.SAXException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * JUnit test for {@link DocumentBuilderFactoryUtil}.
+ *
+ * @since 1.1
+ */
+public final class DocumentBuilderFactoryUtilTest {
+
+    private static final String SCHEMA = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" "
+            + "targetNamespace=\"urn:test\" elementFormDefault=\"qualified\">"
+            + "<xs:element name=\"root\"><xs:complexType><xs:sequence>"
+            + "<xs:element name=\"value\" maxOccurs=\"unbounded\"><xs:complexType><xs:simpleContent>"
+            + "<xs:extension base=\"xs:string\">"
+            + "<xs:attribute name=\"LatinScript\" type=\"xs:boolean\" default=\"true\"/>"
+            + "</xs:extension></xs:simpleContent></xs:complexType></xs:element>"
+            + "</xs:sequence></xs:complexType></xs:element></xs:schema>";
+
+    private static final String VALID_XML =
+            "<t:root xmlns:t=\"urn:test\"><t:value>first</t:value><t:value LatinScript=\"false\">second</t:value>"
+                    + "</t:root>";
+
+    private static Schema schema;
+
+    private static Schema newSchema() throws SAXException {
+        return SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
+                .newSchema(new StreamSource(new StringReader(SCHEMA)));
+    }
+
+    private static void awaitCollected(WeakReference<?> reference) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (null != reference.get() && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        assertNull(reference.get());
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        schema = newSchema();
+    }
+
+    @Test
+    public void testParseAndValidateReturnsTheNonValidatingDom() throws Exception {
+        for (int i = 0; i < 2; i++) {
+            Document document = DocumentBuilderFactoryUtil.parseAndValidate(VALID_XML, schema);
+
+            assertEquals(DocumentBuilderFactoryUtil.toString(DocumentBuilderFactoryUtil.parse(VALID_XML)),
+                         DocumentBuilderFactoryUtil.toString(document));
+            Element first = (Element) document.getDocumentElement().getFirstChild();
+            assertEquals("urn:test", first.getNamespaceURI());
+            // the default value of the schema must not be added (it would break XML signatures):
+            assertFalse(first.hasAttribute("LatinScript"));
+        }
+    }
+
+    @Test(expected = SAXException.class)
+    public void testParseAndValidateInvalid() throws Exception {
+        DocumentBuilderFactoryUtil.parseAndValidate("<t:root xmlns:t=\"urn:test\"><t:other/></t:root>", schema);
+    }
+
+    @Test(expected = SAXException.class)
+    public void testParseAndValidateDisallowsDoctype() throws Exception {
+        DocumentBuilderFactoryUtil.parseAndValidate(
+                "<!DOCTYPE root [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><t:root xmlns:t=\"urn:test\">"
+                        + "<t:value>&e;</t:value></t:root>", schema);
+    }
+
+    @Test
+    public void testPooledParsersDoNotKeepTheLastDocument() throws Exception {
+        Document document = DocumentBuilderFactoryUtil.parseAndValidate(VALID_XML, schema);
+        WeakReference<Document> reference = new WeakReference<Document>(document);
+        document = null;
+
+        awaitCollected(reference);
+    }
+
+    @Test
+    public void testValidatorHandlerPoolDoesNotKeepItsSchema() throws Exception {
+        Schema pooledSchema = newSchema();
+        DocumentBuilderFactoryUtil.ValidatorHandlerPool pool =
+                new DocumentBuilderFactoryUtil.ValidatorHandlerPool(pooledSchema);
+        pool.invalidate(pool.borrow());
+        WeakReference<Schema> reference = new WeakReference<Schema>(pooledSchema);
+        pooledSchema = null;
+
+        awaitCollected(reference);
+        assertEquals(1L, pool.getCreatedCount());
+    }
+}
@@ -0,0 +1,108 @@
+package eu.eidas.auth.commons.xml;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * JUnit test for {@link XmlObjectPool}.
+ *
+ * @since 1.1
+ */
+public final class XmlObjectPoolTest {
+
+    private static final class StringBuilderPool extends XmlObjectPool<StringBuilder, RuntimeException> {
+
+        StringBuilderPool(int maxIdle, boolean perThreadFastPath) {
+            super("StringBuilder", maxIdle, perThreadFastPath);
+        }
+
+        @Nonnull
+        @Override
+        protected StringBuilder create() {
+            return new StringBuilder();
+        }
+
+        @Override
+        protected boolean reset(@Nonnull StringBuilder instance) {
+            if (instance.length() > 16) {
+                return false;
+            }
+            instance.setLength(0);
+            return true;
+        }
+    }
+
+    @Test
+    public void testReleasedInstanceIsResetAndReused() {
+        StringBuilderPool pool = new StringBuilderPool(1, false);
+
+        StringBuilder first = pool.borrow();
+        first.append("dirty");
+        assertEquals(1, pool.getBorrowedCount());
+        pool.release(first);
+
+        StringBuilder second = pool.borrow();
+        assertSame(first, second);
+        assertEquals(0, second.length());
+        assertEquals(1L, pool.getCreatedCount());
+    }
+
+    @Test
+    public void testIdleInstancesAreBounded() {
+        StringBuilderPool pool = new StringBuilderPool(1, false);
+
+        StringBuilder first = pool.borrow();
+        StringBuilder second = pool.borrow();
+        assertEquals(2, pool.getBorrowedCount());
+        pool.release(first);
+        pool.release(second);
+
+        assertEquals(0, pool.getBorrowedCount());
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(2L, pool.getCreatedCount());
+        assertEquals(1L, pool.getDiscardedCount());
+    }
+
+    @Test
+    public void testInstancesWhichCannotBeResetAreDiscarded() {
+        StringBuilderPool pool = new StringBuilderPool(1, false);
+
+        StringBuilder first = pool.borrow();
+        first.append("more than sixteen characters");
+        pool.release(first);
+
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(1L, pool.getDiscardedCount());
+        assertNotSame(first, pool.borrow());
+    }
+
+    @Test
+    public void testInvalidatedInstancesAreDiscarded() {
+        StringBuilderPool pool = new StringBuilderPool(1, false);
+
+        StringBuilder first = pool.borrow();
+        pool.invalidate(first);
+
+        assertEquals(0, pool.getBorrowedCount());
+        assertEquals(0, pool.getIdleCount());
+        assertNotSame(first, pool.borrow());
+    }
+
+    @Test
+    public void testPerThreadFastPath() {
+        StringBuilderPool pool = new StringBuilderPool(0, true);
+
+        StringBuilder first = pool.borrow();
+        pool.release(first);
+
+        // kept by the thread, not in the shared pool:
+        assertEquals(0, pool.getIdleCount());
+        assertSame(first, pool.borrow());
+        assertEquals(1L, pool.getCreatedCount());
+    }
+}
@@ -23,36 +23,40 @@
 package eu.eidas.encryption;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.crypto.SecretKey;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 
+import org.opensaml.saml2.core.Assertion;
 import org.opensaml.saml2.core.EncryptedAssertion;
 import org.opensaml.saml2.core.Response;
 import org.opensaml.saml2.encryption.Decrypter;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.encryption.CipherData;
+import org.opensaml.xml.encryption.EncryptedData;
 import org.opensaml.xml.encryption.EncryptedKey;
-import org.opensaml.xml.security.SecurityHelper;
-import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.io.Unmarshaller;
+import org.opensaml.xml.io.UnmarshallerFactory;
+import org.opensaml.xml.io.UnmarshallingException;
 import org.opensaml.xml.security.keyinfo.StaticKeyInfoCredentialResolver;
 import org.opensaml.xml.security.x509.X509Credential;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.w3c.dom.Document;
 import org.w3c.dom.DocumentFragment;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import eu.eidas.auth.commons.EidasStringUtil;
 import eu.eidas.auth.commons.xml.DocumentBuilderFactoryUtil;
 import eu.eidas.auth.commons.xml.opensaml.OpenSamlHelper;
 import eu.eidas.encryption.exception.DecryptionException;
 import eu.eidas.encryption.exception.MarshallException;
-import eu.eidas.encryption.exception.UnmarshallException;
 
 /**
  * Low-level implementation of the OpenSAML decryption process.
@@ -68,6 +72,44 @@ public final class SAMLAuthnResponseDecrypter {
         this.jcaProviderName = jcaProviderName;
     }
 
+    @Nullable
+    private static String getCipherValue(@Nonnull EncryptedKey encryptedKey) {
+        CipherData cipherData = encryptedKey.getCipherData();
+        if (null == cipherData || null == cipherData.getCipherValue()) {
+            return null;
+        }
+        return cipherData.getCipherValue().getValue();
+    }
+
+    /**
+     * Returns the first element of the given decrypted fragment, skipping the text nodes (e.g. whitespace) which may
+     * precede it in the decrypted data.
+     */
+    @Nullable
+    private static Element getFirstElement(@Nonnull DocumentFragment fragment) {
+        for (Node child = fragment.getFirstChild(); null != child; child = child.getNextSibling()) {
+            if (Node.ELEMENT_NODE == child.getNodeType()) {
+                return (Element) child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Decrypts the assertions of the given response in place: each EncryptedAssertion is replaced by its decrypted
+     * Assertion in the cached DOM of the response and in the XMLObject tree, at the same position among the assertions.
+     * <p>
+     * When an assertion cannot be decrypted, the encrypted assertions already replaced in the DOM are put back, so that
+     * the DOM and the XMLObject tree of the response still hold the original encrypted assertions.
+     * <p>
+     * The decrypters are shared by all the assertions of the response and a symmetric key shared by several
+     * assertions is decrypted only once.
+     * <p>
+     * Only the decrypted assertions are unmarshalled, directly from the DOM of the response: their unmarshallers
+     * register the ID attributes in that DOM (which the validation of the assertion signatures relies on, see
+     * http://shibboleth.net/pipermail/dev/2012-April/000624.html and https://issues.apache.org/jira/browse/XERCESJ-1022)
+     * without copying nor unmarshalling the whole response again.
+     */
     @Nonnull
     private Response performDecryption(@Nonnull Response samlResponseDecryptee, @Nonnull X509Credential credential)
             throws DecryptionException, MarshallException {
@@ -77,115 +119,132 @@ public final class SAMLAuthnResponseDecrypter {
                 LOGGER.trace("SAML Response XMLObject to decrypt: " + EidasStringUtil.toString(
                         OpenSamlHelper.marshall(samlResponseDecryptee)));
             }
-            List<DocumentFragment> decryptedAssertionFragments = new ArrayList<>();
-            for (EncryptedAssertion encAssertion : samlResponseDecryptee.getEncryptedAssertions()) {
-                EncryptedKey encryptedSymmetricKey =
-                        encAssertion.getEncryptedData().getKeyInfo().getEncryptedKeys().get(0);
-
-                //KEY DECRYPTER
-                Decrypter keyDecrypter = new Decrypter(null, new StaticKeyInfoCredentialResolver(credential), null);
-                SecretKey dataDecKey = (SecretKey) keyDecrypter.decryptKey(encryptedSymmetricKey,
-                                                                           encAssertion.getEncryptedData()
-                                                                                   .getEncryptionMethod()
-                                                                                   .getAlgorithm());
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("SAML Response decrypting with data encryption algorithm: '"
-                                         + encAssertion.getEncryptedData().getEncryptionMethod().getAlgorithm() + "'");
-                }
-
-                //DATA DECRYPTER
-                Credential dataDecCredential = SecurityHelper.getSimpleCredential(dataDecKey);
-                Decrypter dataDecrypter =
-                        new Decrypter(new StaticKeyInfoCredentialResolver(dataDecCredential), null, null);
-                dataDecrypter.setRootInNewDocument(false);
-                if (getJcaProviderName() != null) {
-                    dataDecrypter.setJCAProviderName(getJcaProviderName());
-                }
-                //https://jira.spring.io/browse/SES-148
-                //http://digitaliser.dk/forum/2621692
-                DocumentFragment decryptedAssertionFragment =
-                        dataDecrypter.decryptDataToDOM(encAssertion.getEncryptedData());
-
-                decryptedAssertionFragments.add(decryptedAssertionFragment);
-
-                // We only want to work on the DOM tree because:
-                //
-                // When you call add() on an OpenSAML list: see org.opensaml.xml.util.XMLObjectChildrenList.add()
-                // it calls org.opensaml.xml.util.XMLObjectChildrenList.setParent()
-                // which invokes: element.releaseParentDOM(true);
-                // therefore after this call, the DOM is null
+            // Marshalling the response also marshalls its encrypted assertions in the same document, the decrypted
+            // fragments are then created in that document
+            Element responseDom = samlResponseDecryptee.getDOM();
+            if (null == responseDom) {
+                responseDom = OpenSamlHelper.marshallToDom(samlResponseDecryptee);
             }
 
-            // Then we will unmarshall the decrypted fragments into a cloned DOM tree
-            /*
-                In the @eu.eidas.encryption.SAMLAuthnResponseDecrypter.decryptSAMLResponse method when inserting
-                the decrypted Assertions the DOM resets to null.
-                Marsahlling it again resolves it but this loses the ID-ness of attributes.
-                Which means that signatures cannot be found anymore in the DOM and signature verification
-                fails (because it used Document.getElementById("assertionID") to find the signed assertion).
-
-                See http://svn.shibboleth.net/view/java-xmltooling/branches/REL_1/src/main/java/org/opensaml/xml/encryption/Decrypter.java?view=markup
-                    http://shibboleth.net/pipermail/dev/2012-April/000624.html
-
-                And https://issues.apache.org/jira/browse/XERCESJ-1022
-
-                More info in the links belows
-                https://jira.spring.io/browse/SES-148
-                http://digitaliser.dk/forum/2621692
-            */
-            Element previousDom = samlResponseDecryptee.getDOM();
-            if (null == previousDom) {
-                previousDom = OpenSamlHelper.marshallToDom(samlResponseDecryptee);
+            //KEY DECRYPTER
+            Decrypter keyDecrypter = new Decrypter(null, new StaticKeyInfoCredentialResolver(credential), null);
+
+            //DATA DECRYPTER (the key is given for each assertion)
+            Decrypter dataDecrypter = new Decrypter(null, null, null);
+            dataDecrypter.setRootInNewDocument(false);
+            if (getJcaProviderName() != null) {
+                dataDecrypter.setJCAProviderName(getJcaProviderName());
             }
-            Document ownerDocument = previousDom.getOwnerDocument();
-
-            // Deep copy the previous DOM into a new one using importNode()
-            Document newDocument = DocumentBuilderFactoryUtil.newDocument();
-            Node copiedRoot = newDocument.importNode(ownerDocument.getDocumentElement(), true);
-            newDocument.appendChild(copiedRoot);
-
-            Element newRootElement = newDocument.getDocumentElement();
-            NodeList encryptedAssertionList =
-                    newRootElement.getElementsByTagNameNS(EncryptedAssertion.DEFAULT_ELEMENT_NAME.getNamespaceURI(),
-                                                          EncryptedAssertion.DEFAULT_ELEMENT_NAME.getLocalPart());
-
-            // Replace the encrypted assertions by the decrypted assertions in the new DOM tree:
-            for (int i = 0, n = encryptedAssertionList.getLength(); i < n; i++) {
-                Node encryptedAssertion = encryptedAssertionList.item(i);
-                DocumentFragment decryptedAssertionFragment = decryptedAssertionFragments.get(i);
-                // we may use adoptNode() instead of importNode() because the unmarshaller rectifies the ID-ness:
-                // See org.opensaml.saml1.core.impl.AssertionUnmarshaller.unmarshall()
-                // See org.opensaml.saml2.core.impl.AssertionUnmarshaller.processAttribute()
-                // And org.opensaml.saml1.core.impl.ResponseAbstractTypeUnmarshaller.unmarshall()
-                // And org.opensaml.saml2.core.impl.StatusResponseTypeUnmarshaller.processAttribute()
-                Node copiedFragment = newDocument.adoptNode(decryptedAssertionFragment);
-                newRootElement.replaceChild(copiedFragment, encryptedAssertion);
+
+            UnmarshallerFactory unmarshallerFactory = Configuration.getUnmarshallerFactory();
+            Map<String, SecretKey> decryptedKeys = new HashMap<>();
+
+            List<EncryptedAssertion> encryptedAssertions = samlResponseDecryptee.getEncryptedAssertions();
+            List<Assertion> decryptedAssertions = new ArrayList<>(encryptedAssertions.size());
+            List<Element> replacedEncryptedAssertionDoms = new ArrayList<>(encryptedAssertions.size());
+            List<Element> insertedAssertionDoms = new ArrayList<>(encryptedAssertions.size());
+            boolean replaced = false;
+            try {
+                for (EncryptedAssertion encAssertion : encryptedAssertions) {
+                    EncryptedData encryptedData = encAssertion.getEncryptedData();
+                    String dataEncryptionAlgorithm = encryptedData.getEncryptionMethod().getAlgorithm();
+                    EncryptedKey encryptedSymmetricKey = encryptedData.getKeyInfo().getEncryptedKeys().get(0);
+
+                    String cipherValue = getCipherValue(encryptedSymmetricKey);
+                    String keyId = null == cipherValue ? null : dataEncryptionAlgorithm + '|' + cipherValue;
+                    SecretKey dataDecKey = null == keyId ? null : decryptedKeys.get(keyId);
+                    if (null == dataDecKey) {
+                        dataDecKey =
+                                (SecretKey) keyDecrypter.decryptKey(encryptedSymmetricKey, dataEncryptionAlgorithm);
+                        if (null != keyId) {
+                            decryptedKeys.put(keyId, dataDecKey);
+                        }
+                    }
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("SAML Response decrypting with data encryption algorithm: '"
+                                             + dataEncryptionAlgorithm + "'");
+                    }
+
+                    //https://jira.spring.io/browse/SES-148
+                    //http://digitaliser.dk/forum/2621692
+                    DocumentFragment decryptedAssertionFragment =
+                            dataDecrypter.decryptDataToDOM(encryptedData, dataDecKey);
+
+                    Element assertionDom = getFirstElement(decryptedAssertionFragment);
+                    if (null == assertionDom) {
+                        throw new DecryptionException("The decrypted data of an EncryptedAssertion holds no element");
+                    }
+                    // only the assertion element takes the place of the encrypted assertion:
+                    Element encryptedAssertionDom = encAssertion.getDOM();
+                    responseDom.replaceChild(assertionDom, encryptedAssertionDom);
+                    replacedEncryptedAssertionDoms.add(encryptedAssertionDom);
+                    insertedAssertionDoms.add(assertionDom);
+
+                    // The unmarshaller rectifies the ID-ness:
+                    // See org.opensaml.saml2.core.impl.AssertionUnmarshaller.processAttribute()
+                    Unmarshaller unmarshaller = unmarshallerFactory.getUnmarshaller(assertionDom);
+                    if (null == unmarshaller) {
+                        throw new DecryptionException("No unmarshaller for the decrypted element " + assertionDom);
+                    }
+                    decryptedAssertions.add((Assertion) unmarshaller.unmarshall(assertionDom));
+                }
+                replaced = true;
+            } finally {
+                if (!replaced) {
+                    // put the encrypted assertions back, the last replaced first:
+                    for (int i = replacedEncryptedAssertionDoms.size() - 1; i >= 0; i--) {
+                        responseDom.replaceChild(replacedEncryptedAssertionDoms.get(i), insertedAssertionDoms.get(i));
+                    }
+                }
             }
 
-            // Finally unmarshall the updated DOM into a new XMLObject graph:
-            // The unmarshaller rectifies the ID-ness:
-            // See org.opensaml.saml1.core.impl.AssertionUnmarshaller.unmarshall()
-            // See org.opensaml.saml2.core.impl.AssertionUnmarshaller.processAttribute()
-            // And org.opensaml.saml1.core.impl.ResponseAbstractTypeUnmarshaller.unmarshall()
-            // And org.opensaml.saml2.core.impl.StatusResponseTypeUnmarshaller.processAttribute()
-            Response decryptedResponse = (Response) OpenSamlHelper.unmarshallFromDom(newDocument);
+            // Mirror the DOM changes in the XMLObject tree: the assertions and the encrypted assertions are the last
+            // children of a Response, they are added back in the document order with each encrypted assertion
+            // replaced by its decrypted assertion.
+            // Modifying the children releases the cached DOM of the response which is then restored, as it is
+            // already up to date.
+            List<Assertion> assertions = samlResponseDecryptee.getAssertions();
+            List<Assertion> orderedAssertions = new ArrayList<>(assertions.size() + decryptedAssertions.size());
+            int decryptedIndex = 0;
+            for (XMLObject child : samlResponseDecryptee.getOrderedChildren()) {
+                if (child instanceof EncryptedAssertion) {
+                    orderedAssertions.add(decryptedAssertions.get(decryptedIndex++));
+                } else if (child instanceof Assertion) {
+                    orderedAssertions.add((Assertion) child);
+                }
+            }
+            encryptedAssertions.clear();
+            assertions.clear();
+            assertions.addAll(orderedAssertions);
+            samlResponseDecryptee.setDOM(responseDom);
 
             if (LOGGER.isTraceEnabled()) {
                 try {
                     LOGGER.trace("SAML Response XMLObject decrypted: " + EidasStringUtil.toString(
-                            DocumentBuilderFactoryUtil.marshall(newDocument, true)));
+                            DocumentBuilderFactoryUtil.marshall(responseDom, true)));
                 } catch (TransformerException e) {
                     LOGGER.error(e.getMessage(), e);
                 }
             }
 
-            return decryptedResponse;
+            return samlResponseDecryptee;
 
-        } catch (org.opensaml.xml.encryption.DecryptionException | ParserConfigurationException | UnmarshallException e) {
+        } catch (org.opensaml.xml.encryption.DecryptionException | UnmarshallingException e) {
             throw new DecryptionException(e);
         }
     }
 
+    /**
+     * Decrypts the encrypted assertions of the given response.
+     * <p>
+     * The given response is modified in place and returned: its encrypted assertions are replaced by the decrypted
+     * assertions.
+     *
+     * @param samlResponseEncrypted the response to decrypt
+     * @param credential the credential of the recipient
+     * @return the given response, whose assertions are now decrypted
+     * @throws DecryptionException if the decryption fails
+     */
     public Response decryptSAMLResponse(Response samlResponseEncrypted, X509Credential credential)
             throws DecryptionException {
         try {
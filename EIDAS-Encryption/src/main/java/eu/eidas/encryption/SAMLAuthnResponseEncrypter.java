@@ -25,13 +25,16 @@ package eu.eidas.encryption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
-import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 
 import org.apache.commons.lang.StringUtils;
@@ -52,14 +55,12 @@ import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import eu.eidas.auth.commons.EidasStringUtil;
 import eu.eidas.auth.commons.xml.DocumentBuilderFactoryUtil;
 import eu.eidas.auth.commons.xml.opensaml.OpenSamlHelper;
 import eu.eidas.encryption.exception.EncryptionException;
 import eu.eidas.encryption.exception.MarshallException;
-import eu.eidas.encryption.exception.UnmarshallException;
 import eu.eidas.util.Preconditions;
 
 /**
@@ -169,8 +170,43 @@ public final class SAMLAuthnResponseEncrypter {
         keyEncryptionAlgorithm = builder.keyEncryptionAlgorithm;
     }
 
+    /**
+     * Encrypts the assertions of the given response.
+     * <p>
+     * The given response is modified in place and returned: its assertions are replaced by encrypted assertions. If
+     * the encryption fails, the assertions of the response are restored before the exception is thrown.
+     *
+     * @param samlResponse the response to encrypt
+     * @param credential the credential of the recipient
+     * @return the given response, whose assertions are now encrypted
+     * @throws EncryptionException if the encryption fails
+     */
     public Response encryptSAMLResponse(final Response samlResponse, final Credential credential)
             throws EncryptionException {
+        return encryptSAMLResponse(samlResponse, credential, null);
+    }
+
+    /**
+     * Encrypts the assertions of the given response, concurrently when an executor is given.
+     * <p>
+     * The given response is modified in place and returned: its assertions are replaced by encrypted assertions. If
+     * the encryption fails, the assertions of the response are restored before the exception is thrown.
+     * <p>
+     * The assertions are only encrypted concurrently when the DOM of the response is not cached (e.g. when the
+     * assertions have just been signed), because the DOM of a document cannot be modified concurrently: each assertion
+     * is then encrypted in its own document.
+     *
+     * @param samlResponse the response to encrypt
+     * @param credential the credential of the recipient
+     * @param executor the executor encrypting the assertions concurrently or {@code null} to encrypt them one after
+     * another
+     * @return the given response, whose assertions are now encrypted
+     * @throws EncryptionException if the encryption fails
+     * @since 1.1
+     */
+    public Response encryptSAMLResponse(final Response samlResponse,
+                                        final Credential credential,
+                                        @Nullable final ExecutorService executor) throws EncryptionException {
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("SAML Response encrypting with data encryption algorithm: '" + getDataEncAlgorithm() + "'");
@@ -181,7 +217,12 @@ public final class SAMLAuthnResponseEncrypter {
                 LOGGER.trace("SAML Response XMLObject to encrypt: " + EidasStringUtil.toString(
                         OpenSamlHelper.marshall(samlResponse)));
             }
-            Response encryptedResponse = performEncryption(samlResponse, credential);
+            Response encryptedResponse;
+            if (null != executor && null == samlResponse.getDOM() && samlResponse.getAssertions().size() > 1) {
+                encryptedResponse = performParallelEncryption(samlResponse, credential, executor);
+            } else {
+                encryptedResponse = performEncryption(samlResponse, credential);
+            }
 
             if (LOGGER.isTraceEnabled()) {
                 byte[] samlResponseEncrypted = OpenSamlHelper.marshall(encryptedResponse);
@@ -248,92 +289,150 @@ public final class SAMLAuthnResponseEncrypter {
         // TODO: what about eIDAS?
     }
 
+    /**
+     * Creates a new OpenSAML Encrypter (an Encrypter is not meant to be shared between threads).
+     */
+    @Nonnull
+    private Encrypter newEncrypter(@Nonnull Credential credential) {
+        // Set Data Encryption parameters
+        EncryptionParameters encParams = new EncryptionParameters();
+        encParams.setAlgorithm(getDataEncAlgorithm());
+        // Set Key Encryption parameters
+        KeyEncryptionParameters kekParams = new KeyEncryptionParameters();
+        kekParams.setEncryptionCredential(credential);
+        kekParams.setAlgorithm(getKeyEncAlgorithm());
+        KeyInfoGeneratorFactory kigf = Configuration.getGlobalSecurityConfiguration()
+                .getKeyInfoGeneratorManager()
+                .getDefaultManager()
+                .getFactory(credential);
+        kekParams.setKeyInfoGenerator(kigf.newInstance());
+        // Setup Open SAML Encrypter
+        Encrypter encrypter = new Encrypter(encParams, kekParams);
+        encrypter.setKeyPlacement(Encrypter.KeyPlacement.INLINE);
+        if (getJcaProviderName() != null) {
+            encrypter.setJCAProviderName(getJcaProviderName());
+        }
+        return encrypter;
+    }
+
+    /**
+     * Encrypts the assertions of the given response in place: each Assertion is replaced by its EncryptedAssertion in
+     * the XMLObject tree and in the cached DOM of the response, without copying nor unmarshalling the response again.
+     * <p>
+     * When an assertion cannot be encrypted, the assertions already replaced in the DOM are put back, so that the DOM
+     * and the XMLObject tree of the response still hold the original assertions.
+     */
     @Nonnull
     private Response performEncryption(@Nonnull Response samlResponseEncryptee, @Nonnull Credential credential)
             throws EncryptionException {
         try {
-            // Set Data Encryption parameters
-            EncryptionParameters encParams = new EncryptionParameters();
-            encParams.setAlgorithm(getDataEncAlgorithm());
-            // Set Key Encryption parameters
-            KeyEncryptionParameters kekParams = new KeyEncryptionParameters();
-            kekParams.setEncryptionCredential(credential);
-            kekParams.setAlgorithm(getKeyEncAlgorithm());
-            KeyInfoGeneratorFactory kigf = Configuration.getGlobalSecurityConfiguration()
-                    .getKeyInfoGeneratorManager()
-                    .getDefaultManager()
-                    .getFactory(credential);
-            kekParams.setKeyInfoGenerator(kigf.newInstance());
-            // Setup Open SAML Encrypter
-            Encrypter encrypter = new Encrypter(encParams, kekParams);
-            encrypter.setKeyPlacement(Encrypter.KeyPlacement.INLINE);
-            if (getJcaProviderName() != null) {
-                encrypter.setJCAProviderName(getJcaProviderName());
-            }
+            Encrypter encrypter = newEncrypter(credential);
 
-            for (Assertion assertion : samlResponseEncryptee.getAssertions()) {
-                if (assertion.getDOM() == null) {
-                    OpenSamlHelper.marshallToDom(assertion);
-                }
-                manageNamespaces(assertion);
+            // Marshalling the response also marshalls its assertions in the same document
+            Element responseDom = samlResponseEncryptee.getDOM();
+            if (null == responseDom) {
+                responseDom = OpenSamlHelper.marshallToDom(samlResponseEncryptee);
             }
-            List<EncryptedAssertion> encryptedAssertions = new ArrayList<>();
-            for (Assertion assertion : samlResponseEncryptee.getAssertions()) {
-                EncryptedAssertion encryptedAssertion = encrypter.encrypt(assertion);
-                encryptedAssertions.add(encryptedAssertion);
-            }
-
-            Element previousDom = samlResponseEncryptee.getDOM();
-            if (null == previousDom) {
-                previousDom = OpenSamlHelper.marshallToDom(samlResponseEncryptee);
-            }
-            Document ownerDocument = previousDom.getOwnerDocument();
-
-            // Deep copy the previous DOM into a new one using importNode()
-            Document newDocument = DocumentBuilderFactoryUtil.newDocument();
-            Node copiedRoot = newDocument.importNode(ownerDocument.getDocumentElement(), true);
-            newDocument.appendChild(copiedRoot);
-
-            Element newRootElement = newDocument.getDocumentElement();
-            NodeList assertionList =
-                    newRootElement.getElementsByTagNameNS(Assertion.DEFAULT_ELEMENT_NAME.getNamespaceURI(),
-                                                          Assertion.DEFAULT_ELEMENT_NAME.getLocalPart());
-
-            // Replace the encrypted assertions by the decrypted assertions in the new DOM tree:
-            for (int i = 0, n = assertionList.getLength(); i < n; i++) {
-                Node assertion = assertionList.item(i);
-                EncryptedAssertion encryptedAssertion = encryptedAssertions.get(i);
-                Element encryptedAssertionDOM = encryptedAssertion.getDOM();
-                Node copiedEncryptedAssertion;
-                if (null == encryptedAssertionDOM) {
-                    encryptedAssertionDOM = OpenSamlHelper.marshallToDom(encryptedAssertion);
+            Document ownerDocument = responseDom.getOwnerDocument();
+
+            List<Assertion> assertions = samlResponseEncryptee.getAssertions();
+            List<EncryptedAssertion> encryptedAssertions = new ArrayList<>(assertions.size());
+            List<Element> replacedAssertionDoms = new ArrayList<>(assertions.size());
+            List<Node> insertedEncryptedAssertionDoms = new ArrayList<>(assertions.size());
+            boolean replaced = false;
+            try {
+                for (Assertion assertion : assertions) {
+                    // the DOM of a child is always cached when the DOM of its parent is
+                    Element assertionDom = assertion.getDOM();
+                    manageNamespaces(assertion);
+                    EncryptedAssertion encryptedAssertion = encrypter.encrypt(assertion);
+                    Element encryptedAssertionDom = encryptedAssertion.getDOM();
+                    if (null == encryptedAssertionDom) {
+                        encryptedAssertionDom = OpenSamlHelper.marshallToDom(encryptedAssertion);
+                    }
+                    // adoptNode() moves the very same nodes, so the DOM cached by the EncryptedAssertion stays valid:
+                    Node adoptedEncryptedAssertion = ownerDocument.adoptNode(encryptedAssertionDom);
+                    responseDom.replaceChild(adoptedEncryptedAssertion, assertionDom);
+                    replacedAssertionDoms.add(assertionDom);
+                    insertedEncryptedAssertionDoms.add(adoptedEncryptedAssertion);
+                    encryptedAssertions.add(encryptedAssertion);
+                }
+                replaced = true;
+            } finally {
+                if (!replaced) {
+                    // put the original assertions back, the last replaced first:
+                    for (int i = replacedAssertionDoms.size() - 1; i >= 0; i--) {
+                        responseDom.replaceChild(replacedAssertionDoms.get(i), insertedEncryptedAssertionDoms.get(i));
+                    }
                 }
-                // we may use adoptNode() instead of importNode() because the unmarshaller rectifies the ID-ness:
-                copiedEncryptedAssertion = newDocument.adoptNode(encryptedAssertionDOM);
-                newRootElement.replaceChild(copiedEncryptedAssertion, assertion);
             }
 
-            // Finally unmarshall the updated DOM into a new XMLObject graph:
-            // The unmarshaller rectifies the ID-ness:
-            // See org.opensaml.saml1.core.impl.AssertionUnmarshaller.unmarshall()
-            // See org.opensaml.saml2.core.impl.AssertionUnmarshaller.processAttribute()
-            // And org.opensaml.saml1.core.impl.ResponseAbstractTypeUnmarshaller.unmarshall()
-            // And org.opensaml.saml2.core.impl.StatusResponseTypeUnmarshaller.processAttribute()
-            Response encryptedResponse = (Response) OpenSamlHelper.unmarshallFromDom(newDocument);
+            // Mirror the DOM changes in the XMLObject tree (the assertions are the last children of a Response,
+            // therefore the encrypted assertions take their place in the same order).
+            // Modifying the children releases the cached DOM of the response which is then restored, as it is
+            // already up to date.
+            assertions.clear();
+            samlResponseEncryptee.getEncryptedAssertions().addAll(encryptedAssertions);
+            samlResponseEncryptee.setDOM(responseDom);
 
             if (LOGGER.isTraceEnabled()) {
                 try {
                     LOGGER.trace("SAML Response XMLObject encrypted: " + EidasStringUtil.toString(
-                            DocumentBuilderFactoryUtil.marshall(newDocument, true)));
+                            DocumentBuilderFactoryUtil.marshall(responseDom, true)));
                 } catch (TransformerException e) {
                     LOGGER.error(e.getMessage(), e);
                 }
             }
 
-            return encryptedResponse;
+            return samlResponseEncryptee;
+
+        } catch (org.opensaml.xml.encryption.EncryptionException | MarshallException e) {
+            throw new EncryptionException(e);
+        }
+    }
 
-        } catch (org.opensaml.xml.encryption.EncryptionException | ParserConfigurationException | MarshallException | UnmarshallException e) {
+    /**
+     * Encrypts the assertions of the given response concurrently.
+     * <p>
+     * The assertions are detached from the response so that each one is marshalled and encrypted in its own document
+     * (the DOM of the response is not cached), then the encrypted assertions replace them in the same order.
+     */
+    @Nonnull
+    private Response performParallelEncryption(@Nonnull Response samlResponseEncryptee,
+                                               @Nonnull final Credential credential,
+                                               @Nonnull ExecutorService executor) throws EncryptionException {
+        List<Assertion> assertions = new ArrayList<>(samlResponseEncryptee.getAssertions());
+        samlResponseEncryptee.getAssertions().clear();
+
+        List<Callable<EncryptedAssertion>> tasks = new ArrayList<>(assertions.size());
+        for (final Assertion assertion : assertions) {
+            tasks.add(new Callable<EncryptedAssertion>() {
+                @Override
+                public EncryptedAssertion call() throws Exception {
+                    if (null == assertion.getDOM()) {
+                        OpenSamlHelper.marshallToDom(assertion);
+                    }
+                    manageNamespaces(assertion);
+                    return newEncrypter(credential).encrypt(assertion);
+                }
+            });
+        }
+
+        List<EncryptedAssertion> encryptedAssertions = new ArrayList<>(assertions.size());
+        try {
+            for (final Future<EncryptedAssertion> future : executor.invokeAll(tasks)) {
+                encryptedAssertions.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            samlResponseEncryptee.getAssertions().addAll(assertions);
             throw new EncryptionException(e);
+        } catch (ExecutionException e) {
+            samlResponseEncryptee.getAssertions().addAll(assertions);
+            throw new EncryptionException(e.getCause());
         }
+
+        samlResponseEncryptee.getEncryptedAssertions().addAll(encryptedAssertions);
+        return samlResponseEncryptee;
     }
 }
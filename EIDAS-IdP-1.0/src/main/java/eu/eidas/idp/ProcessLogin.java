@@ -1,7 +1,6 @@
 package eu.eidas.idp;
 
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
@@ -10,7 +9,6 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.google.common.collect.ImmutableSet;
-import com.ibm.icu.text.Transliterator;
 
 import org.apache.log4j.Logger;
 
@@ -23,8 +21,6 @@ import eu.eidas.auth.commons.EidasParameterKeys;
 import eu.eidas.auth.commons.EidasStringUtil;
 import eu.eidas.auth.commons.attribute.AttributeDefinition;
 import eu.eidas.auth.commons.attribute.AttributeValue;
-import eu.eidas.auth.commons.attribute.AttributeValueMarshaller;
-import eu.eidas.auth.commons.attribute.AttributeValueMarshallingException;
 import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
 import eu.eidas.auth.commons.exceptions.InternalErrorEIDASException;
 import eu.eidas.auth.commons.exceptions.InvalidParameterEIDASException;
@@ -47,6 +43,10 @@ public class ProcessLogin {
 
     private static final String SIGN_ASSERTION_PARAM = "signAssertion";
 
+    private static final String EIDAS_UTIL_PROPERTIES = "eidasUtil.properties";
+
+    private static volatile boolean eidasUtilConfigsLoaded;
+
     private String samlToken;
 
     private String username;
@@ -63,22 +63,27 @@ public class ProcessLogin {
 
     private final IdpMetadataFetcher idpMetadataFetcher = new IdpMetadataFetcher();
 
-    private Properties loadConfigs(String path) {
-        return EIDASUtil.loadConfigs(path);
+    /**
+     * Loads {@code eidasUtil.properties} on the first login instead of on every login, and again on the next login if
+     * it failed.
+     */
+    private static void loadEidasUtilConfigs() {
+        if (!eidasUtilConfigsLoaded) {
+            synchronized (ProcessLogin.class) {
+                if (!eidasUtilConfigsLoaded) {
+                    EIDASUtil.setConfigs(EIDASUtil.loadConfigs(EIDAS_UTIL_PROPERTIES));
+                    eidasUtilConfigsLoaded = true;
+                }
+            }
+        }
     }
 
-    private static final String TRANLITERATOR_ID = "Latin; NFD; [:Nonspacing Mark:] Remove; NFC;";
-
-    private static Transliterator T = Transliterator.getInstance(TRANLITERATOR_ID);
-
     public static String transliterate(String value) {
-        return T == null ? value : T.transliterate(value);
+        return Transliteration.transliterate(value);
     }
 
-    static CharsetEncoder encoder = Charset.forName("ISO-8859-1").newEncoder();
-
     public static boolean needsTransliteration(String v) {
-        return !encoder.canEncode(v);
+        return Transliteration.needsTransliteration(v);
     }
 
     public static List<String> getValuesOfAttribute(String attrName, String value) {
@@ -95,8 +100,7 @@ public class ProcessLogin {
 
     public boolean processAuthentication(HttpServletRequest request, HttpServletResponse response) {
 
-        EIDASUtil.createInstance(loadConfigs("eidasUtil.properties"));
-
+        loadEidasUtilConfigs();
         String username = request.getParameter("username");
         String password = request.getParameter("password");
         String samlToken = request.getParameter("samlToken");
@@ -112,17 +116,14 @@ public class ProcessLogin {
             return false;
         }
 
-        Properties users = null;
-        String pass = null;
+        UserDirectory.User user = null;
         try {
-            users = loadConfigs("user.properties");
-            pass = users.getProperty(username);
-        } catch (SecurityEIDASException e) {
-            sendErrorRedirect(authnRequest, request, EIDASSubStatusCode.AUTHN_FAILED_URI,
-                              EidasErrorKey.AUTHENTICATION_FAILED_ERROR.toString());
+            user = UserDirectory.getInstance().getUser(username);
+        } catch (IOException | SecurityEIDASException e) {
+            logger.error("Cannot load the users: " + e, e);
         }
 
-        if (pass == null || (!pass.equals(password))) {
+        if (user == null || !user.checkPassword(password)) {
             sendErrorRedirect(authnRequest, request, EIDASSubStatusCode.AUTHN_FAILED_URI,
                               EidasErrorKey.AUTHENTICATION_FAILED_ERROR.toString());
             return false;
@@ -135,34 +136,9 @@ public class ProcessLogin {
         ImmutableAttributeMap.Builder mapBuilder = ImmutableAttributeMap.builder();
 
         for (AttributeDefinition<?> attr : recvAttrMap.getDefinitions()) {
-            String attrName = attr.getNameUri().toASCIIString();
-            //lookup in properties file
-            String key = username + "." + attrName.replaceFirst("[Hh][Tt][Tt][Pp]://", "");
-            String value = users.getProperty(key);
-            ArrayList<String> values = new ArrayList<String>();
-            if (value != null && !value.isEmpty()) {
-                values.addAll(getValuesOfAttribute(attrName, value));
-            } else {
-                String multivalues = users.getProperty(key + ".multivalue");
-                if (null != multivalues && "true".equalsIgnoreCase(multivalues)) {
-                    for (int i = 1; null != users.getProperty(key + "." + i); i++) {
-                        values.addAll(getValuesOfAttribute(attrName, users.getProperty(key + "." + i)));
-                    }
-                }
-            }
+            ImmutableSet<? extends AttributeValue<?>> values = user.getAttributeValues(attr);
             if (!values.isEmpty()) {
-                AttributeValueMarshaller<?> attributeValueMarshaller = attr.getAttributeValueMarshaller();
-                ImmutableSet.Builder<AttributeValue<?>> builder = ImmutableSet.builder();
-                for (final String val : values) {
-                    AttributeValue<?> attributeValue = null;
-                    try {
-                        attributeValue = attributeValueMarshaller.unmarshal(val, false);
-                    } catch (AttributeValueMarshallingException e) {
-                        throw new IllegalStateException(e);
-                    }
-                    builder.add(attributeValue);
-                }
-                mapBuilder.put((AttributeDefinition) attr, (ImmutableSet) builder.build());
+                mapBuilder.put((AttributeDefinition) attr, (ImmutableSet) values);
             }
         }
         sendAttrMap = mapBuilder.build();
@@ -0,0 +1,62 @@
+package eu.eidas.idp;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.ibm.icu.text.Transliterator;
+
+import eu.eidas.auth.commons.EidasStringUtil;
+
+/**
+ * Transliterates the attribute values which cannot be sent in ISO-8859-1 (Latin-1) into their Latin version.
+ * <p>
+ * Each thread uses its own ICU {@link Transliterator} and the transliterated values are kept in a bounded cache, the
+ * IdP sending the same test user values again and again.
+ *
+ * @since 1.1
+ */
+@ThreadSafe
+public final class Transliteration {
+
+    static final String TRANSLITERATOR_ID = "Latin; NFD; [:Nonspacing Mark:] Remove; NFC;";
+
+    private static final long MAX_CACHED_VALUES = 10000L;
+
+    private static final ThreadLocal<Transliterator> TRANSLITERATOR = new ThreadLocal<Transliterator>() {
+
+        @Override
+        protected Transliterator initialValue() {
+            return Transliterator.getInstance(TRANSLITERATOR_ID);
+        }
+    };
+
+    private static final Cache<String, String> TRANSLITERATED_VALUES =
+            CacheBuilder.newBuilder().maximumSize(MAX_CACHED_VALUES).build();
+
+    /**
+     * @param value the value
+     * @return {@code true} if the value cannot be encoded in ISO-8859-1 and must be sent with a transliterated version.
+     */
+    public static boolean needsTransliteration(@Nonnull String value) {
+        return !EidasStringUtil.isLatin1(value);
+    }
+
+    /**
+     * @param value the value
+     * @return the transliterated value
+     */
+    @Nonnull
+    public static String transliterate(@Nonnull String value) {
+        String transliterated = TRANSLITERATED_VALUES.getIfPresent(value);
+        if (null == transliterated) {
+            transliterated = TRANSLITERATOR.get().transliterate(value);
+            TRANSLITERATED_VALUES.put(value, transliterated);
+        }
+        return transliterated;
+    }
+
+    private Transliteration() {
+    }
+}
@@ -0,0 +1,292 @@
+package eu.eidas.idp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.eidas.auth.commons.EIDASUtil;
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.AttributeValue;
+import eu.eidas.auth.commons.attribute.AttributeValueMarshaller;
+import eu.eidas.auth.commons.attribute.AttributeValueMarshallingException;
+import eu.eidas.auth.commons.io.PropertiesConverter;
+import eu.eidas.auth.commons.io.SingletonAccessor;
+import eu.eidas.auth.commons.io.SingletonAccessors;
+import eu.eidas.util.Preconditions;
+
+/**
+ * Directory of the test users of the IdP, read from {@code user.properties}.
+ * <p>
+ * The file is read once and read again only when it changes on the filesystem. A user is built from the keys prefixed
+ * by its username the first time it is looked up, and its attribute values are unmarshalled once per {@link
+ * AttributeDefinition}.
+ * <p>
+ * In {@code user.properties}, the password of a user is the value of the username key, and the values of an attribute
+ * are the values of the keys made of the username followed by a dot and the attribute name URI without its {@code
+ * http://} scheme. A multivalued attribute is flagged by a {@code .multivalue=true} key and its values are numbered
+ * from {@code .1}.
+ *
+ * @since 1.1
+ */
+@ThreadSafe
+public final class UserDirectory {
+
+    /**
+     * A user of the directory.
+     */
+    @ThreadSafe
+    public static final class User {
+
+        @Nonnull
+        private final String password;
+
+        @Nonnull
+        private final ImmutableMap<String, ImmutableList<String>> valuesByAttributeName;
+
+        @Nonnull
+        private final ConcurrentMap<AttributeDefinition<?>, ImmutableSet<? extends AttributeValue<?>>>
+                valuesByDefinition = new ConcurrentHashMap<>();
+
+        User(@Nonnull String password, @Nonnull ImmutableMap<String, ImmutableList<String>> valuesByAttributeName) {
+            this.password = password;
+            this.valuesByAttributeName = valuesByAttributeName;
+        }
+
+        public boolean checkPassword(@Nullable String candidate) {
+            return password.equals(candidate);
+        }
+
+        /**
+         * Returns the values of the given attribute for this user, including their transliterated versions.
+         *
+         * @param definition the attribute definition
+         * @return the values, empty if the user has no value for the given attribute.
+         */
+        @Nonnull
+        public ImmutableSet<? extends AttributeValue<?>> getAttributeValues(
+                @Nonnull AttributeDefinition<?> definition) {
+            ImmutableSet<? extends AttributeValue<?>> values = valuesByDefinition.get(definition);
+            if (null == values) {
+                values = unmarshal(definition);
+                valuesByDefinition.putIfAbsent(definition, values);
+            }
+            return values;
+        }
+
+        @Nonnull
+        private ImmutableSet<? extends AttributeValue<?>> unmarshal(@Nonnull AttributeDefinition<?> definition) {
+            ImmutableList<String> values = valuesByAttributeName.get(toAttributeName(definition));
+            if (null == values) {
+                return ImmutableSet.of();
+            }
+            AttributeValueMarshaller<?> attributeValueMarshaller = definition.getAttributeValueMarshaller();
+            ImmutableSet.Builder<AttributeValue<?>> builder = ImmutableSet.builder();
+            for (String value : values) {
+                try {
+                    builder.add(attributeValueMarshaller.unmarshal(value, false));
+                } catch (AttributeValueMarshallingException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * The users of one version of the properties, each parsed on its first lookup.
+     * <p>
+     * A user is looked up by its whole username, so that the keys of a user named {@code john.doe} are not taken for
+     * attributes of a user named {@code john}.
+     */
+    @ThreadSafe
+    static final class Users {
+
+        @Nonnull
+        private final ImmutableSortedMap<String, String> entries;
+
+        @Nonnull
+        private final ConcurrentMap<String, User> usersByName = new ConcurrentHashMap<>();
+
+        Users(@Nonnull ImmutableSortedMap<String, String> entries) {
+            this.entries = entries;
+        }
+
+        /**
+         * Returns the user with the given username.
+         *
+         * @param username the username
+         * @return the user or {@code null} if there is no such user.
+         */
+        @Nullable
+        User getUser(@Nonnull String username) {
+            User user = usersByName.get(username);
+            if (null == user) {
+                String password = entries.get(username);
+                if (null == password) {
+                    return null;
+                }
+                user = new User(password, parseAttributes(getUserEntries(username)));
+                User existing = usersByName.putIfAbsent(username, user);
+                if (null != existing) {
+                    user = existing;
+                }
+            }
+            return user;
+        }
+
+        /**
+         * Returns the entries whose keys start with the given username followed by a dot, without that prefix.
+         */
+        @Nonnull
+        private Map<String, String> getUserEntries(@Nonnull String username) {
+            String prefix = username + '.';
+            Map<String, String> userEntries = new HashMap<>();
+            for (Map.Entry<String, String> entry : entries.tailMap(prefix).entrySet()) {
+                String key = entry.getKey();
+                if (!key.startsWith(prefix)) {
+                    break;
+                }
+                userEntries.put(key.substring(prefix.length()), entry.getValue());
+            }
+            return userEntries;
+        }
+    }
+
+    /**
+     * Parses the users from the properties.
+     */
+    private enum UsersConverter implements PropertiesConverter<Users> {
+
+        INSTANCE;
+
+        @Nonnull
+        @Override
+        public Properties marshal(@Nonnull Users value) {
+            throw new UnsupportedOperationException("The user directory is read-only");
+        }
+
+        @Nonnull
+        @Override
+        public Users unmarshal(@Nonnull Properties properties) {
+            return parseUsers(properties);
+        }
+    }
+
+    private static final class InstanceHolder {
+
+        private static final UserDirectory INSTANCE = new UserDirectory(USER_PROPERTIES);
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(UserDirectory.class);
+
+    private static final String USER_PROPERTIES = "user.properties";
+
+    private static final String MULTIVALUE_SUFFIX = ".multivalue";
+
+    private static final Pattern HTTP_SCHEME = Pattern.compile("[Hh][Tt][Tt][Pp]://");
+
+    @Nonnull
+    public static UserDirectory getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    @Nonnull
+    static String toAttributeName(@Nonnull AttributeDefinition<?> definition) {
+        return HTTP_SCHEME.matcher(definition.getNameUri().toASCIIString()).replaceFirst("");
+    }
+
+    @Nonnull
+    static Users parseUsers(@Nonnull Properties properties) {
+        //noinspection unchecked,rawtypes
+        return new Users(ImmutableSortedMap.<String, String>copyOf((Map) properties));
+    }
+
+    @Nonnull
+    private static ImmutableMap<String, ImmutableList<String>> parseAttributes(
+            @Nonnull Map<String, String> userEntries) {
+        ImmutableMap.Builder<String, ImmutableList<String>> attributes = ImmutableMap.builder();
+        for (String attributeName : attributeNames(userEntries.keySet())) {
+            String value = userEntries.get(attributeName);
+            List<String> values = new ArrayList<>();
+            if (null != value && !value.isEmpty()) {
+                values.addAll(ProcessLogin.getValuesOfAttribute(attributeName, value));
+            } else if ("true".equalsIgnoreCase(userEntries.get(attributeName + MULTIVALUE_SUFFIX))) {
+                for (int i = 1; null != userEntries.get(attributeName + "." + i); i++) {
+                    values.addAll(ProcessLogin.getValuesOfAttribute(attributeName,
+                                                                    userEntries.get(attributeName + "." + i)));
+                }
+            }
+            if (!values.isEmpty()) {
+                attributes.put(attributeName, ImmutableList.copyOf(values));
+            }
+        }
+        return attributes.build();
+    }
+
+    @Nonnull
+    private static ImmutableSet<String> attributeNames(@Nonnull Collection<String> keys) {
+        ImmutableSet.Builder<String> names = ImmutableSet.builder();
+        for (String key : keys) {
+            if (key.isEmpty()) {
+                continue;
+            }
+            if (key.endsWith(MULTIVALUE_SUFFIX)) {
+                names.add(key.substring(0, key.length() - MULTIVALUE_SUFFIX.length()));
+            } else {
+                names.add(key);
+            }
+        }
+        return names.build();
+    }
+
+    @Nonnull
+    private static SingletonAccessor<Users> newAccessor(@Nonnull String fileName) {
+        try {
+            return SingletonAccessors.newPropertiesAccessor(fileName, UsersConverter.INSTANCE);
+        } catch (IllegalArgumentException e) {
+            // not on the classpath: resolved through the configuration location indirection and never reloaded
+            LOG.info("\"" + fileName + "\" is not reloadable: " + e);
+            return SingletonAccessors.immutableAccessor(parseUsers(EIDASUtil.loadConfigs(fileName)));
+        }
+    }
+
+    @Nonnull
+    private final SingletonAccessor<Users> accessor;
+
+    UserDirectory(@Nonnull String fileName) {
+        Preconditions.checkNotBlank(fileName, "fileName");
+        accessor = newAccessor(fileName);
+    }
+
+    /**
+     * Returns the user with the given username.
+     *
+     * @param username the username
+     * @return the user or {@code null} if there is no such user.
+     * @throws IOException if the users cannot be reloaded
+     */
+    @Nullable
+    public User getUser(@Nonnull String username) throws IOException {
+        Users users = accessor.get();
+        return null == users ? null : users.getUser(username);
+    }
+}
@@ -0,0 +1,78 @@
+package eu.eidas.idp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.icu.text.Transliterator;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * TransliterationTest
+ *
+ * @since 1.1
+ */
+public final class TransliterationTest {
+
+    private static final String[] VALUES = {"Ωνάσης", "Иванов", "Šime Župančić", "Łódź", "Café"};
+
+    private static final int THREAD_COUNT = 8;
+
+    private static final int VALUES_PER_THREAD = 2000;
+
+    @Test
+    public void testNeedsTransliteration() {
+        assertThat(Transliteration.needsTransliteration("Café"), is(false));
+        assertThat(Transliteration.needsTransliteration("Łódź"), is(true));
+    }
+
+    @Test
+    public void testConcurrentTransliterationMatchesAFreshTransliterator() throws Exception {
+        final Transliterator reference = Transliterator.getInstance(Transliteration.TRANSLITERATOR_ID);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        try {
+            List<Future<List<String>>> futures = new ArrayList<>();
+            for (int t = 0; t < THREAD_COUNT; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        start.await();
+                        List<String> transliterated = new ArrayList<>();
+                        for (int i = 0; i < VALUES_PER_THREAD; i++) {
+                            // a distinct value per iteration, so that most calls miss the cache:
+                            transliterated.add(Transliteration.transliterate(newValue(thread, i)));
+                        }
+                        return transliterated;
+                    }
+                }));
+            }
+            start.countDown();
+
+            for (int t = 0; t < THREAD_COUNT; t++) {
+                List<String> transliterated = futures.get(t).get(1L, TimeUnit.MINUTES);
+                for (int i = 0; i < VALUES_PER_THREAD; i++) {
+                    assertThat(transliterated.get(i), is(reference.transliterate(newValue(t, i))));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String newValue(int thread, int index) {
+        // half of the values are shared between the threads:
+        int suffix = index % 2 == 0 ? index : thread * VALUES_PER_THREAD + index;
+        return VALUES[index % VALUES.length] + ' ' + suffix;
+    }
+}
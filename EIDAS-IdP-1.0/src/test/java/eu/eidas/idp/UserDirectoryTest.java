@@ -0,0 +1,103 @@
+package eu.eidas.idp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.AttributeValue;
+import eu.eidas.auth.engine.core.eidas.spec.NaturalPersonSpec;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * UserDirectoryTest
+ *
+ * @since 1.1
+ */
+public final class UserDirectoryTest {
+
+    private static final String FAMILY_NAME = "eidas.europa.eu/attributes/naturalperson/CurrentFamilyName";
+
+    private static final String GIVEN_NAME = "eidas.europa.eu/attributes/naturalperson/CurrentGivenName";
+
+    @Nonnull
+    private static List<Object> getValues(@Nonnull UserDirectory.User user, @Nonnull AttributeDefinition<?> definition) {
+        List<Object> values = new ArrayList<>();
+        for (AttributeValue<?> attributeValue : user.getAttributeValues(definition)) {
+            values.add(attributeValue.getValue());
+        }
+        return values;
+    }
+
+    @Nonnull
+    private static List<Object> listOf(@Nonnull Object... values) {
+        List<Object> list = new ArrayList<>();
+        for (Object value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+
+    @Test
+    public void testUsernameExtendingAnotherUsername() {
+        Properties properties = new Properties();
+        properties.setProperty("john", "johnPassword");
+        properties.setProperty("john." + FAMILY_NAME, "Smith");
+        properties.setProperty("john.doe", "johnDoePassword");
+        properties.setProperty("john.doe." + FAMILY_NAME, "Doe");
+
+        UserDirectory.Users users = UserDirectory.parseUsers(properties);
+
+        UserDirectory.User johnDoe = users.getUser("john.doe");
+        assertThat(johnDoe.checkPassword("johnDoePassword"), is(true));
+        assertThat(getValues(johnDoe, NaturalPersonSpec.Definitions.CURRENT_FAMILY_NAME), is(listOf("Doe")));
+
+        UserDirectory.User john = users.getUser("john");
+        assertThat(john.checkPassword("johnPassword"), is(true));
+        assertThat(getValues(john, NaturalPersonSpec.Definitions.CURRENT_FAMILY_NAME), is(listOf("Smith")));
+    }
+
+    @Test
+    public void testMultivaluedAttribute() {
+        Properties properties = new Properties();
+        properties.setProperty("jane", "janePassword");
+        properties.setProperty("jane." + GIVEN_NAME + ".multivalue", "true");
+        properties.setProperty("jane." + GIVEN_NAME + ".1", "Jane");
+        properties.setProperty("jane." + GIVEN_NAME + ".2", "Janet");
+
+        UserDirectory.User jane = UserDirectory.parseUsers(properties).getUser("jane");
+
+        assertThat(getValues(jane, NaturalPersonSpec.Definitions.CURRENT_GIVEN_NAME), is(listOf("Jane", "Janet")));
+        assertThat(getValues(jane, NaturalPersonSpec.Definitions.CURRENT_FAMILY_NAME), is(listOf()));
+    }
+
+    @Test
+    public void testUserIsParsedOnce() {
+        Properties properties = new Properties();
+        properties.setProperty("john", "johnPassword");
+
+        UserDirectory.Users users = UserDirectory.parseUsers(properties);
+
+        assertThat(users.getUser("john"), is(sameInstance(users.getUser("john"))));
+    }
+
+    @Test
+    public void testUnknownUser() {
+        Properties properties = new Properties();
+        properties.setProperty("john.doe", "johnDoePassword");
+        properties.setProperty("john.doe." + FAMILY_NAME, "Doe");
+
+        UserDirectory.Users users = UserDirectory.parseUsers(properties);
+
+        assertThat(users.getUser("john"), is(nullValue()));
+        assertThat(users.getUser("jo"), is(nullValue()));
+    }
+}
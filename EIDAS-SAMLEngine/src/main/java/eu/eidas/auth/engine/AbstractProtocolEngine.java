@@ -16,6 +16,7 @@
 package eu.eidas.auth.engine;
 
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -48,6 +49,7 @@ import eu.eidas.auth.commons.xml.opensaml.OpenSamlHelper;
 import eu.eidas.auth.engine.configuration.ProtocolConfigurationAccessor;
 import eu.eidas.auth.engine.configuration.ProtocolEngineConfiguration;
 import eu.eidas.auth.engine.configuration.SamlEngineConfigurationException;
+import eu.eidas.auth.engine.configuration.dom.ReloadableProtocolConfiguration;
 import eu.eidas.auth.engine.core.ProtocolCipherI;
 import eu.eidas.auth.engine.core.ProtocolDecrypterI;
 import eu.eidas.auth.engine.core.ProtocolEncrypterI;
@@ -96,6 +98,9 @@ public abstract class AbstractProtocolEngine {
     @Nonnull
     private final ProtocolConfigurationAccessor configurationAccessor;
 
+    @Nonnull
+    private final AssertionExecutors assertionExecutors = new AssertionExecutors();
+
     protected AbstractProtocolEngine(@Nonnull ProtocolConfigurationAccessor configurationAccessor) {
         Preconditions.checkNotNull(configurationAccessor, "configurationAccessor");
         this.configurationAccessor = configurationAccessor;
@@ -106,8 +111,9 @@ public abstract class AbstractProtocolEngine {
      *
      * @throws EIDASSAMLEngineException
      */
-    private void checkReceivingUnencryptedResponsesAllowed() throws EIDASSAMLEngineException {
-        ProtocolDecrypterI protocolDecrypter = getProtocolDecrypter();
+    private static void checkReceivingUnencryptedResponsesAllowed(@Nonnull ProtocolEngineConfiguration configuration)
+            throws EIDASSAMLEngineException {
+        ProtocolDecrypterI protocolDecrypter = getProtocolDecrypter(configuration);
         if (null != protocolDecrypter) {
             if (protocolDecrypter.isResponseEncryptionMandatory()) {
                 throw new EIDASSAMLEngineException(EidasErrorKey.SAML_ENGINE_UNENCRYPTED_RESPONSE.errorCode(),
@@ -121,8 +127,9 @@ public abstract class AbstractProtocolEngine {
      *
      * @throws EIDASSAMLEngineException
      */
-    private void checkSendingUnencryptedResponsesAllowed() throws EIDASSAMLEngineException {
-        ProtocolEncrypterI encrypter = getProtocolEncrypter();
+    private static void checkSendingUnencryptedResponsesAllowed(@Nonnull ProtocolEngineConfiguration configuration)
+            throws EIDASSAMLEngineException {
+        ProtocolEncrypterI encrypter = getProtocolEncrypter(configuration);
         if (null != encrypter) {
             if (encrypter.isResponseEncryptionMandatory()) {
                 throw new EIDASSAMLEngineException(EidasErrorKey.SAML_ENGINE_UNENCRYPTED_RESPONSE.errorCode(),
@@ -132,8 +139,8 @@ public abstract class AbstractProtocolEngine {
     }
 
     @Nullable
-    private ProtocolEncrypterI getProtocolEncrypter() {
-        ProtocolCipherI cipher = getConfiguration().getCipher();
+    private static ProtocolEncrypterI getProtocolEncrypter(@Nonnull ProtocolEngineConfiguration configuration) {
+        ProtocolCipherI cipher = configuration.getCipher();
         if (cipher instanceof ProtocolEncrypterI) {
             return (ProtocolEncrypterI) cipher;
         }
@@ -141,8 +148,8 @@ public abstract class AbstractProtocolEngine {
     }
 
     @Nullable
-    private ProtocolDecrypterI getProtocolDecrypter() {
-        ProtocolCipherI cipher = getConfiguration().getCipher();
+    private static ProtocolDecrypterI getProtocolDecrypter(@Nonnull ProtocolEngineConfiguration configuration) {
+        ProtocolCipherI cipher = configuration.getCipher();
         if (cipher instanceof ProtocolDecrypterI) {
             return (ProtocolDecrypterI) cipher;
         }
@@ -162,6 +169,46 @@ public abstract class AbstractProtocolEngine {
         }
     }
 
+    /**
+     * Returns the snapshot of the configuration to be used throughout one operation of the engine.
+     * <p>
+     * The configuration is looked up once and its components are the instances currently configured (they do not
+     * look up the configuration again on each call), so that one operation is consistent even if the configuration is
+     * reloaded concurrently and does not pay for a configuration lookup on each use of a component.
+     *
+     * @return the configuration snapshot to pass down the calls of the operation
+     * @since 1.1
+     */
+    @Nonnull
+    protected final ProtocolEngineConfiguration getConfigurationSnapshot() {
+        return ReloadableProtocolConfiguration.snapshot(getConfiguration());
+    }
+
+    /**
+     * Returns the pool of this engine to use for the given number of assertions, if the threshold of the given
+     * configuration is met.
+     *
+     * @param configuration the configuration snapshot of the operation
+     * @param assertionCount the number of assertions in the response
+     * @return the pool or {@code null} when the assertions must be processed sequentially.
+     * @since 1.1
+     */
+    @Nullable
+    final ExecutorService getAssertionExecutor(@Nonnull ProtocolEngineConfiguration configuration,
+                                               int assertionCount) {
+        return assertionExecutors.getExecutor(configuration.getCoreProperties(), assertionCount);
+    }
+
+    /**
+     * Stops the threads of this engine processing the assertions of a response concurrently. The engine can still be
+     * used afterwards: the assertions are then processed sequentially.
+     *
+     * @since 1.1
+     */
+    public void shutdown() {
+        assertionExecutors.shutdown();
+    }
+
     /**
      * Gets the Encrypter.
      */
@@ -170,7 +217,8 @@ public abstract class AbstractProtocolEngine {
     }
 
     public X509Certificate getDecryptionCertificate() throws EIDASSAMLEngineException {
-        return null == getProtocolDecrypter() ? null : getProtocolDecrypter().getDecryptionCertificate();
+        ProtocolDecrypterI protocolDecrypter = getProtocolDecrypter(getConfiguration());
+        return null == protocolDecrypter ? null : protocolDecrypter.getDecryptionCertificate();
     }
 
     /**
@@ -235,9 +283,10 @@ public abstract class AbstractProtocolEngine {
      * @throws EIDASSAMLEngineException the SAML engine exception
      */
     @Nonnull
-    protected final byte[] signAndMarshallRequest(@Nonnull AuthnRequest request) throws EIDASSAMLEngineException {
+    protected final byte[] signAndMarshallRequest(@Nonnull ProtocolEngineConfiguration configuration,
+                                                  @Nonnull AuthnRequest request) throws EIDASSAMLEngineException {
         LOG.debug("Sign and marshall SAML Request.");
-        AuthnRequest signedRequest = signRequest(request);
+        AuthnRequest signedRequest = signRequest(configuration, request);
         return marshall(signedRequest);
     }
 
@@ -248,10 +297,11 @@ public abstract class AbstractProtocolEngine {
      * @throws EIDASSAMLEngineException the SAML engine exception
      */
     @Nonnull
-    protected final byte[] signAndMarshallResponse(@Nonnull IAuthenticationRequest request, @Nonnull Response response)
-            throws EIDASSAMLEngineException {
+    protected final byte[] signAndMarshallResponse(@Nonnull ProtocolEngineConfiguration configuration,
+                                                   @Nonnull IAuthenticationRequest request,
+                                                   @Nonnull Response response) throws EIDASSAMLEngineException {
         LOG.debug("Marshall Saml Token.");
-        Response signedResponse = signResponse(request, response);
+        Response signedResponse = signResponse(configuration, request, response);
         return marshall(signedResponse);
     }
 
@@ -262,9 +312,10 @@ public abstract class AbstractProtocolEngine {
      * @throws EIDASSAMLEngineException the SAML engine exception
      */
     @Nonnull
-    protected Assertion signAssertion(@Nonnull Assertion assertion) throws EIDASSAMLEngineException {
+    protected Assertion signAssertion(@Nonnull ProtocolEngineConfiguration configuration,
+                                      @Nonnull Assertion assertion) throws EIDASSAMLEngineException {
         LOG.debug("Sign SAML Assertion: {}", assertion.getID());
-        return getSigner().sign(assertion);
+        return configuration.getSigner().sign(assertion);
     }
 
     /**
@@ -274,9 +325,10 @@ public abstract class AbstractProtocolEngine {
      * @throws EIDASSAMLEngineException the SAML engine exception
      */
     @Nonnull
-    protected AuthnRequest signRequest(@Nonnull AuthnRequest request) throws EIDASSAMLEngineException {
+    protected AuthnRequest signRequest(@Nonnull ProtocolEngineConfiguration configuration,
+                                       @Nonnull AuthnRequest request) throws EIDASSAMLEngineException {
         LOG.debug("Signing SAML Request.");
-        return getSigner().sign(request);
+        return configuration.getSigner().sign(request);
     }
 
     /**
@@ -286,41 +338,49 @@ public abstract class AbstractProtocolEngine {
      * @throws EIDASSAMLEngineException the SAML engine exception
      */
     @Nonnull
-    protected Response signResponse(@Nonnull IAuthenticationRequest request, @Nonnull Response response)
-            throws EIDASSAMLEngineException {
+    protected Response signResponse(@Nonnull ProtocolEngineConfiguration configuration,
+                                    @Nonnull IAuthenticationRequest request,
+                                    @Nonnull Response response) throws EIDASSAMLEngineException {
         Response responseToSign = response;
+        ProtocolEncrypterI protocolEncrypter = getProtocolEncrypter(configuration);
         // Encrypt the SamlObject before signing it (encrypt-then-sign paradigm to prevent tampering)
-        if (null != getProtocolEncrypter() && !SAMLEngineUtils.isErrorSamlResponse(responseToSign)) {
+        if (null != protocolEncrypter && !SAMLEngineUtils.isErrorSamlResponse(responseToSign)) {
 
             X509Certificate destinationCertificate =
-                    getEncryptionCertificate(request.getIssuer(), request.getOriginCountryCode());
+                    getEncryptionCertificate(configuration, request.getIssuer(), request.getOriginCountryCode());
 
             if (null != destinationCertificate) {
                 LOG.debug("Encryption Executing...");
-                responseToSign = getProtocolEncrypter().encryptSamlResponse(responseToSign, destinationCertificate);
+                ExecutorService executor =
+                        getAssertionExecutor(configuration, responseToSign.getAssertions().size());
+                responseToSign =
+                        protocolEncrypter.encryptSamlResponse(responseToSign, destinationCertificate, executor);
                 LOG.debug("Encryption finished: " + responseToSign);
             } else {
                 LOG.debug("Encryption not performed, no matching certificate for issuer=" + request.getIssuer()
                                   + " and country=" + request.getOriginCountryCode());
             }
         } else if (!SAMLEngineUtils.isErrorSamlResponse(responseToSign)) {
-            checkSendingUnencryptedResponsesAllowed();
+            checkSendingUnencryptedResponsesAllowed(configuration);
         }
         // SIGN
         LOG.debug("Signing SAML Response.");
-        return getSigner().sign(responseToSign);
+        return configuration.getSigner().sign(responseToSign);
     }
 
     @Nullable
-    protected X509Certificate getEncryptionCertificate(@Nonnull String requestIssuer,
+    protected X509Certificate getEncryptionCertificate(@Nonnull ProtocolEngineConfiguration configuration,
+                                                       @Nonnull String requestIssuer,
                                                        @Nonnull String destinationCountryCode)
             throws EIDASSAMLEngineException {
 
-        if (StringUtils.isNotBlank(destinationCountryCode) && null != getProtocolEncrypter()
-                && getProtocolEncrypter().isEncryptionEnabled(destinationCountryCode)) {
-            X509Certificate encryptionCertificate = getProtocolProcessor().getEncryptionCertificate(requestIssuer);
+        ProtocolEncrypterI protocolEncrypter = getProtocolEncrypter(configuration);
+        if (StringUtils.isNotBlank(destinationCountryCode) && null != protocolEncrypter
+                && protocolEncrypter.isEncryptionEnabled(destinationCountryCode)) {
+            X509Certificate encryptionCertificate =
+                    configuration.getProtocolProcessor().getEncryptionCertificate(requestIssuer);
             if (null == encryptionCertificate) {
-                return getProtocolEncrypter().getEncryptionCertificate(destinationCountryCode);
+                return protocolEncrypter.getEncryptionCertificate(destinationCountryCode);
             }
             return encryptionCertificate;
         }
@@ -351,25 +411,28 @@ public abstract class AbstractProtocolEngine {
      * @return the SAML object
      * @throws EIDASSAMLEngineException the SAML engine exception
      */
-    protected final Response validateSignatureAndDecrypt(Response response) throws EIDASSAMLEngineException {
+    protected final Response validateSignatureAndDecrypt(@Nonnull ProtocolEngineConfiguration configuration,
+                                                         Response response) throws EIDASSAMLEngineException {
         LOG.debug("Validate response Signature");
         X509Certificate signatureCertificate =
-                getProtocolProcessor().getResponseSignatureCertificate(response.getIssuer().getValue());
-        getSigner().validateSignature(response,
-                                      null == signatureCertificate ? null : ImmutableSet.of(signatureCertificate));
+                configuration.getProtocolProcessor().getResponseSignatureCertificate(response.getIssuer().getValue());
+        configuration.getSigner()
+                .validateSignature(response,
+                                   null == signatureCertificate ? null : ImmutableSet.of(signatureCertificate));
 
-        if (null != getProtocolDecrypter()) {
+        ProtocolDecrypterI protocolDecrypter = getProtocolDecrypter(configuration);
+        if (null != protocolDecrypter) {
             if (!response.getEncryptedAssertions().isEmpty()) {
                 // DECRYPT THE SAMLObject AFTER VALIDATION
                 LOG.debug("Decryption Executing...");
-                response = getProtocolDecrypter().decryptSamlResponse(response);
+                response = protocolDecrypter.decryptSamlResponse(response);
                 if (LOG.isTraceEnabled()) {
                     LOG.trace("Decryption finished: " + EidasStringUtil.toString(marshall(response)));
                 } else {
                     LOG.debug("Decryption finished.");
                 }
             } else if (StatusCode.SUCCESS_URI.equals(response.getStatus().getStatusCode().getValue())) {
-                checkReceivingUnencryptedResponsesAllowed();
+                checkReceivingUnencryptedResponsesAllowed(configuration);
             }
         }
         return response;
@@ -0,0 +1,90 @@
+/*
+ * Licensed under the EUPL, Version 1.1 or - as soon they will be approved by
+ * the European Commission - subsequent versions of the EUPL (the "Licence");
+ * You may not use this work except in compliance with the Licence. You may
+ * obtain a copy of the Licence at:
+ *
+ * http://www.osor.eu/eupl/european-union-public-licence-eupl-v.1.1
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * Licence for the specific language governing permissions and limitations under
+ * the Licence.
+ */
+
+package eu.eidas.auth.engine;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import eu.eidas.auth.engine.core.SamlEngineCoreProperties;
+
+/**
+ * Thread pool of an engine, signing or encrypting the assertions of a response concurrently.
+ * <p>
+ * The pool is created on first use with the pool size of the current configuration, replaced when a reloaded
+ * configuration changes that size and stopped by {@link #shutdown()}, after which the assertions are processed
+ * sequentially. Its threads are daemon threads so that a pool which is never shut down does not prevent the JVM from
+ * exiting.
+ *
+ * @since 1.1
+ */
+@ThreadSafe
+final class AssertionExecutors {
+
+    @GuardedBy("this")
+    @Nullable
+    private ExecutorService executor;
+
+    @GuardedBy("this")
+    private int executorPoolSize;
+
+    @GuardedBy("this")
+    private boolean shutdown;
+
+    /**
+     * Returns the pool to use for the given number of assertions, if the configured threshold is met.
+     *
+     * @param coreProperties the core properties of the engine
+     * @param assertionCount the number of assertions in the response
+     * @return the pool or {@code null} when the assertions must be processed sequentially.
+     */
+    @Nullable
+    synchronized ExecutorService getExecutor(@Nonnull SamlEngineCoreProperties coreProperties, int assertionCount) {
+        int threshold = coreProperties.getParallelAssertionThreshold();
+        int poolSize = coreProperties.getParallelAssertionPoolSize();
+        if (shutdown || threshold <= 0 || poolSize <= 1 || assertionCount < Math.max(2, threshold)) {
+            return null;
+        }
+        if (null == executor || executorPoolSize != poolSize) {
+            if (null != executor) {
+                // the tasks already submitted by other threads are still executed:
+                executor.shutdown();
+            }
+            executor = Executors.newFixedThreadPool(poolSize, new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("AssertionExecutor-" + poolSize + "-%d")
+                    .build());
+            executorPoolSize = poolSize;
+        }
+        return executor;
+    }
+
+    /**
+     * Stops the pool once the submitted tasks are executed. The assertions are then processed sequentially.
+     */
+    synchronized void shutdown() {
+        shutdown = true;
+        if (null != executor) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+}
@@ -22,11 +22,13 @@
 
 package eu.eidas.auth.engine;
 
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -46,6 +48,7 @@ import org.w3c.dom.Document;
 
 import eu.eidas.auth.commons.EidasErrorKey;
 import eu.eidas.auth.commons.EidasErrors;
+import eu.eidas.auth.commons.EidasStringUtil;
 import eu.eidas.auth.commons.protocol.IAuthenticationRequest;
 import eu.eidas.auth.commons.protocol.IAuthenticationResponse;
 import eu.eidas.auth.commons.protocol.IRequestMessage;
@@ -53,6 +56,9 @@ import eu.eidas.auth.commons.protocol.IResponseMessage;
 import eu.eidas.auth.commons.protocol.impl.BinaryRequestMessage;
 import eu.eidas.auth.commons.protocol.impl.BinaryResponseMessage;
 import eu.eidas.auth.engine.configuration.ProtocolConfigurationAccessor;
+import eu.eidas.auth.engine.configuration.ProtocolEngineConfiguration;
+import eu.eidas.auth.engine.core.ProtocolProcessorI;
+import eu.eidas.auth.engine.core.SamlEngineCoreProperties;
 import eu.eidas.auth.engine.xml.opensaml.CertificateUtil;
 import eu.eidas.auth.engine.xml.opensaml.CorrelatedResponse;
 import eu.eidas.auth.engine.xml.opensaml.XmlSchemaUtil;
@@ -73,10 +79,8 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
      */
     private static final Logger LOG = LoggerFactory.getLogger(ProtocolEngine.class);
 
-    private static final CharsetEncoder LATIN_1_CHARSET_ENCODER = Charset.forName("ISO-8859-1").newEncoder();
-
     public static boolean needsTransliteration(String v) {
-        return !LATIN_1_CHARSET_ENCODER.canEncode(v);
+        return !EidasStringUtil.isLatin1(v);
     }
 
     private static void validateSaml2CoreSchema(SignableSAMLObject samlObject) throws EIDASSAMLEngineException {
@@ -108,8 +112,9 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
      * @param request the request
      * @throws EIDASSAMLEngineException the EIDASSAML engine exception
      */
-    private void checkRequestSanity(IAuthenticationRequest request) throws EIDASSAMLEngineException {
-        getProtocolProcessor().checkRequestSanity(request);
+    private static void checkRequestSanity(@Nonnull ProtocolEngineConfiguration configuration,
+                                           IAuthenticationRequest request) throws EIDASSAMLEngineException {
+        configuration.getProtocolProcessor().checkRequestSanity(request);
     }
 
     /**
@@ -146,13 +151,17 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
                                                EidasErrorKey.INTERNAL_ERROR.errorMessage());
         }
 
+        ProtocolEngineConfiguration configuration = getConfigurationSnapshot();
+        ProtocolProcessorI protocolProcessor = configuration.getProtocolProcessor();
+
         // Validate mandatory parameters
-        AuthnRequest samlRequest = getProtocolProcessor().marshallRequest(request, serviceIssuer, getCoreProperties());
+        AuthnRequest samlRequest =
+                protocolProcessor.marshallRequest(request, serviceIssuer, configuration.getCoreProperties());
         IAuthenticationRequest updatedRequest =
-                getProtocolProcessor().unmarshallRequest(request.getCitizenCountryCode(), samlRequest,
-                                                         request.getOriginCountryCode());
+                protocolProcessor.unmarshallRequest(request.getCitizenCountryCode(), samlRequest,
+                                                    request.getOriginCountryCode());
         try {
-            byte[] bytes = signAndMarshallRequest(samlRequest);
+            byte[] bytes = signAndMarshallRequest(configuration, samlRequest);
             return new BinaryRequestMessage(updatedRequest, bytes);
         } catch (EIDASSAMLEngineException e) {
             LOG.debug(SAML_EXCHANGE, "Sign and Marshall.", e);
@@ -179,38 +188,90 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
                                                     boolean signAssertion,
                                                     @Nonnull String ipAddress) throws EIDASSAMLEngineException {
         LOG.trace("generateResponseMessage");
+        ProtocolEngineConfiguration configuration = getConfigurationSnapshot();
         // Validate parameters
-        validateParamResponse(request, response);
+        validateParamResponse(configuration, request, response);
 
-        Response samlResponse =
-                getProtocolProcessor().marshallResponse(request, response, ipAddress, getCoreProperties());
+        Response samlResponse = configuration.getProtocolProcessor()
+                .marshallResponse(request, response, ipAddress, configuration.getCoreProperties());
 
         // update the assertions in the response to signed assertions if needed:
         if (signAssertion) {
             List<Assertion> assertions = samlResponse.getAssertions();
-            List<Assertion> signedAssertions = new ArrayList<>(assertions.size());
-            for (Assertion assertion : assertions) {
-                try {
-                    Assertion signedAssertion = signAssertion(assertion);
-                    signedAssertions.add(signedAssertion);
-                } catch (EIDASSAMLEngineException e) {
-                    LOG.error(SAML_EXCHANGE, "BUSINESS EXCEPTION : cannot sign assertion: " + e, e);
-                    throw e;
+            ExecutorService executor = getAssertionExecutor(configuration, assertions.size());
+            if (null != executor) {
+                signAssertions(configuration, samlResponse, executor);
+            } else {
+                List<Assertion> signedAssertions = new ArrayList<>(assertions.size());
+                for (Assertion assertion : assertions) {
+                    try {
+                        Assertion signedAssertion = signAssertion(configuration, assertion);
+                        signedAssertions.add(signedAssertion);
+                    } catch (EIDASSAMLEngineException e) {
+                        LOG.error(SAML_EXCHANGE, "BUSINESS EXCEPTION : cannot sign assertion: " + e, e);
+                        throw e;
+                    }
                 }
+                samlResponse.getAssertions().clear();
+                samlResponse.getAssertions().addAll(signedAssertions);
             }
-            samlResponse.getAssertions().clear();
-            samlResponse.getAssertions().addAll(signedAssertions);
         }
-        return encryptAndSignAndMarshallResponse(request, response, samlResponse);
+        return encryptAndSignAndMarshallResponse(configuration, request, response, samlResponse);
 
     }
 
-    private IResponseMessage encryptAndSignAndMarshallResponse(@Nonnull IAuthenticationRequest request,
+    /**
+     * Signs the assertions of the given response concurrently.
+     * <p>
+     * The assertions are detached from the response while they are signed, each one is then marshalled into its own
+     * document and the signatures are identical to the ones computed sequentially.
+     */
+    private void signAssertions(@Nonnull final ProtocolEngineConfiguration configuration,
+                                @Nonnull Response samlResponse,
+                                @Nonnull ExecutorService executor) throws EIDASSAMLEngineException {
+        List<Assertion> assertions = new ArrayList<>(samlResponse.getAssertions());
+        samlResponse.getAssertions().clear();
+        List<Callable<Assertion>> tasks = new ArrayList<>(assertions.size());
+        for (final Assertion assertion : assertions) {
+            // a DOM cached in the document of the response would be shared by the concurrent signatures:
+            assertion.releaseChildrenDOM(true);
+            assertion.releaseDOM();
+            tasks.add(new Callable<Assertion>() {
+                @Override
+                public Assertion call() throws EIDASSAMLEngineException {
+                    return signAssertion(configuration, assertion);
+                }
+            });
+        }
+        List<Assertion> signedAssertions = new ArrayList<>(assertions.size());
+        try {
+            for (final Future<Assertion> future : executor.invokeAll(tasks)) {
+                signedAssertions.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.error(SAML_EXCHANGE, "BUSINESS EXCEPTION : interrupted while signing assertions: " + e, e);
+            throw new EIDASSAMLEngineException(EidasErrorKey.INTERNAL_ERROR.errorCode(),
+                                               EidasErrorKey.INTERNAL_ERROR.errorMessage(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            LOG.error(SAML_EXCHANGE, "BUSINESS EXCEPTION : cannot sign assertion: " + cause, cause);
+            if (cause instanceof EIDASSAMLEngineException) {
+                throw (EIDASSAMLEngineException) cause;
+            }
+            throw new EIDASSAMLEngineException(EidasErrorKey.INTERNAL_ERROR.errorCode(),
+                                               EidasErrorKey.INTERNAL_ERROR.errorMessage(), cause);
+        }
+        samlResponse.getAssertions().addAll(signedAssertions);
+    }
+
+    private IResponseMessage encryptAndSignAndMarshallResponse(@Nonnull ProtocolEngineConfiguration configuration,
+                                                               @Nonnull IAuthenticationRequest request,
                                                                @Nonnull IAuthenticationResponse response,
                                                                Response samlResponse) throws EIDASSAMLEngineException {
         // encrypt and sign the whole response:
         try {
-            byte[] responseBytes = signAndMarshallResponse(request, samlResponse);
+            byte[] responseBytes = signAndMarshallResponse(configuration, request, samlResponse);
             return new BinaryResponseMessage(response, responseBytes);
         } catch (EIDASSAMLEngineException e) {
             LOG.error(SAML_EXCHANGE, "BUSINESS EXCEPTION : Sign and Marshall: " + e, e);
@@ -233,15 +294,17 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
     public IResponseMessage generateResponseErrorMessage(@Nonnull IAuthenticationRequest request,
                                                          @Nonnull IAuthenticationResponse response,
                                                          @Nonnull String ipAddress) throws EIDASSAMLEngineException {
+        ProtocolEngineConfiguration configuration = getConfigurationSnapshot();
+        ProtocolProcessorI protocolProcessor = configuration.getProtocolProcessor();
+        SamlEngineCoreProperties coreProperties = configuration.getCoreProperties();
 
-        Response responseFail =
-                getProtocolProcessor().marshallErrorResponse(request, response, ipAddress, getCoreProperties());
+        Response responseFail = protocolProcessor.marshallErrorResponse(request, response, ipAddress, coreProperties);
 
         IAuthenticationResponse authenticationResponse =
-                getProtocolProcessor().unmarshallErrorResponse(response, responseFail, ipAddress, getCoreProperties());
+                protocolProcessor.unmarshallErrorResponse(response, responseFail, ipAddress, coreProperties);
 
         LOG.trace("Sign and Marshall ResponseFail.");
-        return encryptAndSignAndMarshallResponse(request, authenticationResponse, responseFail);
+        return encryptAndSignAndMarshallResponse(configuration, request, authenticationResponse, responseFail);
     }
 
     /**
@@ -252,6 +315,12 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
      * @throws EIDASSAMLEngineException the EIDASSAML engine exception
      */
     public AuthnRequest unmarshallRequest(@Nonnull byte[] requestBytes) throws EIDASSAMLEngineException {
+        return unmarshallRequest(getConfigurationSnapshot(), requestBytes);
+    }
+
+    @Nonnull
+    private AuthnRequest unmarshallRequest(@Nonnull ProtocolEngineConfiguration configuration,
+                                           @Nonnull byte[] requestBytes) throws EIDASSAMLEngineException {
         LOG.trace("Validate request bytes.");
 
         if (null == requestBytes) {
@@ -263,11 +332,11 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
 
         Document document = XmlSchemaUtil.validateSamlSchema(requestBytes);
         AuthnRequest request = (AuthnRequest) unmarshall(document);
-        request = validateSignature(request);
+        request = validateSignature(configuration, request);
 
         validateSaml2CoreSchema(request);
 
-        validateRequestWithValidatorSuite(request);
+        validateRequestWithValidatorSuite(configuration, request);
 
         return request;
     }
@@ -292,16 +361,17 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
                                                EidasErrorKey.MESSAGE_VALIDATION_ERROR.errorCode(),
                                                "Saml authentication request is null.");
         }
-        AuthnRequest originalSamlRequest = unmarshallRequest(requestBytes);
+        ProtocolEngineConfiguration configuration = getConfigurationSnapshot();
+        AuthnRequest originalSamlRequest = unmarshallRequest(configuration, requestBytes);
         LOG.trace("Generate EIDASAuthnSamlRequest.");
 
         String originCountryCode = (originalSamlRequest.getSignature() != null) ? CertificateUtil.getCountry(
                 originalSamlRequest.getSignature().getKeyInfo()) : null;
 
-        IAuthenticationRequest authenticationRequest =
-                getProtocolProcessor().unmarshallRequest(citizenCountryCode, originalSamlRequest, originCountryCode);
+        IAuthenticationRequest authenticationRequest = configuration.getProtocolProcessor()
+                .unmarshallRequest(citizenCountryCode, originalSamlRequest, originCountryCode);
 
-        checkRequestSanity(authenticationRequest);
+        checkRequestSanity(configuration, authenticationRequest);
 
         return authenticationRequest;
     }
@@ -316,6 +386,12 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
     @Override
     @Nonnull
     public Correlated unmarshallResponse(@Nonnull byte[] responseBytes) throws EIDASSAMLEngineException {
+        return unmarshallResponse(getConfigurationSnapshot(), responseBytes);
+    }
+
+    @Nonnull
+    private Correlated unmarshallResponse(@Nonnull ProtocolEngineConfiguration configuration,
+                                          @Nonnull byte[] responseBytes) throws EIDASSAMLEngineException {
         LOG.trace("Validate response bytes.");
 
         if (null == responseBytes) {
@@ -329,11 +405,11 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
 
         Document document = XmlSchemaUtil.validateSamlSchema(responseBytes);
         Response response = (Response) unmarshall(document);
-        response = validateSignatureAndDecryptAndValidateAssertionSignatures(response);
+        response = validateSignatureAndDecryptAndValidateAssertionSignatures(configuration, response);
 
         validateSaml2CoreSchema(response);
 
-        validateResponseWithValidatorSuite(response);
+        validateResponseWithValidatorSuite(configuration, response);
 
         return new CorrelatedResponse(response);
     }
@@ -353,25 +429,30 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
                                                                  long skewTimeInMillis,
                                                                  @Nullable String audienceRestriction)
             throws EIDASSAMLEngineException {
-        Correlated samlResponse = unmarshallResponse(responseBytes);
+        ProtocolEngineConfiguration configuration = getConfigurationSnapshot();
+        Correlated samlResponse = unmarshallResponse(configuration, responseBytes);
 
-        return validateUnmarshalledResponse(samlResponse, userIpAddress, skewTimeInMillis, audienceRestriction);
+        return validateUnmarshalledResponse(configuration, samlResponse, userIpAddress, skewTimeInMillis,
+                                            audienceRestriction);
     }
 
-    private void validateAssertionSignatures(Response response) throws EIDASSAMLEngineException {
+    private static void validateAssertionSignatures(@Nonnull ProtocolEngineConfiguration configuration,
+                                                    Response response) throws EIDASSAMLEngineException {
         try {
-            boolean validateSign = getCoreProperties().isValidateSignature();
+            boolean validateSign = configuration.getCoreProperties().isValidateSignature();
             if (validateSign) {
-                X509Certificate signatureCertificate =
-                        getProtocolProcessor().getResponseSignatureCertificate(response.getIssuer().getValue());
+                X509Certificate signatureCertificate = configuration.getProtocolProcessor()
+                        .getResponseSignatureCertificate(response.getIssuer().getValue());
 
                 ImmutableSet<X509Certificate> trustedCertificates =
                         null == signatureCertificate ? null : ImmutableSet.of(signatureCertificate);
+                List<Assertion> signedAssertions = new ArrayList<>(response.getAssertions().size());
                 for (Assertion assertion : response.getAssertions()) {
                     if (assertion.isSigned() && null != assertion.getSignature()) {
-                        getSigner().validateSignature(assertion, trustedCertificates);
+                        signedAssertions.add(assertion);
                     }
                 }
+                configuration.getSigner().validateSignatures(signedAssertions, trustedCertificates);
             }
         } catch (EIDASSAMLEngineException e) {
             EIDASSAMLEngineException exc =
@@ -388,15 +469,18 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
      * @param response the response authentication request
      * @throws EIDASSAMLEngineException the EIDASSAML engine exception
      */
-    private void validateParamResponse(IAuthenticationRequest request, IAuthenticationResponse response)
-            throws EIDASSAMLEngineException {
+    private void validateParamResponse(@Nonnull ProtocolEngineConfiguration configuration,
+                                       IAuthenticationRequest request,
+                                       IAuthenticationResponse response) throws EIDASSAMLEngineException {
         LOG.trace("Validate parameters response.");
-        checkRequestSanity(request);
+        checkRequestSanity(configuration, request);
         checkResponseSanity(response);
     }
 
-    private void validateRequestWithValidatorSuite(@Nonnull AuthnRequest request) throws EIDASSAMLEngineException {
-        String suiteId = getProtocolProcessor().getRequestValidatorId();
+    private static void validateRequestWithValidatorSuite(@Nonnull ProtocolEngineConfiguration configuration,
+                                                          @Nonnull AuthnRequest request)
+            throws EIDASSAMLEngineException {
+        String suiteId = configuration.getProtocolProcessor().getRequestValidatorId();
         LOG.trace("Validate AuthnRequest with suite: " + suiteId);
         ValidatorSuite suite = Configuration.getValidatorSuite(suiteId);
         try {
@@ -409,8 +493,10 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
         }
     }
 
-    private void validateResponseWithValidatorSuite(@Nonnull Response response) throws EIDASSAMLEngineException {
-        String suiteId = getProtocolProcessor().getResponseValidatorId();
+    private static void validateResponseWithValidatorSuite(@Nonnull ProtocolEngineConfiguration configuration,
+                                                           @Nonnull Response response)
+            throws EIDASSAMLEngineException {
+        String suiteId = configuration.getProtocolProcessor().getResponseValidatorId();
         LOG.trace("Validate Response with suite: " + suiteId);
         ValidatorSuite suite = Configuration.getValidatorSuite(suiteId);
         try {
@@ -423,8 +509,9 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
         }
     }
 
-    private AuthnRequest validateSignature(AuthnRequest request) throws EIDASSAMLEngineException {
-        boolean validateSign = getCoreProperties().isValidateSignature();
+    private static AuthnRequest validateSignature(@Nonnull ProtocolEngineConfiguration configuration,
+                                                  AuthnRequest request) throws EIDASSAMLEngineException {
+        boolean validateSign = configuration.getCoreProperties().isValidateSignature();
         if (validateSign) {
             LOG.trace("Validate request Signature.");
             if (!request.isSigned() || null == request.getSignature()) {
@@ -434,10 +521,11 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
                 throw new EIDASSAMLEngineException(EidasErrorKey.MESSAGE_VALIDATION_ERROR.errorCode(), "The issuer cannot be null");
             }
             try {
-                X509Certificate signatureCertificate =
-                        getProtocolProcessor().getRequestSignatureCertificate(request.getIssuer().getValue());
-                return getSigner().validateSignature(request, null == signatureCertificate ? null : ImmutableSet.of(
-                        signatureCertificate));
+                X509Certificate signatureCertificate = configuration.getProtocolProcessor()
+                        .getRequestSignatureCertificate(request.getIssuer().getValue());
+                return configuration.getSigner()
+                        .validateSignature(request,
+                                           null == signatureCertificate ? null : ImmutableSet.of(signatureCertificate));
             } catch (EIDASSAMLEngineException e) {
                 LOG.error(SAML_EXCHANGE, "BUSINESS EXCEPTION : SAMLEngineException validateSignature: " + e,
                           e.getMessage(), e);
@@ -447,9 +535,9 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
         return request;
     }
 
-    private Response validateSignatureAndDecryptAndValidateAssertionSignatures(Response response)
-            throws EIDASSAMLEngineException {
-        boolean validateSign = getCoreProperties().isValidateSignature();
+    private Response validateSignatureAndDecryptAndValidateAssertionSignatures(
+            @Nonnull ProtocolEngineConfiguration configuration, Response response) throws EIDASSAMLEngineException {
+        boolean validateSign = configuration.getCoreProperties().isValidateSignature();
         if (validateSign) {
             LOG.trace("Validate response Signature.");
             if (!response.isSigned() || null == response.getSignature()) {
@@ -459,9 +547,9 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
             String country = CertificateUtil.getCountry(response.getSignature().getKeyInfo());
             LOG.debug(SAML_EXCHANGE, "Response received from country: " + country);
             try {
-                response = validateSignatureAndDecrypt(response);
+                response = validateSignatureAndDecrypt(configuration, response);
 
-                validateAssertionSignatures(response);
+                validateAssertionSignatures(configuration, response);
             } catch (EIDASSAMLEngineException e) {
                 LOG.error(SAML_EXCHANGE, "BUSINESS EXCEPTION : SAMLEngineException validateSignature: " + e,
                           e.getMessage(), e);
@@ -487,11 +575,23 @@ public class ProtocolEngine extends AbstractProtocolEngine implements ProtocolEn
                                                                 long skewTimeInMillis,
                                                                 @Nullable String audienceRestriction)
             throws EIDASSAMLEngineException {
+        return validateUnmarshalledResponse(getConfigurationSnapshot(), unmarshalledResponse, userIpAddress,
+                                            skewTimeInMillis, audienceRestriction);
+    }
+
+    @Nonnull
+    private static IAuthenticationResponse validateUnmarshalledResponse(
+            @Nonnull ProtocolEngineConfiguration configuration,
+            @Nonnull Correlated unmarshalledResponse,
+            @Nonnull String userIpAddress,
+            long skewTimeInMillis,
+            @Nullable String audienceRestriction) throws EIDASSAMLEngineException {
 
         Response response = ((CorrelatedResponse) unmarshalledResponse).getResponse();
 
-        return getProtocolProcessor().unmarshallResponse(response, getCoreProperties().isIpValidation(), userIpAddress,
-                                                         skewTimeInMillis, getClock().getCurrentTime(),
-                                                         audienceRestriction);
+        return configuration.getProtocolProcessor()
+                .unmarshallResponse(response, configuration.getCoreProperties().isIpValidation(), userIpAddress,
+                                    skewTimeInMillis, configuration.getClock().getCurrentTime(),
+                                    audienceRestriction);
     }
 }
@@ -158,4 +158,16 @@ public class ProtocolEngineFactory {
         Preconditions.checkNotBlank(instanceName, "instanceName");
         return engines.get(instanceName.trim());
     }
+
+    /**
+     * Stops the threads of all the engines of this factory (see {@link ProtocolEngineI#shutdown()}), e.g. when the
+     * application is undeployed.
+     *
+     * @since 1.1
+     */
+    public void shutdown() {
+        for (ProtocolEngineI engine : engines.values()) {
+            engine.shutdown();
+        }
+    }
 }
@@ -102,4 +102,12 @@ public interface ProtocolEngineI {
                                                          long skewTimeInMillis,
                                                          @Nullable String audienceRestriction)
             throws EIDASSAMLEngineException;
+
+    /**
+     * Stops the threads of the engine processing the assertions of a response concurrently, the engine then
+     * processes them sequentially.
+     *
+     * @since 1.1
+     */
+    void shutdown();
 }
@@ -24,8 +24,6 @@ package eu.eidas.auth.engine;
 
 import java.io.IOException;
 import java.io.StringWriter;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetEncoder;
 import java.security.cert.X509Certificate;
 import java.util.HashMap;
 import java.util.List;
@@ -112,7 +110,6 @@ import eu.eidas.auth.engine.xml.opensaml.CertificateUtil;
 import eu.eidas.auth.engine.xml.opensaml.SAMLEngineUtils;
 import eu.eidas.auth.engine.xml.opensaml.XmlSchemaUtil;
 import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
-import eu.eidas.engine.exceptions.EIDASSAMLEngineRuntimeException;
 import eu.eidas.samlengineconfig.CertificateConfigurationManager;
 import eu.eidas.util.Preconditions;
 
@@ -323,10 +320,8 @@ public final class SamlEngine extends AbstractSamlEngine implements SamlEngineI
         list.add(getExtensionProcessor().generateAttrSimple(attributeDefinition, builder.build()));
     }
 
-    private static final CharsetEncoder LATIN_1_CHARSET_ENCODER = Charset.forName("ISO-8859-1").newEncoder();
-
     public static boolean needsTransliteration(String v) {
-        return !LATIN_1_CHARSET_ENCODER.canEncode(v);
+        return !EidasStringUtil.isLatin1(v);
     }
 
     @Nullable
@@ -824,43 +819,7 @@ public final class SamlEngine extends AbstractSamlEngine implements SamlEngineI
      * @return the country
      */
     private String getCountry(KeyInfo keyInfo) {
-        LOG.trace("Recover country information.");
-        try {
-            org.opensaml.xml.signature.X509Certificate xmlCert =
-                    keyInfo.getX509Datas().get(0).getX509Certificates().get(0);
-
-            // Transform the KeyInfo to X509Certificate.
-            X509Certificate cert = CertificateUtil.toCertificate(xmlCert.getValue());
-
-            String distName = cert.getSubjectDN().toString();
-
-            distName = StringUtils.deleteWhitespace(StringUtils.upperCase(distName));
-
-            String countryCode = "C=";
-            int init = distName.indexOf(countryCode);
-
-            String result = "";
-            if (init > StringUtils.INDEX_NOT_FOUND) {
-                // Exist country code.
-                int end = distName.indexOf(',', init);
-
-                if (end <= StringUtils.INDEX_NOT_FOUND) {
-                    end = distName.length();
-                }
-
-                if (init < end && end > StringUtils.INDEX_NOT_FOUND) {
-                    result = distName.substring(init + countryCode.length(), end);
-                    //It must be a two characters value
-                    if (result.length() > 2) {
-                        result = result.substring(0, 2);
-                    }
-                }
-            }
-            return result.trim();
-        } catch (EIDASSAMLEngineException e) {
-            LOG.error(SAML_EXCHANGE, "BUSINESS EXCEPTION : Procces getCountry from certificate: " + e.getMessage(), e);
-            throw new EIDASSAMLEngineRuntimeException(e);
-        }
+        return CertificateUtil.getCountry(keyInfo);
     }
 
     /**
@@ -25,7 +25,7 @@ import eu.eidas.auth.engine.core.SamlEngineEncryptionI;
  * <p>
  * Remove this class in 1.2.
  *
- * @deprecated since 1.1, use {@link ReloadableProtocolConfigurationInvocationHandler} instead.
+ * @deprecated since 1.1, use {@link ReloadableProtocolConfiguration} instead.
  */
 @Deprecated
 @VisibleForTesting
@@ -20,7 +20,7 @@ import eu.eidas.auth.engine.configuration.SamlEngineConfiguration;
  * <p>
  * Remove this class in 1.2.
  *
- * @deprecated since 1.1, use {@link ReloadableProtocolConfigurationProxyMapAccessor} instead.
+ * @deprecated since 1.1, use {@link ReloadableProtocolConfigurationMapAccessor} instead.
  */
 @Deprecated
 final class ReloadableConfigurationProxyMapSingletonAccessor
@@ -0,0 +1,605 @@
+package eu.eidas.auth.engine.configuration.dom;
+
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.joda.time.DateTime;
+import org.opensaml.saml2.core.AuthnRequest;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.xml.security.x509.X509Credential;
+import org.opensaml.xml.signature.SignableXMLObject;
+
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.AttributeRegistry;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.protocol.IAuthenticationRequest;
+import eu.eidas.auth.commons.protocol.IAuthenticationResponse;
+import eu.eidas.auth.commons.protocol.impl.SamlBindingUri;
+import eu.eidas.auth.engine.SamlEngineClock;
+import eu.eidas.auth.engine.configuration.ProtocolEngineConfiguration;
+import eu.eidas.auth.engine.core.ProtocolCipherI;
+import eu.eidas.auth.engine.core.ProtocolDecrypterI;
+import eu.eidas.auth.engine.core.ProtocolEncrypterI;
+import eu.eidas.auth.engine.core.ProtocolProcessorI;
+import eu.eidas.auth.engine.core.ProtocolSignerI;
+import eu.eidas.auth.engine.core.SAMLExtensionFormat;
+import eu.eidas.auth.engine.core.SamlEngineCoreProperties;
+import eu.eidas.auth.engine.metadata.MetadataSignerI;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+/**
+ * Holders of the components of a {@link ReloadableProtocolConfiguration}.
+ * <p>
+ * Each holder implements the interfaces of the component it stands for and delegates every call to the component of
+ * the configuration currently loaded, which replaces the JDK dynamic proxies (and their reflective invocations)
+ * previously used.
+ *
+ * @since 1.1
+ */
+final class ReloadableProtocolComponents {
+
+    abstract static class AbstractReloadableComponent<T> {
+
+        @Nonnull
+        private final ReloadableProtocolConfiguration reloadableConfiguration;
+
+        AbstractReloadableComponent(@Nonnull ReloadableProtocolConfiguration reloadableConfiguration) {
+            this.reloadableConfiguration = reloadableConfiguration;
+        }
+
+        @Nonnull
+        final ReloadableProtocolConfiguration getReloadableConfiguration() {
+            return reloadableConfiguration;
+        }
+
+        /**
+         * @return the component of the configuration currently loaded.
+         */
+        @Nonnull
+        final T getCurrent() {
+            return getComponent(reloadableConfiguration.getCurrent());
+        }
+
+        /**
+         * @param configuration a configuration loaded for this holder
+         * @return the component of the given configuration this holder stands for.
+         */
+        @Nullable
+        abstract T getComponent(@Nonnull ProtocolEngineConfiguration configuration);
+
+        @Override
+        public String toString() {
+            return String.valueOf(getCurrent());
+        }
+    }
+
+    static final class ReloadableClock extends AbstractReloadableComponent<SamlEngineClock>
+            implements SamlEngineClock {
+
+        ReloadableClock(@Nonnull ReloadableProtocolConfiguration reloadableConfiguration) {
+            super(reloadableConfiguration);
+        }
+
+        @Nonnull
+        @Override
+        SamlEngineClock getComponent(@Nonnull ProtocolEngineConfiguration configuration) {
+            return configuration.getClock();
+        }
+
+        @Override
+        public DateTime getCurrentTime() {
+            return getCurrent().getCurrentTime();
+        }
+    }
+
+    static final class ReloadableCoreProperties extends AbstractReloadableComponent<SamlEngineCoreProperties>
+            implements SamlEngineCoreProperties {
+
+        ReloadableCoreProperties(@Nonnull ReloadableProtocolConfiguration reloadableConfiguration) {
+            super(reloadableConfiguration);
+        }
+
+        @Nonnull
+        @Override
+        SamlEngineCoreProperties getComponent(@Nonnull ProtocolEngineConfiguration configuration) {
+            return configuration.getCoreProperties();
+        }
+
+        @Override
+        public String getConsentAuthnRequest() {
+            return getCurrent().getConsentAuthnRequest();
+        }
+
+        @Override
+        public String getConsentAuthnResp() {
+            return getCurrent().getConsentAuthnResp();
+        }
+
+        @Override
+        public String getConsentAuthnResponse() {
+            return getCurrent().getConsentAuthnResponse();
+        }
+
+        @Override
+        public String getFormatEntity() {
+            return getCurrent().getFormatEntity();
+        }
+
+        @Override
+        public String getProperty(String key) {
+            return getCurrent().getProperty(key);
+        }
+
+        @Override
+        public int getParallelAssertionPoolSize() {
+            return getCurrent().getParallelAssertionPoolSize();
+        }
+
+        @Override
+        public int getParallelAssertionThreshold() {
+            return getCurrent().getParallelAssertionThreshold();
+        }
+
+        @Override
+        public String getProtocolBinding() {
+            return getCurrent().getProtocolBinding();
+        }
+
+        @Override
+        public String getRequester() {
+            return getCurrent().getRequester();
+        }
+
+        @Override
+        public String getResponder() {
+            return getCurrent().getResponder();
+        }
+
+        @Override
+        public Set<String> getSupportedMessageFormatNames() {
+            return getCurrent().getSupportedMessageFormatNames();
+        }
+
+        @Override
+        public Integer getTimeNotOnOrAfter() {
+            return getCurrent().getTimeNotOnOrAfter();
+        }
+
+        @Override
+        public String isEidCrossBordShare() {
+            return getCurrent().isEidCrossBordShare();
+        }
+
+        @Override
+        public String isEidCrossBorderShare() {
+            return getCurrent().isEidCrossBorderShare();
+        }
+
+        @Override
+        public String isEidCrossSectShare() {
+            return getCurrent().isEidCrossSectShare();
+        }
+
+        @Override
+        public String isEidCrossSectorShare() {
+            return getCurrent().isEidCrossSectorShare();
+        }
+
+        @Override
+        public String isEidSectorShare() {
+            return getCurrent().isEidSectorShare();
+        }
+
+        @Override
+        public boolean isIpValidation() {
+            return getCurrent().isIpValidation();
+        }
+
+        @Override
+        public boolean isOneTimeUse() {
+            return getCurrent().isOneTimeUse();
+        }
+
+        @Override
+        public boolean isValidateSignature() {
+            return getCurrent().isValidateSignature();
+        }
+    }
+
+    static class ReloadableSigner extends AbstractReloadableComponent<ProtocolSignerI> implements ProtocolSignerI {
+
+        ReloadableSigner(@Nonnull ReloadableProtocolConfiguration reloadableConfiguration) {
+            super(reloadableConfiguration);
+        }
+
+        @Nonnull
+        @Override
+        final ProtocolSignerI getComponent(@Nonnull ProtocolEngineConfiguration configuration) {
+            return configuration.getSigner();
+        }
+
+        @Nonnull
+        @Override
+        public X509Credential getPublicSigningCredential() {
+            return getCurrent().getPublicSigningCredential();
+        }
+
+        @Nonnull
+        @Override
+        public <T extends SignableXMLObject> T sign(@Nonnull T signableObject) throws EIDASSAMLEngineException {
+            return getCurrent().sign(signableObject);
+        }
+
+        @Nonnull
+        @Override
+        public <T extends SignableXMLObject> T validateSignature(@Nonnull T signedObject,
+                                                                 @Nullable
+                                                                         Collection<X509Certificate> trustedCertificates)
+                throws EIDASSAMLEngineException {
+            return getCurrent().validateSignature(signedObject, trustedCertificates);
+        }
+
+        @Nonnull
+        @Override
+        public <T extends SignableXMLObject> List<T> validateSignatures(@Nonnull List<T> signedObjects,
+                                                                        @Nullable
+                                                                                Collection<X509Certificate> trustedCertificates)
+                throws EIDASSAMLEngineException {
+            return getCurrent().validateSignatures(signedObjects, trustedCertificates);
+        }
+    }
+
+    static final class ReloadableMetadataSigner extends ReloadableSigner implements MetadataSignerI {
+
+        ReloadableMetadataSigner(@Nonnull ReloadableProtocolConfiguration reloadableConfiguration) {
+            super(reloadableConfiguration);
+        }
+
+        @Nonnull
+        private MetadataSignerI getCurrentMetadataSigner() {
+            return (MetadataSignerI) getCurrent();
+        }
+
+        @Nullable
+        @Override
+        public X509Credential getPublicMetadataSigningCredential() {
+            return getCurrentMetadataSigner().getPublicMetadataSigningCredential();
+        }
+
+        @Nonnull
+        @Override
+        public <T extends SignableXMLObject> T signMetadata(@Nonnull T signableObject)
+                throws EIDASSAMLEngineException {
+            return getCurrentMetadataSigner().signMetadata(signableObject);
+        }
+
+        @Nonnull
+        @Override
+        public <T extends SignableXMLObject> T validateMetadataSignature(@Nonnull T signedMetadata)
+                throws EIDASSAMLEngineException {
+            return getCurrentMetadataSigner().validateMetadataSignature(signedMetadata);
+        }
+    }
+
+    static class ReloadableCipher extends AbstractReloadableComponent<ProtocolCipherI> implements ProtocolCipherI {
+
+        ReloadableCipher(@Nonnull ReloadableProtocolConfiguration reloadableConfiguration) {
+            super(reloadableConfiguration);
+        }
+
+        @Nullable
+        @Override
+        final ProtocolCipherI getComponent(@Nonnull ProtocolEngineConfiguration configuration) {
+            // a reload never swaps a non-null cipher for a null one (new holders are created instead)
+            return configuration.getCipher();
+        }
+
+        @Override
+        public boolean isCheckedValidityPeriod() {
+            return getCurrent().isCheckedValidityPeriod();
+        }
+
+        @Override
+        public boolean isDisallowedSelfSignedCertificate() {
+            return getCurrent().isDisallowedSelfSignedCertificate();
+        }
+
+        @Override
+        public boolean isResponseEncryptionMandatory() {
+            return getCurrent().isResponseEncryptionMandatory();
+        }
+    }
+
+    static class ReloadableEncrypter extends ReloadableCipher implements ProtocolEncrypterI {
+
+        ReloadableEncrypter(@Nonnull ReloadableProtocolConfiguration reloadableConfiguration) {
+            super(reloadableConfiguration);
+        }
+
+        @Nonnull
+        private ProtocolEncrypterI getCurrentEncrypter() {
+            return (ProtocolEncrypterI) getCurrent();
+        }
+
+        @Nonnull
+        @Override
+        public Response encryptSamlResponse(@Nonnull Response authResponse,
+                                            @Nonnull X509Certificate destinationCertificate)
+                throws EIDASSAMLEngineException {
+            return getCurrentEncrypter().encryptSamlResponse(authResponse, destinationCertificate);
+        }
+
+        @Nonnull
+        @Override
+        public Response encryptSamlResponse(@Nonnull Response authResponse,
+                                            @Nonnull X509Certificate destinationCertificate,
+                                            @Nullable ExecutorService executor) throws EIDASSAMLEngineException {
+            return getCurrentEncrypter().encryptSamlResponse(authResponse, destinationCertificate, executor);
+        }
+
+        @Nullable
+        @Override
+        public X509Certificate getEncryptionCertificate(@Nullable String destinationCountryCode)
+                throws EIDASSAMLEngineException {
+            return getCurrentEncrypter().getEncryptionCertificate(destinationCountryCode);
+        }
+
+        @Override
+        public boolean isEncryptionEnabled(@Nonnull String countryCode) {
+            return getCurrentEncrypter().isEncryptionEnabled(countryCode);
+        }
+    }
+
+    static final class ReloadableDecrypter extends ReloadableCipher implements ProtocolDecrypterI {
+
+        ReloadableDecrypter(@Nonnull ReloadableProtocolConfiguration reloadableConfiguration) {
+            super(reloadableConfiguration);
+        }
+
+        @Nonnull
+        @Override
+        public Response decryptSamlResponse(@Nonnull Response authResponse) throws EIDASSAMLEngineException {
+            return ((ProtocolDecrypterI) getCurrent()).decryptSamlResponse(authResponse);
+        }
+
+        @Nonnull
+        @Override
+        public X509Certificate getDecryptionCertificate() throws EIDASSAMLEngineException {
+            return ((ProtocolDecrypterI) getCurrent()).getDecryptionCertificate();
+        }
+    }
+
+    static final class ReloadableEncrypterDecrypter extends ReloadableEncrypter implements ProtocolDecrypterI {
+
+        ReloadableEncrypterDecrypter(@Nonnull ReloadableProtocolConfiguration reloadableConfiguration) {
+            super(reloadableConfiguration);
+        }
+
+        @Nonnull
+        @Override
+        public Response decryptSamlResponse(@Nonnull Response authResponse) throws EIDASSAMLEngineException {
+            return ((ProtocolDecrypterI) getCurrent()).decryptSamlResponse(authResponse);
+        }
+
+        @Nonnull
+        @Override
+        public X509Certificate getDecryptionCertificate() throws EIDASSAMLEngineException {
+            return ((ProtocolDecrypterI) getCurrent()).getDecryptionCertificate();
+        }
+    }
+
+    static final class ReloadableProtocolProcessor extends AbstractReloadableComponent<ProtocolProcessorI>
+            implements ProtocolProcessorI {
+
+        ReloadableProtocolProcessor(@Nonnull ReloadableProtocolConfiguration reloadableConfiguration) {
+            super(reloadableConfiguration);
+        }
+
+        @Nonnull
+        @Override
+        ProtocolProcessorI getComponent(@Nonnull ProtocolEngineConfiguration configuration) {
+            return configuration.getProtocolProcessor();
+        }
+
+        @Override
+        public boolean checkMandatoryAttributes(@Nullable ImmutableAttributeMap immutableAttributeMap) {
+            return getCurrent().checkMandatoryAttributes(immutableAttributeMap);
+        }
+
+        @Override
+        public void checkRequestSanity(IAuthenticationRequest request) throws EIDASSAMLEngineException {
+            getCurrent().checkRequestSanity(request);
+        }
+
+        @Override
+        public void configure() {
+            getCurrent().configure();
+        }
+
+        @Override
+        public AttributeRegistry getAdditionalAttributes() {
+            return getCurrent().getAdditionalAttributes();
+        }
+
+        @Override
+        public ImmutableSortedSet<AttributeDefinition<?>> getAllSupportedAttributes() {
+            return getCurrent().getAllSupportedAttributes();
+        }
+
+        @Nullable
+        @Override
+        public AttributeDefinition<?> getAttributeDefinitionNullable(@Nonnull String name) {
+            return getCurrent().getAttributeDefinitionNullable(name);
+        }
+
+        @Nullable
+        @Override
+        public X509Certificate getEncryptionCertificate(@Nullable String requestIssuer)
+                throws EIDASSAMLEngineException {
+            return getCurrent().getEncryptionCertificate(requestIssuer);
+        }
+
+        @Override
+        @Deprecated
+        public SAMLExtensionFormat getFormat() {
+            return getCurrent().getFormat();
+        }
+
+        @Override
+        public AttributeRegistry getMinimumDataSetAttributes() {
+            return getCurrent().getMinimumDataSetAttributes();
+        }
+
+        @Nullable
+        @Override
+        public String getProtocolBinding(@Nonnull IAuthenticationRequest request,
+                                         @Nonnull SamlEngineCoreProperties defaultValues) {
+            return getCurrent().getProtocolBinding(request, defaultValues);
+        }
+
+        @Nullable
+        @Override
+        public X509Certificate getRequestSignatureCertificate(@Nonnull String issuer)
+                throws EIDASSAMLEngineException {
+            return getCurrent().getRequestSignatureCertificate(issuer);
+        }
+
+        @Override
+        public String getRequestValidatorId() {
+            return getCurrent().getRequestValidatorId();
+        }
+
+        @Nullable
+        @Override
+        public X509Certificate getResponseSignatureCertificate(@Nonnull String issuer)
+                throws EIDASSAMLEngineException {
+            return getCurrent().getResponseSignatureCertificate(issuer);
+        }
+
+        @Override
+        public String getResponseValidatorId() {
+            return getCurrent().getResponseValidatorId();
+        }
+
+        @Nullable
+        @Override
+        public String getServiceUrl(@Nonnull String issuer, @Nonnull SamlBindingUri bindingUri)
+                throws EIDASSAMLEngineException {
+            return getCurrent().getServiceUrl(issuer, bindingUri);
+        }
+
+        @Override
+        public boolean isAcceptableHttpRequest(@Nonnull IAuthenticationRequest authnRequest,
+                                               @Nullable String httpMethod) throws EIDASSAMLEngineException {
+            return getCurrent().isAcceptableHttpRequest(authnRequest, httpMethod);
+        }
+
+        @Nonnull
+        @Override
+        public Response marshallErrorResponse(@Nonnull IAuthenticationRequest request,
+                                              @Nonnull IAuthenticationResponse response,
+                                              @Nonnull String ipAddress,
+                                              @Nonnull SamlEngineCoreProperties samlCoreProperties)
+                throws EIDASSAMLEngineException {
+            return getCurrent().marshallErrorResponse(request, response, ipAddress, samlCoreProperties);
+        }
+
+        @Nonnull
+        @Override
+        public AuthnRequest marshallRequest(@Nonnull IAuthenticationRequest request,
+                                            @Nonnull String serviceIssuer,
+                                            @Nonnull SamlEngineCoreProperties samlCoreProperties)
+                throws EIDASSAMLEngineException {
+            return getCurrent().marshallRequest(request, serviceIssuer, samlCoreProperties);
+        }
+
+        @Nonnull
+        @Override
+        public Response marshallResponse(@Nonnull IAuthenticationRequest request,
+                                         @Nonnull IAuthenticationResponse response,
+                                         @Nonnull String ipAddress,
+                                         @Nonnull SamlEngineCoreProperties samlCoreProperties)
+                throws EIDASSAMLEngineException {
+            return getCurrent().marshallResponse(request, response, ipAddress, samlCoreProperties);
+        }
+
+        @Nonnull
+        @Override
+        public IAuthenticationResponse unmarshallErrorResponse(@Nonnull IAuthenticationResponse errorResponse,
+                                                               @Nonnull Response samlErrorResponse,
+                                                               @Nonnull String ipAddress,
+                                                               @Nonnull SamlEngineCoreProperties coreProperties)
+                throws EIDASSAMLEngineException {
+            return getCurrent().unmarshallErrorResponse(errorResponse, samlErrorResponse, ipAddress, coreProperties);
+        }
+
+        @Nonnull
+        @Override
+        public IAuthenticationRequest unmarshallRequest(@Nonnull String citizenCountryCode,
+                                                        @Nonnull AuthnRequest samlRequest,
+                                                        @Nullable String originCountryCode)
+                throws EIDASSAMLEngineException {
+            return getCurrent().unmarshallRequest(citizenCountryCode, samlRequest, originCountryCode);
+        }
+
+        @Nonnull
+        @Override
+        public IAuthenticationResponse unmarshallResponse(@Nonnull Response response,
+                                                          boolean verifyBearerIpAddress,
+                                                          @Nullable String userIpAddress,
+                                                          long skewTimeInMillis,
+                                                          @Nonnull DateTime now,
+                                                          @Nullable String audienceRestriction)
+                throws EIDASSAMLEngineException {
+            return getCurrent().unmarshallResponse(response, verifyBearerIpAddress, userIpAddress, skewTimeInMillis,
+                                                   now, audienceRestriction);
+        }
+
+        @Nonnull
+        @Override
+        public IAuthenticationRequest updateRequestWithConsent(@Nonnull IAuthenticationRequest request,
+                                                               @Nonnull ImmutableAttributeMap consentedAttributes) {
+            return getCurrent().updateRequestWithConsent(request, consentedAttributes);
+        }
+    }
+
+    @Nonnull
+    static ProtocolSignerI newSigner(@Nonnull ReloadableProtocolConfiguration reloadableConfiguration,
+                                     @Nonnull ProtocolSignerI signer) {
+        if (signer instanceof MetadataSignerI) {
+            return new ReloadableMetadataSigner(reloadableConfiguration);
+        }
+        return new ReloadableSigner(reloadableConfiguration);
+    }
+
+    @Nullable
+    static ProtocolCipherI newCipher(@Nonnull ReloadableProtocolConfiguration reloadableConfiguration,
+                                     @Nullable ProtocolCipherI cipher) {
+        if (null == cipher) {
+            return null;
+        }
+        boolean encrypter = cipher instanceof ProtocolEncrypterI;
+        boolean decrypter = cipher instanceof ProtocolDecrypterI;
+        if (encrypter && decrypter) {
+            return new ReloadableEncrypterDecrypter(reloadableConfiguration);
+        }
+        if (encrypter) {
+            return new ReloadableEncrypter(reloadableConfiguration);
+        }
+        if (decrypter) {
+            return new ReloadableDecrypter(reloadableConfiguration);
+        }
+        return new ReloadableCipher(reloadableConfiguration);
+    }
+
+    private ReloadableProtocolComponents() {
+    }
+}
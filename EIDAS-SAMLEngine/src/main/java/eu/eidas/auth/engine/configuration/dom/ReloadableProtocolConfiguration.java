@@ -0,0 +1,229 @@
+package eu.eidas.auth.engine.configuration.dom;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import eu.eidas.auth.engine.SamlEngineClock;
+import eu.eidas.auth.engine.configuration.ProtocolEngineConfiguration;
+import eu.eidas.auth.engine.core.ProtocolCipherI;
+import eu.eidas.auth.engine.core.ProtocolDecrypterI;
+import eu.eidas.auth.engine.core.ProtocolEncrypterI;
+import eu.eidas.auth.engine.core.ProtocolProcessorI;
+import eu.eidas.auth.engine.core.ProtocolSignerI;
+import eu.eidas.auth.engine.core.SamlEngineCoreProperties;
+import eu.eidas.auth.engine.metadata.MetadataSignerI;
+import eu.eidas.util.Preconditions;
+
+/**
+ * Reloadable configuration of one ProtocolEngine instance.
+ * <p>
+ * Each interface component (SamlEngineCoreProperties, ProtocolSignerI, ProtocolCipherI, ProtocolProcessorI and
+ * SamlEngineClock) in a configuration can be cached as a reference in client code, therefore the configuration exposed
+ * to client code is made of holders (see {@link ReloadableProtocolComponents}) which delegate to the instances of the
+ * current configuration.
+ * <p>
+ * The current configuration is kept in a single volatile field: a reload swaps all the components of the instance at
+ * once and a call on a holder costs a volatile read, without reflection.
+ * <p>
+ * Before delegating, a holder asks the accessor of the configuration file to reload it if it has changed, which is a
+ * volatile read as long as the file is not flagged by its watch, so that the holders kept by client code see a change
+ * of the file as the proxies they replace did. When the components of a reloaded configuration implement other
+ * interfaces, new holders are created for them and the previous holders delegate to the new ones.
+ *
+ * @since 1.1
+ */
+@ThreadSafe
+public final class ReloadableProtocolConfiguration {
+
+    /**
+     * Unwraps the reloadable holders of one configuration, reading the current configuration of each {@link
+     * ReloadableProtocolConfiguration} once so that the unwrapped components are consistent with one another.
+     */
+    private static final class Snapshot {
+
+        @Nullable
+        private ReloadableProtocolConfiguration reloadableConfiguration;
+
+        @Nullable
+        private ProtocolEngineConfiguration current;
+
+        private boolean unwrapped;
+
+        @Nullable
+        <T> T unwrap(@Nullable T component) {
+            if (!(component instanceof ReloadableProtocolComponents.AbstractReloadableComponent)) {
+                return component;
+            }
+            @SuppressWarnings("unchecked")
+            ReloadableProtocolComponents.AbstractReloadableComponent<T> holder =
+                    (ReloadableProtocolComponents.AbstractReloadableComponent<T>) component;
+            if (holder.getReloadableConfiguration() != reloadableConfiguration) {
+                reloadableConfiguration = holder.getReloadableConfiguration();
+                current = reloadableConfiguration.getCurrent();
+            }
+            unwrapped = true;
+            return holder.getComponent(current);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the given configuration whose reloadable holders are replaced by the instances currently
+     * behind them.
+     * <p>
+     * The components which are not reloadable holders, e.g. a protocol processor or a clock given to {@code
+     * ProtocolEngineFactory.createProtocolEngine()} or set through {@code ProtocolEngineConfiguration.builder()}, are
+     * kept as is. A configuration without any reloadable holder is returned as is.
+     *
+     * @param configuration the configuration, possibly made of reloadable holders
+     * @return the configuration with the instances currently behind its holders
+     */
+    @Nonnull
+    public static ProtocolEngineConfiguration snapshot(@Nonnull ProtocolEngineConfiguration configuration) {
+        Snapshot snapshot = new Snapshot();
+        SamlEngineCoreProperties coreProperties = snapshot.unwrap(configuration.getCoreProperties());
+        ProtocolSignerI signer = snapshot.unwrap(configuration.getSigner());
+        ProtocolCipherI cipher = snapshot.unwrap(configuration.getCipher());
+        ProtocolProcessorI protocolProcessor = snapshot.unwrap(configuration.getProtocolProcessor());
+        SamlEngineClock clock = snapshot.unwrap(configuration.getClock());
+        if (!snapshot.unwrapped) {
+            return configuration;
+        }
+        return ProtocolEngineConfiguration.builder(configuration)
+                .coreProperties(coreProperties)
+                .signer(signer)
+                .cipher(cipher)
+                .protocolProcessor(protocolProcessor)
+                .clock(clock)
+                .build();
+    }
+
+    /**
+     * Returns the instance currently behind the given component of a reloadable configuration.
+     * <p>
+     * A component which is not a reloadable holder is returned as is.
+     *
+     * @param component the component, possibly a reloadable holder
+     * @param <T> the type of the component
+     * @return the instance currently behind the holder
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public static <T> T getCurrentComponent(@Nullable T component) {
+        if (component instanceof ReloadableProtocolComponents.AbstractReloadableComponent) {
+            return ((ReloadableProtocolComponents.AbstractReloadableComponent<T>) component).getCurrent();
+        }
+        return component;
+    }
+
+    private static boolean isSameCipherType(@Nullable ProtocolCipherI cipher, @Nullable ProtocolCipherI other) {
+        if (null == cipher || null == other) {
+            return cipher == other;
+        }
+        return cipher instanceof ProtocolEncrypterI == other instanceof ProtocolEncrypterI
+                && cipher instanceof ProtocolDecrypterI == other instanceof ProtocolDecrypterI;
+    }
+
+    /**
+     * Returns whether the holders of the given configuration can delegate to the components of the new configuration,
+     * i.e. whether the components implement the same interfaces (e.g. the cipher is an encrypter in both).
+     */
+    private static boolean isCompatible(@Nonnull ProtocolEngineConfiguration configuration,
+                                        @Nonnull ProtocolEngineConfiguration newConfiguration) {
+        boolean metadataSigner = configuration.getSigner() instanceof MetadataSignerI;
+        return metadataSigner == newConfiguration.getSigner() instanceof MetadataSignerI
+                && isSameCipherType(configuration.getCipher(), newConfiguration.getCipher());
+    }
+
+    @Nonnull
+    private volatile ProtocolEngineConfiguration current;
+
+    /**
+     * The configuration whose holders replace this one after an incompatible reload.
+     */
+    @Nullable
+    private volatile ReloadableProtocolConfiguration successor;
+
+    @Nullable
+    private final ReloadableProtocolConfigurationMapAccessor mapAccessor;
+
+    @Nonnull
+    private final ProtocolEngineConfiguration reloadableConfiguration;
+
+    ReloadableProtocolConfiguration(@Nonnull String name, @Nonnull ProtocolEngineConfiguration configuration) {
+        this(name, configuration, null);
+    }
+
+    ReloadableProtocolConfiguration(@Nonnull String name,
+                                    @Nonnull ProtocolEngineConfiguration configuration,
+                                    @Nullable ReloadableProtocolConfigurationMapAccessor mapAccessor) {
+        Preconditions.checkNotBlank(name, "name");
+        Preconditions.checkNotNull(configuration, "configuration");
+        current = configuration;
+        this.mapAccessor = mapAccessor;
+        reloadableConfiguration = ProtocolEngineConfiguration.builder()
+                .instanceName(name)
+                .coreProperties(new ReloadableProtocolComponents.ReloadableCoreProperties(this))
+                .signer(ReloadableProtocolComponents.newSigner(this, configuration.getSigner()))
+                .cipher(ReloadableProtocolComponents.newCipher(this, configuration.getCipher()))
+                .protocolProcessor(new ReloadableProtocolComponents.ReloadableProtocolProcessor(this))
+                .clock(new ReloadableProtocolComponents.ReloadableClock(this))
+                .build();
+    }
+
+    /**
+     * Reloads the configuration file first if it has changed.
+     *
+     * @return the configuration currently loaded.
+     */
+    @Nonnull
+    ProtocolEngineConfiguration getCurrent() {
+        if (null != mapAccessor) {
+            mapAccessor.reloadIfChanged();
+        }
+        ReloadableProtocolConfiguration next = successor;
+        return null == next ? current : next.getCurrent();
+    }
+
+    /**
+     * @return the configuration made of holders delegating to the configuration currently loaded.
+     */
+    @Nonnull
+    ProtocolEngineConfiguration getReloadableConfiguration() {
+        return reloadableConfiguration;
+    }
+
+    /**
+     * Swaps the current configuration when the holders can delegate to the components of the new configuration.
+     *
+     * @param newConfiguration the reloaded configuration
+     * @return {@code true} if the configuration has been swapped, {@code false} if the new configuration requires new
+     * holders.
+     */
+    boolean reload(@Nonnull ProtocolEngineConfiguration newConfiguration) {
+        Preconditions.checkNotNull(newConfiguration, "newConfiguration");
+        if (!isCompatible(current, newConfiguration)) {
+            return false;
+        }
+        current = newConfiguration;
+        return true;
+    }
+
+    /**
+     * Makes the holders of this configuration delegate to the configuration of the new holders created for an
+     * incompatible reload. The calls to the interfaces which the new components do not implement anymore then fail.
+     *
+     * @param newReloadableConfiguration the configuration of the new holders
+     */
+    void supersede(@Nonnull ReloadableProtocolConfiguration newReloadableConfiguration) {
+        Preconditions.checkNotNull(newReloadableConfiguration, "newReloadableConfiguration");
+        successor = newReloadableConfiguration;
+    }
+
+    @Override
+    public String toString() {
+        return "ReloadableProtocolConfiguration{" +
+                "current=" + current +
+                '}';
+    }
+}
@@ -94,8 +94,8 @@ public final class ReloadableProtocolConfigurationMap {
                                                        }
                                                    });
         // each interface component in the returned configuration can be cached as a reference in client code,
-        // therefore each such interface must be a proxy capable of reloading its configuration
-        accessor = new ReloadableProtocolConfigurationProxyMapAccessor(fileAccessor);
+        // therefore each such interface must be a holder capable of delegating to the reloaded configuration
+        accessor = new ReloadableProtocolConfigurationMapAccessor(fileAccessor);
     }
 
     @Nonnull
@@ -0,0 +1,127 @@
+package eu.eidas.auth.engine.configuration.dom;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.collect.ImmutableMap;
+
+import eu.eidas.auth.commons.io.SingletonAccessor;
+import eu.eidas.auth.engine.configuration.ProtocolEngineConfiguration;
+
+/**
+ * Each interface component (SamlEngineCoreProperties, ProtocolSignerI, ProtocolCipherI, ProtocolProcessorI and
+ * SamlEngineClock) in a configuration can be cached as a reference in client code, therefore each such interface must
+ * be a holder capable of delegating to the reloaded configuration.
+ * <p>
+ * This class builds the holders once (see {@link ReloadableProtocolConfiguration}) and swaps the configuration behind
+ * them when the underlying accessor returns a reloaded configuration, which the holders check before each call.
+ *
+ * @since 1.1
+ */
+@ThreadSafe
+final class ReloadableProtocolConfigurationMapAccessor
+        implements SingletonAccessor<ImmutableMap<String, ProtocolEngineConfiguration>> {
+
+    @Nonnull
+    private final SingletonAccessor<ImmutableMap<String, ProtocolEngineConfiguration>> fileAccessor;
+
+    @GuardedBy("this")
+    private final Map<String, ReloadableProtocolConfiguration> reloadableConfigurations =
+            new HashMap<String, ReloadableProtocolConfiguration>();
+
+    @Nonnull
+    private volatile ImmutableMap<String, ProtocolEngineConfiguration> cachedMap;
+
+    @Nonnull
+    private volatile ImmutableMap<String, ProtocolEngineConfiguration> reloadableMap;
+
+    ReloadableProtocolConfigurationMapAccessor(
+            @Nonnull SingletonAccessor<ImmutableMap<String, ProtocolEngineConfiguration>> fileAccessor) {
+        this.fileAccessor = fileAccessor;
+        ImmutableMap<String, ProtocolEngineConfiguration> loadedMap;
+        try {
+            loadedMap = fileAccessor.get();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to load configuration: " + e, e);
+        }
+        synchronized (this) {
+            reloadableMap = updateReloadableMap(loadedMap);
+            cachedMap = loadedMap;
+        }
+    }
+
+    @Nullable
+    @Override
+    public ImmutableMap<String, ProtocolEngineConfiguration> get() throws IOException {
+        ImmutableMap<String, ProtocolEngineConfiguration> currentValue = fileAccessor.get();
+        if (currentValue == cachedMap) {
+            return reloadableMap;
+        }
+        return reload(currentValue);
+    }
+
+    /**
+     * Reloads the configuration file if it has changed.
+     *
+     * @throws IllegalStateException if the changed file cannot be loaded
+     */
+    void reloadIfChanged() {
+        try {
+            get();
+        } catch (IOException e) {
+            throw new IllegalStateException("Configuration could not be reloaded: " + e, e);
+        }
+    }
+
+    @Nonnull
+    private synchronized ImmutableMap<String, ProtocolEngineConfiguration> reload(
+            @Nonnull ImmutableMap<String, ProtocolEngineConfiguration> loadedMap) {
+        if (loadedMap != cachedMap) {
+            reloadableMap = updateReloadableMap(loadedMap);
+            cachedMap = loadedMap;
+        }
+        return reloadableMap;
+    }
+
+    /**
+     * Swaps the configuration behind the existing holders, and only creates new holders for new instances or for
+     * instances whose components do not implement the same interfaces anymore (e.g. a cipher which is no longer an
+     * encrypter), the previous holders of which then delegate to the new ones.
+     */
+    @GuardedBy("this")
+    @Nonnull
+    private ImmutableMap<String, ProtocolEngineConfiguration> updateReloadableMap(
+            @Nonnull ImmutableMap<String, ProtocolEngineConfiguration> loadedMap) {
+        ImmutableMap.Builder<String, ProtocolEngineConfiguration> builder = ImmutableMap.builder();
+        for (final Map.Entry<String, ProtocolEngineConfiguration> entry : loadedMap.entrySet()) {
+            String name = entry.getKey();
+            ProtocolEngineConfiguration configuration = entry.getValue();
+            ReloadableProtocolConfiguration reloadableConfiguration = reloadableConfigurations.get(name);
+            if (null == reloadableConfiguration || !reloadableConfiguration.reload(configuration)) {
+                ReloadableProtocolConfiguration newReloadableConfiguration =
+                        new ReloadableProtocolConfiguration(name, configuration, this);
+                if (null != reloadableConfiguration) {
+                    // the holders already handed out must not keep the stale configuration:
+                    reloadableConfiguration.supersede(newReloadableConfiguration);
+                }
+                reloadableConfiguration = newReloadableConfiguration;
+                reloadableConfigurations.put(name, reloadableConfiguration);
+            }
+            builder.put(name, reloadableConfiguration.getReloadableConfiguration());
+        }
+        reloadableConfigurations.keySet().retainAll(loadedMap.keySet());
+        return builder.build();
+    }
+
+    @Override
+    public void set(@Nonnull ImmutableMap<String, ProtocolEngineConfiguration> newValue)
+            throws UnsupportedOperationException {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -116,6 +116,16 @@ public final class DefaultCoreProperties implements SamlEngineCoreProperties {
 
         private boolean validateSignature = true;
 
+        /**
+         * The minimum number of assertions of a response processed concurrently (0 to disable).
+         */
+        private int parallelAssertionThreshold;
+
+        /**
+         * The number of threads processing assertions concurrently.
+         */
+        private int parallelAssertionPoolSize = Runtime.getRuntime().availableProcessors();
+
         private Set<String> supportedMessageFormatNames = new HashSet<String>();
 
         /**
@@ -163,6 +173,16 @@ public final class DefaultCoreProperties implements SamlEngineCoreProperties {
             return this;
         }
 
+        Builder parallelAssertionPoolSize(final int parallelAssertionPoolSize) {
+            this.parallelAssertionPoolSize = parallelAssertionPoolSize;
+            return this;
+        }
+
+        Builder parallelAssertionThreshold(final int parallelAssertionThreshold) {
+            this.parallelAssertionThreshold = parallelAssertionThreshold;
+            return this;
+        }
+
         Builder oneTimeUse(final boolean oneTimeUse) {
             this.oneTimeUse = oneTimeUse;
             return this;
@@ -271,6 +291,10 @@ public final class DefaultCoreProperties implements SamlEngineCoreProperties {
 
         private final boolean validateSignature;
 
+        private final int parallelAssertionThreshold;
+
+        private final int parallelAssertionPoolSize;
+
         private TypedState(@Nonnull Builder builder) {
             consentAuthnReq = builder.consentAuthnReq;
             consentAuthnResp = builder.consentAuthnResp;
@@ -286,6 +310,8 @@ public final class DefaultCoreProperties implements SamlEngineCoreProperties {
             timeNotOnOrAfter = builder.timeNotOnOrAfter;
             supportedMessageFormatNames = ImmutableSet.copyOf(builder.supportedMessageFormatNames);
             validateSignature = builder.validateSignature;
+            parallelAssertionThreshold = builder.parallelAssertionThreshold;
+            parallelAssertionPoolSize = builder.parallelAssertionPoolSize;
         }
     }
 
@@ -489,6 +515,16 @@ public final class DefaultCoreProperties implements SamlEngineCoreProperties {
         return state.eidSectorShare;
     }
 
+    @Override
+    public int getParallelAssertionPoolSize() {
+        return state.parallelAssertionPoolSize;
+    }
+
+    @Override
+    public int getParallelAssertionThreshold() {
+        return state.parallelAssertionThreshold;
+    }
+
     @Override
     public boolean isValidateSignature() {
         return state.validateSignature;
@@ -557,6 +593,11 @@ public final class DefaultCoreProperties implements SamlEngineCoreProperties {
                 builder.validateSignature(Boolean.valueOf(validateSignature).booleanValue());
             }
 
+            builder.parallelAssertionThreshold(
+                    loadNonNegativeInt(SAMLCore.PARALLEL_ASSERTION_THRESHOLD.getValue(), 0));
+            builder.parallelAssertionPoolSize(loadNonNegativeInt(SAMLCore.PARALLEL_ASSERTION_POOL_SIZE.getValue(),
+                                                                 Runtime.getRuntime().availableProcessors()));
+
             builder.supportedMessageFormatNames(loadSupportedFormats());
 
             return builder.build();
@@ -569,6 +610,26 @@ public final class DefaultCoreProperties implements SamlEngineCoreProperties {
         }
     }
 
+    private int loadNonNegativeInt(@Nonnull String key, int defaultValue) throws SamlEngineConfigurationException {
+        String value = samlCoreProp.get(key);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        int intValue;
+        try {
+            intValue = Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new SamlEngineConfigurationException(
+                    DOMConfigurationParser.DEFAULT_CONFIGURATION_FILE + " - " + key + " is not a number: " + value, e);
+        }
+        if (intValue < 0) {
+            LOGGER.error("{} - {} cannot be negative.", DOMConfigurationParser.DEFAULT_CONFIGURATION_FILE, key);
+            throw new SamlEngineConfigurationException(
+                    DOMConfigurationParser.DEFAULT_CONFIGURATION_FILE + " - " + key + " cannot be negative.");
+        }
+        return intValue;
+    }
+
     /**
      * Load consent authentication response.
      */
@@ -15,6 +15,7 @@
 package eu.eidas.auth.engine.core;
 
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -28,23 +29,43 @@ import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
  * <p>
  * Typically this interface encrypts responses sent to several nodes with their public certificates (e.g. found in their
  * metadata).
+ * <p>
+ * Responses are encrypted in place: the assertions of the given response are replaced by encrypted assertions and the
+ * given instance is returned, so the caller must not expect the given response to still hold its plain assertions
+ * after a successful call. When the encryption fails, the given response still holds its original assertions.
  *
  * @since 1.1
  */
 public interface ProtocolEncrypterI extends ProtocolCipherI {
 
     /**
-     * Encrypts the given response with the given destination certificate.
+     * Encrypts the given response in place with the given destination certificate.
      *
-     * @param authResponse the response to encrypt
+     * @param authResponse the response to encrypt, whose assertions are replaced by encrypted assertions
      * @param destinationCertificate the certificate to encrypt with
-     * @return the encrypted response
+     * @return the given response, now encrypted
      * @throws EIDASSAMLEngineException if any error occurs
      */
     @Nonnull
     Response encryptSamlResponse(@Nonnull Response authResponse, @Nonnull X509Certificate destinationCertificate)
             throws EIDASSAMLEngineException;
 
+    /**
+     * Encrypts the given response in place with the given destination certificate, encrypting its assertions
+     * concurrently with the given executor.
+     *
+     * @param authResponse the response to encrypt, whose assertions are replaced by encrypted assertions
+     * @param destinationCertificate the certificate to encrypt with
+     * @param executor the executor encrypting the assertions concurrently or {@code null} to encrypt them one after
+     * another
+     * @return the given response, now encrypted
+     * @throws EIDASSAMLEngineException if any error occurs
+     */
+    @Nonnull
+    Response encryptSamlResponse(@Nonnull Response authResponse,
+                                 @Nonnull X509Certificate destinationCertificate,
+                                 @Nullable ExecutorService executor) throws EIDASSAMLEngineException;
+
     /**
      * Returns the encryption certificate to be used to encrypt a response for the given country
      *
@@ -17,6 +17,7 @@ package eu.eidas.auth.engine.core;
 
 import java.security.cert.X509Certificate;
 import java.util.Collection;
+import java.util.List;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -86,4 +87,25 @@ public interface ProtocolSignerI {
     <T extends SignableXMLObject> T validateSignature(@Nonnull T signedObject,
                                                       @Nullable Collection<X509Certificate> trustedCertificates)
             throws EIDASSAMLEngineException;
+
+    /**
+     * Validates the digital signatures of several signed objects of the same message (e.g. the Assertions of a
+     * Response), as {@link #validateSignature(SignableXMLObject, Collection)} does for each one of them, looking up
+     * the trusted credentials only once.
+     * <p>
+     * The signatures are verified sequentially in the calling thread: the signed objects of a message share the DOM
+     * document of that message, which cannot be read concurrently.
+     *
+     * @param signedObjects the signed XML objects to verify
+     * @param trustedCertificates the collection of trusted certificates the signatures must have been performed with,
+     * or {@code null} or an empty collection to use the internal trust instead.
+     * @param <T> the type of the signed XML objects of which the signatures must be verified
+     * @return the given signed objects
+     * @throws EIDASSAMLEngineException in case of an invalid signature
+     * @since 1.1
+     */
+    @Nonnull
+    <T extends SignableXMLObject> List<T> validateSignatures(@Nonnull List<T> signedObjects,
+                                                             @Nullable Collection<X509Certificate> trustedCertificates)
+            throws EIDASSAMLEngineException;
 }
@@ -107,6 +107,12 @@ public enum SAMLCore {
 
     /** The ON e_ tim e_ use. */
     ONE_TIME_USE("oneTimeUse"),
+
+    /** The minimum number of assertions of a response processed concurrently (0 to disable). */
+    PARALLEL_ASSERTION_THRESHOLD("parallelAssertionThreshold"),
+
+    /** The number of threads processing the assertions of a response concurrently. */
+    PARALLEL_ASSERTION_POOL_SIZE("parallelAssertionPoolSize"),
     ;
 
     /** The value. */
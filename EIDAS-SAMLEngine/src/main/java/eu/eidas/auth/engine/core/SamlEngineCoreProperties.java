@@ -19,6 +19,19 @@ public interface SamlEngineCoreProperties {
 
     String getProperty(String key);
 
+    /**
+     * @return the number of threads signing or encrypting the assertions of a response concurrently.
+     * @since 1.1
+     */
+    int getParallelAssertionPoolSize();
+
+    /**
+     * @return the minimum number of assertions of a response which are processed concurrently, {@code 0}
+     * when the assertions are always processed sequentially.
+     * @since 1.1
+     */
+    int getParallelAssertionThreshold();
+
     String getProtocolBinding();
 
     String getRequester();
@@ -10,6 +10,7 @@ import org.opensaml.saml2.metadata.EntityDescriptor;
 import org.opensaml.saml2.metadata.IDPSSODescriptor;
 import org.opensaml.saml2.metadata.SPSSODescriptor;
 
+import eu.eidas.auth.engine.metadata.EntityTrustMaterial;
 import eu.eidas.auth.engine.metadata.MetadataFetcherI;
 import eu.eidas.auth.engine.metadata.MetadataSignerI;
 import eu.eidas.auth.engine.metadata.MetadataUtil;
@@ -44,6 +45,19 @@ abstract class AbstractMetadataHelper {
         return null;
     }
 
+    /**
+     * Returns the trust material resolved from the metadata of the given URL, without decoding the metadata again when
+     * the entity descriptor is served from the cache of the fetcher.
+     */
+    @Nullable
+    EntityTrustMaterial getTrustMaterial(@Nullable String metadataUrl) throws EIDASSAMLEngineException {
+        EntityDescriptor entityDescriptor = getEntityDescriptor(metadataUrl);
+        if (null == entityDescriptor) {
+            return null;
+        }
+        return EntityTrustMaterial.of(entityDescriptor);
+    }
+
     @Nullable
     public IDPSSODescriptor getIDPSSODescriptor(@Nullable String metadataUrl) throws EIDASSAMLEngineException {
         EntityDescriptor entityDescriptor = getEntityDescriptor(metadataUrl);
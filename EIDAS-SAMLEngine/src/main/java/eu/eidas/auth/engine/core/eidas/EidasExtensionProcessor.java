@@ -6,7 +6,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -20,7 +19,7 @@ import javax.xml.transform.TransformerException;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
@@ -160,6 +159,9 @@ public final class EidasExtensionProcessor implements ExtensionProcessorI {
     @Nullable
     private final MetadataSignerI metadataSigner;
 
+    @Nonnull
+    private final SupportedAttributeCache supportedAttributeCache = new SupportedAttributeCache();
+
     public EidasExtensionProcessor(@Nonnull String eidasAttributesFileName,
                                    @Nonnull String additionalAttributesFileName,
                                    @Nullable MetadataFetcherI metadataFetcher,
@@ -621,14 +623,7 @@ public final class EidasExtensionProcessor implements ExtensionProcessorI {
 
     @Override
     public ImmutableSortedSet<AttributeDefinition<?>> getAllSupportedAttributes() {
-
-        AttributeRegistry minimumDataSetAttributes = getMinimumDataSetAttributes();
-        AttributeRegistry additionalAttributes = getAdditionalAttributes();
-        ImmutableSortedSet.Builder<AttributeDefinition<?>> builder =
-                new ImmutableSortedSet.Builder<>(Ordering.<AttributeDefinition<?>>natural());
-        builder.addAll(minimumDataSetAttributes.getAttributes());
-        builder.addAll(additionalAttributes.getAttributes());
-        return builder.build();
+        return supportedAttributeCache.getAllAttributes(getMinimumDataSetAttributes(), getAdditionalAttributes());
     }
 
     public static final AttributeRegistry.AttributeDefinitionFilter MANDATORY_LEGAL_FILTER =
@@ -651,23 +646,8 @@ public final class EidasExtensionProcessor implements ExtensionProcessorI {
 
     public ImmutableSortedSet<AttributeDefinition<?>> getFilteredAttributes(
             @Nonnull AttributeRegistry.AttributeDefinitionFilter filter) {
-
-        AttributeRegistry minimumDataSetAttributes = getMinimumDataSetAttributes();
-        AttributeRegistry additionalAttributes = getAdditionalAttributes();
-        ImmutableSortedSet.Builder<AttributeDefinition<?>> builder =
-                new ImmutableSortedSet.Builder<>(Ordering.<AttributeDefinition<?>>natural());
-        for (AttributeDefinition<?> attributeDefinition : minimumDataSetAttributes.getAttributes()) {
-            if (filter.accept(attributeDefinition)) {
-                builder.add(attributeDefinition);
-            }
-        }
-        for (AttributeDefinition<?> attributeDefinition : additionalAttributes.getAttributes()) {
-            if (filter.accept(attributeDefinition)) {
-                builder.add(attributeDefinition);
-            }
-        }
-        return builder.build();
-
+        return supportedAttributeCache.getFilteredAttributes(getMinimumDataSetAttributes(), getAdditionalAttributes(),
+                                                             filter);
     }
 
     @Override
@@ -956,25 +936,25 @@ public final class EidasExtensionProcessor implements ExtensionProcessorI {
             return false;
         }
 
-        Set<AttributeDefinition<?>> mandatoryLegalAttributes =
-                new HashSet<>(getFilteredAttributes(EidasExtensionProcessor.MANDATORY_LEGAL_FILTER));
-
-        Set<AttributeDefinition<?>> mandatoryNaturalAttributes =
-                new HashSet<>(getFilteredAttributes(EidasExtensionProcessor.MANDATORY_NATURAL_FILTER));
-
-        for (AttributeDefinition<?> attributeDefinition : immutableAttributeMap.getDefinitions()) {
+        ImmutableSet<AttributeDefinition<?>> requestedAttributes = immutableAttributeMap.getDefinitions();
+        for (AttributeDefinition<?> attributeDefinition : requestedAttributes) {
             if (null == attributeDefinition) {
                 continue;
             }
             if (attributeDefinition.getPersonType() == PersonType.LEGAL_PERSON) {
-                mandatoryLegalAttributes.remove(attributeDefinition);
                 requestedLegalSet = true;
             }
             if (attributeDefinition.getPersonType() == PersonType.NATURAL_PERSON) {
-                mandatoryNaturalAttributes.remove(attributeDefinition);
                 requestedNaturalSet = true;
             }
         }
+
+        // views of the cached mandatory sets, nothing is copied:
+        Set<AttributeDefinition<?>> mandatoryLegalAttributes =
+                Sets.difference(getFilteredAttributes(EidasExtensionProcessor.MANDATORY_LEGAL_FILTER), requestedAttributes);
+
+        Set<AttributeDefinition<?>> mandatoryNaturalAttributes =
+                Sets.difference(getFilteredAttributes(EidasExtensionProcessor.MANDATORY_NATURAL_FILTER), requestedAttributes);
         if (requestedLegalSet) {
             LOG.info("Mandatory legalPerson attributes not requested : " + mandatoryLegalAttributes.toString());
         }
@@ -1088,11 +1068,7 @@ public final class EidasExtensionProcessor implements ExtensionProcessorI {
                 .isEmpty()) {
             return Collections.emptySet();
         }
-        Set<String> supportedAttrNames = new HashSet<String>();
-        for (Attribute a : idpSsoDescriptor.getAttributes()) {
-            supportedAttrNames.add(a.getName());
-        }
-        return supportedAttrNames;
+        return supportedAttributeCache.getSupportedAttributeNames(idpSsoDescriptor);
     }
 
     @Override
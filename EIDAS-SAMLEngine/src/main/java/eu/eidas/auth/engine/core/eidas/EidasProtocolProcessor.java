@@ -6,7 +6,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -18,7 +17,7 @@ import javax.xml.transform.TransformerException;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
@@ -87,6 +86,7 @@ import eu.eidas.auth.engine.core.SAMLCore;
 import eu.eidas.auth.engine.core.SAMLExtensionFormat;
 import eu.eidas.auth.engine.core.SamlEngineCoreProperties;
 import eu.eidas.auth.engine.core.eidas.spec.EidasSpec;
+import eu.eidas.auth.engine.metadata.EntityTrustMaterial;
 import eu.eidas.auth.engine.metadata.MetadataFetcherI;
 import eu.eidas.auth.engine.metadata.MetadataSignerI;
 import eu.eidas.auth.engine.metadata.MetadataUtil;
@@ -194,6 +194,9 @@ public class EidasProtocolProcessor implements ProtocolProcessorI {
     @Nullable
     private final MetadataSignerI metadataSigner;
 
+    @Nonnull
+    private final SupportedAttributeCache supportedAttributeCache = new SupportedAttributeCache();
+
     public EidasProtocolProcessor(@Nullable MetadataFetcherI metadataFetcher,
                                   @Nullable MetadataSignerI metadataSigner) {
         this(EidasSpec.REGISTRY, AttributeRegistries.empty(), metadataFetcher, metadataSigner);
@@ -337,25 +340,25 @@ public class EidasProtocolProcessor implements ProtocolProcessorI {
             return false;
         }
 
-        Set<AttributeDefinition<?>> mandatoryLegalAttributes =
-                new HashSet<>(getFilteredAttributes(EidasProtocolProcessor.MANDATORY_LEGAL_FILTER));
-
-        Set<AttributeDefinition<?>> mandatoryNaturalAttributes =
-                new HashSet<>(getFilteredAttributes(EidasProtocolProcessor.MANDATORY_NATURAL_FILTER));
-
-        for (AttributeDefinition<?> attributeDefinition : immutableAttributeMap.getDefinitions()) {
+        ImmutableSet<AttributeDefinition<?>> requestedAttributes = immutableAttributeMap.getDefinitions();
+        for (AttributeDefinition<?> attributeDefinition : requestedAttributes) {
             if (null == attributeDefinition) {
                 continue;
             }
             if (attributeDefinition.getPersonType() == PersonType.LEGAL_PERSON) {
-                mandatoryLegalAttributes.remove(attributeDefinition);
                 requestedLegalSet = true;
             }
             if (attributeDefinition.getPersonType() == PersonType.NATURAL_PERSON) {
-                mandatoryNaturalAttributes.remove(attributeDefinition);
                 requestedNaturalSet = true;
             }
         }
+
+        // views of the cached mandatory sets, nothing is copied:
+        Set<AttributeDefinition<?>> mandatoryLegalAttributes =
+                Sets.difference(getFilteredAttributes(EidasProtocolProcessor.MANDATORY_LEGAL_FILTER), requestedAttributes);
+
+        Set<AttributeDefinition<?>> mandatoryNaturalAttributes =
+                Sets.difference(getFilteredAttributes(EidasProtocolProcessor.MANDATORY_NATURAL_FILTER), requestedAttributes);
         if (requestedLegalSet) {
             LOG.info("Mandatory legalPerson attributes not requested : " + mandatoryLegalAttributes.toString());
         }
@@ -837,13 +840,7 @@ public class EidasProtocolProcessor implements ProtocolProcessorI {
 
     @Override
     public ImmutableSortedSet<AttributeDefinition<?>> getAllSupportedAttributes() {
-        AttributeRegistry minimumDataSetAttributes = getMinimumDataSetAttributes();
-        AttributeRegistry additionalAttributes = getAdditionalAttributes();
-        ImmutableSortedSet.Builder<AttributeDefinition<?>> builder =
-                new ImmutableSortedSet.Builder<>(Ordering.<AttributeDefinition<?>>natural());
-        builder.addAll(minimumDataSetAttributes.getAttributes());
-        builder.addAll(additionalAttributes.getAttributes());
-        return builder.build();
+        return supportedAttributeCache.getAllAttributes(getMinimumDataSetAttributes(), getAdditionalAttributes());
     }
 
     @Nonnull
@@ -889,21 +886,8 @@ public class EidasProtocolProcessor implements ProtocolProcessorI {
 
     public ImmutableSortedSet<AttributeDefinition<?>> getFilteredAttributes(
             @Nonnull AttributeRegistry.AttributeDefinitionFilter filter) {
-        AttributeRegistry minimumDataSetAttributes = getMinimumDataSetAttributes();
-        AttributeRegistry additionalAttributes = getAdditionalAttributes();
-        ImmutableSortedSet.Builder<AttributeDefinition<?>> builder =
-                new ImmutableSortedSet.Builder<>(Ordering.<AttributeDefinition<?>>natural());
-        for (AttributeDefinition<?> attributeDefinition : minimumDataSetAttributes.getAttributes()) {
-            if (filter.accept(attributeDefinition)) {
-                builder.add(attributeDefinition);
-            }
-        }
-        for (AttributeDefinition<?> attributeDefinition : additionalAttributes.getAttributes()) {
-            if (filter.accept(attributeDefinition)) {
-                builder.add(attributeDefinition);
-            }
-        }
-        return builder.build();
+        return supportedAttributeCache.getFilteredAttributes(getMinimumDataSetAttributes(), getAdditionalAttributes(),
+                                                             filter);
     }
 
     @Override
@@ -1003,11 +987,7 @@ public class EidasProtocolProcessor implements ProtocolProcessorI {
                 .isEmpty()) {
             return Collections.emptySet();
         }
-        Set<String> supportedAttrNames = new HashSet<String>();
-        for (Attribute a : idpSsoDescriptor.getAttributes()) {
-            supportedAttrNames.add(a.getName());
-        }
-        return supportedAttrNames;
+        return supportedAttributeCache.getSupportedAttributeNames(idpSsoDescriptor);
     }
 
     @Override
@@ -1023,9 +1003,10 @@ public class EidasProtocolProcessor implements ProtocolProcessorI {
                 return true;
             }
 
+            EntityTrustMaterial trustMaterial = EntityTrustMaterial.of(entityDescriptor);
             SPSSODescriptor spDesc = MetadataUtil.getSPSSODescriptor(entityDescriptor);
 
-            String metadataAssertionUrl = MetadataUtil.getAssertionConsumerUrl(spDesc);
+            String metadataAssertionUrl = trustMaterial.getAssertionConsumerUrl();
             if ((StringUtils.isEmpty(metadataAssertionUrl) || (authnRequest.getAssertionConsumerServiceURL() != null
                     && !authnRequest.getAssertionConsumerServiceURL().equals(metadataAssertionUrl)))) {
                 throw new InternalErrorEIDASException(
@@ -1054,7 +1035,7 @@ public class EidasProtocolProcessor implements ProtocolProcessorI {
 
             // TODO check if this is correct:
             SpType requestSpType = ((IEidasAuthenticationRequest) authnRequest).getSpType();
-            String metadataSpType = MetadataUtil.getSPTypeFromMetadata(entityDescriptor);
+            String metadataSpType = trustMaterial.getSpType();
             //exactly one of requestSpType, metadataSpType should be non empty
             if (null == requestSpType) {
                 if (StringUtils.isEmpty(metadataSpType)) {
@@ -10,17 +10,12 @@ import org.opensaml.common.SignableSAMLObject;
 import org.opensaml.saml2.core.AuthnRequest;
 import org.opensaml.saml2.core.Issuer;
 import org.opensaml.saml2.core.Response;
-import org.opensaml.saml2.metadata.IDPSSODescriptor;
-import org.opensaml.saml2.metadata.KeyDescriptor;
-import org.opensaml.saml2.metadata.RoleDescriptor;
-import org.opensaml.saml2.metadata.SPSSODescriptor;
-import org.opensaml.xml.security.credential.UsageType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import eu.eidas.auth.engine.metadata.EntityTrustMaterial;
 import eu.eidas.auth.engine.metadata.MetadataFetcherI;
 import eu.eidas.auth.engine.metadata.MetadataSignerI;
-import eu.eidas.auth.engine.xml.opensaml.CertificateUtil;
 import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
 
 /**
@@ -39,15 +34,6 @@ public final class MetadataSignatureHelper extends AbstractMetadataHelper {
         super(metadataFetcher, metadataSigner);
     }
 
-    private X509Certificate getMetadataSignatureCertificate(RoleDescriptor rd) throws EIDASSAMLEngineException {
-        for (KeyDescriptor kd : rd.getKeyDescriptors()) {
-            if (kd.getUse() == UsageType.SIGNING) {
-                return CertificateUtil.toCertificate(kd.getKeyInfo());
-            }
-        }
-        return null;
-    }
-
     @Nullable
     public X509Certificate getMetadataSignatureCertificate(SignableSAMLObject signableObject)
             throws EIDASSAMLEngineException {
@@ -70,14 +56,11 @@ public final class MetadataSignatureHelper extends AbstractMetadataHelper {
     public X509Certificate getRequestSignatureCertificate(@Nullable String metadataUrl)
             throws EIDASSAMLEngineException {
         if (StringUtils.isNotBlank(metadataUrl)) {
-            SPSSODescriptor spssoDescriptor = getSPSSODescriptor(metadataUrl);
-            if (null == spssoDescriptor) {
+            EntityTrustMaterial trustMaterial = getTrustMaterial(metadataUrl);
+            if (null == trustMaterial || !trustMaterial.hasSPSSODescriptor()) {
                 LOG.info("METADATA EXCEPTION : cannot retrieve entity descriptor from url " + metadataUrl);
             } else {
-                X509Certificate certificate = getMetadataSignatureCertificate(spssoDescriptor);
-                if (null != certificate) {
-                    return certificate;
-                }
+                return trustMaterial.getRequestSignatureCertificate();
             }
         }
         return null;
@@ -87,14 +70,11 @@ public final class MetadataSignatureHelper extends AbstractMetadataHelper {
     public X509Certificate getResponseSignatureCertificate(@Nullable String metadataUrl)
             throws EIDASSAMLEngineException {
         if (StringUtils.isNotBlank(metadataUrl)) {
-            IDPSSODescriptor idpssoDescriptor = getIDPSSODescriptor(metadataUrl);
-            if (null == idpssoDescriptor) {
+            EntityTrustMaterial trustMaterial = getTrustMaterial(metadataUrl);
+            if (null == trustMaterial || !trustMaterial.hasIDPSSODescriptor()) {
                 LOG.info("METADATA EXCEPTION : cannot retrieve entity descriptor from url " + metadataUrl);
             } else {
-                X509Certificate certificate = getMetadataSignatureCertificate(idpssoDescriptor);
-                if (null != certificate) {
-                    return certificate;
-                }
+                return trustMaterial.getResponseSignatureCertificate();
             }
         }
         return null;
@@ -0,0 +1,162 @@
+package eu.eidas.auth.engine.core.eidas;
+
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+
+import org.opensaml.saml2.core.Attribute;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.AttributeRegistry;
+
+/**
+ * Caches what the extension processors derive from their attribute registries and from the metadata of their peers:
+ * <ul>
+ * <li>the union of the attributes of the minimum data set registry and of the additional attributes registry, with its
+ * filtered views, rebuilt when one of the registries returns another attribute set (i.e. after a reload),</li>
+ * <li>the attribute names supported by the peers, by IDPSSODescriptor instance: a refreshed metadata descriptor is a
+ * new key while the stale ones are garbage-collected.</li>
+ * </ul>
+ *
+ * @since 1.1
+ */
+@ThreadSafe
+final class SupportedAttributeCache {
+
+    /**
+     * Union of the attributes of both registries with its filtered views, valid as long as both registries return the
+     * same attribute sets.
+     */
+    @Immutable
+    private static final class SupportedAttributeSets {
+
+        @Nonnull
+        private final ImmutableSortedSet<AttributeDefinition<?>> minimumDataSetAttributes;
+
+        @Nonnull
+        private final ImmutableSortedSet<AttributeDefinition<?>> additionalAttributes;
+
+        @Nonnull
+        private final ImmutableSortedSet<AttributeDefinition<?>> allAttributes;
+
+        @Nonnull
+        private final ConcurrentMap<AttributeRegistry.AttributeDefinitionFilter,
+                ImmutableSortedSet<AttributeDefinition<?>>> filteredAttributes = CacheBuilder.newBuilder()
+                .weakKeys()
+                .<AttributeRegistry.AttributeDefinitionFilter, ImmutableSortedSet<AttributeDefinition<?>>>build()
+                .asMap();
+
+        SupportedAttributeSets(@Nonnull ImmutableSortedSet<AttributeDefinition<?>> minimumDataSetAttributes,
+                               @Nonnull ImmutableSortedSet<AttributeDefinition<?>> additionalAttributes) {
+            this.minimumDataSetAttributes = minimumDataSetAttributes;
+            this.additionalAttributes = additionalAttributes;
+            ImmutableSortedSet.Builder<AttributeDefinition<?>> builder =
+                    new ImmutableSortedSet.Builder<>(Ordering.<AttributeDefinition<?>>natural());
+            builder.addAll(minimumDataSetAttributes);
+            builder.addAll(additionalAttributes);
+            allAttributes = builder.build();
+        }
+
+        boolean isUpToDate(@Nonnull ImmutableSortedSet<AttributeDefinition<?>> minimumDataSet,
+                           @Nonnull ImmutableSortedSet<AttributeDefinition<?>> additional) {
+            return minimumDataSetAttributes == minimumDataSet && additionalAttributes == additional;
+        }
+
+        @Nonnull
+        ImmutableSortedSet<AttributeDefinition<?>> getFilteredAttributes(
+                @Nonnull AttributeRegistry.AttributeDefinitionFilter filter) {
+            ImmutableSortedSet<AttributeDefinition<?>> result = filteredAttributes.get(filter);
+            if (null == result) {
+                ImmutableSortedSet.Builder<AttributeDefinition<?>> builder =
+                        new ImmutableSortedSet.Builder<>(Ordering.<AttributeDefinition<?>>natural());
+                for (AttributeDefinition<?> attributeDefinition : allAttributes) {
+                    if (filter.accept(attributeDefinition)) {
+                        builder.add(attributeDefinition);
+                    }
+                }
+                result = builder.build();
+                filteredAttributes.put(filter, result);
+            }
+            return result;
+        }
+    }
+
+    @Nullable
+    private volatile SupportedAttributeSets supportedAttributeSets;
+
+    @Nonnull
+    private final ConcurrentMap<IDPSSODescriptor, ImmutableSet<String>> supportedAttributeNames =
+            CacheBuilder.newBuilder().weakKeys().<IDPSSODescriptor, ImmutableSet<String>>build().asMap();
+
+    /**
+     * Returns the attributes of both registries.
+     *
+     * @param minimumDataSet the minimum data set registry
+     * @param additional the additional attributes registry
+     * @return the union of the attributes of both registries.
+     */
+    @Nonnull
+    ImmutableSortedSet<AttributeDefinition<?>> getAllAttributes(@Nonnull AttributeRegistry minimumDataSet,
+                                                                @Nonnull AttributeRegistry additional) {
+        return getSupportedAttributeSets(minimumDataSet, additional).allAttributes;
+    }
+
+    /**
+     * Returns the attributes of both registries accepted by the given filter.
+     *
+     * @param minimumDataSet the minimum data set registry
+     * @param additional the additional attributes registry
+     * @param filter the filter, which should be a constant to be cached
+     * @return the attributes of both registries accepted by the given filter.
+     */
+    @Nonnull
+    ImmutableSortedSet<AttributeDefinition<?>> getFilteredAttributes(
+            @Nonnull AttributeRegistry minimumDataSet,
+            @Nonnull AttributeRegistry additional,
+            @Nonnull AttributeRegistry.AttributeDefinitionFilter filter) {
+        return getSupportedAttributeSets(minimumDataSet, additional).getFilteredAttributes(filter);
+    }
+
+    /**
+     * Returns the names of the attributes declared in the given IdP metadata.
+     *
+     * @param idpSsoDescriptor the IdP metadata
+     * @return the names of the attributes declared in the given IdP metadata.
+     */
+    @Nonnull
+    ImmutableSet<String> getSupportedAttributeNames(@Nonnull IDPSSODescriptor idpSsoDescriptor) {
+        ImmutableSet<String> supportedAttrNames = supportedAttributeNames.get(idpSsoDescriptor);
+        if (null == supportedAttrNames) {
+            ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+            for (Attribute a : idpSsoDescriptor.getAttributes()) {
+                builder.add(a.getName());
+            }
+            supportedAttrNames = builder.build();
+            supportedAttributeNames.put(idpSsoDescriptor, supportedAttrNames);
+        }
+        return supportedAttrNames;
+    }
+
+    @Nonnull
+    private SupportedAttributeSets getSupportedAttributeSets(@Nonnull AttributeRegistry minimumDataSet,
+                                                             @Nonnull AttributeRegistry additional) {
+        ImmutableSortedSet<AttributeDefinition<?>> minimumDataSetAttributes = minimumDataSet.getAttributes();
+        ImmutableSortedSet<AttributeDefinition<?>> additionalAttributes = additional.getAttributes();
+        SupportedAttributeSets sets = supportedAttributeSets;
+        if (null == sets || !sets.isUpToDate(minimumDataSetAttributes, additionalAttributes)) {
+            // concurrent rebuilds are harmless: the sets are equivalent
+            sets = new SupportedAttributeSets(minimumDataSetAttributes, additionalAttributes);
+            supportedAttributeSets = sets;
+        }
+        return sets;
+    }
+}
@@ -16,6 +16,7 @@
 package eu.eidas.auth.engine.core.impl;
 
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -123,6 +124,14 @@ public abstract class AbstractProtocolEncrypter extends AbstractProtocolCipher i
     @Nonnull
     public Response encryptSamlResponse(@Nonnull Response authResponse, @Nonnull X509Certificate destinationCertificate)
             throws EIDASSAMLEngineException {
+        return encryptSamlResponse(authResponse, destinationCertificate, null);
+    }
+
+    @Override
+    @Nonnull
+    public Response encryptSamlResponse(@Nonnull Response authResponse,
+                                        @Nonnull X509Certificate destinationCertificate,
+                                        @Nullable ExecutorService executor) throws EIDASSAMLEngineException {
         if (null == destinationCertificate) {
             throw new EIDASSAMLEngineException(EidasErrorKey.SAML_ENGINE_UNENCRYPTED_RESPONSE.errorCode(),
                                                EidasErrorKey.SAML_ENGINE_UNENCRYPTED_RESPONSE.errorMessage());
@@ -132,7 +141,7 @@ public abstract class AbstractProtocolEncrypter extends AbstractProtocolCipher i
 
         try {
             // Execute encryption
-            Response response = samlAuthnResponseEncrypter.encryptSAMLResponse(authResponse, credential);
+            Response response = samlAuthnResponseEncrypter.encryptSAMLResponse(authResponse, credential, executor);
 
             LOG.debug("Encryption of SAML Response performed with certificate of: " + credential.getEntityCertificate()
                     .getIssuerDN());
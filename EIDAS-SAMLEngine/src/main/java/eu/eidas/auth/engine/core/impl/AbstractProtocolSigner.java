@@ -20,10 +20,14 @@ import java.security.cert.X509Certificate;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -32,11 +36,12 @@ import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.opensaml.Configuration;
 import org.opensaml.security.SAMLSignatureProfileValidator;
+import org.opensaml.xml.XMLObjectBuilder;
+import org.opensaml.xml.XMLObjectBuilderFactory;
 import org.opensaml.xml.io.MarshallingException;
 import org.opensaml.xml.security.BasicSecurityConfiguration;
 import org.opensaml.xml.security.SecurityConfiguration;
 import org.opensaml.xml.security.SecurityHelper;
-import org.opensaml.xml.security.credential.Credential;
 import org.opensaml.xml.security.keyinfo.KeyInfoGenerator;
 import org.opensaml.xml.security.keyinfo.KeyInfoGeneratorFactory;
 import org.opensaml.xml.security.keyinfo.KeyInfoGeneratorManager;
@@ -49,6 +54,7 @@ import org.opensaml.xml.signature.SignatureConstants;
 import org.opensaml.xml.signature.SignatureException;
 import org.opensaml.xml.signature.SignatureValidator;
 import org.opensaml.xml.signature.Signer;
+import org.opensaml.xml.signature.X509Data;
 import org.opensaml.xml.validation.ValidationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -59,6 +65,7 @@ import eu.eidas.auth.engine.configuration.dom.SignatureConfiguration;
 import eu.eidas.auth.engine.core.ProtocolSignerI;
 import eu.eidas.auth.engine.metadata.MetadataSignerI;
 import eu.eidas.auth.engine.xml.opensaml.CertificateUtil;
+import eu.eidas.auth.engine.xml.opensaml.TrustedCredentialIndex;
 import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
 import eu.eidas.util.Preconditions;
 
@@ -69,6 +76,86 @@ import eu.eidas.util.Preconditions;
  */
 public abstract class AbstractProtocolSigner implements ProtocolSignerI, MetadataSignerI {
 
+    /**
+     * What is computed once per signing credential to create its signatures: the validity window of the certificate
+     * and the values of the KeyInfo.
+     * <p>
+     * When the configured KeyInfoGenerator only emits X.509 certificates (the default), the KeyInfo of each signature
+     * is built from the already encoded certificates instead of running the generator again.
+     */
+    @Immutable
+    private static final class SignatureTemplate {
+
+        @Nonnull
+        private final X509Credential credential;
+
+        private final long notBefore;
+
+        private final long notAfter;
+
+        /**
+         * The base64 values of the certificates of the KeyInfo or {@code null} when the KeyInfo must be generated.
+         */
+        @Nullable
+        private final ImmutableList<String> certificateValues;
+
+        SignatureTemplate(@Nonnull X509Credential credential, @Nonnull KeyInfo prototype) {
+            this.credential = credential;
+            X509Certificate certificate = credential.getEntityCertificate();
+            notBefore = certificate.getNotBefore().getTime();
+            notAfter = certificate.getNotAfter().getTime();
+            certificateValues = getCertificateValues(prototype);
+        }
+
+        @Nullable
+        private static ImmutableList<String> getCertificateValues(@Nonnull KeyInfo keyInfo) {
+            if (null != keyInfo.getID() || keyInfo.getX509Datas().size() != 1
+                    || keyInfo.getOrderedChildren().size() != 1) {
+                return null;
+            }
+            X509Data x509Data = keyInfo.getX509Datas().get(0);
+            List<org.opensaml.xml.signature.X509Certificate> certificates = x509Data.getX509Certificates();
+            if (certificates.isEmpty() || certificates.size() != x509Data.getOrderedChildren().size()) {
+                return null;
+            }
+            ImmutableList.Builder<String> values = ImmutableList.builder();
+            for (final org.opensaml.xml.signature.X509Certificate certificate : certificates) {
+                if (null == certificate.getValue()) {
+                    return null;
+                }
+                values.add(certificate.getValue());
+            }
+            return values.build();
+        }
+
+        boolean isWithinValidityPeriod(long now) {
+            return now >= notBefore && now <= notAfter;
+        }
+
+        @Nonnull
+        KeyInfo newKeyInfo() throws org.opensaml.xml.security.SecurityException {
+            if (null == certificateValues) {
+                return generateKeyInfo(credential);
+            }
+            XMLObjectBuilderFactory builderFactory = Configuration.getBuilderFactory();
+            KeyInfo keyInfo = (KeyInfo) builderFactory.getBuilder(KeyInfo.DEFAULT_ELEMENT_NAME)
+                    .buildObject(KeyInfo.DEFAULT_ELEMENT_NAME);
+            X509Data x509Data = (X509Data) builderFactory.getBuilder(X509Data.DEFAULT_ELEMENT_NAME)
+                    .buildObject(X509Data.DEFAULT_ELEMENT_NAME);
+            XMLObjectBuilder<?> certificateBuilder =
+                    builderFactory.getBuilder(org.opensaml.xml.signature.X509Certificate.DEFAULT_ELEMENT_NAME);
+            for (final String value : certificateValues) {
+                org.opensaml.xml.signature.X509Certificate certificate =
+                        (org.opensaml.xml.signature.X509Certificate) certificateBuilder.buildObject(
+                                org.opensaml.xml.signature.X509Certificate.DEFAULT_ELEMENT_NAME);
+                certificate.setValue(value);
+                x509Data.getX509Certificates().add(certificate);
+            }
+            keyInfo.getX509Datas().add(x509Data);
+            return keyInfo;
+        }
+    }
+
     /**
      * The logger.
      */
@@ -123,6 +210,29 @@ public abstract class AbstractProtocolSigner implements ProtocolSignerI, Metadat
                     .put(SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA512, SignatureConstants.ALGO_ID_DIGEST_SHA512)
                     .build();
 
+    @Nonnull
+    private static KeyInfo generateKeyInfo(@Nonnull X509Credential credential)
+            throws org.opensaml.xml.security.SecurityException {
+        SecurityConfiguration secConfiguration = Configuration.getGlobalSecurityConfiguration();
+        NamedKeyInfoGeneratorManager keyInfoManager = secConfiguration.getKeyInfoGeneratorManager();
+        KeyInfoGeneratorManager keyInfoGenManager = keyInfoManager.getDefaultManager();
+        KeyInfoGeneratorFactory keyInfoGenFac = keyInfoGenManager.getFactory(credential);
+        KeyInfoGenerator keyInfoGenerator = keyInfoGenFac.newInstance();
+
+        return keyInfoGenerator.generate(credential);
+    }
+
+    /**
+     * The validator of the SAML signature profile, which is stateless.
+     */
+    private static final SAMLSignatureProfileValidator SIGNATURE_PROFILE_VALIDATOR =
+            new SAMLSignatureProfileValidator();
+
+    /**
+     * Maximum number of signing certificates for which a SignatureValidator is kept.
+     */
+    private static final int MAX_CACHED_SIGNATURE_VALIDATORS = 256;
+
     private static X509Certificate getSignatureCertificate(Signature signature) throws EIDASSAMLEngineException {
         KeyInfo keyInfo = signature.getKeyInfo();
         return CertificateUtil.toCertificate(keyInfo);
@@ -206,8 +316,26 @@ public abstract class AbstractProtocolSigner implements ProtocolSignerI, Metadat
 
     private final ImmutableList<X509Credential> trustedCredentials;
 
+    private final TrustedCredentialIndex trustedCredentialIndex;
+
     private final String signatureAlgorithm;
 
+    /**
+     * The signature templates of the configured signing credentials, created on the first signature because OpenSAML
+     * may not be bootstrapped yet when the signer is configured.
+     */
+    private final ConcurrentMap<X509Credential, SignatureTemplate> signatureTemplates =
+            new ConcurrentHashMap<X509Credential, SignatureTemplate>();
+
+    /**
+     * The signature validators of the trusted signing certificates (a SignatureValidator only holds its credential).
+     */
+    private final ConcurrentMap<X509Certificate, SignatureValidator> signatureValidators =
+            CacheBuilder.newBuilder()
+                    .maximumSize(MAX_CACHED_SIGNATURE_VALIDATORS)
+                    .<X509Certificate, SignatureValidator>build()
+                    .asMap();
+
     protected AbstractProtocolSigner(@Nonnull SignatureConfiguration signatureConfiguration)
             throws SamlEngineConfigurationException {
         this(signatureConfiguration.isCheckedValidityPeriod(),
@@ -240,6 +368,7 @@ public abstract class AbstractProtocolSigner implements ProtocolSignerI, Metadat
         this.checkedValidityPeriod = checkedValidityPeriod;
         this.disallowedSelfSignedCertificate = disallowedSelfSignedCertificate;
         trustedCredentials = CertificateUtil.getListOfCredential(trustedCertificates);
+        trustedCredentialIndex = TrustedCredentialIndex.of(trustedCredentials);
         this.signatureAlgorithmWhiteList = signatureAlgorithmWhiteSet;
         this.signatureAlgorithm = signatureAlgorithm;
         privateSigningCredential = CertificateUtil.createCredential(signatureKeyAndCertificate);
@@ -264,12 +393,38 @@ public abstract class AbstractProtocolSigner implements ProtocolSignerI, Metadat
         CertificateValidator.checkCertificateValidityPeriod(checkedValidityPeriod, certificate);
     }
 
-    protected Signature createSignature(@Nonnull X509Credential credential) throws EIDASSAMLEngineException {
+    /**
+     * Returns the signature template of the given credential.
+     * <p>
+     * The certificate is checked as before each signature: its validity period first, then its issuer. Once the
+     * template of a configured credential is cached, the issuer is not checked again and the validity period is
+     * checked against the cached window.
+     */
+    @Nonnull
+    private SignatureTemplate getSignatureTemplate(@Nonnull X509Credential credential)
+            throws EIDASSAMLEngineException, org.opensaml.xml.security.SecurityException {
+        SignatureTemplate template = signatureTemplates.get(credential);
+        if (null != template) {
+            if (checkedValidityPeriod && !template.isWithinValidityPeriod(System.currentTimeMillis())) {
+                // reports the error
+                checkCertificateValidityPeriod(credential.getEntityCertificate());
+            }
+            return template;
+        }
         checkCertificateValidityPeriod(credential.getEntityCertificate());
         checkCertificateIssuer(credential.getEntityCertificate());
+        template = new SignatureTemplate(credential, generateKeyInfo(credential));
+        if (credential == privateSigningCredential || credential == privateMetadataSigningCredential) {
+            signatureTemplates.putIfAbsent(credential, template);
+        }
+        return template;
+    }
 
+    protected Signature createSignature(@Nonnull X509Credential credential) throws EIDASSAMLEngineException {
         Signature signature;
         try {
+            SignatureTemplate template = getSignatureTemplate(credential);
+
             LOG.debug("Creating an OpenSAML signature object");
 
             signature = (Signature) Configuration.getBuilderFactory()
@@ -280,15 +435,7 @@ public abstract class AbstractProtocolSigner implements ProtocolSignerI, Metadat
 
             signature.setSignatureAlgorithm(getSignatureAlgorithm());
 
-            SecurityConfiguration secConfiguration = Configuration.getGlobalSecurityConfiguration();
-            NamedKeyInfoGeneratorManager keyInfoManager = secConfiguration.getKeyInfoGeneratorManager();
-            KeyInfoGeneratorManager keyInfoGenManager = keyInfoManager.getDefaultManager();
-            KeyInfoGeneratorFactory keyInfoGenFac = keyInfoGenManager.getFactory(credential);
-            KeyInfoGenerator keyInfoGenerator = keyInfoGenFac.newInstance();
-
-            KeyInfo keyInfo = keyInfoGenerator.generate(credential);
-
-            signature.setKeyInfo(keyInfo);
+            signature.setKeyInfo(template.newKeyInfo());
             signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
         } catch (org.opensaml.xml.security.SecurityException e) {
             LOG.error("ERROR : Security exception: " + e, e);
@@ -326,19 +473,20 @@ public abstract class AbstractProtocolSigner implements ProtocolSignerI, Metadat
      * If it is trusted, returns this certificate otherwise throws an EIDASSAMLEngineException exception.
      *
      * @param signature the signature instance
-     * @param trustedCredentialList the trusted certificates which can be used to sign the given signature
+     * @param trustedCredentialIndex the index of the trusted certificates which can be used to sign the given
+     * signature
      * @return the signing certificate if it is trusted, or throws an exception otherwise.
      * @throws EIDASSAMLEngineException when the signature is signed by an untrusted certificate
      */
     @Nonnull
     private X509Credential getTrustedCertificate(@Nonnull Signature signature,
-                                                 @Nonnull List<? extends Credential> trustedCredentialList)
+                                                 @Nonnull TrustedCredentialIndex trustedCredentialIndex)
             throws EIDASSAMLEngineException {
         X509Certificate cert = getSignatureCertificate(signature);
         // Exist only one certificate
         X509Credential entityX509Cred = CertificateUtil.toCredential(cert);
 
-        CertificateUtil.checkTrust(entityX509Cred, trustedCredentialList);
+        CertificateUtil.checkTrust(entityX509Cred, trustedCredentialIndex);
         checkCertificateValidityPeriod(cert);
         checkCertificateIssuer(cert);
         return entityX509Cred;
@@ -348,9 +496,21 @@ public abstract class AbstractProtocolSigner implements ProtocolSignerI, Metadat
         return trustedCredentials;
     }
 
-    private boolean isAlgorithmAllowedForVerifying(@Nonnull String signatureAlgorithm) {
-        return StringUtils.isNotBlank(signatureAlgorithm) && getSignatureAlgorithmWhiteList().contains(
-                signatureAlgorithm.trim());
+    /**
+     * @return the index of the configured trusted credentials, built once when the signer is created.
+     * @since 1.1
+     */
+    protected TrustedCredentialIndex getTrustedCredentialIndex() {
+        return trustedCredentialIndex;
+    }
+
+    private boolean isAlgorithmAllowedForVerifying(@Nullable String signatureAlgorithm) {
+        if (null == signatureAlgorithm) {
+            return false;
+        }
+        ImmutableSet<String> whiteList = getSignatureAlgorithmWhiteList();
+        // the algorithm URI is almost always exact, only trim it when the hash lookup fails
+        return whiteList.contains(signatureAlgorithm) || whiteList.contains(signatureAlgorithm.trim());
     }
 
     /**
@@ -413,17 +573,23 @@ public abstract class AbstractProtocolSigner implements ProtocolSignerI, Metadat
         return validateSignature(signedMetadata, null);
     }
 
-    private SAMLSignatureProfileValidator validateSamlSignatureStructure(SignableXMLObject signableObject)
-            throws EIDASSAMLEngineException {
-        SAMLSignatureProfileValidator sigProfValidator = new SAMLSignatureProfileValidator();
+    private void validateSamlSignatureStructure(SignableXMLObject signableObject) throws EIDASSAMLEngineException {
         try {
             // Indicates signature id conform to SAML Signature profile
-            sigProfValidator.validate(signableObject.getSignature());
+            SIGNATURE_PROFILE_VALIDATOR.validate(signableObject.getSignature());
         } catch (ValidationException e) {
             LOG.error("ERROR : ValidationException: signature isn't conform to SAML Signature profile: " + e, e);
             throw new EIDASSAMLEngineException(e);
         }
-        return sigProfValidator;
+    }
+
+    @Nonnull
+    private TrustedCredentialIndex getTrustedCredentialIndex(
+            @Nullable Collection<X509Certificate> trustedCertificateCollection) {
+        if (CollectionUtils.isEmpty(trustedCertificateCollection)) {
+            return getTrustedCredentialIndex();
+        }
+        return TrustedCredentialIndex.of(CertificateUtil.getListOfCredential(trustedCertificateCollection));
     }
 
     @Override
@@ -432,34 +598,40 @@ public abstract class AbstractProtocolSigner implements ProtocolSignerI, Metadat
                                                              @Nullable
                                                                      Collection<X509Certificate> trustedCertificateCollection)
             throws EIDASSAMLEngineException {
-        List<? extends Credential> trustedCreds;
+        return validateSignatureWithCredentials(signedObject, getTrustedCredentialIndex(trustedCertificateCollection));
+    }
 
-        // 2) Verify the cryptographic signature:
-        if (CollectionUtils.isEmpty(trustedCertificateCollection)) {
-            trustedCreds = getTrustedCredentials();
-        } else {
-            trustedCreds = CertificateUtil.getListOfCredential(trustedCertificateCollection);
+    @Override
+    @Nonnull
+    public <T extends SignableXMLObject> List<T> validateSignatures(@Nonnull List<T> signedObjects,
+                                                                    @Nullable
+                                                                            Collection<X509Certificate> trustedCertificateCollection)
+            throws EIDASSAMLEngineException {
+        Preconditions.checkNotNull(signedObjects, "signedObjects");
+        TrustedCredentialIndex trustedCredIndex = getTrustedCredentialIndex(trustedCertificateCollection);
+        for (final T signedObject : signedObjects) {
+            validateSignatureWithCredentials(signedObject, trustedCredIndex);
         }
-        return validateSignatureWithCredentials(signedObject, trustedCreds);
+        return signedObjects;
     }
 
     @Nonnull
     private <T extends SignableXMLObject> T validateSignatureWithCredentials(@Nonnull T signedObject,
                                                                              @Nonnull
-                                                                                     List<? extends Credential> trustedCredentialList)
+                                                                                     TrustedCredentialIndex trustedCredentialIndex)
             throws EIDASSAMLEngineException {
         LOG.debug("Start signature validation.");
         // 1) Validate the structure of the SAML signature:
         validateSamlSignatureStructure(signedObject);
 
         // 2) Verify the cryptographic signature:
-        verifyCryptographicSignature(signedObject.getSignature(), trustedCredentialList);
+        verifyCryptographicSignature(signedObject.getSignature(), trustedCredentialIndex);
 
         return signedObject;
     }
 
     private void verifyCryptographicSignature(@Nonnull Signature signature,
-                                              @Nonnull List<? extends Credential> trustedCredentialList)
+                                              @Nonnull TrustedCredentialIndex trustedCredentialIndex)
             throws EIDASSAMLEngineException {
         // 1) check that we accept the signature algorithm
         String signatureAlgorithm = signature.getSignatureAlgorithm();
@@ -470,11 +642,11 @@ public abstract class AbstractProtocolSigner implements ProtocolSignerI, Metadat
         }
 
         // 2) check that we trust the signing certificate
-        X509Credential entityX509Cred = getTrustedCertificate(signature, trustedCredentialList);
+        X509Credential entityX509Cred = getTrustedCertificate(signature, trustedCredentialIndex);
 
         // 3) verify the XML Digital Signature itself (XML-DSig)
         // DOM information related to the signature should be still available at this point
-        SignatureValidator sigValidator = new SignatureValidator(entityX509Cred);
+        SignatureValidator sigValidator = getSignatureValidator(entityX509Cred);
         try {
             sigValidator.validate(signature);
         } catch (ValidationException e) {
@@ -482,4 +654,15 @@ public abstract class AbstractProtocolSigner implements ProtocolSignerI, Metadat
             throw new EIDASSAMLEngineException(e);
         }
     }
+
+    @Nonnull
+    private SignatureValidator getSignatureValidator(@Nonnull X509Credential trustedCredential) {
+        X509Certificate certificate = trustedCredential.getEntityCertificate();
+        SignatureValidator sigValidator = signatureValidators.get(certificate);
+        if (null == sigValidator) {
+            sigValidator = new SignatureValidator(trustedCredential);
+            signatureValidators.putIfAbsent(certificate, sigValidator);
+        }
+        return sigValidator;
+    }
 }
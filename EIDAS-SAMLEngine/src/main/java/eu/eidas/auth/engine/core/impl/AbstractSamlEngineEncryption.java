@@ -17,6 +17,7 @@ package eu.eidas.auth.engine.core.impl;
 
 import java.security.KeyStore;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutorService;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -167,6 +168,14 @@ public abstract class AbstractSamlEngineEncryption implements ProtocolDecrypterI
         return encrypter.encryptSamlResponse(authResponse, destinationCertificate);
     }
 
+    @Override
+    @Nonnull
+    public Response encryptSamlResponse(@Nonnull Response authResponse,
+                                        @Nonnull X509Certificate destinationCertificate,
+                                        @Nullable ExecutorService executor) throws EIDASSAMLEngineException {
+        return encrypter.encryptSamlResponse(authResponse, destinationCertificate, executor);
+    }
+
     @Override
     @Nonnull
     public X509Certificate getDecryptionCertificate() throws EIDASSAMLEngineException {
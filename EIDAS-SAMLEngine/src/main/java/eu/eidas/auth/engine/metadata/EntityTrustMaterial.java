@@ -0,0 +1,249 @@
+/*
+ * This work is Open Source and licensed by the European Commission under the
+ * conditions of the European Public License v1.1
+ *
+ * (http://www.osor.eu/eupl/european-union-public-licence-eupl-v.1.1);
+ *
+ * any use of this file implies acceptance of the conditions of this license.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package eu.eidas.auth.engine.metadata;
+
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.cache.CacheBuilder;
+
+import org.apache.commons.lang.StringUtils;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml2.metadata.KeyDescriptor;
+import org.opensaml.saml2.metadata.RoleDescriptor;
+import org.opensaml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.xml.security.credential.UsageType;
+
+import eu.eidas.auth.engine.xml.opensaml.CertificateUtil;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+import eu.eidas.util.Preconditions;
+
+/**
+ * The trust material of a peer resolved once from its verified {@link EntityDescriptor}: the decoded signing and
+ * encryption certificates of its SP and IdP roles, its assertion consumer URL, its SPType and its LevelOfAssurance.
+ * <p>
+ * Instances are indexed by EntityDescriptor identity (weak keys): the metadata fetchers build the material when a
+ * descriptor is verified, every lookup for the same cached descriptor is then a single map read, and the material
+ * disappears together with the descriptor when the metadata cache entry is refreshed or evicted. For the weak key to
+ * be collectable, the material must never reference the descriptor nor any of its children (such as its role
+ * descriptors).
+ * <p>
+ * A certificate which cannot be decoded does not prevent the rest of the material from being used: the decoding
+ * error is recorded and a new exception is thrown when (and only when) that certificate is requested.
+ *
+ * @since 1.1
+ */
+@Immutable
+public final class EntityTrustMaterial {
+
+    /**
+     * A certificate of the metadata or the error raised when decoding it.
+     */
+    @Immutable
+    private static final class ResolvedCertificate {
+
+        private static final ResolvedCertificate NONE = new ResolvedCertificate(null, false, null, null, null);
+
+        @Nullable
+        private final X509Certificate certificate;
+
+        private final boolean invalid;
+
+        @Nullable
+        private final String errorCode;
+
+        @Nullable
+        private final String errorMessage;
+
+        @Nullable
+        private final String errorDetail;
+
+        private ResolvedCertificate(@Nullable X509Certificate certificate,
+                                    boolean invalid,
+                                    @Nullable String errorCode,
+                                    @Nullable String errorMessage,
+                                    @Nullable String errorDetail) {
+            this.certificate = certificate;
+            this.invalid = invalid;
+            this.errorCode = errorCode;
+            this.errorMessage = errorMessage;
+            this.errorDetail = errorDetail;
+        }
+
+        @Nonnull
+        static ResolvedCertificate of(@Nonnull X509Certificate certificate) {
+            return new ResolvedCertificate(certificate, false, null, null, null);
+        }
+
+        @Nonnull
+        static ResolvedCertificate ofError(@Nonnull EIDASSAMLEngineException error) {
+            return new ResolvedCertificate(null, true, error.getErrorCode(), error.getErrorMessage(),
+                                           error.getErrorDetail());
+        }
+
+        /**
+         * Returns the certificate, or throws a new exception for the recorded decoding error: the exception is not
+         * shared between the requests so that its stack trace and suppressed exceptions belong to the caller.
+         */
+        @Nullable
+        X509Certificate get() throws EIDASSAMLEngineException {
+            if (invalid) {
+                throw new EIDASSAMLEngineException(errorCode, errorMessage, errorDetail);
+            }
+            return certificate;
+        }
+    }
+
+    private static final ConcurrentMap<EntityDescriptor, EntityTrustMaterial> MATERIAL_BY_DESCRIPTOR =
+            CacheBuilder.newBuilder().weakKeys().<EntityDescriptor, EntityTrustMaterial>build().asMap();
+
+    /**
+     * Returns the trust material of the given verified descriptor, resolving it on first use.
+     *
+     * @param entityDescriptor the verified entity descriptor
+     * @return the trust material of the given descriptor
+     */
+    @Nonnull
+    public static EntityTrustMaterial of(@Nonnull EntityDescriptor entityDescriptor) {
+        Preconditions.checkNotNull(entityDescriptor, "entityDescriptor");
+        EntityTrustMaterial material = MATERIAL_BY_DESCRIPTOR.get(entityDescriptor);
+        if (null == material) {
+            material = new EntityTrustMaterial(entityDescriptor);
+            EntityTrustMaterial existing = MATERIAL_BY_DESCRIPTOR.putIfAbsent(entityDescriptor, material);
+            if (null != existing) {
+                material = existing;
+            }
+        }
+        return material;
+    }
+
+    @Nonnull
+    private static ResolvedCertificate resolveCertificate(@Nullable RoleDescriptor roleDescriptor,
+                                                          @Nonnull UsageType usageType) {
+        if (null == roleDescriptor) {
+            return ResolvedCertificate.NONE;
+        }
+        for (KeyDescriptor kd : roleDescriptor.getKeyDescriptors()) {
+            if (kd.getUse() == usageType) {
+                try {
+                    return ResolvedCertificate.of(CertificateUtil.toCertificate(kd.getKeyInfo()));
+                } catch (EIDASSAMLEngineException e) {
+                    return ResolvedCertificate.ofError(e);
+                }
+            }
+        }
+        return ResolvedCertificate.NONE;
+    }
+
+    private final boolean spSsoDescriptorPresent;
+
+    private final boolean idpSsoDescriptorPresent;
+
+    @Nonnull
+    private final ResolvedCertificate spSigningCertificate;
+
+    @Nonnull
+    private final ResolvedCertificate spEncryptionCertificate;
+
+    @Nonnull
+    private final ResolvedCertificate idpSigningCertificate;
+
+    @Nullable
+    private final String assertionConsumerUrl;
+
+    @Nullable
+    private final String spType;
+
+    @Nonnull
+    private final String levelOfAssurance;
+
+    private EntityTrustMaterial(@Nonnull EntityDescriptor entityDescriptor) {
+        SPSSODescriptor spSsoDescriptor = MetadataUtil.getSPSSODescriptor(entityDescriptor);
+        IDPSSODescriptor idpSsoDescriptor = MetadataUtil.getIDPSSODescriptor(entityDescriptor);
+        spSsoDescriptorPresent = null != spSsoDescriptor;
+        idpSsoDescriptorPresent = null != idpSsoDescriptor;
+        spSigningCertificate = resolveCertificate(spSsoDescriptor, UsageType.SIGNING);
+        spEncryptionCertificate = resolveCertificate(spSsoDescriptor, UsageType.ENCRYPTION);
+        idpSigningCertificate = resolveCertificate(idpSsoDescriptor, UsageType.SIGNING);
+        assertionConsumerUrl = MetadataUtil.getAssertionConsumerUrl(spSsoDescriptor);
+        spType = MetadataUtil.getSPTypeFromMetadata(entityDescriptor);
+        levelOfAssurance = null == entityDescriptor.getExtensions() ? StringUtils.EMPTY
+                                                                    : MetadataUtil.getServiceLevelOfAssurance(
+                                                                            entityDescriptor);
+    }
+
+    /**
+     * @return {@code true} when the metadata declares an SP role.
+     */
+    public boolean hasSPSSODescriptor() {
+        return spSsoDescriptorPresent;
+    }
+
+    /**
+     * @return {@code true} when the metadata declares an IdP role.
+     */
+    public boolean hasIDPSSODescriptor() {
+        return idpSsoDescriptorPresent;
+    }
+
+    /**
+     * @return the certificate used by the SP role to sign its requests, if any.
+     * @throws EIDASSAMLEngineException if the certificate published in the metadata is invalid
+     */
+    @Nullable
+    public X509Certificate getRequestSignatureCertificate() throws EIDASSAMLEngineException {
+        return spSigningCertificate.get();
+    }
+
+    /**
+     * @return the certificate to be used to encrypt the responses sent to the SP role, if any.
+     * @throws EIDASSAMLEngineException if the certificate published in the metadata is invalid
+     */
+    @Nullable
+    public X509Certificate getEncryptionCertificate() throws EIDASSAMLEngineException {
+        return spEncryptionCertificate.get();
+    }
+
+    /**
+     * @return the certificate used by the IdP role to sign its responses, if any.
+     * @throws EIDASSAMLEngineException if the certificate published in the metadata is invalid
+     */
+    @Nullable
+    public X509Certificate getResponseSignatureCertificate() throws EIDASSAMLEngineException {
+        return idpSigningCertificate.get();
+    }
+
+    @Nullable
+    public String getAssertionConsumerUrl() {
+        return assertionConsumerUrl;
+    }
+
+    @Nullable
+    public String getSpType() {
+        return spType;
+    }
+
+    /**
+     * @return the LevelOfAssurance published in the metadata or the empty string.
+     */
+    @Nonnull
+    public String getLevelOfAssurance() {
+        return levelOfAssurance;
+    }
+}
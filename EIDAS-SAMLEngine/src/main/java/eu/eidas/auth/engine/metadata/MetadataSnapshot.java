@@ -0,0 +1,74 @@
+/*
+ * This work is Open Source and licensed by the European Commission under the
+ * conditions of the European Public License v1.1
+ *
+ * (http://www.osor.eu/eupl/european-union-public-licence-eupl-v.1.1);
+ *
+ * any use of this file implies acceptance of the conditions of this license.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package eu.eidas.auth.engine.metadata;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import eu.eidas.util.Preconditions;
+
+/**
+ * A verified metadata document kept by a {@link MetadataSnapshotStoreI} together with the point in time after which it
+ * must not be used anymore.
+ * <p>
+ * For performance reasons the metadata bytes are not copied, they must not be modified.
+ *
+ * @since 1.1
+ */
+@Immutable
+public final class MetadataSnapshot {
+
+    @Nonnull
+    private final String url;
+
+    @Nonnull
+    private final byte[] metadata;
+
+    private final long expiresAtMillis;
+
+    public MetadataSnapshot(@Nonnull String url, @Nonnull byte[] metadata, long expiresAtMillis) {
+        Preconditions.checkNotBlank(url, "url");
+        Preconditions.checkNotNull(metadata, "metadata");
+        this.url = url;
+        this.metadata = metadata;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    @Nonnull
+    public String getUrl() {
+        return url;
+    }
+
+    @Nonnull
+    public byte[] getMetadata() {
+        return metadata;
+    }
+
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    public boolean isExpired(long nowMillis) {
+        return nowMillis >= expiresAtMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "MetadataSnapshot{" +
+                "url='" + url + '\'' +
+                ", length=" + metadata.length +
+                ", expiresAtMillis=" + expiresAtMillis +
+                '}';
+    }
+}
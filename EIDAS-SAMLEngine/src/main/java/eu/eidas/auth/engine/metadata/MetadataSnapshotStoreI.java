@@ -0,0 +1,73 @@
+/*
+ * This work is Open Source and licensed by the European Commission under the
+ * conditions of the European Public License v1.1
+ *
+ * (http://www.osor.eu/eupl/european-union-public-licence-eupl-v.1.1);
+ *
+ * any use of this file implies acceptance of the conditions of this license.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package eu.eidas.auth.engine.metadata;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Persistent store of verified metadata documents, used by the caching metadata fetchers to start without having to
+ * fetch every peer metadata again and to keep working while a peer is unreachable.
+ *
+ * @since 1.1
+ */
+public interface MetadataSnapshotStoreI {
+
+    /**
+     * Returns the snapshot saved for the given URL, expired or not.
+     *
+     * @param url the url of the metadata file
+     * @return the snapshot saved for the given URL or {@code null} if there is none.
+     * @throws IOException if the snapshot cannot be read
+     */
+    @Nullable
+    MetadataSnapshot load(@Nonnull String url) throws IOException;
+
+    /**
+     * Saves the given snapshot, replacing any previous snapshot of the same URL.
+     *
+     * @param snapshot the snapshot to save
+     * @throws IOException if the snapshot cannot be written
+     */
+    void save(@Nonnull MetadataSnapshot snapshot) throws IOException;
+
+    /**
+     * Changes the expiry of the snapshot of the given URL, if any, without rewriting its content.
+     *
+     * @param url the url of the metadata file
+     * @param expiresAtMillis the new expiry
+     * @throws IOException if the snapshot cannot be written
+     */
+    void extend(@Nonnull String url, long expiresAtMillis) throws IOException;
+
+    /**
+     * Removes the snapshot of the given URL, if any.
+     *
+     * @param url the url of the metadata file
+     * @throws IOException if the snapshot cannot be removed
+     */
+    void remove(@Nonnull String url) throws IOException;
+
+    /**
+     * Returns the URLs of all the saved snapshots.
+     *
+     * @return the URLs of all the saved snapshots.
+     * @throws IOException if the store cannot be read
+     */
+    @Nonnull
+    Collection<String> getUrls() throws IOException;
+}
@@ -13,9 +13,16 @@
  */
 package eu.eidas.auth.engine.metadata.impl;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import org.joda.time.DateTime;
 import org.opensaml.saml2.metadata.EntityDescriptor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,11 +30,19 @@ import org.slf4j.LoggerFactory;
 import eu.eidas.auth.commons.EidasErrorKey;
 import eu.eidas.auth.engine.metadata.MetadataFetcherI;
 import eu.eidas.auth.engine.metadata.MetadataSignerI;
+import eu.eidas.auth.engine.metadata.MetadataSnapshot;
+import eu.eidas.auth.engine.metadata.MetadataSnapshotStoreI;
 import eu.eidas.engine.exceptions.EIDASMetadataProviderException;
 import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
 
 /**
  * Base implementation of the {@link MetadataFetcherI} interface with caching capabilities.
+ * <p>
+ * An optional {@link MetadataSnapshotStoreI} can be set as a persistent tier below the in-memory cache: every verified
+ * metadata document is saved in it and, on a cache miss, the saved snapshot is used (after verifying its signature
+ * again) instead of fetching the metadata synchronously. Descriptors loaded from a snapshot are served until a refresh
+ * from the network succeeds, a refresh being attempted at most every {@link #getSnapshotRetryIntervalMillis()}, and
+ * never beyond the expiry saved with the snapshot.
  *
  * @since 1.1
  */
@@ -35,6 +50,34 @@ public abstract class AbstractCachingMetadataFetcher extends BaseMetadataFetcher
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractCachingMetadataFetcher.class);
 
+    public static final long DEFAULT_SNAPSHOT_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1L);
+
+    public static final long DEFAULT_SNAPSHOT_RETRY_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1L);
+
+    @Nullable
+    private volatile MetadataSnapshotStoreI snapshotStore;
+
+    /**
+     * The next refresh attempt and the expiry of a descriptor served from a snapshot.
+     */
+    private static final class SnapshotServing {
+
+        private final long retryAt;
+
+        private final long expiresAt;
+
+        private SnapshotServing(long retryAt, long expiresAt) {
+            this.retryAt = retryAt;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * The URLs currently served from a snapshot.
+     */
+    private final ConcurrentMap<String, SnapshotServing> snapshotServings =
+            new ConcurrentHashMap<String, SnapshotServing>();
+
     @Nonnull
     @Override
     public EntityDescriptor getEntityDescriptor(@Nonnull String url, @Nonnull MetadataSignerI metadataSigner)
@@ -42,12 +85,25 @@ public abstract class AbstractCachingMetadataFetcher extends BaseMetadataFetcher
         EntityDescriptor cachedEntityDescriptor = getFromCache(url);
 
         if (null != cachedEntityDescriptor) {
+            SnapshotServing snapshotServing = snapshotServings.get(url);
             if (cachedEntityDescriptor.isValid()) {
-                return cachedEntityDescriptor;
-            } else {
-                // cached metadata has expired:
-                removeFromCache(url);
+                if (null == snapshotServing) {
+                    return cachedEntityDescriptor;
+                }
+                EntityDescriptor refreshedEntityDescriptor =
+                        refreshSnapshot(url, metadataSigner, cachedEntityDescriptor, snapshotServing);
+                if (null != refreshedEntityDescriptor) {
+                    return refreshedEntityDescriptor;
+                }
             }
+            // cached metadata or its snapshot has expired:
+            removeFromCache(url);
+            snapshotServings.remove(url);
+        }
+
+        EntityDescriptor snapshotEntityDescriptor = loadSnapshotIntoCache(url, metadataSigner);
+        if (null != snapshotEntityDescriptor) {
+            return snapshotEntityDescriptor;
         }
 
         if (isHttpRetrievalEnabled() && isAllowedMetadataUrl(url)) {
@@ -55,7 +111,7 @@ public abstract class AbstractCachingMetadataFetcher extends BaseMetadataFetcher
 
             LOG.debug("Obtained entity descriptor from metadata retrieved from url " + url);
 
-            putInCache(url, fetchedEntityDescriptor);
+            putInCache(url, fetchedEntityDescriptor, metadataSigner);
 
             return fetchedEntityDescriptor;
         }
@@ -74,5 +130,241 @@ public abstract class AbstractCachingMetadataFetcher extends BaseMetadataFetcher
 
     protected abstract void putInCache(@Nonnull String url, @Nonnull EntityDescriptor entityDescriptor);
 
+    /**
+     * Puts the given descriptor in the cache together with the {@link MetadataSignerI} it was verified with, so that
+     * caches which refresh their entries on their own can verify the refreshed metadata.
+     * <p>
+     * This default implementation ignores the signer and calls {@link #putInCache(String, EntityDescriptor)}.
+     *
+     * @param url the url of the metadata file
+     * @param entityDescriptor the verified entity descriptor
+     * @param metadataSigner the metadataSigner the descriptor was verified with
+     * @since 1.1
+     */
+    protected void putInCache(@Nonnull String url,
+                              @Nonnull EntityDescriptor entityDescriptor,
+                              @Nonnull MetadataSignerI metadataSigner) {
+        putInCache(url, entityDescriptor);
+    }
+
     protected abstract void removeFromCache(@Nonnull String url);
+
+    @Nullable
+    public MetadataSnapshotStoreI getSnapshotStore() {
+        return snapshotStore;
+    }
+
+    /**
+     * Sets the persistent store in which verified metadata documents are saved and from which they are reloaded.
+     *
+     * @param snapshotStore the snapshot store, or {@code null} to disable the persistent tier.
+     */
+    public void setSnapshotStore(@Nullable MetadataSnapshotStoreI snapshotStore) {
+        this.snapshotStore = snapshotStore;
+    }
+
+    /**
+     * Loads all the unexpired snapshots of the store into the cache, so that no request has to wait for a metadata
+     * fetch after a restart.
+     * <p>
+     * Snapshots which cannot be read or verified are skipped.
+     *
+     * @param metadataSigner the metadataSigner used to verify the digital signature of the snapshots
+     * @return the number of descriptors loaded into the cache.
+     */
+    public int preloadSnapshots(@Nonnull MetadataSignerI metadataSigner) {
+        MetadataSnapshotStoreI store = snapshotStore;
+        if (null == store) {
+            return 0;
+        }
+        Collection<String> urls;
+        try {
+            urls = store.getUrls();
+        } catch (IOException ioe) {
+            LOG.warn("Unable to list metadata snapshots: " + ioe, ioe);
+            return 0;
+        }
+        int loaded = 0;
+        for (String url : urls) {
+            if (null != getFromCache(url)) {
+                continue;
+            }
+            if (null != loadSnapshotIntoCache(url, metadataSigner)) {
+                loaded++;
+            }
+        }
+        LOG.info("Preloaded " + loaded + " metadata snapshot(s)");
+        return loaded;
+    }
+
+    /**
+     * Runs {@link #preloadSnapshots(MetadataSignerI)} in a background daemon thread.
+     *
+     * @param metadataSigner the metadataSigner used to verify the digital signature of the snapshots
+     */
+    public void preloadSnapshotsInBackground(@Nonnull final MetadataSignerI metadataSigner) {
+        Thread preloader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                preloadSnapshots(metadataSigner);
+            }
+        }, "metadata-snapshot-preloader");
+        preloader.setDaemon(true);
+        preloader.start();
+    }
+
+    /**
+     * Returns the maximum time during which a saved snapshot may be used, its {@code validUntil} permitting.
+     *
+     * @return the maximum age of a snapshot in milliseconds.
+     */
+    protected long getSnapshotMaxAgeMillis() {
+        return DEFAULT_SNAPSHOT_MAX_AGE_MILLIS;
+    }
+
+    /**
+     * Returns the minimum time between two attempts to refresh a descriptor loaded from a snapshot (or, for fetchers
+     * which refresh their entries in the background, whose last refresh failed).
+     *
+     * @return the retry interval in milliseconds.
+     */
+    protected long getSnapshotRetryIntervalMillis() {
+        return DEFAULT_SNAPSHOT_RETRY_INTERVAL_MILLIS;
+    }
+
+    /**
+     * Returns whether the given URL is currently served from a snapshot which has not been refreshed yet.
+     *
+     * @param url the url of the metadata file
+     * @return {@code true} if the cached descriptor of the given url was loaded from a snapshot.
+     */
+    protected boolean isServedFromSnapshot(@Nonnull String url) {
+        return snapshotServings.containsKey(url);
+    }
+
+    /**
+     * Reads, parses and verifies the snapshot saved for the given URL and puts it in the cache through {@link
+     * #putSnapshotInCache(String, EntityDescriptor, MetadataSignerI, long)}.
+     *
+     * @param url the url of the metadata file
+     * @param metadataSigner the metadataSigner used to verify the digital signature of the snapshot
+     * @return the verified entity descriptor or {@code null} if there is no usable snapshot.
+     */
+    @Nullable
+    protected EntityDescriptor loadSnapshotIntoCache(@Nonnull String url, @Nonnull MetadataSignerI metadataSigner) {
+        MetadataSnapshotStoreI store = snapshotStore;
+        if (null == store) {
+            return null;
+        }
+        try {
+            MetadataSnapshot snapshot = store.load(url);
+            if (null == snapshot) {
+                return null;
+            }
+            if (snapshot.isExpired(System.currentTimeMillis())) {
+                store.remove(url);
+                return null;
+            }
+            EntityDescriptor entityDescriptor =
+                    parseAndValidateEntityDescriptor(url, snapshot.getMetadata(), metadataSigner);
+            LOG.debug("Obtained entity descriptor from metadata snapshot of url " + url);
+            putSnapshotInCache(url, entityDescriptor, metadataSigner, snapshot.getExpiresAtMillis());
+            return entityDescriptor;
+        } catch (IOException ioe) {
+            LOG.warn("Unable to read metadata snapshot of url " + url + ": " + ioe, ioe);
+        } catch (EIDASSAMLEngineException e) {
+            LOG.warn("Discarding invalid metadata snapshot of url " + url + ": " + e, e);
+        }
+        return null;
+    }
+
+    /**
+     * Puts a descriptor loaded from a snapshot in the cache.
+     * <p>
+     * This default implementation puts it in the cache as any other descriptor and serves it until a refresh succeeds,
+     * attempted at most every {@link #getSnapshotRetryIntervalMillis()}, or until the given expiry.
+     *
+     * @param url the url of the metadata file
+     * @param entityDescriptor the entity descriptor verified from the snapshot
+     * @param metadataSigner the metadataSigner the snapshot was verified with
+     * @param expiresAtMillis the expiry saved with the snapshot
+     * @since 1.1
+     */
+    protected void putSnapshotInCache(@Nonnull String url,
+                                      @Nonnull EntityDescriptor entityDescriptor,
+                                      @Nonnull MetadataSignerI metadataSigner,
+                                      long expiresAtMillis) {
+        putInCache(url, entityDescriptor, metadataSigner);
+        snapshotServings.put(url, new SnapshotServing(System.currentTimeMillis() + getSnapshotRetryIntervalMillis(),
+                                                      expiresAtMillis));
+    }
+
+    @Override
+    protected void onMetadataVerified(@Nonnull String url,
+                                      @Nonnull byte[] metadataBytes,
+                                      @Nonnull EntityDescriptor entityDescriptor) {
+        snapshotServings.remove(url);
+        MetadataSnapshotStoreI store = snapshotStore;
+        if (null != store) {
+            try {
+                store.save(new MetadataSnapshot(url, metadataBytes, getSnapshotExpiry(entityDescriptor)));
+            } catch (IOException ioe) {
+                LOG.warn("Unable to save metadata snapshot of url " + url + ": " + ioe, ioe);
+            }
+        }
+    }
+
+    @Override
+    protected void onMetadataUnchanged(@Nonnull String url, @Nonnull EntityDescriptor entityDescriptor) {
+        snapshotServings.remove(url);
+        MetadataSnapshotStoreI store = snapshotStore;
+        if (null != store) {
+            try {
+                store.extend(url, getSnapshotExpiry(entityDescriptor));
+            } catch (IOException ioe) {
+                LOG.warn("Unable to extend metadata snapshot of url " + url + ": " + ioe, ioe);
+            }
+        }
+    }
+
+    private long getSnapshotExpiry(@Nonnull EntityDescriptor entityDescriptor) {
+        long expiry = System.currentTimeMillis() + getSnapshotMaxAgeMillis();
+        DateTime validUntil = entityDescriptor.getValidUntil();
+        if (null != validUntil) {
+            expiry = Math.min(expiry, validUntil.getMillis());
+        }
+        return expiry;
+    }
+
+    /**
+     * Attempts to replace a descriptor loaded from a snapshot by a freshly fetched one, keeping the snapshot one when
+     * the fetch fails.
+     *
+     * @return the descriptor to serve, or {@code null} if the snapshot has expired.
+     */
+    @Nullable
+    private EntityDescriptor refreshSnapshot(@Nonnull String url,
+                                             @Nonnull MetadataSignerI metadataSigner,
+                                             @Nonnull EntityDescriptor snapshotEntityDescriptor,
+                                             @Nonnull SnapshotServing snapshotServing) {
+        long now = System.currentTimeMillis();
+        if (now >= snapshotServing.expiresAt) {
+            return null;
+        }
+        if (now < snapshotServing.retryAt || !isHttpRetrievalEnabled() || !isAllowedMetadataUrl(url)
+                || !snapshotServings.replace(url, snapshotServing,
+                                             new SnapshotServing(now + getSnapshotRetryIntervalMillis(),
+                                                                 snapshotServing.expiresAt))) {
+            return snapshotEntityDescriptor;
+        }
+        try {
+            EntityDescriptor fetchedEntityDescriptor = fetchAndValidateEntityDescriptor(url, metadataSigner);
+            snapshotServings.remove(url);
+            putInCache(url, fetchedEntityDescriptor, metadataSigner);
+            return fetchedEntityDescriptor;
+        } catch (EIDASSAMLEngineException e) {
+            LOG.warn("Unable to refresh metadata from url " + url + ", still using its snapshot: " + e, e);
+            return snapshotEntityDescriptor;
+        }
+    }
 }
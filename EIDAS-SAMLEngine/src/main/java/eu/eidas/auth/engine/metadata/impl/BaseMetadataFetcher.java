@@ -18,6 +18,7 @@ import java.net.MalformedURLException;
 import java.net.Socket;
 import java.net.URL;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nonnull;
@@ -27,16 +28,17 @@ import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLSession;
 import javax.net.ssl.SSLSocket;
 
-import org.apache.commons.httpclient.protocol.Protocol;
+import com.google.common.cache.CacheBuilder;
+
 import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
 import org.apache.commons.lang.StringUtils;
 import org.opensaml.DefaultBootstrap;
+import org.opensaml.saml2.metadata.EntitiesDescriptor;
 import org.opensaml.saml2.metadata.EntityDescriptor;
 import org.opensaml.saml2.metadata.IDPSSODescriptor;
 import org.opensaml.saml2.metadata.SPSSODescriptor;
 import org.opensaml.saml2.metadata.provider.HTTPMetadataProvider;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
-import org.opensaml.ws.soap.client.http.HttpClientBuilder;
 import org.opensaml.ws.soap.client.http.TLSProtocolSocketFactory;
 import org.opensaml.xml.XMLObject;
 import org.opensaml.xml.security.x509.tls.StrictHostnameVerifier;
@@ -45,12 +47,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import eu.eidas.auth.commons.EidasErrorKey;
+import eu.eidas.auth.commons.xml.opensaml.OpenSamlHelper;
 import eu.eidas.auth.engine.AbstractProtocolEngine;
+import eu.eidas.auth.engine.metadata.EntityTrustMaterial;
 import eu.eidas.auth.engine.metadata.MetadataFetcherI;
 import eu.eidas.auth.engine.metadata.MetadataSignerI;
 import eu.eidas.auth.engine.metadata.MetadataUtil;
 import eu.eidas.engine.exceptions.EIDASMetadataProviderException;
 import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+import eu.eidas.encryption.exception.UnmarshallException;
+import eu.eidas.util.Preconditions;
 
 /**
  * The base implementation of the {@link MetadataFetcherI} interface.
@@ -66,27 +72,60 @@ public class BaseMetadataFetcher implements MetadataFetcherI {
 
     private static final Pattern HTTP_OR_HTTPS_URL = Pattern.compile("^https?://.*$");
 
-    protected EntityDescriptor fetchEntityDescriptor(@Nonnull String url) throws EIDASMetadataProviderException {
+    private static final long MAX_VALIDATORS = 1000L;
+
+    @Nullable
+    private volatile MetadataHttpTransport httpTransport;
+
+    /**
+     * The validators of the last document retrieved from each URL, used to send conditional requests.
+     */
+    private final ConcurrentMap<String, MetadataValidators> validatorsByUrl = CacheBuilder.newBuilder()
+            .maximumSize(MAX_VALIDATORS)
+            .<String, MetadataValidators>build()
+            .asMap();
+
+    private void checkMetadataUrl(@Nonnull String url) throws EIDASMetadataProviderException {
         if (!isAllowedMetadataUrl(url)) {
             throw new EIDASMetadataProviderException(EidasErrorKey.SAML_ENGINE_INVALID_METADATA_SOURCE.errorCode(),
                                                      EidasErrorKey.SAML_ENGINE_INVALID_METADATA_SOURCE.errorMessage(),
                                                      "Metadata URL is not secure: \"" + url + "\"");
         }
-        URL metadataUrl = null;
         try {
-            metadataUrl = new URL(url);
+            new URL(url);
         } catch (MalformedURLException e) {
             throw new EIDASMetadataProviderException("Invalid URL : " + url);
         }
-        HttpClientBuilder httpClientBuilder = new HttpClientBuilder();
+    }
 
-        // This registers a socket factory for the https scheme:
-        // specifying a null X509KeyManager and a null X509TrustManager is going to use the default ones from the JVM:
-        httpClientBuilder.setHttpsProtocolSocketFactory(newSslSocketFactory());
+    /**
+     * An EntityDescriptor retrieved by a metadata provider together with the document it was parsed from.
+     */
+    private static final class FetchedMetadata {
+
+        @Nonnull
+        private final EntityDescriptor entityDescriptor;
+
+        @Nullable
+        private final byte[] metadataBytes;
+
+        private FetchedMetadata(@Nonnull EntityDescriptor entityDescriptor, @Nullable byte[] metadataBytes) {
+            this.entityDescriptor = entityDescriptor;
+            this.metadataBytes = metadataBytes;
+        }
+    }
+
+    protected EntityDescriptor fetchEntityDescriptor(@Nonnull String url) throws EIDASMetadataProviderException {
+        return fetchMetadata(url).entityDescriptor;
+    }
 
+    @Nonnull
+    private FetchedMetadata fetchMetadata(@Nonnull String url) throws EIDASMetadataProviderException {
+        checkMetadataUrl(url);
+        MetadataHttpTransport transport = getHttpTransport();
+        DomCachingHttpMetadataProvider provider = null;
         try {
-            HTTPMetadataProvider provider =
-                    new DomCachingHttpMetadataProvider(null, httpClientBuilder.buildClient(), url);
+            provider = new DomCachingHttpMetadataProvider(transport.getProviderTimer(), transport.getHttpClient(), url);
             provider.setParserPool(AbstractProtocolEngine.getSecuredParserPool());
             provider.initialize();
             XMLObject metadata = provider.getMetadata();
@@ -97,36 +136,219 @@ public class BaseMetadataFetcher implements MetadataFetcherI {
                 //CAVEAT: the entity descriptor should have its id equal to the url (issuer url)
                 entityDescriptor = provider.getEntityDescriptor(url);
             }
-            if (null == entityDescriptor) {
-                throw new EIDASMetadataProviderException(EidasErrorKey.SAML_ENGINE_NO_METADATA.errorCode(),
-                                                         EidasErrorKey.SAML_ENGINE_NO_METADATA.errorMessage(),
-                                                         "No entity descriptor for URL \"" + url + "\"");
-            }
-            if (!entityDescriptor.isValid()) {
-                throw new EIDASMetadataProviderException(EidasErrorKey.SAML_ENGINE_INVALID_METADATA.errorCode(),
-                                                         EidasErrorKey.SAML_ENGINE_INVALID_METADATA.errorMessage(),
-                                                         "Invalid entity descriptor for URL \"" + url + "\"");
-            }
-            return entityDescriptor;
+            return new FetchedMetadata(checkEntityDescriptor(url, entityDescriptor), provider.getMetadataBytes());
         } catch (MetadataProviderException mpe) {
             LOG.error("Error fetching metadata from URL \"" + url + "\": " + mpe, mpe);
             throw new EIDASMetadataProviderException(EidasErrorKey.SAML_ENGINE_INVALID_METADATA.errorCode(),
                                                      EidasErrorKey.SAML_ENGINE_INVALID_METADATA.errorMessage(), mpe);
+        } finally {
+            if (null != provider) {
+                releaseProvider(transport, provider);
+            }
         }
     }
 
+    /**
+     * Fetches the metadata from the given URL with a conditional request based on the validators of the previous
+     * retrieval.
+     *
+     * @param url the url of the metadata file
+     * @param previous the validators of the previous retrieval, if any
+     * @return the retrieval result, its body is {@code null} when the document has not been modified.
+     * @throws EIDASMetadataProviderException in case of errors
+     */
+    @Nonnull
+    private ConditionalMetadataRetriever.Result retrieveMetadata(@Nonnull String url,
+                                                                 @Nullable MetadataValidators previous)
+            throws EIDASMetadataProviderException {
+        checkMetadataUrl(url);
+        return ConditionalMetadataRetriever.retrieve(getHttpTransport().getHttpClient(), url, previous);
+    }
+
+    @Nonnull
+    private static EntityDescriptor parseEntityDescriptor(@Nonnull String url, @Nonnull byte[] metadataBytes)
+            throws EIDASMetadataProviderException {
+        XMLObject metadata;
+        try {
+            metadata = OpenSamlHelper.unmarshall(metadataBytes);
+        } catch (UnmarshallException ue) {
+            LOG.error("Error parsing metadata from URL \"" + url + "\": " + ue, ue);
+            throw new EIDASMetadataProviderException(EidasErrorKey.SAML_ENGINE_INVALID_METADATA.errorCode(),
+                                                     EidasErrorKey.SAML_ENGINE_INVALID_METADATA.errorMessage(), ue);
+        }
+        EntityDescriptor entityDescriptor = null;
+        if (metadata instanceof EntityDescriptor) {
+            entityDescriptor = (EntityDescriptor) metadata;
+        } else if (metadata instanceof EntitiesDescriptor && ((EntitiesDescriptor) metadata).isValid()) {
+            //CAVEAT: the entity descriptor should have its id equal to the url (issuer url)
+            entityDescriptor = findEntityDescriptor((EntitiesDescriptor) metadata, url);
+        }
+        return checkEntityDescriptor(url, entityDescriptor);
+    }
+
+    @Nullable
+    private static EntityDescriptor findEntityDescriptor(@Nonnull EntitiesDescriptor entitiesDescriptor,
+                                                         @Nonnull String entityId) {
+        for (EntityDescriptor entityDescriptor : entitiesDescriptor.getEntityDescriptors()) {
+            if (entityId.equals(entityDescriptor.getEntityID())) {
+                return entityDescriptor;
+            }
+        }
+        for (EntitiesDescriptor child : entitiesDescriptor.getEntitiesDescriptors()) {
+            EntityDescriptor entityDescriptor = findEntityDescriptor(child, entityId);
+            if (null != entityDescriptor) {
+                return entityDescriptor;
+            }
+        }
+        return null;
+    }
+
+    @Nonnull
+    private static EntityDescriptor checkEntityDescriptor(@Nonnull String url,
+                                                          @Nullable EntityDescriptor entityDescriptor)
+            throws EIDASMetadataProviderException {
+        if (null == entityDescriptor) {
+            throw new EIDASMetadataProviderException(EidasErrorKey.SAML_ENGINE_NO_METADATA.errorCode(),
+                                                     EidasErrorKey.SAML_ENGINE_NO_METADATA.errorMessage(),
+                                                     "No entity descriptor for URL \"" + url + "\"");
+        }
+        if (!entityDescriptor.isValid()) {
+            throw new EIDASMetadataProviderException(EidasErrorKey.SAML_ENGINE_INVALID_METADATA.errorCode(),
+                                                     EidasErrorKey.SAML_ENGINE_INVALID_METADATA.errorMessage(),
+                                                     "Invalid entity descriptor for URL \"" + url + "\"");
+        }
+        return entityDescriptor;
+    }
+
+    /**
+     * Cancels the reload task scheduled by the provider, the retrieved descriptor itself is kept.
+     */
+    private static void releaseProvider(@Nonnull MetadataHttpTransport transport,
+                                        @Nonnull HTTPMetadataProvider provider) {
+        try {
+            provider.destroy();
+        } catch (RuntimeException e) {
+            // the provider failed before scheduling its reload task
+            LOG.debug("Unable to destroy metadata provider: " + e, e);
+        }
+        transport.getProviderTimer().purge();
+    }
+
     @Nonnull
     @Override
     public EntityDescriptor getEntityDescriptor(@Nonnull String url, @Nonnull MetadataSignerI metadataSigner)
             throws EIDASSAMLEngineException {
-        // 1) fetch
-        EntityDescriptor entityDescriptor = fetchEntityDescriptor(url);
+        return fetchAndValidateEntityDescriptor(url, metadataSigner);
+    }
+
+    /**
+     * Fetches the metadata from the given URL, validates its digital signature and releases its DOM, bypassing any
+     * cache held by subclasses.
+     * <p>
+     * When {@link #isConditionalRetrievalEnabled()}, the request is conditional and, if the document has not changed
+     * since the last retrieval (304 response or identical content digest), the previously verified EntityDescriptor is
+     * returned without parsing nor verifying the document again.
+     *
+     * @param url the url of the metadata file
+     * @param metadataSigner the metadataSigner used to verify the digital signature of the retrieved EntityDescriptor
+     * @return the validated entity descriptor
+     * @throws EIDASSAMLEngineException in case of errors
+     * @since 1.1
+     */
+    @Nonnull
+    protected EntityDescriptor fetchAndValidateEntityDescriptor(@Nonnull String url,
+                                                                @Nonnull MetadataSignerI metadataSigner)
+            throws EIDASSAMLEngineException {
+        if (!isConditionalRetrievalEnabled()) {
+            // 1) fetch
+            FetchedMetadata fetchedMetadata = fetchMetadata(url);
+            EntityDescriptor entityDescriptor =
+                    validateEntityDescriptor(url, fetchedMetadata.entityDescriptor, metadataSigner);
+            if (null != fetchedMetadata.metadataBytes) {
+                onMetadataVerified(url, fetchedMetadata.metadataBytes, entityDescriptor);
+            }
+            return entityDescriptor;
+        }
+        MetadataValidators previous = validatorsByUrl.get(url);
+        if (null != previous && !previous.getEntityDescriptor().isValid()) {
+            validatorsByUrl.remove(url, previous);
+            previous = null;
+        }
+        // 1) conditional fetch
+        ConditionalMetadataRetriever.Result result = retrieveMetadata(url, previous);
+        byte[] metadataBytes = result.getBody();
+        byte[] digest = null == metadataBytes ? null : MetadataValidators.digest(metadataBytes);
+        if (null != previous && (null == digest || previous.hasSameDigest(digest))) {
+            LOG.debug("Metadata from url " + url + " has not changed, reusing the verified entity descriptor");
+            validatorsByUrl.put(url, previous.revalidated(result.getEtag(), result.getLastModified()));
+            onMetadataUnchanged(url, previous.getEntityDescriptor());
+            return previous.getEntityDescriptor();
+        }
+        EntityDescriptor entityDescriptor = parseAndValidateEntityDescriptor(url, metadataBytes, metadataSigner);
+        validatorsByUrl.put(url, new MetadataValidators(result.getEtag(), result.getLastModified(), digest,
+                                                        entityDescriptor));
+        onMetadataVerified(url, metadataBytes, entityDescriptor);
+        return entityDescriptor;
+    }
+
+    /**
+     * Parses the given metadata document, validates its digital signature and releases its DOM.
+     *
+     * @param url the url the metadata document was retrieved from
+     * @param metadataBytes the metadata document
+     * @param metadataSigner the metadataSigner used to verify the digital signature of the EntityDescriptor
+     * @return the validated entity descriptor
+     * @throws EIDASSAMLEngineException in case of errors
+     * @since 1.1
+     */
+    @Nonnull
+    protected EntityDescriptor parseAndValidateEntityDescriptor(@Nonnull String url,
+                                                                @Nonnull byte[] metadataBytes,
+                                                                @Nonnull MetadataSignerI metadataSigner)
+            throws EIDASSAMLEngineException {
+        return validateEntityDescriptor(url, parseEntityDescriptor(url, metadataBytes), metadataSigner);
+    }
+
+    /**
+     * Called when a new metadata document has been retrieved and verified.
+     * <p>
+     * This default implementation does nothing.
+     *
+     * @param url the url the metadata document was retrieved from
+     * @param metadataBytes the verified metadata document
+     * @param entityDescriptor the entity descriptor verified from the document
+     * @since 1.1
+     */
+    protected void onMetadataVerified(@Nonnull String url,
+                                      @Nonnull byte[] metadataBytes,
+                                      @Nonnull EntityDescriptor entityDescriptor) {
+    }
+
+    /**
+     * Called when the metadata document retrieved from the given url has not changed since it was last verified.
+     * <p>
+     * This default implementation does nothing.
+     *
+     * @param url the url the metadata document was retrieved from
+     * @param entityDescriptor the entity descriptor previously verified from the document
+     * @since 1.1
+     */
+    protected void onMetadataUnchanged(@Nonnull String url, @Nonnull EntityDescriptor entityDescriptor) {
+    }
+
+    @Nonnull
+    private EntityDescriptor validateEntityDescriptor(@Nonnull String url,
+                                                      @Nonnull EntityDescriptor entityDescriptor,
+                                                      @Nonnull MetadataSignerI metadataSigner)
+            throws EIDASSAMLEngineException {
         // 2) validate the digital signature
         if (mustValidateSignature(url)) {
             metadataSigner.validateMetadataSignature(entityDescriptor);
         }
         // 3) release the DOM
         entityDescriptor.releaseDOM();
+        // 4) resolve the trust material once, every subsequent lookup on this descriptor is a map read
+        EntityTrustMaterial.of(entityDescriptor);
         return entityDescriptor;
     }
 
@@ -144,6 +366,54 @@ public class BaseMetadataFetcher implements MetadataFetcherI {
         return MetadataUtil.getSPSSODescriptor(entityDescriptor);
     }
 
+    /**
+     * Returns the shared HTTP transport used to retrieve metadata, creating a default one on first use when none has
+     * been injected via {@link #setHttpTransport(MetadataHttpTransport)}.
+     *
+     * @return the HTTP transport of this fetcher.
+     * @since 1.1
+     */
+    @Nonnull
+    protected MetadataHttpTransport getHttpTransport() {
+        MetadataHttpTransport transport = httpTransport;
+        if (null == transport) {
+            synchronized (this) {
+                transport = httpTransport;
+                if (null == transport) {
+                    transport = newHttpTransport();
+                    httpTransport = transport;
+                }
+            }
+        }
+        return transport;
+    }
+
+    /**
+     * Injects the HTTP transport to use instead of the default one, e.g. to share it between several fetchers or to
+     * tune its connection limits and timeouts.
+     *
+     * @param httpTransport the HTTP transport to use
+     * @since 1.1
+     */
+    public void setHttpTransport(@Nonnull MetadataHttpTransport httpTransport) {
+        Preconditions.checkNotNull(httpTransport, "httpTransport");
+        this.httpTransport = httpTransport;
+    }
+
+    /**
+     * Creates the default HTTP transport, which is done only once per fetcher.
+     * <p>
+     * Override this method to customize the connection pool and timeouts.
+     *
+     * @return a new HTTP transport using the socket factory returned by {@link #newSslSocketFactory()}.
+     * @since 1.1
+     */
+    @Nonnull
+    protected MetadataHttpTransport newHttpTransport() {
+        // specifying a null X509KeyManager and a null X509TrustManager is going to use the default ones from the JVM:
+        return MetadataHttpTransport.builder().sslSocketFactory(newSslSocketFactory()).build();
+    }
+
     protected boolean isAllowedMetadataUrl(@Nonnull String url) {
         if (StringUtils.isNotBlank(url)) {
             String lowerCaseUrl = url.toLowerCase(Locale.ENGLISH);
@@ -156,6 +426,17 @@ public class BaseMetadataFetcher implements MetadataFetcherI {
         return false;
     }
 
+    /**
+     * Override this method to disable conditional requests and always download, parse and verify the whole metadata
+     * document.
+     *
+     * @return {@code true} to send conditional requests and reuse unchanged metadata.
+     * @since 1.1
+     */
+    protected boolean isConditionalRetrievalEnabled() {
+        return true;
+    }
+
     protected boolean mustUseHttps() {
         return true;
     }
@@ -169,6 +450,9 @@ public class BaseMetadataFetcher implements MetadataFetcherI {
      * <p>
      * This default implementation relies on the default one from the JVM, i.e. using the default trustStore
      * ($JRE/lib/security/cacerts).
+     * <p>
+     * It is called only once per fetcher, when its {@link MetadataHttpTransport} is created, so that the same factory
+     * (and its TLS session cache) is reused by all the connections.
      *
      * @return the SecureProtocolSocketFactory instance to be used to connect to https metadata URLs.
      */
@@ -203,8 +487,6 @@ public class BaseMetadataFetcher implements MetadataFetcherI {
             }
         };
 
-        Protocol.registerProtocol("https", new Protocol("https", tlsProtocolSocketFactory, 443));
-
         return tlsProtocolSocketFactory;
     }
 }
@@ -0,0 +1,159 @@
+/*
+ * This work is Open Source and licensed by the European Commission under the
+ * conditions of the European Public License v1.1
+ *
+ * (http://www.osor.eu/eupl/european-union-public-licence-eupl-v.1.1);
+ *
+ * any use of this file implies acceptance of the conditions of this license.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package eu.eidas.auth.engine.metadata.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.eidas.auth.commons.EidasErrorKey;
+import eu.eidas.engine.exceptions.EIDASMetadataProviderException;
+
+/**
+ * Retrieves metadata documents over HTTP with conditional requests ({@code If-None-Match} and
+ * {@code If-Modified-Since}).
+ *
+ * @since 1.1
+ */
+final class ConditionalMetadataRetriever {
+
+    /**
+     * The outcome of a conditional retrieval.
+     */
+    static final class Result {
+
+        @Nullable
+        private final byte[] body;
+
+        @Nullable
+        private final String etag;
+
+        @Nullable
+        private final String lastModified;
+
+        private Result(@Nullable byte[] body, @Nullable String etag, @Nullable String lastModified) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * @return the retrieved document or {@code null} when the server answered 304 (Not Modified).
+         */
+        @Nullable
+        byte[] getBody() {
+            return body;
+        }
+
+        boolean isNotModified() {
+            return null == body;
+        }
+
+        @Nullable
+        String getEtag() {
+            return etag;
+        }
+
+        @Nullable
+        String getLastModified() {
+            return lastModified;
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConditionalMetadataRetriever.class);
+
+    @Nonnull
+    static Result retrieve(@Nonnull HttpClient httpClient,
+                           @Nonnull String url,
+                           @Nullable MetadataValidators previous) throws EIDASMetadataProviderException {
+        GetMethod getMethod;
+        try {
+            getMethod = new GetMethod(url);
+        } catch (IllegalArgumentException iae) {
+            throw new EIDASMetadataProviderException("Invalid URL : " + url);
+        }
+        getMethod.setRequestHeader("Accept-Encoding", "gzip,deflate");
+        if (null != previous) {
+            if (null != previous.getEtag()) {
+                getMethod.setRequestHeader("If-None-Match", previous.getEtag());
+            }
+            if (null != previous.getLastModified()) {
+                getMethod.setRequestHeader("If-Modified-Since", previous.getLastModified());
+            }
+        }
+        try {
+            int status = httpClient.executeMethod(getMethod);
+            String etag = getHeaderValue(getMethod, "ETag");
+            String lastModified = getHeaderValue(getMethod, "Last-Modified");
+            if (status == HttpStatus.SC_NOT_MODIFIED && null != previous) {
+                LOG.debug("Metadata document from \"" + url + "\" has not changed since last retrieval");
+                return new Result(null, etag, lastModified);
+            }
+            if (status != HttpStatus.SC_OK) {
+                throw new EIDASMetadataProviderException(EidasErrorKey.SAML_ENGINE_INVALID_METADATA.errorCode(),
+                                                         EidasErrorKey.SAML_ENGINE_INVALID_METADATA.errorMessage(),
+                                                         "Non-ok status code " + status
+                                                                 + " returned from remote metadata source \"" + url
+                                                                 + "\"");
+            }
+            return new Result(readBody(getMethod), etag, lastModified);
+        } catch (IOException ioe) {
+            LOG.error("Error fetching metadata from URL \"" + url + "\": " + ioe, ioe);
+            throw new EIDASMetadataProviderException(EidasErrorKey.SAML_ENGINE_INVALID_METADATA.errorCode(),
+                                                     EidasErrorKey.SAML_ENGINE_INVALID_METADATA.errorMessage(), ioe);
+        } finally {
+            getMethod.releaseConnection();
+        }
+    }
+
+    @Nullable
+    private static String getHeaderValue(@Nonnull GetMethod getMethod, @Nonnull String headerName) {
+        Header header = getMethod.getResponseHeader(headerName);
+        return null == header ? null : header.getValue();
+    }
+
+    @Nonnull
+    private static byte[] readBody(@Nonnull GetMethod getMethod) throws IOException {
+        InputStream inputStream = getMethod.getResponseBodyAsStream();
+        if (null == inputStream) {
+            return new byte[0];
+        }
+        String contentEncoding = getHeaderValue(getMethod, "Content-Encoding");
+        if ("gzip".equalsIgnoreCase(contentEncoding)) {
+            inputStream = new GZIPInputStream(inputStream);
+        } else if ("deflate".equalsIgnoreCase(contentEncoding)) {
+            inputStream = new InflaterInputStream(inputStream);
+        }
+        try {
+            return IOUtils.toByteArray(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    private ConditionalMetadataRetriever() {
+    }
+}
@@ -24,7 +24,10 @@ package eu.eidas.auth.engine.metadata.impl;
 
 import java.util.Timer;
 
+import javax.annotation.Nullable;
+
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.GetMethod;
 import org.opensaml.saml2.metadata.provider.HTTPMetadataProvider;
 import org.opensaml.saml2.metadata.provider.MetadataProviderException;
 import org.opensaml.xml.XMLObject;
@@ -36,6 +39,9 @@ import org.opensaml.xml.XMLObject;
  */
 final class DomCachingHttpMetadataProvider extends HTTPMetadataProvider {
 
+    @Nullable
+    private volatile byte[] metadataBytes;
+
     DomCachingHttpMetadataProvider(Timer t, HttpClient client, String url) throws MetadataProviderException {
         super(t, client, url);
     }
@@ -44,4 +50,29 @@ final class DomCachingHttpMetadataProvider extends HTTPMetadataProvider {
     protected void releaseMetadataDOM(XMLObject metadata) {
         //do not release DOM information
     }
+
+    @Override
+    protected GetMethod buildGetMethod() {
+        GetMethod getMethod = super.buildGetMethod();
+        // keep the connection alive so that it can be reused from the pool:
+        getMethod.removeRequestHeader("Connection");
+        return getMethod;
+    }
+
+    @Override
+    protected byte[] fetchMetadata() throws MetadataProviderException {
+        byte[] fetchedBytes = super.fetchMetadata();
+        if (null != fetchedBytes) {
+            metadataBytes = fetchedBytes;
+        }
+        return fetchedBytes;
+    }
+
+    /**
+     * @return the metadata document last retrieved by this provider, or {@code null} if none has been retrieved yet.
+     */
+    @Nullable
+    byte[] getMetadataBytes() {
+        return metadataBytes;
+    }
 }
@@ -0,0 +1,198 @@
+/*
+ * This work is Open Source and licensed by the European Commission under the
+ * conditions of the European Public License v1.1
+ *
+ * (http://www.osor.eu/eupl/european-union-public-licence-eupl-v.1.1);
+ *
+ * any use of this file implies acceptance of the conditions of this license.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package eu.eidas.auth.engine.metadata.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CountingInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.eidas.auth.commons.EidasDigestUtil;
+import eu.eidas.auth.commons.EidasStringUtil;
+import eu.eidas.auth.engine.metadata.MetadataSnapshot;
+import eu.eidas.auth.engine.metadata.MetadataSnapshotStoreI;
+import eu.eidas.util.Preconditions;
+
+/**
+ * A {@link MetadataSnapshotStoreI} keeping one file per metadata URL in a directory.
+ * <p>
+ * Each file is named after the SHA-256 digest of the URL and contains a small header (format version, expiry and URL)
+ * followed by the metadata document as it was retrieved. Files are written to a temporary file first and then moved
+ * in place so that a crash never leaves a truncated snapshot behind.
+ *
+ * @since 1.1
+ */
+@ThreadSafe
+public final class FileMetadataSnapshotStore implements MetadataSnapshotStoreI {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileMetadataSnapshotStore.class);
+
+    private static final String SUFFIX = ".snapshot";
+
+    private static final int MAGIC = 0x4D44534E;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The offset of the expiry in the file: after the magic number and the version.
+     */
+    private static final long EXPIRY_OFFSET = 8L;
+
+    @Nonnull
+    private final Path directory;
+
+    public FileMetadataSnapshotStore(@Nonnull String directory) throws IOException {
+        Preconditions.checkNotBlank(directory, "directory");
+        this.directory = new File(directory).toPath();
+        Files.createDirectories(this.directory);
+    }
+
+    @Nullable
+    @Override
+    public synchronized MetadataSnapshot load(@Nonnull String url) throws IOException {
+        Path path = pathOf(url);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        return read(path, true);
+    }
+
+    @Override
+    public synchronized void save(@Nonnull MetadataSnapshot snapshot) throws IOException {
+        Path path = pathOf(snapshot.getUrl());
+        Path temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)));
+            try {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(snapshot.getExpiresAtMillis());
+                output.writeUTF(snapshot.getUrl());
+                output.writeInt(snapshot.getMetadata().length);
+                output.write(snapshot.getMetadata());
+            } finally {
+                output.close();
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    @Override
+    public synchronized void extend(@Nonnull String url, long expiresAtMillis) throws IOException {
+        Path path = pathOf(url);
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+        RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw");
+        try {
+            checkHeader(file.readInt(), file.readInt(), path);
+            file.seek(EXPIRY_OFFSET);
+            file.writeLong(expiresAtMillis);
+        } finally {
+            file.close();
+        }
+    }
+
+    @Override
+    public synchronized void remove(@Nonnull String url) throws IOException {
+        Files.deleteIfExists(pathOf(url));
+    }
+
+    @Nonnull
+    @Override
+    public synchronized Collection<String> getUrls() throws IOException {
+        List<String> urls = new ArrayList<String>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX);
+        try {
+            for (Path path : stream) {
+                try {
+                    urls.add(read(path, false).getUrl());
+                } catch (IOException ioe) {
+                    LOG.warn("Ignoring unreadable metadata snapshot " + path + ": " + ioe, ioe);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        return urls;
+    }
+
+    @Nonnull
+    private Path pathOf(@Nonnull String url) {
+        byte[] digest = EidasDigestUtil.hash(EidasStringUtil.getBytes(url), "SHA-256", null);
+        return directory.resolve(BaseEncoding.base16().lowerCase().encode(digest) + SUFFIX);
+    }
+
+    /**
+     * Reads the snapshot stored in the given file.
+     * <p>
+     * The stored metadata length is not trusted: it is rejected when it is negative or when it exceeds the remaining
+     * bytes of the file, so that a corrupted snapshot fails instead of allocating that length upfront.
+     */
+    @Nonnull
+    private static MetadataSnapshot read(@Nonnull Path path, boolean withMetadata) throws IOException {
+        long size = Files.size(path);
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(Files.newInputStream(path)));
+        DataInputStream input = new DataInputStream(counter);
+        try {
+            checkHeader(input.readInt(), input.readInt(), path);
+            long expiresAtMillis = input.readLong();
+            String url = input.readUTF();
+            byte[] metadata;
+            if (withMetadata) {
+                int length = input.readInt();
+                long remaining = size - counter.getCount();
+                if (length < 0 || length > remaining) {
+                    throw new IOException(
+                            "Invalid metadata length: " + length + " (" + remaining + " remaining bytes): " + path);
+                }
+                metadata = new byte[length];
+                input.readFully(metadata);
+            } else {
+                metadata = new byte[0];
+            }
+            return new MetadataSnapshot(url, metadata, expiresAtMillis);
+        } finally {
+            input.close();
+        }
+    }
+
+    private static void checkHeader(int magic, int version, @Nonnull Path path) throws IOException {
+        if (magic != MAGIC || version != VERSION) {
+            throw new IOException("Not a metadata snapshot (version " + VERSION + "): " + path);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * This work is Open Source and licensed by the European Commission under the
+ * conditions of the European Public License v1.1
+ *
+ * (http://www.osor.eu/eupl/european-union-public-licence-eupl-v.1.1);
+ *
+ * any use of this file implies acceptance of the conditions of this license.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package eu.eidas.auth.engine.metadata.impl;
+
+import java.util.Timer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.URIException;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+import eu.eidas.util.Preconditions;
+
+/**
+ * The HTTP transport shared by all the metadata retrievals of a {@link BaseMetadataFetcher}.
+ * <p>
+ * It holds a single {@link HttpClient} backed by a {@link MultiThreadedHttpConnectionManager} so that connections
+ * (and their TLS sessions) are kept alive and reused across fetches instead of performing a new TCP and TLS handshake
+ * for each metadata document.
+ * <p>
+ * The https socket factory is only used by the {@link HttpClient} of this transport: it is set on its host
+ * configuration instead of being registered in the global {@link Protocol} registry of HttpClient, which other
+ * components of the JVM rely on.
+ *
+ * @since 1.1
+ */
+@ThreadSafe
+public final class MetadataHttpTransport {
+
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 50;
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+
+    public static final int DEFAULT_CONNECTION_TIMEOUT_MILLIS = 10000;
+
+    public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 30000;
+
+    public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS = 60000L;
+
+    private static final String HTTPS_SCHEME = "https";
+
+    private static final int HTTPS_DEFAULT_PORT = 443;
+
+    /**
+     * A host configuration which resolves the https scheme to the protocol of this transport instead of the one
+     * registered globally.
+     * <p>
+     * HttpClient clones its default host configuration and sets the host of the absolute URI of each request (and of
+     * each redirect) on the clone, so the protocol applies to every request of the client.
+     */
+    private static final class HttpsHostConfiguration extends HostConfiguration {
+
+        @Nonnull
+        private final Protocol httpsProtocol;
+
+        private HttpsHostConfiguration(@Nonnull Protocol httpsProtocol) {
+            this.httpsProtocol = httpsProtocol;
+        }
+
+        @Override
+        public synchronized void setHost(URI uri) {
+            if (!HTTPS_SCHEME.equalsIgnoreCase(uri.getScheme())) {
+                super.setHost(uri);
+                return;
+            }
+            try {
+                setHost(uri.getHost(), uri.getPort(), httpsProtocol);
+            } catch (URIException e) {
+                throw new IllegalArgumentException(e.toString());
+            }
+        }
+    }
+
+    /**
+     * Builder pattern for the {@link MetadataHttpTransport} class.
+     * <p/>
+     * Effective Java, 2nd Ed. : Item 2: Builder Pattern.
+     * <p/>
+     * This Builder is not thread-safe but is thread-compliant, it is supposed to be used by only one thread.
+     * <p/>
+     */
+    @SuppressWarnings("ParameterHidesMemberVariable")
+    @NotThreadSafe
+    public static final class Builder {
+
+        private int maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+
+        private int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+        private int connectionTimeoutMillis = DEFAULT_CONNECTION_TIMEOUT_MILLIS;
+
+        private int socketTimeoutMillis = DEFAULT_SOCKET_TIMEOUT_MILLIS;
+
+        private long idleConnectionTimeoutMillis = DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS;
+
+        @Nullable
+        private SecureProtocolSocketFactory sslSocketFactory;
+
+        public Builder() {
+        }
+
+        @Nonnull
+        public Builder maxTotalConnections(int maxTotalConnections) {
+            this.maxTotalConnections = maxTotalConnections;
+            return this;
+        }
+
+        @Nonnull
+        public Builder maxConnectionsPerHost(int maxConnectionsPerHost) {
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            return this;
+        }
+
+        @Nonnull
+        public Builder connectionTimeoutMillis(int connectionTimeoutMillis) {
+            this.connectionTimeoutMillis = connectionTimeoutMillis;
+            return this;
+        }
+
+        @Nonnull
+        public Builder socketTimeoutMillis(int socketTimeoutMillis) {
+            this.socketTimeoutMillis = socketTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param idleConnectionTimeoutMillis the time after which idle pooled connections are closed, or 0 to keep
+         * them until the server closes them.
+         */
+        @Nonnull
+        public Builder idleConnectionTimeoutMillis(long idleConnectionTimeoutMillis) {
+            this.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param sslSocketFactory the socket factory used by this transport for https URLs, or {@code null} to use the
+         * one registered globally for the https scheme.
+         */
+        @Nonnull
+        public Builder sslSocketFactory(@Nullable SecureProtocolSocketFactory sslSocketFactory) {
+            this.sslSocketFactory = sslSocketFactory;
+            return this;
+        }
+
+        private void validate() throws IllegalArgumentException {
+            Preconditions.checkWithinBounds(maxTotalConnections, "maxTotalConnections", 1, Integer.MAX_VALUE);
+            Preconditions.checkWithinBounds(maxConnectionsPerHost, "maxConnectionsPerHost", 1, maxTotalConnections);
+            Preconditions.checkNotNegative(connectionTimeoutMillis, "connectionTimeoutMillis");
+            Preconditions.checkNotNegative(socketTimeoutMillis, "socketTimeoutMillis");
+            if (idleConnectionTimeoutMillis < 0L) {
+                throw new IllegalArgumentException("idleConnectionTimeoutMillis cannot be negative");
+            }
+        }
+
+        @Nonnull
+        public MetadataHttpTransport build() {
+            validate();
+            return new MetadataHttpTransport(this);
+        }
+    }
+
+    @Nonnull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Nonnull
+    private final MultiThreadedHttpConnectionManager connectionManager;
+
+    @Nonnull
+    private final HttpClient httpClient;
+
+    @Nonnull
+    private final Timer providerTimer;
+
+    @Nullable
+    private final IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+
+    private MetadataHttpTransport(@Nonnull Builder builder) {
+        connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setMaxTotalConnections(builder.maxTotalConnections);
+        params.setDefaultMaxConnectionsPerHost(builder.maxConnectionsPerHost);
+        params.setConnectionTimeout(builder.connectionTimeoutMillis);
+        params.setSoTimeout(builder.socketTimeoutMillis);
+        // pooled connections may have been closed by the server in the meantime:
+        params.setStaleCheckingEnabled(true);
+
+        httpClient = new HttpClient(connectionManager);
+        if (null != builder.sslSocketFactory) {
+            httpClient.setHostConfiguration(new HttpsHostConfiguration(
+                    new Protocol(HTTPS_SCHEME, builder.sslSocketFactory, HTTPS_DEFAULT_PORT)));
+        }
+        httpClient.getParams().setSoTimeout(builder.socketTimeoutMillis);
+        httpClient.getParams().setConnectionManagerTimeout(builder.connectionTimeoutMillis);
+
+        // The metadata providers are short-lived: they share this timer instead of starting one thread each
+        providerTimer = new Timer("metadata-provider-timer", true);
+
+        if (builder.idleConnectionTimeoutMillis > 0L) {
+            idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+            idleConnectionTimeoutThread.setName("metadata-idle-connection-timeout");
+            idleConnectionTimeoutThread.setConnectionTimeout(builder.idleConnectionTimeoutMillis);
+            idleConnectionTimeoutThread.setTimeoutInterval(
+                    Math.max(1000L, builder.idleConnectionTimeoutMillis / 2L));
+            idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+            idleConnectionTimeoutThread.start();
+        } else {
+            idleConnectionTimeoutThread = null;
+        }
+    }
+
+    @Nonnull
+    public HttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    @Nonnull
+    Timer getProviderTimer() {
+        return providerTimer;
+    }
+
+    public int getConnectionsInPool() {
+        return connectionManager.getConnectionsInPool();
+    }
+
+    /**
+     * Closes all the pooled connections and stops the background threads of this transport.
+     */
+    public void shutdown() {
+        if (null != idleConnectionTimeoutThread) {
+            idleConnectionTimeoutThread.shutdown();
+        }
+        providerTimer.cancel();
+        connectionManager.shutdown();
+    }
+}
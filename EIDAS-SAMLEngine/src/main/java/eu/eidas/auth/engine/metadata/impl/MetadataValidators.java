@@ -0,0 +1,95 @@
+/*
+ * This work is Open Source and licensed by the European Commission under the
+ * conditions of the European Public License v1.1
+ *
+ * (http://www.osor.eu/eupl/european-union-public-licence-eupl-v.1.1);
+ *
+ * any use of this file implies acceptance of the conditions of this license.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package eu.eidas.auth.engine.metadata.impl;
+
+import java.util.Arrays;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.opensaml.saml2.metadata.EntityDescriptor;
+
+import eu.eidas.auth.commons.EidasDigestUtil;
+
+/**
+ * The validators of the last metadata document retrieved from a URL together with the EntityDescriptor which was
+ * parsed and verified from it.
+ * <p>
+ * The ETag and Last-Modified values are sent back in conditional requests, the digest detects an unchanged document
+ * when the server does not support conditional requests.
+ *
+ * @since 1.1
+ */
+@Immutable
+final class MetadataValidators {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    @Nullable
+    private final String etag;
+
+    @Nullable
+    private final String lastModified;
+
+    @Nonnull
+    private final byte[] digest;
+
+    @Nonnull
+    private final EntityDescriptor entityDescriptor;
+
+    MetadataValidators(@Nullable String etag,
+                       @Nullable String lastModified,
+                       @Nonnull byte[] digest,
+                       @Nonnull EntityDescriptor entityDescriptor) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.digest = digest;
+        this.entityDescriptor = entityDescriptor;
+    }
+
+    @Nonnull
+    static byte[] digest(@Nonnull byte[] metadataBytes) {
+        return EidasDigestUtil.hash(metadataBytes, DIGEST_ALGORITHM, null);
+    }
+
+    @Nullable
+    String getEtag() {
+        return etag;
+    }
+
+    @Nullable
+    String getLastModified() {
+        return lastModified;
+    }
+
+    @Nonnull
+    EntityDescriptor getEntityDescriptor() {
+        return entityDescriptor;
+    }
+
+    boolean hasSameDigest(@Nonnull byte[] otherDigest) {
+        return Arrays.equals(digest, otherDigest);
+    }
+
+    /**
+     * Returns validators for the same (unchanged) document, keeping the values the server did not send again.
+     */
+    @Nonnull
+    MetadataValidators revalidated(@Nullable String newEtag, @Nullable String newLastModified) {
+        return new MetadataValidators(null != newEtag ? newEtag : etag,
+                                      null != newLastModified ? newLastModified : lastModified, digest,
+                                      entityDescriptor);
+    }
+}
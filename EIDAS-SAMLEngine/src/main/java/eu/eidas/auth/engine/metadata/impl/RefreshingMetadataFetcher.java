@@ -0,0 +1,484 @@
+/*
+ * This work is Open Source and licensed by the European Commission under the
+ * conditions of the European Public License v1.1
+ *
+ * (http://www.osor.eu/eupl/european-union-public-licence-eupl-v.1.1);
+ *
+ * any use of this file implies acceptance of the conditions of this license.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,  WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package eu.eidas.auth.engine.metadata.impl;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import org.joda.time.DateTime;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.eidas.auth.commons.EidasErrorKey;
+import eu.eidas.auth.engine.metadata.MetadataFetcherI;
+import eu.eidas.auth.engine.metadata.MetadataSignerI;
+import eu.eidas.engine.exceptions.EIDASMetadataProviderException;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+/**
+ * A caching implementation of the {@link MetadataFetcherI} interface which never lets more than one fetch run at a
+ * time for a given URL and which keeps serving the last good {@code EntityDescriptor} while it is being refreshed.
+ * <p>
+ * Each cached entry goes through three phases:
+ * <ol>
+ * <li><em>fresh</em>: the entry is returned as is. Once the refresh-ahead point is reached, a background refresh is
+ * started.</li>
+ * <li><em>stale</em>: the entry is still returned (stale-while-revalidate) while a background refresh runs, as long as
+ * the {@code validUntil} of the metadata has not been reached.</li>
+ * <li><em>expired</em>: the entry is discarded and the caller waits for the (single) synchronous fetch.</li>
+ * </ol>
+ * The fresh period is the {@code cacheDuration} published in the metadata, or {@link #DEFAULT_CACHE_DURATION_MILLIS}
+ * when absent. Neither the fresh nor the stale period ever goes beyond the {@code validUntil} of the metadata.
+ * <p>
+ * A background task checks the cache on a fixed schedule and refreshes the entries whose refresh-ahead point has been
+ * reached, so that peers which are seldom used do not expire between two requests.
+ * <p>
+ * When a {@link eu.eidas.auth.engine.metadata.MetadataSnapshotStoreI} is set, a cache miss is served from the saved
+ * snapshot, if any, and a background refresh is started immediately. The snapshot is never served beyond the expiry
+ * saved with it.
+ * <p>
+ * A failed background refresh is retried, on access or by the scheduled check, at most every {@link
+ * #getSnapshotRetryIntervalMillis()}.
+ *
+ * @since 1.1
+ */
+public class RefreshingMetadataFetcher extends AbstractCachingMetadataFetcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RefreshingMetadataFetcher.class);
+
+    public static final long DEFAULT_CACHE_DURATION_MILLIS = TimeUnit.MINUTES.toMillis(15L);
+
+    public static final long DEFAULT_MAX_STALE_MILLIS = TimeUnit.HOURS.toMillis(1L);
+
+    public static final double DEFAULT_REFRESH_AHEAD_RATIO = 0.75d;
+
+    public static final long DEFAULT_REFRESH_CHECK_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30L);
+
+    public static final int DEFAULT_REFRESH_THREADS = 2;
+
+    public static final long DEFAULT_MAXIMUM_SIZE = 100L;
+
+    /**
+     * A cached EntityDescriptor with the points in time at which it must be refreshed, becomes stale and expires.
+     */
+    private static final class CacheEntry {
+
+        @Nonnull
+        private final EntityDescriptor entityDescriptor;
+
+        @Nullable
+        private final MetadataSignerI metadataSigner;
+
+        private final long refreshAt;
+
+        private final long freshUntil;
+
+        private final long staleUntil;
+
+        private CacheEntry(@Nonnull EntityDescriptor entityDescriptor,
+                           @Nullable MetadataSignerI metadataSigner,
+                           long refreshAt,
+                           long freshUntil,
+                           long staleUntil) {
+            this.entityDescriptor = entityDescriptor;
+            this.metadataSigner = metadataSigner;
+            this.refreshAt = refreshAt;
+            this.freshUntil = freshUntil;
+            this.staleUntil = staleUntil;
+        }
+    }
+
+    private final long defaultCacheDurationMillis;
+
+    private final long maxStaleMillis;
+
+    private final double refreshAheadRatio;
+
+    @Nonnull
+    private final ConcurrentMap<String, CacheEntry> entries;
+
+    @Nonnull
+    private final ConcurrentMap<String, FutureTask<EntityDescriptor>> inFlight =
+            new ConcurrentHashMap<String, FutureTask<EntityDescriptor>>();
+
+    @Nonnull
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong staleHitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    private final AtomicLong refreshFailureCount = new AtomicLong();
+
+    private final AtomicLong totalRefreshTimeNanos = new AtomicLong();
+
+    private final AtomicLong maxRefreshTimeNanos = new AtomicLong();
+
+    public RefreshingMetadataFetcher() {
+        this(DEFAULT_CACHE_DURATION_MILLIS, DEFAULT_MAX_STALE_MILLIS, DEFAULT_REFRESH_AHEAD_RATIO,
+             DEFAULT_REFRESH_CHECK_INTERVAL_MILLIS, DEFAULT_REFRESH_THREADS, DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * @param defaultCacheDurationMillis the fresh period used when the metadata does not publish a cacheDuration
+     * @param maxStaleMillis how long a descriptor may be served after its fresh period while it is being refreshed
+     * @param refreshAheadRatio the fraction of the fresh period after which a background refresh is started (between 0
+     * and 1)
+     * @param refreshCheckIntervalMillis the interval between two scheduled refresh-ahead checks, or 0 to disable them
+     * @param refreshThreads the number of background refresh threads
+     * @param maximumSize the maximum number of cached descriptors
+     */
+    public RefreshingMetadataFetcher(long defaultCacheDurationMillis,
+                                     long maxStaleMillis,
+                                     double refreshAheadRatio,
+                                     long refreshCheckIntervalMillis,
+                                     int refreshThreads,
+                                     long maximumSize) {
+        if (defaultCacheDurationMillis <= 0L) {
+            throw new IllegalArgumentException("defaultCacheDurationMillis must be positive");
+        }
+        if (maxStaleMillis < 0L) {
+            throw new IllegalArgumentException("maxStaleMillis cannot be negative");
+        }
+        if (refreshAheadRatio <= 0.0d || refreshAheadRatio > 1.0d) {
+            throw new IllegalArgumentException("refreshAheadRatio must be in ]0, 1]");
+        }
+        if (refreshThreads <= 0) {
+            throw new IllegalArgumentException("refreshThreads must be positive");
+        }
+        this.defaultCacheDurationMillis = defaultCacheDurationMillis;
+        this.maxStaleMillis = maxStaleMillis;
+        this.refreshAheadRatio = refreshAheadRatio;
+        entries = CacheBuilder.newBuilder().maximumSize(maximumSize).<String, CacheEntry>build().asMap();
+        ThreadFactory threadFactory =
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("metadata-refresh-%d").build();
+        ScheduledThreadPoolExecutor scheduledExecutor =
+                new ScheduledThreadPoolExecutor(refreshThreads, threadFactory);
+        scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor = scheduledExecutor;
+        if (refreshCheckIntervalMillis > 0L) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    refreshAhead();
+                }
+            }, refreshCheckIntervalMillis, refreshCheckIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public EntityDescriptor getEntityDescriptor(@Nonnull String url, @Nonnull MetadataSignerI metadataSigner)
+            throws EIDASSAMLEngineException {
+        CacheEntry entry = entries.get(url);
+        if (null != entry) {
+            long now = currentTimeMillis();
+            if (now < entry.freshUntil) {
+                hitCount.incrementAndGet();
+                // entries put without signer cannot be refreshed ahead, refresh them with the signer of this access:
+                if (now >= entry.refreshAt || null == entry.metadataSigner) {
+                    refreshInBackground(url, metadataSigner);
+                }
+                return entry.entityDescriptor;
+            }
+            if (now < entry.staleUntil && entry.entityDescriptor.isValid()) {
+                staleHitCount.incrementAndGet();
+                if (now >= entry.refreshAt) {
+                    refreshInBackground(url, metadataSigner);
+                }
+                return entry.entityDescriptor;
+            }
+            // cached metadata has expired:
+            entries.remove(url, entry);
+        }
+
+        missCount.incrementAndGet();
+
+        EntityDescriptor snapshotEntityDescriptor = loadSnapshotIntoCache(url, metadataSigner);
+        if (null != snapshotEntityDescriptor) {
+            refreshInBackground(url, metadataSigner);
+            return snapshotEntityDescriptor;
+        }
+
+        if (isHttpRetrievalEnabled() && isAllowedMetadataUrl(url)) {
+            return load(url, metadataSigner);
+        }
+
+        throw new EIDASMetadataProviderException(EidasErrorKey.SAML_ENGINE_NO_METADATA.errorCode(),
+                                                 EidasErrorKey.SAML_ENGINE_NO_METADATA.errorMessage(),
+                                                 "No entity descriptor for URL " + url);
+    }
+
+    @Nullable
+    @Override
+    protected EntityDescriptor getFromCache(@Nonnull String url) {
+        CacheEntry entry = entries.get(url);
+        return null == entry ? null : entry.entityDescriptor;
+    }
+
+    /**
+     * Entries put through this method have no {@link MetadataSignerI}: the scheduled refresh-ahead task cannot validate
+     * them, so they are refreshed in the background on their next access only, using the signer of that access. Use
+     * {@link #putInCache(String, EntityDescriptor, MetadataSignerI)} to have them refreshed ahead like the others.
+     */
+    @Override
+    protected void putInCache(@Nonnull String url, @Nonnull EntityDescriptor entityDescriptor) {
+        entries.put(url, newCacheEntry(entityDescriptor, null));
+    }
+
+    @Override
+    protected void putInCache(@Nonnull String url,
+                              @Nonnull EntityDescriptor entityDescriptor,
+                              @Nonnull MetadataSignerI metadataSigner) {
+        entries.put(url, newCacheEntry(entityDescriptor, metadataSigner));
+    }
+
+    /**
+     * Snapshot entries are due for refresh immediately and are neither fresh nor stale beyond the expiry of their
+     * snapshot.
+     */
+    @Override
+    protected void putSnapshotInCache(@Nonnull String url,
+                                      @Nonnull EntityDescriptor entityDescriptor,
+                                      @Nonnull MetadataSignerI metadataSigner,
+                                      long expiresAtMillis) {
+        CacheEntry entry = newCacheEntry(entityDescriptor, metadataSigner);
+        entries.put(url, new CacheEntry(entityDescriptor, metadataSigner, currentTimeMillis(),
+                                        Math.min(entry.freshUntil, expiresAtMillis),
+                                        Math.min(entry.staleUntil, expiresAtMillis)));
+    }
+
+    @Override
+    protected void removeFromCache(@Nonnull String url) {
+        entries.remove(url);
+    }
+
+    /**
+     * Stops the background refresh threads. Cached descriptors can still be read but are not refreshed ahead anymore.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getStaleHitCount() {
+        return staleHitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    public long getRefreshFailureCount() {
+        return refreshFailureCount.get();
+    }
+
+    public long getTotalRefreshTimeNanos() {
+        return totalRefreshTimeNanos.get();
+    }
+
+    public long getMaxRefreshTimeNanos() {
+        return maxRefreshTimeNanos.get();
+    }
+
+    public int getCacheSize() {
+        return entries.size();
+    }
+
+    /**
+     * Override this method to plug your own clock.
+     *
+     * @return the current time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Fetches the descriptor of the given URL, joining the fetch already in flight for this URL if there is one.
+     */
+    @Nonnull
+    private EntityDescriptor load(@Nonnull String url, @Nonnull MetadataSignerI metadataSigner)
+            throws EIDASSAMLEngineException {
+        FutureTask<EntityDescriptor> task = newRefreshTask(url, metadataSigner);
+        FutureTask<EntityDescriptor> existing = inFlight.putIfAbsent(url, task);
+        if (null == existing) {
+            task.run();
+            existing = task;
+        }
+        return await(url, existing);
+    }
+
+    /**
+     * Starts a background refresh of the given URL unless one is already in flight.
+     */
+    private void refreshInBackground(@Nonnull String url, @Nonnull MetadataSignerI metadataSigner) {
+        if (inFlight.containsKey(url) || !isHttpRetrievalEnabled()) {
+            return;
+        }
+        FutureTask<EntityDescriptor> task = newRefreshTask(url, metadataSigner);
+        if (null == inFlight.putIfAbsent(url, task)) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException ree) {
+                inFlight.remove(url, task);
+                LOG.debug("Background refresh of metadata from url " + url + " rejected: " + ree, ree);
+            }
+        }
+    }
+
+    private void refreshAhead() {
+        long now = currentTimeMillis();
+        for (Map.Entry<String, CacheEntry> mapEntry : entries.entrySet()) {
+            CacheEntry entry = mapEntry.getValue();
+            if (now >= entry.staleUntil) {
+                entries.remove(mapEntry.getKey(), entry);
+            } else if (now >= entry.refreshAt && null != entry.metadataSigner) {
+                refreshInBackground(mapEntry.getKey(), entry.metadataSigner);
+            }
+        }
+    }
+
+    @Nonnull
+    private FutureTask<EntityDescriptor> newRefreshTask(@Nonnull final String url,
+                                                        @Nonnull final MetadataSignerI metadataSigner) {
+        return new FutureTask<EntityDescriptor>(new Callable<EntityDescriptor>() {
+            @Override
+            public EntityDescriptor call() throws EIDASSAMLEngineException {
+                return refresh(url, metadataSigner);
+            }
+        }) {
+            @Override
+            protected void done() {
+                inFlight.remove(url, this);
+            }
+        };
+    }
+
+    @Nonnull
+    private EntityDescriptor refresh(@Nonnull String url, @Nonnull MetadataSignerI metadataSigner)
+            throws EIDASSAMLEngineException {
+        long start = System.nanoTime();
+        try {
+            EntityDescriptor entityDescriptor = fetchAndValidateEntityDescriptor(url, metadataSigner);
+            entries.put(url, newCacheEntry(entityDescriptor, metadataSigner));
+            LOG.debug("Obtained entity descriptor from metadata retrieved from url " + url);
+            return entityDescriptor;
+        } catch (EIDASSAMLEngineException e) {
+            onRefreshFailure(url, metadataSigner, e);
+            throw e;
+        } catch (RuntimeException e) {
+            onRefreshFailure(url, metadataSigner, e);
+            throw e;
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            refreshCount.incrementAndGet();
+            totalRefreshTimeNanos.addAndGet(elapsed);
+            long max = maxRefreshTimeNanos.get();
+            while (elapsed > max && !maxRefreshTimeNanos.compareAndSet(max, elapsed)) {
+                max = maxRefreshTimeNanos.get();
+            }
+        }
+    }
+
+    /**
+     * Postpones the next refresh of the cached entry, if any, by the retry interval.
+     */
+    private void onRefreshFailure(@Nonnull String url, @Nonnull MetadataSignerI metadataSigner, @Nonnull Exception e) {
+        refreshFailureCount.incrementAndGet();
+        LOG.warn("Unable to refresh metadata from url " + url + ": " + e, e);
+        CacheEntry entry = entries.get(url);
+        if (null != entry) {
+            MetadataSignerI entrySigner = null != entry.metadataSigner ? entry.metadataSigner : metadataSigner;
+            entries.replace(url, entry,
+                            new CacheEntry(entry.entityDescriptor, entrySigner,
+                                           currentTimeMillis() + getSnapshotRetryIntervalMillis(), entry.freshUntil,
+                                           entry.staleUntil));
+        }
+    }
+
+    @Nonnull
+    private CacheEntry newCacheEntry(@Nonnull EntityDescriptor entityDescriptor,
+                                     @Nullable MetadataSignerI metadataSigner) {
+        long now = currentTimeMillis();
+        Long cacheDuration = entityDescriptor.getCacheDuration();
+        long freshPeriod =
+                null != cacheDuration && cacheDuration.longValue() > 0L ? cacheDuration.longValue()
+                                                                        : defaultCacheDurationMillis;
+        long refreshAt = now + (long) (freshPeriod * refreshAheadRatio);
+        long freshUntil = now + freshPeriod;
+        long staleUntil = freshUntil + maxStaleMillis;
+        DateTime validUntil = entityDescriptor.getValidUntil();
+        if (null != validUntil) {
+            long validUntilMillis = validUntil.getMillis();
+            refreshAt = Math.min(refreshAt, validUntilMillis);
+            freshUntil = Math.min(freshUntil, validUntilMillis);
+            staleUntil = Math.min(staleUntil, validUntilMillis);
+        }
+        return new CacheEntry(entityDescriptor, metadataSigner, refreshAt, freshUntil, staleUntil);
+    }
+
+    @Nonnull
+    private static EntityDescriptor await(@Nonnull String url, @Nonnull FutureTask<EntityDescriptor> task)
+            throws EIDASSAMLEngineException {
+        try {
+            return task.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new EIDASMetadataProviderException(EidasErrorKey.SAML_ENGINE_NO_METADATA.errorCode(),
+                                                     EidasErrorKey.SAML_ENGINE_NO_METADATA.errorMessage(), ie);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof EIDASSAMLEngineException) {
+                throw (EIDASSAMLEngineException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new EIDASMetadataProviderException("Error fetching metadata from URL \"" + url + "\": " + cause,
+                                                     ee);
+        }
+    }
+}
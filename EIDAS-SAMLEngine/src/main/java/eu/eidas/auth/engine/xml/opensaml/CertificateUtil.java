@@ -10,13 +10,19 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Enumeration;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
 import javax.security.auth.x500.X500Principal;
 
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 
 import org.apache.commons.lang.StringUtils;
 import org.opensaml.xml.security.credential.Credential;
@@ -50,6 +56,45 @@ public final class CertificateUtil {
 
     private static final AtomicReference<CertificateFactory> CERTIFICATE_FACTORY_REF = new AtomicReference<>();
 
+    /**
+     * A parsed certificate together with what is derived from it, so that the same certificate received in every
+     * message from a given peer is decoded only once.
+     */
+    @ThreadSafe
+    private static final class ParsedCertificate {
+
+        @Nonnull
+        private final X509Certificate certificate;
+
+        @Nullable
+        private volatile String country;
+
+        ParsedCertificate(@Nonnull X509Certificate certificate) {
+            this.certificate = certificate;
+        }
+
+        @Nonnull
+        String getCountry() {
+            String result = country;
+            if (null == result) {
+                result = extractCountry(certificate);
+                country = result;
+            }
+            return result;
+        }
+    }
+
+    private static final long MAX_PARSED_CERTIFICATES = 1000L;
+
+    /**
+     * Parsed certificates keyed by the SHA-256 digest of their DER encoding.
+     */
+    private static final ConcurrentMap<HashCode, ParsedCertificate> PARSED_CERTIFICATES = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PARSED_CERTIFICATES)
+            .expireAfterAccess(1L, TimeUnit.HOURS)
+            .<HashCode, ParsedCertificate>build()
+            .asMap();
+
     public static void checkTrust(X509Credential entityX509Cred, Iterable<? extends Credential> trustedCredentials)
             throws EIDASSAMLEngineException {
         ExplicitKeyTrustEvaluator keyTrustEvaluator = new ExplicitKeyTrustEvaluator();
@@ -63,6 +108,29 @@ public final class CertificateUtil {
         }
     }
 
+    /**
+     * Checks that the given credential is trusted with a single lookup in the given index.
+     *
+     * @param entityX509Cred the credential to check
+     * @param trustedCredentialIndex the index of the trusted credentials
+     * @throws EIDASSAMLEngineException if the credential is not trusted
+     * @since 1.1
+     */
+    public static void checkTrust(@Nonnull X509Credential entityX509Cred,
+                                  @Nonnull TrustedCredentialIndex trustedCredentialIndex)
+            throws EIDASSAMLEngineException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(entityX509Cred.getEntityId());
+            LOG.debug(entityX509Cred.getEntityCertificate().getIssuerDN().getName());
+            LOG.debug("" + entityX509Cred.getEntityCertificate().getNotAfter());
+            LOG.debug("" + entityX509Cred.getEntityCertificate().getSerialNumber());
+        }
+        if (!trustedCredentialIndex.isTrusted(entityX509Cred)) {
+            throw new EIDASSAMLEngineException(EidasErrorKey.SAML_ENGINE_UNTRUSTED_CERTIFICATE.errorCode(),
+                                               EidasErrorKey.SAML_ENGINE_UNTRUSTED_CERTIFICATE.errorMessage());
+        }
+    }
+
     public static void checkTrust(X509Credential entityX509Cred, KeyStore trustStore) throws EIDASSAMLEngineException {
         checkTrust(entityX509Cred, getListOfCredential(trustStore));
     }
@@ -188,15 +256,38 @@ public final class CertificateUtil {
 
     @Nonnull
     public static X509Certificate toCertificate(@Nonnull String base64Certificate) throws EIDASSAMLEngineException {
+        return parseCertificate(base64Certificate).certificate;
+    }
+
+    /**
+     * Returns the parsed certificate of the given base64 encoded DER certificate, decoding it only if it is not
+     * already in the cache of parsed certificates.
+     */
+    @Nonnull
+    private static ParsedCertificate parseCertificate(@Nonnull String base64Certificate)
+            throws EIDASSAMLEngineException {
         Preconditions.checkNotNull(base64Certificate, "base64Certificate");
+        byte[] encoded = Base64.decode(base64Certificate);
+        if (null == encoded) {
+            throw new EIDASSAMLEngineException(EidasErrorKey.SAML_ENGINE_INVALID_CERTIFICATE.errorCode(),
+                                               EidasErrorKey.SAML_ENGINE_INVALID_CERTIFICATE.errorMessage());
+        }
+        HashCode digest = Hashing.sha256().hashBytes(encoded);
+        ParsedCertificate parsedCertificate = PARSED_CERTIFICATES.get(digest);
+        if (null != parsedCertificate) {
+            return parsedCertificate;
+        }
         try {
-            ByteArrayInputStream bais = new ByteArrayInputStream(Base64.decode(base64Certificate));
+            ByteArrayInputStream bais = new ByteArrayInputStream(encoded);
             CertificateFactory certificateFactory = getCertificateFactory();
-            return (X509Certificate) certificateFactory.generateCertificate(bais);
+            parsedCertificate =
+                    new ParsedCertificate((X509Certificate) certificateFactory.generateCertificate(bais));
         } catch (CertificateException ce) {
             throw new EIDASSAMLEngineException(EidasErrorKey.SAML_ENGINE_INVALID_CERTIFICATE.errorCode(),
                                                EidasErrorKey.SAML_ENGINE_INVALID_CERTIFICATE.errorMessage(), ce);
         }
+        ParsedCertificate existing = PARSED_CERTIFICATES.putIfAbsent(digest, parsedCertificate);
+        return null == existing ? parsedCertificate : existing;
     }
 
     @Nonnull
@@ -247,38 +338,41 @@ public final class CertificateUtil {
             org.opensaml.xml.signature.X509Certificate xmlCert =
                     keyInfo.getX509Datas().get(0).getX509Certificates().get(0);
 
-            // Transform the KeyInfo to X509Certificate.
-            X509Certificate cert = toCertificate(xmlCert.getValue());
+            // Transform the KeyInfo to X509Certificate (parsed only once) and extract its country (only once).
+            return parseCertificate(xmlCert.getValue()).getCountry();
+        } catch (EIDASSAMLEngineException e) {
+            LOG.error(AbstractProtocolEngine.SAML_EXCHANGE,
+                      "BUSINESS EXCEPTION : Procces getCountry from certificate: " + e.getMessage(), e);
+            throw new EIDASSAMLEngineRuntimeException(e);
+        }
+    }
 
-            String distName = cert.getSubjectDN().toString();
+    @Nonnull
+    private static String extractCountry(@Nonnull X509Certificate cert) {
+        String distName = cert.getSubjectDN().toString();
 
-            distName = StringUtils.deleteWhitespace(StringUtils.upperCase(distName));
+        distName = StringUtils.deleteWhitespace(StringUtils.upperCase(distName));
 
-            String countryCode = "C=";
-            int init = distName.indexOf(countryCode);
+        String countryCode = "C=";
+        int init = distName.indexOf(countryCode);
 
-            String result = "";
-            if (init > StringUtils.INDEX_NOT_FOUND) {
-                // Exist country code.
-                int end = distName.indexOf(',', init);
+        String result = "";
+        if (init > StringUtils.INDEX_NOT_FOUND) {
+            // Exist country code.
+            int end = distName.indexOf(',', init);
 
-                if (end <= StringUtils.INDEX_NOT_FOUND) {
-                    end = distName.length();
-                }
+            if (end <= StringUtils.INDEX_NOT_FOUND) {
+                end = distName.length();
+            }
 
-                if (init < end && end > StringUtils.INDEX_NOT_FOUND) {
-                    result = distName.substring(init + countryCode.length(), end);
-                    //It must be a two characters value
-                    if (result.length() > 2) {
-                        result = result.substring(0, 2);
-                    }
+            if (init < end && end > StringUtils.INDEX_NOT_FOUND) {
+                result = distName.substring(init + countryCode.length(), end);
+                //It must be a two characters value
+                if (result.length() > 2) {
+                    result = result.substring(0, 2);
                 }
             }
-            return result.trim();
-        } catch (EIDASSAMLEngineException e) {
-            LOG.error(AbstractProtocolEngine.SAML_EXCHANGE,
-                      "BUSINESS EXCEPTION : Procces getCountry from certificate: " + e.getMessage(), e);
-            throw new EIDASSAMLEngineRuntimeException(e);
         }
+        return result.trim();
     }
 }
@@ -0,0 +1,124 @@
+package eu.eidas.auth.engine.xml.opensaml;
+
+import java.security.PublicKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.x509.X509Credential;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.eidas.util.Preconditions;
+
+/**
+ * Hash index of trusted credentials, so that checking whether a credential is trusted is a lookup rather than a
+ * comparison against every trusted credential.
+ * <p>
+ * A credential is trusted when its certificate is one of the trusted certificates (looked up by the SHA-256
+ * fingerprint of its encoding) or, otherwise, when its public key is the public key of one of the trusted credentials
+ * (looked up by the SHA-256 digest of the encoded key), which is the rule applied by OpenSAML's {@code
+ * ExplicitKeyTrustEvaluator}.
+ *
+ * @since 1.1
+ */
+@Immutable
+public final class TrustedCredentialIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrustedCredentialIndex.class);
+
+    @Nonnull
+    public static TrustedCredentialIndex of(@Nonnull Iterable<? extends Credential> trustedCredentials) {
+        Preconditions.checkNotNull(trustedCredentials, "trustedCredentials");
+        ImmutableSet.Builder<HashCode> fingerprints = ImmutableSet.builder();
+        ImmutableSet.Builder<HashCode> publicKeys = ImmutableSet.builder();
+        int size = 0;
+        for (Credential credential : trustedCredentials) {
+            if (credential instanceof X509Credential) {
+                HashCode fingerprint = fingerprint(((X509Credential) credential).getEntityCertificate());
+                if (null != fingerprint) {
+                    fingerprints.add(fingerprint);
+                }
+            }
+            HashCode publicKey = digest(credential.getPublicKey());
+            if (null != publicKey) {
+                publicKeys.add(publicKey);
+            }
+            size++;
+        }
+        return new TrustedCredentialIndex(fingerprints.build(), publicKeys.build(), size);
+    }
+
+    @Nullable
+    private static HashCode fingerprint(@Nullable X509Certificate certificate) {
+        if (null == certificate) {
+            return null;
+        }
+        try {
+            return Hashing.sha256().hashBytes(certificate.getEncoded());
+        } catch (CertificateEncodingException cee) {
+            LOG.debug("Cannot encode certificate: " + cee, cee);
+            return null;
+        }
+    }
+
+    @Nullable
+    private static HashCode digest(@Nullable PublicKey publicKey) {
+        if (null == publicKey) {
+            return null;
+        }
+        byte[] encoded = publicKey.getEncoded();
+        return null == encoded ? null : Hashing.sha256().hashBytes(encoded);
+    }
+
+    @Nonnull
+    private final ImmutableSet<HashCode> fingerprints;
+
+    @Nonnull
+    private final ImmutableSet<HashCode> publicKeys;
+
+    private final int size;
+
+    private TrustedCredentialIndex(@Nonnull ImmutableSet<HashCode> fingerprints,
+                                   @Nonnull ImmutableSet<HashCode> publicKeys,
+                                   int size) {
+        this.fingerprints = fingerprints;
+        this.publicKeys = publicKeys;
+        this.size = size;
+    }
+
+    /**
+     * @param credential the credential to check
+     * @return {@code true} if the given credential is trusted.
+     */
+    public boolean isTrusted(@Nonnull X509Credential credential) {
+        HashCode fingerprint = fingerprint(credential.getEntityCertificate());
+        if (null != fingerprint && fingerprints.contains(fingerprint)) {
+            return true;
+        }
+        HashCode publicKey = digest(credential.getPublicKey());
+        return null != publicKey && publicKeys.contains(publicKey);
+    }
+
+    /**
+     * @return the number of indexed trusted credentials.
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "TrustedCredentialIndex{" +
+                "size=" + size +
+                '}';
+    }
+}
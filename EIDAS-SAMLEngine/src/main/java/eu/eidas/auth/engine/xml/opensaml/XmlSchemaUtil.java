@@ -64,32 +64,36 @@ public final class XmlSchemaUtil {
         }
     }
 
+    /**
+     * Parses the given XML and validates it against the given schema in a single pass.
+     *
+     * @since 1.1
+     */
     public static Document validateSchema(@Nonnull Schema schema, @Nonnull String xmlString)
             throws EIDASSAMLEngineException {
-        Document document;
         try {
-            document = DocumentBuilderFactoryUtil.parse(xmlString);
+            return DocumentBuilderFactoryUtil.parseAndValidate(xmlString, schema);
         } catch (IOException | SAXException | ParserConfigurationException e) {
             LOG.error(AbstractProtocolEngine.SAML_EXCHANGE, "BUSINESS EXCEPTION : Validate schema exception: " + e, e);
             throw new EIDASSAMLEngineException(EidasErrors.get(EidasErrorKey.MESSAGE_VALIDATION_ERROR.errorCode()),
                                                EidasErrorKey.MESSAGE_VALIDATION_ERROR.errorMessage(), e);
         }
-        validateSchema(schema, document);
-        return document;
     }
 
+    /**
+     * Parses the given XML and validates it against the given schema in a single pass.
+     *
+     * @since 1.1
+     */
     public static Document validateSchema(@Nonnull Schema schema, @Nonnull byte[] xmlBytes)
             throws EIDASSAMLEngineException {
-        Document document;
         try {
-            document = DocumentBuilderFactoryUtil.parse(xmlBytes);
+            return DocumentBuilderFactoryUtil.parseAndValidate(xmlBytes, schema);
         } catch (IOException | SAXException | ParserConfigurationException e) {
             LOG.error(AbstractProtocolEngine.SAML_EXCHANGE, "BUSINESS EXCEPTION : Validate schema exception: " + e, e);
             throw new EIDASSAMLEngineException(EidasErrors.get(EidasErrorKey.MESSAGE_VALIDATION_ERROR.errorCode()),
                                                EidasErrorKey.MESSAGE_VALIDATION_ERROR.errorMessage(), e);
         }
-        validateSchema(schema, document);
-        return document;
     }
 
     private XmlSchemaUtil() {
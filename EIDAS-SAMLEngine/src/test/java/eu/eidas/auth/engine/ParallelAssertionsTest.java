@@ -0,0 +1,279 @@
+package eu.eidas.auth.engine;
+
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.Nonnull;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.xml.signature.SignableXMLObject;
+
+import eu.eidas.auth.commons.EIDASStatusCode;
+import eu.eidas.auth.commons.EidasStringUtil;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.attribute.impl.StringAttributeValue;
+import eu.eidas.auth.commons.protocol.IAuthenticationRequest;
+import eu.eidas.auth.commons.protocol.IAuthenticationResponse;
+import eu.eidas.auth.commons.protocol.IResponseMessage;
+import eu.eidas.auth.commons.protocol.eidas.impl.EidasAuthenticationRequest;
+import eu.eidas.auth.commons.protocol.impl.AuthenticationResponse;
+import eu.eidas.auth.commons.xml.opensaml.OpenSamlHelper;
+import eu.eidas.auth.engine.configuration.FixedProtocolConfigurationAccessor;
+import eu.eidas.auth.engine.configuration.ProtocolEngineConfiguration;
+import eu.eidas.auth.engine.configuration.dom.ReloadableProtocolConfiguration;
+import eu.eidas.auth.engine.core.ProtocolCipherI;
+import eu.eidas.auth.engine.core.ProtocolDecrypterI;
+import eu.eidas.auth.engine.core.ProtocolEncrypterI;
+import eu.eidas.auth.engine.core.ProtocolProcessorI;
+import eu.eidas.auth.engine.core.ProtocolSignerI;
+import eu.eidas.auth.engine.core.SamlEngineCoreProperties;
+import eu.eidas.auth.engine.core.eidas.spec.EidasSpec;
+import eu.eidas.auth.engine.xml.opensaml.CorrelatedResponse;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * ParallelAssertionsTest
+ *
+ * @since 1.1
+ */
+public final class ParallelAssertionsTest {
+
+    private static final int ASSERTION_COUNT = 4;
+
+    private static final String IP_ADDRESS = "127.0.0.1";
+
+    private static final String POOL_THREAD_PREFIX = "AssertionExecutor-";
+
+    private final List<ProtocolEngine> engines = new ArrayList<>();
+
+    /**
+     * The names of the threads which signed an assertion.
+     */
+    private final List<String> assertionSigningThreads = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * The executors given to the encrypter, {@code null} when the assertions are encrypted sequentially.
+     */
+    private final List<ExecutorService> encryptionExecutors =
+            Collections.synchronizedList(new ArrayList<ExecutorService>());
+
+    @After
+    public void tearDown() {
+        for (ProtocolEngine engine : engines) {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelAssertionsMatchTheSequentialOnes() throws Exception {
+        ProtocolEngine defaultEngine =
+                (ProtocolEngine) DefaultProtocolEngineFactory.getInstance().getProtocolEngine("METADATATEST");
+        ProtocolEngineConfiguration configuration = defaultEngine.getConfiguration();
+        EidasAuthenticationRequest request = newRequest();
+        AuthenticationResponse response = newResponse(request);
+        byte[] samlResponse = newSamlResponse(configuration, request, response);
+
+        ProtocolEngine sequentialEngine = newEngine(configuration, samlResponse, 0);
+        ProtocolEngine parallelEngine = newEngine(configuration, samlResponse, 2);
+        assertThat(sequentialEngine.getAssertionExecutor(sequentialEngine.getConfiguration(), ASSERTION_COUNT),
+                   is(nullValue()));
+        assertThat(parallelEngine.getAssertionExecutor(parallelEngine.getConfiguration(), ASSERTION_COUNT),
+                   is(notNullValue()));
+
+        // both responses are verified and decrypted:
+        Response sequential = generateAndUnmarshall(sequentialEngine, request, response);
+        assertThat(assertionSigningThreads.size(), is(ASSERTION_COUNT));
+        assertThat(countPoolThreads(), is(0));
+        assertThat(encryptionExecutors.size(), is(1));
+        assertThat(encryptionExecutors.get(0), is(nullValue()));
+
+        assertionSigningThreads.clear();
+        encryptionExecutors.clear();
+        Response parallel = generateAndUnmarshall(parallelEngine, request, response);
+        // the 4 assertions went through the pool:
+        assertThat(assertionSigningThreads.size(), is(ASSERTION_COUNT));
+        assertThat(countPoolThreads(), is(ASSERTION_COUNT));
+        assertThat(encryptionExecutors.size(), is(1));
+        assertThat(encryptionExecutors.get(0),
+                   is(parallelEngine.getAssertionExecutor(parallelEngine.getConfiguration(), ASSERTION_COUNT)));
+
+        assertThat(parallel.getEncryptedAssertions().isEmpty(), is(true));
+        assertThat(parallel.getAssertions().size(), is(ASSERTION_COUNT));
+        assertThat(sequential.getAssertions().size(), is(ASSERTION_COUNT));
+        for (int i = 0; i < ASSERTION_COUNT; i++) {
+            Assertion parallelAssertion = parallel.getAssertions().get(i);
+            assertThat(parallelAssertion.isSigned(), is(true));
+            assertThat(EidasStringUtil.toString(OpenSamlHelper.marshall(parallelAssertion)),
+                       is(EidasStringUtil.toString(OpenSamlHelper.marshall(sequential.getAssertions().get(i)))));
+        }
+    }
+
+    @Test
+    public void testShutdownStopsTheAssertionThreads() throws Exception {
+        ProtocolEngine defaultEngine =
+                (ProtocolEngine) DefaultProtocolEngineFactory.getInstance().getProtocolEngine("METADATATEST");
+        ProtocolEngineConfiguration configuration = defaultEngine.getConfiguration();
+        ProtocolEngine engine = newEngine(configuration, new byte[0], 2);
+        ExecutorService executor = engine.getAssertionExecutor(engine.getConfiguration(), ASSERTION_COUNT);
+        assertThat(executor, is(notNullValue()));
+
+        engine.shutdown();
+
+        assertThat(executor.isShutdown(), is(true));
+        assertThat(engine.getAssertionExecutor(engine.getConfiguration(), ASSERTION_COUNT), is(nullValue()));
+    }
+
+    private int countPoolThreads() {
+        int count = 0;
+        synchronized (assertionSigningThreads) {
+            for (String threadName : assertionSigningThreads) {
+                if (threadName.startsWith(POOL_THREAD_PREFIX)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns an engine using the given configuration with the given parallel assertion threshold, whose protocol
+     * processor always builds the given response and whose signer and cipher record how the assertions are
+     * processed.
+     */
+    @Nonnull
+    private ProtocolEngine newEngine(@Nonnull ProtocolEngineConfiguration configuration,
+                                     @Nonnull final byte[] samlResponse,
+                                     int parallelAssertionThreshold) throws Exception {
+        SamlEngineCoreProperties coreProperties =
+                mock(SamlEngineCoreProperties.class, delegatesTo(configuration.getCoreProperties()));
+        doReturn(parallelAssertionThreshold).when(coreProperties).getParallelAssertionThreshold();
+        doReturn(2).when(coreProperties).getParallelAssertionPoolSize();
+
+        ProtocolProcessorI protocolProcessor =
+                mock(ProtocolProcessorI.class, delegatesTo(configuration.getProtocolProcessor()));
+        doAnswer(new Answer<Response>() {
+            @Override
+            public Response answer(InvocationOnMock invocation) throws Throwable {
+                Response response = (Response) OpenSamlHelper.unmarshall(samlResponse);
+                // as a newly built response, without any cached DOM:
+                response.releaseChildrenDOM(true);
+                response.releaseDOM();
+                return response;
+            }
+        }).when(protocolProcessor)
+                .marshallResponse(any(IAuthenticationRequest.class), any(IAuthenticationResponse.class), anyString(),
+                                  any(SamlEngineCoreProperties.class));
+
+        final ProtocolSignerI signer = ReloadableProtocolConfiguration.getCurrentComponent(configuration.getSigner());
+        ProtocolSignerI recordingSigner = mock(ProtocolSignerI.class, delegatesTo(signer));
+        doAnswer(new Answer<SignableXMLObject>() {
+            @Override
+            public SignableXMLObject answer(InvocationOnMock invocation) throws Throwable {
+                SignableXMLObject signableObject = (SignableXMLObject) invocation.getArguments()[0];
+                if (signableObject instanceof Assertion) {
+                    assertionSigningThreads.add(Thread.currentThread().getName());
+                }
+                return signer.sign(signableObject);
+            }
+        }).when(recordingSigner).sign(any(SignableXMLObject.class));
+
+        final ProtocolCipherI cipher = ReloadableProtocolConfiguration.getCurrentComponent(configuration.getCipher());
+        ProtocolEncrypterI recordingCipher = mock(ProtocolEncrypterI.class, withSettings().extraInterfaces(
+                ProtocolDecrypterI.class).defaultAnswer(delegatesTo(cipher)));
+        doAnswer(new Answer<Response>() {
+            @Override
+            public Response answer(InvocationOnMock invocation) throws Throwable {
+                Object[] arguments = invocation.getArguments();
+                ExecutorService executor = (ExecutorService) arguments[2];
+                encryptionExecutors.add(executor);
+                return ((ProtocolEncrypterI) cipher).encryptSamlResponse((Response) arguments[0],
+                                                                        (X509Certificate) arguments[1], executor);
+            }
+        }).when(recordingCipher)
+                .encryptSamlResponse(any(Response.class), any(X509Certificate.class), any(ExecutorService.class));
+
+        ProtocolEngine engine = new ProtocolEngine(new FixedProtocolConfigurationAccessor(
+                ProtocolEngineConfiguration.builder(configuration)
+                        .coreProperties(coreProperties)
+                        .signer(recordingSigner)
+                        .cipher(recordingCipher)
+                        .protocolProcessor(protocolProcessor)
+                        .build()));
+        engines.add(engine);
+        return engine;
+    }
+
+    /**
+     * Returns the response built by the protocol processor of the given configuration with copies of its assertion.
+     */
+    @Nonnull
+    private static byte[] newSamlResponse(@Nonnull ProtocolEngineConfiguration configuration,
+                                          @Nonnull IAuthenticationRequest request,
+                                          @Nonnull IAuthenticationResponse response) throws Exception {
+        Response samlResponse = configuration.getProtocolProcessor()
+                .marshallResponse(request, response, IP_ADDRESS, configuration.getCoreProperties());
+        Assertion assertion = samlResponse.getAssertions().get(0);
+        byte[] assertionBytes = OpenSamlHelper.marshall(assertion);
+        for (int i = 1; i < ASSERTION_COUNT; i++) {
+            Assertion copy = (Assertion) OpenSamlHelper.unmarshall(assertionBytes);
+            copy.setID(assertion.getID() + '-' + i);
+            samlResponse.getAssertions().add(copy);
+        }
+        return OpenSamlHelper.marshall(samlResponse);
+    }
+
+    @Nonnull
+    private static Response generateAndUnmarshall(@Nonnull ProtocolEngine engine,
+                                                  @Nonnull IAuthenticationRequest request,
+                                                  @Nonnull IAuthenticationResponse response) throws Exception {
+        IResponseMessage responseMessage = engine.generateResponseMessage(request, response, true, IP_ADDRESS);
+        Correlated correlated = engine.unmarshallResponse(responseMessage.getMessageBytes());
+        return ((CorrelatedResponse) correlated).getResponse();
+    }
+
+    @Nonnull
+    private static EidasAuthenticationRequest newRequest() {
+        return EidasAuthenticationRequest.builder()
+                .id("_1")
+                .issuer("https://source.europa.eu/metadata")
+                .destination("https://destination.europa.eu")
+                .citizenCountryCode("BE")
+                .originCountryCode("BE")
+                .providerName("Prov")
+                .assertionConsumerServiceURL("https://source.europa.eu/metadata")
+                .requestedAttributes(ImmutableAttributeMap.of(EidasSpec.Definitions.PERSON_IDENTIFIER,
+                                                              new StringAttributeValue[] {}))
+                .build();
+    }
+
+    @Nonnull
+    private static AuthenticationResponse newResponse(@Nonnull IAuthenticationRequest request) {
+        return AuthenticationResponse.builder()
+                .statusCode(EIDASStatusCode.SUCCESS_URI.toString())
+                .id("_2")
+                .inResponseTo(request.getId())
+                .issuer("https://destination.europa.eu/metadata")
+                .attributes(ImmutableAttributeMap.of(EidasSpec.Definitions.PERSON_IDENTIFIER,
+                                                     new StringAttributeValue("LU/BE/1", false)))
+                .build();
+    }
+}
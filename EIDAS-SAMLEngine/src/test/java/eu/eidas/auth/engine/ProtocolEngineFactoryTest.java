@@ -27,6 +27,8 @@ import static org.junit.Assert.assertTrue;
  */
 public final class ProtocolEngineFactoryTest {
 
+    private static final long TIMEOUT_MILLIS = 30000L;
+
     private static void createWorkingCopy(@Nonnull String fileName) throws IOException, URISyntaxException {
         File file = getFile(fileName);
         File workingCopy = new File(file.getParentFile(), fileName + "_workingCopy.xml");
@@ -54,6 +56,21 @@ public final class ProtocolEngineFactoryTest {
         return protocolEngine.getCipher();
     }
 
+    /**
+     * Returns the response encryption flag of the given cipher once it has the expected value, or when the timeout
+     * elapses: the changes of the files are detected asynchronously by their watch.
+     */
+    private static boolean awaitResponseEncryptionMandatory(@Nonnull ProtocolCipherI cipher, boolean expected)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        boolean value = cipher.isResponseEncryptionMandatory();
+        while (value != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+            value = cipher.isResponseEncryptionMandatory();
+        }
+        return value;
+    }
+
     @Before
     public void setUp() throws Exception {
         createWorkingCopy("SamlEngine_DOM-test");
@@ -104,10 +121,8 @@ public final class ProtocolEngineFactoryTest {
 
         assertTrue(lastModified2 > lastModified1);
 
-        // trigger the reload
-        // cipher = getCipher(protocolEngineFactory);
-
-        assertTrue(cipher.isResponseEncryptionMandatory());
+        // the cipher obtained before the change is reloaded:
+        assertTrue(awaitResponseEncryptionMandatory(cipher, true));
     }
 
     @Test
@@ -137,10 +152,8 @@ public final class ProtocolEngineFactoryTest {
 
         assertTrue(lastModified2 > lastModified1);
 
-        // trigger the reload
-        // cipher = getCipher(protocolEngineFactory);
-
-        assertTrue(cipher.isResponseEncryptionMandatory());
+        // the cipher obtained before the change is reloaded:
+        assertTrue(awaitResponseEncryptionMandatory(cipher, true));
     }
 
     @Test
@@ -171,10 +184,8 @@ public final class ProtocolEngineFactoryTest {
 
         assertTrue(lastModified2 > lastModified1);
 
-        // trigger the reload
-        // cipher = getCipher(protocolEngineFactory);
-
-        assertFalse(cipher.isResponseEncryptionMandatory());
+        // the cipher obtained before the change is reloaded:
+        assertFalse(awaitResponseEncryptionMandatory(cipher, false));
 
         File encryptModuleFile = getWorkingCopy("EncryptModule_DOM-test_empty");
 
@@ -194,10 +205,8 @@ public final class ProtocolEngineFactoryTest {
 
         assertTrue(lastModified4 > lastModified3);
 
-        // trigger the reload
-        // cipher = getCipher(protocolEngineFactory);
-
-        assertTrue(cipher.isResponseEncryptionMandatory());
+        // the cipher obtained before the change is reloaded:
+        assertTrue(awaitResponseEncryptionMandatory(cipher, true));
 
         encryptModuleFileUpdatedContent =
                 FileUtils.readFileToString(getWorkingCopy("EncryptModule_DOM-test_false"), Constants.UTF8);
@@ -209,9 +218,7 @@ public final class ProtocolEngineFactoryTest {
 
         assertTrue(lastModified5 > lastModified4);
 
-        // trigger the reload
-        // cipher = getCipher(protocolEngineFactory);
-
-        assertFalse(cipher.isResponseEncryptionMandatory());
+        // the cipher obtained before the change is reloaded:
+        assertFalse(awaitResponseEncryptionMandatory(cipher, false));
     }
 }
@@ -0,0 +1,140 @@
+package eu.eidas.auth.engine.configuration.dom;
+
+import org.junit.Test;
+
+import eu.eidas.auth.engine.SamlEngineClock;
+import eu.eidas.auth.engine.configuration.ProtocolEngineConfiguration;
+import eu.eidas.auth.engine.core.ProtocolCipherI;
+import eu.eidas.auth.engine.core.ProtocolDecrypterI;
+import eu.eidas.auth.engine.core.ProtocolEncrypterI;
+import eu.eidas.auth.engine.core.ProtocolProcessorI;
+import eu.eidas.auth.engine.core.ProtocolSignerI;
+import eu.eidas.auth.engine.core.SamlEngineCoreProperties;
+import eu.eidas.auth.engine.core.impl.AbstractProtocolSigner;
+import eu.eidas.auth.engine.metadata.MetadataSignerI;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * ReloadableProtocolConfigurationTest
+ *
+ * @since 1.1
+ */
+public final class ReloadableProtocolConfigurationTest {
+
+    private static ProtocolEngineConfiguration newConfiguration(ProtocolSignerI signer, ProtocolCipherI cipher) {
+        return ProtocolEngineConfiguration.builder()
+                .instanceName("instance")
+                .coreProperties(mock(SamlEngineCoreProperties.class))
+                .signer(signer)
+                .cipher(cipher)
+                .protocolProcessor(mock(ProtocolProcessorI.class))
+                .clock(mock(SamlEngineClock.class))
+                .build();
+    }
+
+    @Test
+    public void testHoldersImplementTheInterfacesOfTheComponents() {
+        ReloadableProtocolConfiguration reloadable = new ReloadableProtocolConfiguration("name", newConfiguration(
+                mock(AbstractProtocolSigner.class), mock(ProtocolEncrypterI.class)));
+
+        ProtocolEngineConfiguration configuration = reloadable.getReloadableConfiguration();
+        assertThat(configuration.getInstanceName(), is("name"));
+        assertThat(configuration.getSigner(), instanceOf(MetadataSignerI.class));
+        assertThat(configuration.getCipher(), instanceOf(ProtocolEncrypterI.class));
+        assertThat(configuration.getCipher(), not(instanceOf(ProtocolDecrypterI.class)));
+
+        ReloadableProtocolConfiguration withoutCipher = new ReloadableProtocolConfiguration("name", newConfiguration(
+                mock(ProtocolSignerI.class), null));
+        assertThat(withoutCipher.getReloadableConfiguration().getSigner(), not(instanceOf(MetadataSignerI.class)));
+        assertThat(withoutCipher.getReloadableConfiguration().getCipher(), nullValue());
+    }
+
+    @Test
+    public void testReloadSwapsTheComponentsBehindTheHolders() throws Exception {
+        ProtocolEngineConfiguration first = newConfiguration(mock(ProtocolSignerI.class), null);
+        ReloadableProtocolConfiguration reloadable = new ReloadableProtocolConfiguration("name", first);
+        ProtocolEngineConfiguration configuration = reloadable.getReloadableConfiguration();
+
+        ProtocolEngineConfiguration second = newConfiguration(mock(ProtocolSignerI.class), null);
+        when(second.getCoreProperties().isValidateSignature()).thenReturn(true);
+        assertThat(reloadable.reload(second), is(true));
+
+        assertThat(configuration.getCoreProperties().isValidateSignature(), is(true));
+        configuration.getProtocolProcessor().getRequestValidatorId();
+        verify(second.getProtocolProcessor()).getRequestValidatorId();
+        ProtocolEngineConfiguration snapshot = ReloadableProtocolConfiguration.snapshot(configuration);
+        assertThat(snapshot.getInstanceName(), is("name"));
+        assertThat(snapshot.getCoreProperties(), sameInstance(second.getCoreProperties()));
+        assertThat(snapshot.getSigner(), sameInstance(second.getSigner()));
+        assertThat(snapshot.getCipher(), nullValue());
+        assertThat(snapshot.getProtocolProcessor(), sameInstance(second.getProtocolProcessor()));
+        assertThat(snapshot.getClock(), sameInstance(second.getClock()));
+        assertThat(ReloadableProtocolConfiguration.getCurrentComponent(configuration.getClock()),
+                   sameInstance(second.getClock()));
+    }
+
+    @Test
+    public void testReloadRefusesComponentsImplementingOtherInterfaces() {
+        ReloadableProtocolConfiguration reloadable = new ReloadableProtocolConfiguration("name", newConfiguration(
+                mock(ProtocolSignerI.class), mock(ProtocolEncrypterI.class)));
+
+        assertThat(reloadable.reload(newConfiguration(mock(ProtocolSignerI.class), mock(ProtocolDecrypterI.class))),
+                   is(false));
+        assertThat(reloadable.reload(newConfiguration(mock(ProtocolSignerI.class), null)), is(false));
+        assertThat(reloadable.reload(newConfiguration(mock(AbstractProtocolSigner.class),
+                                                      mock(ProtocolEncrypterI.class))), is(false));
+    }
+
+    @Test
+    public void testSupersededHoldersDelegateToTheNewHolders() {
+        ReloadableProtocolConfiguration reloadable = new ReloadableProtocolConfiguration("name", newConfiguration(
+                mock(ProtocolSignerI.class), mock(ProtocolEncrypterI.class)));
+        ProtocolEngineConfiguration configuration = reloadable.getReloadableConfiguration();
+
+        ProtocolEngineConfiguration second =
+                newConfiguration(mock(ProtocolSignerI.class), mock(ProtocolDecrypterI.class));
+        when(second.getCoreProperties().isValidateSignature()).thenReturn(true);
+        assertThat(reloadable.reload(second), is(false));
+        reloadable.supersede(new ReloadableProtocolConfiguration("name", second));
+
+        assertThat(configuration.getCoreProperties().isValidateSignature(), is(true));
+        configuration.getCipher().isResponseEncryptionMandatory();
+        verify(second.getCipher()).isResponseEncryptionMandatory();
+    }
+
+    @Test
+    public void testSnapshotKeepsTheComponentsWhichAreNotHolders() {
+        ProtocolEngineConfiguration loaded = newConfiguration(mock(ProtocolSignerI.class), null);
+        ReloadableProtocolConfiguration reloadable = new ReloadableProtocolConfiguration("name", loaded);
+        ProtocolProcessorI protocolProcessor = mock(ProtocolProcessorI.class);
+        SamlEngineClock clock = mock(SamlEngineClock.class);
+        ProtocolEngineConfiguration configuration =
+                ProtocolEngineConfiguration.builder(reloadable.getReloadableConfiguration())
+                        .protocolProcessor(protocolProcessor)
+                        .clock(clock)
+                        .build();
+
+        ProtocolEngineConfiguration snapshot = ReloadableProtocolConfiguration.snapshot(configuration);
+
+        assertThat(snapshot.getCoreProperties(), sameInstance(loaded.getCoreProperties()));
+        assertThat(snapshot.getSigner(), sameInstance(loaded.getSigner()));
+        assertThat(snapshot.getProtocolProcessor(), sameInstance(protocolProcessor));
+        assertThat(snapshot.getClock(), sameInstance(clock));
+    }
+
+    @Test
+    public void testSnapshotOfAPlainConfiguration() {
+        ProtocolEngineConfiguration configuration = newConfiguration(mock(ProtocolSignerI.class), null);
+
+        assertThat(ReloadableProtocolConfiguration.snapshot(configuration), sameInstance(configuration));
+    }
+}
@@ -0,0 +1,101 @@
+package eu.eidas.auth.engine.core.eidas;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
+
+import org.junit.Test;
+
+import eu.eidas.auth.commons.attribute.AttributeDefinition;
+import eu.eidas.auth.commons.attribute.AttributeDefinitionDao;
+import eu.eidas.auth.commons.attribute.AttributeRegistries;
+import eu.eidas.auth.commons.attribute.AttributeRegistry;
+import eu.eidas.auth.commons.attribute.ImmutableAttributeMap;
+import eu.eidas.auth.commons.io.SingletonAccessor;
+import eu.eidas.auth.commons.io.SingletonAccessors;
+import eu.eidas.auth.engine.core.eidas.spec.EidasSpec;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * SupportedAttributeCacheTest
+ *
+ * @since 1.1
+ */
+public final class SupportedAttributeCacheTest {
+
+    private static ImmutableSortedSet<AttributeDefinition<?>> eidasAttributesWithout(
+            @Nonnull AttributeDefinition<?> excluded) {
+        ImmutableSortedSet.Builder<AttributeDefinition<?>> builder =
+                new ImmutableSortedSet.Builder<>(Ordering.<AttributeDefinition<?>>natural());
+        for (AttributeDefinition<?> attributeDefinition : EidasSpec.REGISTRY.getAttributes()) {
+            if (!attributeDefinition.equals(excluded)) {
+                builder.add(attributeDefinition);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * A registry whose attributes are replaced through the given accessor, as when its file is reloaded.
+     */
+    private static AttributeRegistry newReloadableRegistry(
+            @Nonnull final SingletonAccessor<ImmutableSortedSet<AttributeDefinition<?>>> accessor) {
+        return new AttributeRegistry(new AttributeDefinitionDao() {
+            @Nonnull
+            @Override
+            public ImmutableList<? extends SingletonAccessor<ImmutableSortedSet<AttributeDefinition<?>>>> getAttributeDefinitionAccessors() {
+                return ImmutableList.of(accessor);
+            }
+        });
+    }
+
+    @Test
+    public void testSetsAreCachedUntilARegistryIsReloaded() throws Exception {
+        SingletonAccessor<ImmutableSortedSet<AttributeDefinition<?>>> accessor =
+                SingletonAccessors.mutableAccessor(eidasAttributesWithout(EidasSpec.Definitions.CURRENT_GIVEN_NAME));
+        AttributeRegistry registry = newReloadableRegistry(accessor);
+        AttributeRegistry additional = AttributeRegistries.empty();
+        SupportedAttributeCache cache = new SupportedAttributeCache();
+
+        ImmutableSortedSet<AttributeDefinition<?>> all = cache.getAllAttributes(registry, additional);
+        ImmutableSortedSet<AttributeDefinition<?>> mandatory =
+                cache.getFilteredAttributes(registry, additional, EidasProtocolProcessor.MANDATORY_NATURAL_FILTER);
+        assertThat(all.contains(EidasSpec.Definitions.CURRENT_GIVEN_NAME), is(false));
+        assertThat(cache.getAllAttributes(registry, additional), is(sameInstance(all)));
+        assertThat(cache.getFilteredAttributes(registry, additional, EidasProtocolProcessor.MANDATORY_NATURAL_FILTER),
+                   is(sameInstance(mandatory)));
+
+        accessor.set(EidasSpec.REGISTRY.getAttributes());
+
+        ImmutableSortedSet<AttributeDefinition<?>> reloaded = cache.getAllAttributes(registry, additional);
+        assertThat(reloaded, is(not(sameInstance(all))));
+        assertThat(reloaded.contains(EidasSpec.Definitions.CURRENT_GIVEN_NAME), is(true));
+        assertThat(cache.getFilteredAttributes(registry, additional, EidasProtocolProcessor.MANDATORY_NATURAL_FILTER)
+                           .contains(EidasSpec.Definitions.CURRENT_GIVEN_NAME), is(true));
+    }
+
+    @Test
+    public void testMandatoryAttributesFollowTheReloadedRegistry() throws Exception {
+        SingletonAccessor<ImmutableSortedSet<AttributeDefinition<?>>> accessor =
+                SingletonAccessors.mutableAccessor(eidasAttributesWithout(EidasSpec.Definitions.CURRENT_GIVEN_NAME));
+        EidasProtocolProcessor processor =
+                new EidasProtocolProcessor(newReloadableRegistry(accessor), AttributeRegistries.empty(), null, null);
+        ImmutableAttributeMap requestedAttributes = ImmutableAttributeMap.builder()
+                .put(EidasSpec.Definitions.PERSON_IDENTIFIER)
+                .put(EidasSpec.Definitions.CURRENT_FAMILY_NAME)
+                .put(EidasSpec.Definitions.DATE_OF_BIRTH)
+                .build();
+
+        assertThat(processor.checkMandatoryAttributes(requestedAttributes), is(true));
+
+        accessor.set(EidasSpec.REGISTRY.getAttributes());
+
+        assertThat(processor.checkMandatoryAttributes(requestedAttributes), is(false));
+    }
+}
@@ -0,0 +1,228 @@
+package eu.eidas.auth.engine.core.impl;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+import org.opensaml.common.xml.SAMLConstants;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.Response;
+import org.opensaml.xml.Configuration;
+import org.opensaml.xml.XMLObject;
+import org.opensaml.xml.security.x509.X509Credential;
+import org.opensaml.xml.signature.KeyInfo;
+import org.w3c.dom.Element;
+
+import eu.eidas.auth.commons.EidasErrorKey;
+import eu.eidas.auth.commons.EidasStringUtil;
+import eu.eidas.auth.commons.xml.opensaml.OpenSamlHelper;
+import eu.eidas.auth.engine.DefaultProtocolEngineFactory;
+import eu.eidas.auth.engine.configuration.SamlEngineConfigurationException;
+import eu.eidas.auth.engine.core.ProtocolSignerI;
+import eu.eidas.auth.engine.xml.opensaml.CertificateUtil;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * AbstractProtocolSignerTest
+ *
+ * @since 1.1
+ */
+public final class AbstractProtocolSignerTest {
+
+    private static final int ASSERTION_COUNT = 4;
+
+    private static final String RESPONSE_START =
+            "<saml2p:Response xmlns:saml2p=\"urn:oasis:names:tc:SAML:2.0:protocol\" ID=\"_response\" "
+                    + "IssueInstant=\"2016-01-01T00:00:00.000Z\" Version=\"2.0\">";
+
+    private static final String ASSERTION =
+            "<saml2:Assertion xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" ID=\"_assertion%d\" "
+                    + "IssueInstant=\"2016-01-01T00:00:00.000Z\" Version=\"2.0\">"
+                    + "<saml2:Issuer>https://destination.europa.eu/metadata</saml2:Issuer></saml2:Assertion>";
+
+    private static final String RESPONSE_END = "</saml2p:Response>";
+
+    private final ProtocolSignerI signer =
+            DefaultProtocolEngineFactory.getInstance().getProtocolEngine("METADATATEST").getSigner();
+
+    private static final String VALIDITY_PERIOD_CHECK = "validityPeriod";
+
+    private static final String ISSUER_CHECK = "issuer";
+
+    /**
+     * Signer recording the certificate checks it performs.
+     */
+    private static final class RecordingProtocolSigner extends AbstractProtocolSigner {
+
+        private final List<String> checks = Collections.synchronizedList(new ArrayList<String>());
+
+        RecordingProtocolSigner(boolean checkedValidityPeriod,
+                                boolean disallowedSelfSignedCertificate,
+                                @Nonnull KeyStore.PrivateKeyEntry signatureKeyAndCertificate)
+                throws SamlEngineConfigurationException {
+            super(checkedValidityPeriod, disallowedSelfSignedCertificate, signatureKeyAndCertificate,
+                  ImmutableSet.of((X509Certificate) signatureKeyAndCertificate.getCertificate()), null, null, null);
+        }
+
+        @Override
+        protected void checkCertificateIssuer(X509Certificate certificate) throws EIDASSAMLEngineException {
+            checks.add(ISSUER_CHECK);
+            super.checkCertificateIssuer(certificate);
+        }
+
+        @Override
+        protected void checkCertificateValidityPeriod(X509Certificate certificate) throws EIDASSAMLEngineException {
+            checks.add(VALIDITY_PERIOD_CHECK);
+            super.checkCertificateValidityPeriod(certificate);
+        }
+    }
+
+    @Nonnull
+    private static KeyStore.PrivateKeyEntry loadKeyAndCertificate(@Nonnull String alias) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream is = AbstractProtocolSignerTest.class.getResourceAsStream("/keyStoreTrust.jks");
+        try {
+            keyStore.load(is, "local-demo".toCharArray());
+        } finally {
+            is.close();
+        }
+        return (KeyStore.PrivateKeyEntry) keyStore.getEntry(alias,
+                                                            new KeyStore.PasswordProtection("local-demo".toCharArray()));
+    }
+
+    /**
+     * Returns the element names and the certificate values of the given XML object and of its descendants.
+     */
+    @Nonnull
+    private static List<String> describe(@Nonnull XMLObject xmlObject) {
+        List<String> description = new ArrayList<>();
+        description.add(xmlObject.getElementQName().toString());
+        if (xmlObject instanceof org.opensaml.xml.signature.X509Certificate) {
+            description.add(((org.opensaml.xml.signature.X509Certificate) xmlObject).getValue());
+        }
+        if (null != xmlObject.getOrderedChildren()) {
+            for (final XMLObject child : xmlObject.getOrderedChildren()) {
+                description.addAll(describe(child));
+            }
+        }
+        return description;
+    }
+
+    @Nonnull
+    private static Assertion newAssertion(int index) throws Exception {
+        return (Assertion) OpenSamlHelper.unmarshall(EidasStringUtil.getBytes(String.format(ASSERTION, index)));
+    }
+
+    @Test
+    public void testKeyInfoFromTheCachedCertificatesMatchesTheGeneratedKeyInfo() throws Exception {
+        KeyStore.PrivateKeyEntry keyAndCertificate = loadKeyAndCertificate("trusted");
+        RecordingProtocolSigner recordingSigner = new RecordingProtocolSigner(false, false, keyAndCertificate);
+        X509Credential credential = CertificateUtil.createCredential(keyAndCertificate);
+        KeyInfo generatedKeyInfo = Configuration.getGlobalSecurityConfiguration()
+                .getKeyInfoGeneratorManager()
+                .getDefaultManager()
+                .getFactory(credential)
+                .newInstance()
+                .generate(credential);
+
+        for (int i = 0; i < ASSERTION_COUNT; i++) {
+            KeyInfo keyInfo = recordingSigner.sign(newAssertion(i)).getSignature().getKeyInfo();
+
+            assertThat(keyInfo.getID(), is(generatedKeyInfo.getID()));
+            assertThat(describe(keyInfo), is(describe(generatedKeyInfo)));
+        }
+    }
+
+    @Test
+    public void testExpiredCertificateIsRejected() throws Exception {
+        RecordingProtocolSigner recordingSigner =
+                new RecordingProtocolSigner(true, true, loadKeyAndCertificate("expired"));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                recordingSigner.sign(newAssertion(i));
+                fail("the expired certificate must be rejected");
+            } catch (EIDASSAMLEngineException expected) {
+                assertThat(expected.getErrorCode(), is(EidasErrorKey.INVALID_CERTIFICATE_SIGN.errorCode()));
+            }
+        }
+        // the expired self-signed certificate is rejected by the validity period check, before the issuer check:
+        assertThat(recordingSigner.checks,
+                   is(Arrays.asList(VALIDITY_PERIOD_CHECK, VALIDITY_PERIOD_CHECK)));
+    }
+
+    @Test
+    public void testIssuerIsCheckedOnce() throws Exception {
+        RecordingProtocolSigner recordingSigner =
+                new RecordingProtocolSigner(true, false, loadKeyAndCertificate("trusted"));
+
+        for (int i = 0; i < ASSERTION_COUNT; i++) {
+            recordingSigner.sign(newAssertion(i));
+        }
+
+        assertThat(recordingSigner.checks, is(Arrays.asList(VALIDITY_PERIOD_CHECK, ISSUER_CHECK)));
+    }
+
+    @Test
+    public void testValidateSignaturesOfSeveralAssertions() throws Exception {
+        Response response = newResponseWithSignedAssertions();
+        List<Assertion> assertions = response.getAssertions();
+
+        assertThat(signer.validateSignatures(assertions, getTrustedCertificates()), is(sameInstance(assertions)));
+    }
+
+    @Test
+    public void testValidateSignaturesRejectsOneTamperedAssertion() throws Exception {
+        Response response = newResponseWithSignedAssertions();
+        Element issuer = (Element) response.getAssertions()
+                .get(ASSERTION_COUNT - 1)
+                .getDOM()
+                .getElementsByTagNameNS(SAMLConstants.SAML20_NS, "Issuer")
+                .item(0);
+        issuer.setTextContent("https://impostor.europa.eu/metadata");
+
+        try {
+            signer.validateSignatures(response.getAssertions(), getTrustedCertificates());
+            fail("the signature of the tampered assertion must be rejected");
+        } catch (EIDASSAMLEngineException expected) {
+            // expected
+        }
+    }
+
+    @Nonnull
+    private ImmutableSet<X509Certificate> getTrustedCertificates() {
+        return ImmutableSet.of(signer.getPublicSigningCredential().getEntityCertificate());
+    }
+
+    /**
+     * Returns a response parsed from bytes, as a received one, holding several signed assertions in the same document.
+     */
+    @Nonnull
+    private Response newResponseWithSignedAssertions() throws Exception {
+        StringBuilder response = new StringBuilder(RESPONSE_START);
+        for (int i = 0; i < ASSERTION_COUNT; i++) {
+            Assertion signedAssertion = signer.sign(newAssertion(i));
+            String signedXml = EidasStringUtil.toString(OpenSamlHelper.marshall(signedAssertion));
+            // drop the XML declaration of the standalone assertion:
+            response.append(signedXml.substring(signedXml.indexOf("<saml2:Assertion")));
+        }
+        response.append(RESPONSE_END);
+        Response unmarshalled = (Response) OpenSamlHelper.unmarshall(EidasStringUtil.getBytes(response.toString()));
+        assertThat(unmarshalled.getAssertions().size(), is(ASSERTION_COUNT));
+        return unmarshalled;
+    }
+}
@@ -0,0 +1,138 @@
+package eu.eidas.auth.engine.metadata;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.opensaml.saml2.metadata.AssertionConsumerService;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.KeyDescriptor;
+import org.opensaml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.saml2.metadata.impl.AssertionConsumerServiceBuilder;
+import org.opensaml.saml2.metadata.impl.EntityDescriptorBuilder;
+import org.opensaml.saml2.metadata.impl.KeyDescriptorBuilder;
+import org.opensaml.saml2.metadata.impl.SPSSODescriptorBuilder;
+import org.opensaml.xml.security.credential.UsageType;
+import org.opensaml.xml.signature.KeyInfo;
+import org.opensaml.xml.signature.X509Certificate;
+import org.opensaml.xml.signature.X509Data;
+import org.opensaml.xml.signature.impl.KeyInfoBuilder;
+import org.opensaml.xml.signature.impl.X509CertificateBuilder;
+import org.opensaml.xml.signature.impl.X509DataBuilder;
+
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * EntityTrustMaterialTest
+ *
+ * @since 1.1
+ */
+public final class EntityTrustMaterialTest {
+
+    private static final String ACS_URL = "https://sp.example.eu/ReturnPage";
+
+    private static EntityDescriptor newSpEntityDescriptor() {
+        AssertionConsumerService acs = new AssertionConsumerServiceBuilder().buildObject();
+        acs.setLocation(ACS_URL);
+        acs.setIsDefault(Boolean.TRUE);
+        SPSSODescriptor spSsoDescriptor = new SPSSODescriptorBuilder().buildObject();
+        spSsoDescriptor.getAssertionConsumerServices().add(acs);
+        EntityDescriptor entityDescriptor = new EntityDescriptorBuilder().buildObject();
+        entityDescriptor.getRoleDescriptors().add(spSsoDescriptor);
+        return entityDescriptor;
+    }
+
+    private static void addSigningKeyDescriptor(EntityDescriptor entityDescriptor, String base64Certificate) {
+        X509Certificate certificate = new X509CertificateBuilder().buildObject();
+        certificate.setValue(base64Certificate);
+        X509Data x509Data = new X509DataBuilder().buildObject();
+        x509Data.getX509Certificates().add(certificate);
+        KeyInfo keyInfo = new KeyInfoBuilder().buildObject();
+        keyInfo.getX509Datas().add(x509Data);
+        KeyDescriptor keyDescriptor = new KeyDescriptorBuilder().buildObject();
+        keyDescriptor.setUse(UsageType.SIGNING);
+        keyDescriptor.setKeyInfo(keyInfo);
+        MetadataUtil.getSPSSODescriptor(entityDescriptor).getKeyDescriptors().add(keyDescriptor);
+    }
+
+    private static EIDASSAMLEngineException requestSignatureCertificateError(EntityTrustMaterial material) {
+        try {
+            material.getRequestSignatureCertificate();
+        } catch (EIDASSAMLEngineException e) {
+            return e;
+        }
+        fail("the invalid certificate was accepted");
+        return null;
+    }
+
+    @Test
+    public void testResolvedOncePerDescriptor() throws Exception {
+        EntityDescriptor entityDescriptor = newSpEntityDescriptor();
+
+        EntityTrustMaterial material = EntityTrustMaterial.of(entityDescriptor);
+
+        assertThat(EntityTrustMaterial.of(entityDescriptor), is(sameInstance(material)));
+        assertThat(EntityTrustMaterial.of(newSpEntityDescriptor()), is(not(sameInstance(material))));
+    }
+
+    @Test
+    public void testMaterial() throws Exception {
+        EntityTrustMaterial material = EntityTrustMaterial.of(newSpEntityDescriptor());
+
+        assertThat(material.getAssertionConsumerUrl(), is(ACS_URL));
+        assertThat(material.hasSPSSODescriptor(), is(true));
+        assertThat(material.hasIDPSSODescriptor(), is(false));
+        assertThat(material.getRequestSignatureCertificate(), is(nullValue()));
+        assertThat(material.getEncryptionCertificate(), is(nullValue()));
+        assertThat(material.getResponseSignatureCertificate(), is(nullValue()));
+        assertThat(material.getSpType(), is(nullValue()));
+        assertThat(material.getLevelOfAssurance(), is(""));
+    }
+
+    @Test
+    public void testInvalidCertificateThrowsANewExceptionOnEachRequest() throws Exception {
+        EntityDescriptor entityDescriptor = newSpEntityDescriptor();
+        addSigningKeyDescriptor(entityDescriptor, "AAAA");
+        EntityTrustMaterial material = EntityTrustMaterial.of(entityDescriptor);
+
+        EIDASSAMLEngineException first = requestSignatureCertificateError(material);
+        EIDASSAMLEngineException second = requestSignatureCertificateError(material);
+
+        assertThat(second, is(not(sameInstance(first))));
+        assertThat(second.getErrorCode(), is(first.getErrorCode()));
+        assertThat(second.getErrorMessage(), is(first.getErrorMessage()));
+        // the rest of the material remains usable:
+        assertThat(material.getAssertionConsumerUrl(), is(ACS_URL));
+    }
+
+    @Test
+    public void testEvictedDescriptorCanBeCollected() throws Exception {
+        EntityDescriptor entityDescriptor = newSpEntityDescriptor();
+        // the material outlives the descriptor, as when a caller keeps it after the cache entry was evicted:
+        EntityTrustMaterial material = EntityTrustMaterial.of(entityDescriptor);
+        WeakReference<EntityDescriptor> reference = new WeakReference<EntityDescriptor>(entityDescriptor);
+        entityDescriptor = null;
+
+        long deadline = System.currentTimeMillis() + 10000L;
+        List<byte[]> garbage = new ArrayList<byte[]>();
+        while (null != reference.get() && System.currentTimeMillis() < deadline) {
+            garbage.add(new byte[1024 * 1024]);
+            if (garbage.size() > 16) {
+                garbage.clear();
+            }
+            System.gc();
+            Thread.sleep(10L);
+        }
+
+        assertThat(reference.get(), is(nullValue()));
+        assertThat(material.getAssertionConsumerUrl(), is(ACS_URL));
+    }
+}
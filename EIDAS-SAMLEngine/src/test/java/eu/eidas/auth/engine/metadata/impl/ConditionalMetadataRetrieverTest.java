@@ -0,0 +1,190 @@
+package eu.eidas.auth.engine.metadata.impl;
+
+import javax.annotation.Nonnull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.impl.EntityDescriptorBuilder;
+
+import eu.eidas.auth.commons.EidasStringUtil;
+import eu.eidas.auth.engine.metadata.MetadataSignerI;
+import eu.eidas.engine.exceptions.EIDASMetadataProviderException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests the conditional retrieval of metadata by {@link ConditionalMetadataRetriever} and {@link BaseMetadataFetcher}.
+ *
+ * @since 1.1
+ */
+public final class ConditionalMetadataRetrieverTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    private static final String LAST_MODIFIED = "Mon, 03 Oct 2016 10:00:00 GMT";
+
+    /**
+     * Fetcher which accepts plain http URLs so that it can talk to the local stub server.
+     */
+    private static final class LocalMetadataFetcher extends BaseMetadataFetcher {
+
+        private int verifiedCount;
+
+        private int unchangedCount;
+
+        @Override
+        protected boolean mustUseHttps() {
+            return false;
+        }
+
+        @Override
+        protected void onMetadataVerified(@Nonnull String url,
+                                          @Nonnull byte[] metadataBytes,
+                                          @Nonnull EntityDescriptor entityDescriptor) {
+            verifiedCount++;
+        }
+
+        @Override
+        protected void onMetadataUnchanged(@Nonnull String url, @Nonnull EntityDescriptor entityDescriptor) {
+            unchangedCount++;
+        }
+    }
+
+    private StubHttpServer server;
+
+    private MetadataHttpTransport transport;
+
+    private LocalMetadataFetcher fetcher;
+
+    private final MetadataSignerI metadataSigner = mock(MetadataSignerI.class);
+
+    private String url;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new StubHttpServer();
+        url = server.getUrl("/metadata");
+        transport = MetadataHttpTransport.builder().idleConnectionTimeoutMillis(0L).build();
+        fetcher = new LocalMetadataFetcher();
+        fetcher.setHttpTransport(transport);
+    }
+
+    @After
+    public void tearDown() {
+        transport.shutdown();
+        server.stop();
+    }
+
+    private byte[] metadata(@Nonnull String id) {
+        return EidasStringUtil.getBytes(
+                "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" entityID=\"" + url + "\" ID=\""
+                        + id + "\"/>");
+    }
+
+    @Test
+    public void testNotModifiedKeepsTheVerifiedDescriptor() throws Exception {
+        server.setResponse(200, metadata("_1"), ETAG, LAST_MODIFIED);
+        EntityDescriptor first = fetcher.fetchAndValidateEntityDescriptor(url, metadataSigner);
+
+        server.setResponse(304, null, ETAG, null);
+        EntityDescriptor second = fetcher.fetchAndValidateEntityDescriptor(url, metadataSigner);
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(server.getRequestCount(), is(2));
+        assertThat(server.getRequestHeader(0, "If-None-Match"), is(nullValue()));
+        assertThat(server.getRequestHeader(1, "If-None-Match"), is(ETAG));
+        assertThat(server.getRequestHeader(1, "If-Modified-Since"), is(LAST_MODIFIED));
+        verify(metadataSigner, times(1)).validateMetadataSignature(any(EntityDescriptor.class));
+        assertThat(fetcher.verifiedCount, is(1));
+        assertThat(fetcher.unchangedCount, is(1));
+    }
+
+    @Test
+    public void testSameDigestKeepsTheVerifiedDescriptor() throws Exception {
+        server.setResponse(200, metadata("_1"), null, null);
+        EntityDescriptor first = fetcher.fetchAndValidateEntityDescriptor(url, metadataSigner);
+
+        EntityDescriptor second = fetcher.fetchAndValidateEntityDescriptor(url, metadataSigner);
+
+        assertThat(second, is(sameInstance(first)));
+        verify(metadataSigner, times(1)).validateMetadataSignature(any(EntityDescriptor.class));
+        assertThat(fetcher.unchangedCount, is(1));
+    }
+
+    @Test
+    public void testChangedDigestForcesFullValidation() throws Exception {
+        server.setResponse(200, metadata("_1"), ETAG, null);
+        EntityDescriptor first = fetcher.fetchAndValidateEntityDescriptor(url, metadataSigner);
+
+        // the server ignores If-None-Match and sends a new document:
+        server.setResponse(200, metadata("_2"), ETAG, null);
+        EntityDescriptor second = fetcher.fetchAndValidateEntityDescriptor(url, metadataSigner);
+
+        assertThat(second, is(not(sameInstance(first))));
+        assertThat(second.getID(), is("_2"));
+        verify(metadataSigner, times(2)).validateMetadataSignature(any(EntityDescriptor.class));
+        assertThat(fetcher.verifiedCount, is(2));
+        assertThat(fetcher.unchangedCount, is(0));
+    }
+
+    @Test
+    public void testMissingValidatorsFallBackToFullGet() throws Exception {
+        server.setResponse(200, metadata("_1"), null, null);
+        fetcher.fetchAndValidateEntityDescriptor(url, metadataSigner);
+
+        server.setResponse(200, metadata("_2"), null, null);
+        EntityDescriptor second = fetcher.fetchAndValidateEntityDescriptor(url, metadataSigner);
+
+        assertThat(server.getRequestHeader(1, "If-None-Match"), is(nullValue()));
+        assertThat(server.getRequestHeader(1, "If-Modified-Since"), is(nullValue()));
+        assertThat(second.getID(), is("_2"));
+        verify(metadataSigner, times(2)).validateMetadataSignature(any(EntityDescriptor.class));
+    }
+
+    @Test
+    public void testRetrieveWithoutPreviousValidators() throws Exception {
+        server.setResponse(200, metadata("_1"), ETAG, LAST_MODIFIED);
+
+        ConditionalMetadataRetriever.Result result =
+                ConditionalMetadataRetriever.retrieve(transport.getHttpClient(), url, null);
+
+        assertThat(result.isNotModified(), is(false));
+        assertThat(EidasStringUtil.toString(result.getBody()), is(EidasStringUtil.toString(metadata("_1"))));
+        assertThat(result.getEtag(), is(ETAG));
+        assertThat(result.getLastModified(), is(LAST_MODIFIED));
+        assertThat(server.getRequestHeader(0, "If-None-Match"), is(nullValue()));
+        assertThat(server.getRequestHeader(0, "If-Modified-Since"), is(nullValue()));
+    }
+
+    @Test(expected = EIDASMetadataProviderException.class)
+    public void testNotModifiedWithoutPreviousValidatorsIsAnError() throws Exception {
+        server.setResponse(304, null, null, null);
+
+        ConditionalMetadataRetriever.retrieve(transport.getHttpClient(), url, null);
+    }
+
+    @Test
+    public void testRevalidatedKeepsTheValidatorsNotSentAgain() {
+        EntityDescriptor entityDescriptor = new EntityDescriptorBuilder().buildObject();
+        byte[] digest = MetadataValidators.digest(metadata("_1"));
+        MetadataValidators validators = new MetadataValidators(ETAG, LAST_MODIFIED, digest, entityDescriptor);
+
+        MetadataValidators revalidated = validators.revalidated("\"v2\"", null);
+
+        assertThat(revalidated.getEtag(), is("\"v2\""));
+        assertThat(revalidated.getLastModified(), is(LAST_MODIFIED));
+        assertThat(revalidated.getEntityDescriptor(), is(sameInstance(entityDescriptor)));
+        assertThat(revalidated.hasSameDigest(MetadataValidators.digest(metadata("_1"))), is(true));
+        assertThat(revalidated.hasSameDigest(MetadataValidators.digest(metadata("_2"))), is(false));
+    }
+}
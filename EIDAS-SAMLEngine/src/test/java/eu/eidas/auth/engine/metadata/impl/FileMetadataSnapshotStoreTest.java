@@ -0,0 +1,220 @@
+package eu.eidas.auth.engine.metadata.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collection;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.impl.EntityDescriptorBuilder;
+
+import eu.eidas.auth.commons.EidasStringUtil;
+import eu.eidas.auth.engine.metadata.MetadataSignerI;
+import eu.eidas.auth.engine.metadata.MetadataSnapshot;
+import eu.eidas.engine.exceptions.EIDASMetadataProviderException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * FileMetadataSnapshotStoreTest
+ *
+ * @since 1.1
+ */
+public final class FileMetadataSnapshotStoreTest {
+
+    private static final String URL = "https://metadata.example.eu/metadata";
+
+    private static final String METADATA = "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" "
+            + "entityID=\"" + URL + "\"/>";
+
+    /**
+     * Offline fetcher: never goes to the network and does not check signatures.
+     */
+    private static final class OfflineMetadataFetcher extends DefaultMetadataFetcher {
+
+        @Override
+        protected boolean isHttpRetrievalEnabled() {
+            return false;
+        }
+
+        @Override
+        protected boolean mustValidateSignature(@Nonnull String url) {
+            return false;
+        }
+    }
+
+    /**
+     * Fetcher retrieving the metadata from the local stub server without conditional requests.
+     */
+    private static final class UnconditionalMetadataFetcher extends DefaultMetadataFetcher {
+
+        @Override
+        protected boolean isConditionalRetrievalEnabled() {
+            return false;
+        }
+
+        @Override
+        protected boolean mustUseHttps() {
+            return false;
+        }
+
+        @Override
+        protected boolean mustValidateSignature(@Nonnull String url) {
+            return false;
+        }
+    }
+
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @SuppressWarnings({"PublicField"})
+    @Rule
+    public ExpectedException expectedException = ExpectedException.none();
+
+    private FileMetadataSnapshotStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new FileMetadataSnapshotStore(temporaryFolder.getRoot().getAbsolutePath());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        long expiry = System.currentTimeMillis() + 60000L;
+        store.save(new MetadataSnapshot(URL, EidasStringUtil.getBytes(METADATA), expiry));
+
+        MetadataSnapshot snapshot = store.load(URL);
+
+        assertThat(snapshot, is(notNullValue()));
+        assertThat(snapshot.getUrl(), is(URL));
+        assertThat(snapshot.getExpiresAtMillis(), is(expiry));
+        assertThat(EidasStringUtil.toString(snapshot.getMetadata()), is(METADATA));
+    }
+
+    @Test
+    public void testExtendAndRemove() throws Exception {
+        store.save(new MetadataSnapshot(URL, EidasStringUtil.getBytes(METADATA), 1000L));
+        store.extend(URL, 2000L);
+
+        assertThat(store.load(URL).getExpiresAtMillis(), is(2000L));
+        Collection<String> urls = store.getUrls();
+        assertThat(urls.size(), is(1));
+        assertThat(urls.iterator().next(), is(URL));
+
+        store.remove(URL);
+
+        assertThat(store.load(URL), is(nullValue()));
+        assertThat(store.getUrls().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testNegativeMetadataLengthIsRejected() throws Exception {
+        store.save(new MetadataSnapshot(URL, EidasStringUtil.getBytes(METADATA), 1000L));
+        overwriteMetadataLength(-1);
+
+        expectedException.expect(IOException.class);
+        expectedException.expectMessage("Invalid metadata length: -1");
+        store.load(URL);
+    }
+
+    @Test
+    public void testMetadataLengthBeyondTheFileIsRejected() throws Exception {
+        store.save(new MetadataSnapshot(URL, EidasStringUtil.getBytes(METADATA), 1000L));
+        overwriteMetadataLength(Integer.MAX_VALUE);
+
+        expectedException.expect(IOException.class);
+        expectedException.expectMessage("Invalid metadata length: " + Integer.MAX_VALUE);
+        store.load(URL);
+    }
+
+    @Test
+    public void testFetcherServesSnapshotWithoutNetwork() throws Exception {
+        store.save(new MetadataSnapshot(URL, EidasStringUtil.getBytes(METADATA),
+                                        System.currentTimeMillis() + 60000L));
+        OfflineMetadataFetcher fetcher = new OfflineMetadataFetcher();
+        fetcher.setSnapshotStore(store);
+
+        EntityDescriptor entityDescriptor = fetcher.getEntityDescriptor(URL, mock(MetadataSignerI.class));
+
+        assertThat(entityDescriptor.getEntityID(), is(URL));
+        assertThat(fetcher.isServedFromSnapshot(URL), is(true));
+    }
+
+    @Test
+    public void testPreloadSnapshots() throws Exception {
+        store.save(new MetadataSnapshot(URL, EidasStringUtil.getBytes(METADATA),
+                                        System.currentTimeMillis() + 60000L));
+        OfflineMetadataFetcher fetcher = new OfflineMetadataFetcher();
+        fetcher.setSnapshotStore(store);
+
+        assertThat(fetcher.preloadSnapshots(mock(MetadataSignerI.class)), is(1));
+        assertThat(fetcher.getFromCache(URL), is(notNullValue()));
+    }
+
+    @Test(expected = EIDASMetadataProviderException.class)
+    public void testExpiredSnapshotIsNotServed() throws Exception {
+        store.save(new MetadataSnapshot(URL, EidasStringUtil.getBytes(METADATA), System.currentTimeMillis() - 1L));
+        OfflineMetadataFetcher fetcher = new OfflineMetadataFetcher();
+        fetcher.setSnapshotStore(store);
+
+        fetcher.getEntityDescriptor(URL, mock(MetadataSignerI.class));
+    }
+
+    @Test(expected = EIDASMetadataProviderException.class)
+    public void testSnapshotIsNotServedBeyondItsSavedExpiry() throws Exception {
+        OfflineMetadataFetcher fetcher = new OfflineMetadataFetcher();
+        fetcher.setSnapshotStore(store);
+        EntityDescriptor entityDescriptor = new EntityDescriptorBuilder().buildObject();
+        fetcher.putSnapshotInCache(URL, entityDescriptor, mock(MetadataSignerI.class), System.currentTimeMillis() - 1L);
+
+        fetcher.getEntityDescriptor(URL, mock(MetadataSignerI.class));
+    }
+
+    @Test
+    public void testUnconditionalRetrievalSavesASnapshot() throws Exception {
+        StubHttpServer server = new StubHttpServer();
+        MetadataHttpTransport transport = MetadataHttpTransport.builder().idleConnectionTimeoutMillis(0L).build();
+        try {
+            String url = server.getUrl("/metadata");
+            String metadata = "<md:EntityDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" entityID=\""
+                    + url + "\"/>";
+            server.setResponse(200, EidasStringUtil.getBytes(metadata), null, null);
+            UnconditionalMetadataFetcher fetcher = new UnconditionalMetadataFetcher();
+            fetcher.setHttpTransport(transport);
+            fetcher.setSnapshotStore(store);
+
+            assertThat(fetcher.getEntityDescriptor(url, mock(MetadataSignerI.class)).getEntityID(), is(url));
+
+            MetadataSnapshot snapshot = store.load(url);
+            assertThat(snapshot, is(notNullValue()));
+            assertThat(EidasStringUtil.toString(snapshot.getMetadata()), is(metadata));
+        } finally {
+            transport.shutdown();
+            server.stop();
+        }
+    }
+
+    /**
+     * Overwrites the stored metadata length, i.e. the int preceding the metadata bytes at the end of the only snapshot.
+     */
+    private void overwriteMetadataLength(int length) throws IOException {
+        File[] files = temporaryFolder.getRoot().listFiles();
+        assertThat(files.length, is(1));
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            file.seek(file.length() - EidasStringUtil.getBytes(METADATA).length - 4L);
+            file.writeInt(length);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package eu.eidas.auth.engine.metadata.impl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import eu.eidas.auth.commons.EidasStringUtil;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * MetadataHttpTransportTest
+ *
+ * @since 1.1
+ */
+public final class MetadataHttpTransportTest {
+
+    private static final String REFUSED = "socket refused by the transport factory";
+
+    /**
+     * A socket factory which refuses every connection and counts the attempts.
+     */
+    private static final class RefusingSocketFactory implements SecureProtocolSocketFactory {
+
+        private final AtomicInteger attempts = new AtomicInteger();
+
+        private Socket refuse() throws IOException {
+            attempts.incrementAndGet();
+            throw new IOException(REFUSED);
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return refuse();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return refuse();
+        }
+
+        @Override
+        public Socket createSocket(String host,
+                                   int port,
+                                   InetAddress localAddress,
+                                   int localPort,
+                                   HttpConnectionParams params) throws IOException {
+            return refuse();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return refuse();
+        }
+    }
+
+    private StubHttpServer server;
+
+    private MetadataHttpTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new StubHttpServer();
+        server.setResponse(200, EidasStringUtil.getBytes("<metadata/>"), null, null);
+    }
+
+    @After
+    public void tearDown() {
+        if (null != transport) {
+            transport.shutdown();
+        }
+        server.stop();
+    }
+
+    private static String get(HttpClient httpClient, String url) throws IOException {
+        GetMethod getMethod = new GetMethod(url);
+        try {
+            assertThat(httpClient.executeMethod(getMethod), is(200));
+            return EidasStringUtil.toString(getMethod.getResponseBody());
+        } finally {
+            getMethod.releaseConnection();
+        }
+    }
+
+    @Test
+    public void testConnectionIsReusedAcrossRequests() throws IOException {
+        transport = MetadataHttpTransport.builder().idleConnectionTimeoutMillis(0L).build();
+
+        assertThat(get(transport.getHttpClient(), server.getUrl("/metadata")), is("<metadata/>"));
+        assertThat(get(transport.getHttpClient(), server.getUrl("/metadata")), is("<metadata/>"));
+
+        assertThat(server.getRequestCount(), is(2));
+        assertThat(server.getRemotePorts().get(1), is(server.getRemotePorts().get(0)));
+        assertThat(transport.getConnectionsInPool(), is(1));
+    }
+
+    @Test
+    public void testSslSocketFactoryIsNotRegisteredGlobally() {
+        Protocol globalHttps = Protocol.getProtocol("https");
+        RefusingSocketFactory socketFactory = new RefusingSocketFactory();
+
+        transport = MetadataHttpTransport.builder()
+                .idleConnectionTimeoutMillis(0L)
+                .sslSocketFactory(socketFactory)
+                .build();
+
+        assertThat(Protocol.getProtocol("https"), is(sameInstance(globalHttps)));
+        assertThat(Protocol.getProtocol("https").getSocketFactory(),
+                   is(not(sameInstance((Object) socketFactory))));
+    }
+
+    @Test
+    public void testHttpsRequestsUseTheTransportSocketFactory() {
+        RefusingSocketFactory socketFactory = new RefusingSocketFactory();
+        transport = MetadataHttpTransport.builder()
+                .idleConnectionTimeoutMillis(0L)
+                .sslSocketFactory(socketFactory)
+                .build();
+
+        try {
+            get(transport.getHttpClient(), "https://127.0.0.1:" + server.getPort() + "/metadata");
+            fail("the transport socket factory was not used");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage(), is(REFUSED));
+        }
+        assertThat(socketFactory.attempts.get() > 0, is(true));
+        assertThat(server.getRequestCount(), is(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMoreConnectionsPerHostThanInTotal() {
+        MetadataHttpTransport.builder().maxTotalConnections(2).maxConnectionsPerHost(3).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeIdleConnectionTimeout() {
+        MetadataHttpTransport.builder().idleConnectionTimeoutMillis(-1L).build();
+    }
+}
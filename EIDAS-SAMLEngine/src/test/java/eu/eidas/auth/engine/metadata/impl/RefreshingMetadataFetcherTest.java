@@ -0,0 +1,245 @@
+package eu.eidas.auth.engine.metadata.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nonnull;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opensaml.saml2.metadata.EntityDescriptor;
+import org.opensaml.saml2.metadata.impl.EntityDescriptorBuilder;
+
+import eu.eidas.auth.engine.metadata.MetadataSignerI;
+import eu.eidas.engine.exceptions.EIDASMetadataProviderException;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * RefreshingMetadataFetcherTest
+ *
+ * @since 1.1
+ */
+public final class RefreshingMetadataFetcherTest {
+
+    private static final String URL = "https://metadata.example.eu/metadata";
+
+    private static final long CACHE_DURATION = TimeUnit.MINUTES.toMillis(10L);
+
+    private static final long MAX_STALE = TimeUnit.MINUTES.toMillis(5L);
+
+    /**
+     * Fetcher with a manual clock, no scheduled refresh and a fetch which can be held back with a latch.
+     */
+    private static final class StubFetcher extends RefreshingMetadataFetcher {
+
+        private final AtomicLong now = new AtomicLong(1000000L);
+
+        private final AtomicInteger fetchCount = new AtomicInteger();
+
+        private final AtomicInteger callerCount = new AtomicInteger();
+
+        private volatile CountDownLatch release = new CountDownLatch(0);
+
+        private volatile boolean failing;
+
+        private StubFetcher() {
+            super(CACHE_DURATION, MAX_STALE, 0.5d, 0L, 1, 10L);
+        }
+
+        @Nonnull
+        @Override
+        public EntityDescriptor getEntityDescriptor(@Nonnull String url, @Nonnull MetadataSignerI metadataSigner)
+                throws EIDASSAMLEngineException {
+            callerCount.incrementAndGet();
+            return super.getEntityDescriptor(url, metadataSigner);
+        }
+
+        @Override
+        protected long currentTimeMillis() {
+            return now.get();
+        }
+
+        @Override
+        protected boolean mustUseHttps() {
+            return false;
+        }
+
+        @Nonnull
+        @Override
+        protected EntityDescriptor fetchAndValidateEntityDescriptor(@Nonnull String url,
+                                                                    @Nonnull MetadataSignerI metadataSigner)
+                throws EIDASSAMLEngineException {
+            fetchCount.incrementAndGet();
+            try {
+                release.await(10L, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failing) {
+                throw new EIDASMetadataProviderException("unreachable");
+            }
+            return new EntityDescriptorBuilder().buildObject();
+        }
+    }
+
+    private final MetadataSignerI metadataSigner = mock(MetadataSignerI.class);
+
+    private final StubFetcher fetcher = new StubFetcher();
+
+    @After
+    public void tearDown() {
+        fetcher.shutdown();
+    }
+
+    @Test
+    public void testConcurrentMissesFetchOnlyOnce() throws Exception {
+        fetcher.release = new CountDownLatch(1);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<EntityDescriptor>> futures = new ArrayList<Future<EntityDescriptor>>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(pool.submit(new Callable<EntityDescriptor>() {
+                    @Override
+                    public EntityDescriptor call() throws Exception {
+                        return fetcher.getEntityDescriptor(URL, metadataSigner);
+                    }
+                }));
+            }
+            // hold the fetch back until every caller has asked for the descriptor:
+            long deadline = System.currentTimeMillis() + 10000L;
+            while ((fetcher.callerCount.get() < threads || fetcher.fetchCount.get() < 1)
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertThat(fetcher.callerCount.get(), is(threads));
+            fetcher.release.countDown();
+            EntityDescriptor first = futures.get(0).get(10L, TimeUnit.SECONDS);
+            for (Future<EntityDescriptor> future : futures) {
+                assertThat(future.get(10L, TimeUnit.SECONDS), is(sameInstance(first)));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(fetcher.fetchCount.get(), is(1));
+        assertThat(fetcher.getRefreshCount(), is(1L));
+    }
+
+    @Test
+    public void testFreshEntryIsServedFromCache() throws Exception {
+        EntityDescriptor first = fetcher.getEntityDescriptor(URL, metadataSigner);
+        fetcher.now.addAndGet(CACHE_DURATION / 4L);
+        EntityDescriptor second = fetcher.getEntityDescriptor(URL, metadataSigner);
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(fetcher.fetchCount.get(), is(1));
+        assertThat(fetcher.getMissCount(), is(1L));
+        assertThat(fetcher.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void testStaleEntryIsServedWhileRefreshing() throws Exception {
+        EntityDescriptor first = fetcher.getEntityDescriptor(URL, metadataSigner);
+        fetcher.release = new CountDownLatch(1);
+        fetcher.now.addAndGet(CACHE_DURATION + MAX_STALE / 2L);
+
+        EntityDescriptor stale = fetcher.getEntityDescriptor(URL, metadataSigner);
+        assertThat(stale, is(sameInstance(first)));
+        assertThat(fetcher.getStaleHitCount(), is(1L));
+
+        fetcher.release.countDown();
+        awaitRefreshCount(2L);
+        assertThat(fetcher.fetchCount.get(), is(2));
+        assertThat(fetcher.getEntityDescriptor(URL, metadataSigner), is(not(sameInstance(first))));
+    }
+
+    @Test
+    public void testExpiredEntryIsFetchedAgain() throws Exception {
+        EntityDescriptor first = fetcher.getEntityDescriptor(URL, metadataSigner);
+        fetcher.now.addAndGet(CACHE_DURATION + MAX_STALE);
+
+        EntityDescriptor second = fetcher.getEntityDescriptor(URL, metadataSigner);
+
+        assertThat(second, is(not(sameInstance(first))));
+        assertThat(fetcher.getMissCount(), is(2L));
+        assertThat(fetcher.getStaleHitCount(), is(0L));
+    }
+
+    @Test
+    public void testEntryPutWithoutSignerIsRefreshedOnNextAccess() throws Exception {
+        EntityDescriptor cached = new EntityDescriptorBuilder().buildObject();
+        fetcher.putInCache(URL, cached);
+
+        assertThat(fetcher.getEntityDescriptor(URL, metadataSigner), is(sameInstance(cached)));
+        awaitRefreshCount(1L);
+        assertThat(fetcher.fetchCount.get(), is(1));
+    }
+
+    @Test
+    public void testEntryPutWithSignerIsNotRefreshedBeforeRefreshAhead() throws Exception {
+        EntityDescriptor cached = new EntityDescriptorBuilder().buildObject();
+        fetcher.putInCache(URL, cached, metadataSigner);
+
+        assertThat(fetcher.getEntityDescriptor(URL, metadataSigner), is(sameInstance(cached)));
+        assertThat(fetcher.fetchCount.get(), is(0));
+        assertThat(fetcher.getRefreshCount(), is(0L));
+    }
+
+    @Test
+    public void testFailedSnapshotRefreshIsRetriedAfterTheRetryInterval() throws Exception {
+        EntityDescriptor snapshot = new EntityDescriptorBuilder().buildObject();
+        fetcher.failing = true;
+        fetcher.putSnapshotInCache(URL, snapshot, metadataSigner, fetcher.now.get() + CACHE_DURATION);
+
+        assertThat(fetcher.getEntityDescriptor(URL, metadataSigner), is(sameInstance(snapshot)));
+        awaitRefreshCount(1L);
+        assertThat(fetcher.getRefreshFailureCount(), is(1L));
+
+        // within the retry interval, the snapshot is served without any new attempt:
+        fetcher.now.addAndGet(fetcher.getSnapshotRetryIntervalMillis() / 2L);
+        assertThat(fetcher.getEntityDescriptor(URL, metadataSigner), is(sameInstance(snapshot)));
+
+        fetcher.failing = false;
+        fetcher.now.addAndGet(fetcher.getSnapshotRetryIntervalMillis());
+        assertThat(fetcher.getEntityDescriptor(URL, metadataSigner), is(sameInstance(snapshot)));
+        awaitRefreshCount(2L);
+
+        assertThat(fetcher.fetchCount.get(), is(2));
+        assertThat(fetcher.getEntityDescriptor(URL, metadataSigner), is(not(sameInstance(snapshot))));
+    }
+
+    @Test
+    public void testSnapshotIsNotServedBeyondItsExpiry() throws Exception {
+        EntityDescriptor snapshot = new EntityDescriptorBuilder().buildObject();
+        fetcher.putSnapshotInCache(URL, snapshot, metadataSigner, fetcher.now.get() + CACHE_DURATION / 10L);
+
+        fetcher.now.addAndGet(CACHE_DURATION / 5L);
+        EntityDescriptor fetched = fetcher.getEntityDescriptor(URL, metadataSigner);
+
+        assertThat(fetched, is(not(sameInstance(snapshot))));
+        assertThat(fetcher.getMissCount(), is(1L));
+        assertThat(fetcher.getStaleHitCount(), is(0L));
+    }
+
+    private void awaitRefreshCount(long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (fetcher.getRefreshCount() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertThat(fetcher.getRefreshCount(), is(expected));
+    }
+}
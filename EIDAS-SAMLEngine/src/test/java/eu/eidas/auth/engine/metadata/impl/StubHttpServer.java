@@ -0,0 +1,130 @@
+package eu.eidas.auth.engine.metadata.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP server which answers every request with the configured response and records the requests it receives.
+ *
+ * @since 1.1
+ */
+final class StubHttpServer {
+
+    @Nonnull
+    private final HttpServer server;
+
+    private volatile int status = 200;
+
+    @Nullable
+    private volatile byte[] body;
+
+    @Nullable
+    private volatile String etag;
+
+    @Nullable
+    private volatile String lastModified;
+
+    private final List<Headers> requestHeaders = new CopyOnWriteArrayList<Headers>();
+
+    private final List<Integer> remotePorts = new CopyOnWriteArrayList<Integer>();
+
+    StubHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        server.start();
+    }
+
+    private void respond(@Nonnull HttpExchange exchange) throws IOException {
+        try {
+            InputStream requestBody = exchange.getRequestBody();
+            while (requestBody.read() != -1) {
+                // drain
+            }
+            requestHeaders.add(exchange.getRequestHeaders());
+            remotePorts.add(Integer.valueOf(exchange.getRemoteAddress().getPort()));
+            Headers responseHeaders = exchange.getResponseHeaders();
+            if (null != etag) {
+                responseHeaders.set("ETag", etag);
+            }
+            if (null != lastModified) {
+                responseHeaders.set("Last-Modified", lastModified);
+            }
+            byte[] responseBody = body;
+            if (null == responseBody || status == 304) {
+                exchange.sendResponseHeaders(status, -1L);
+            } else {
+                exchange.sendResponseHeaders(status, responseBody.length);
+                OutputStream outputStream = exchange.getResponseBody();
+                outputStream.write(responseBody);
+                outputStream.flush();
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sets the response sent to the next requests.
+     *
+     * @param status the HTTP status code
+     * @param body the response body, if any
+     * @param etag the ETag header, if any
+     * @param lastModified the Last-Modified header, if any
+     */
+    void setResponse(int status, @Nullable byte[] body, @Nullable String etag, @Nullable String lastModified) {
+        this.status = status;
+        this.body = body;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    @Nonnull
+    String getUrl(@Nonnull String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    int getRequestCount() {
+        return requestHeaders.size();
+    }
+
+    /**
+     * @param index the index of the received request
+     * @param name the header name
+     * @return the value of the given header in the given request, or {@code null} if it was not sent.
+     */
+    @Nullable
+    String getRequestHeader(int index, @Nonnull String name) {
+        return requestHeaders.get(index).getFirst(name);
+    }
+
+    @Nonnull
+    List<Integer> getRemotePorts() {
+        return remotePorts;
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+}
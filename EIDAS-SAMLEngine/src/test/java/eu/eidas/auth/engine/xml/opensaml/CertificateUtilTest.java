@@ -0,0 +1,82 @@
+package eu.eidas.auth.engine.xml.opensaml;
+
+import java.io.InputStream;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.x509.X509Credential;
+import org.opensaml.xml.util.Base64;
+
+import eu.eidas.auth.commons.EidasErrorKey;
+import eu.eidas.engine.exceptions.EIDASSAMLEngineException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * CertificateUtilTest
+ *
+ * @since 1.1
+ */
+public final class CertificateUtilTest {
+
+    private static X509Certificate trustedCertificate;
+
+    private static X509Certificate expiredCertificate;
+
+    static X509Certificate loadCertificate(String alias) throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        InputStream is = CertificateUtilTest.class.getResourceAsStream("/keyStoreTrust.jks");
+        try {
+            keyStore.load(is, "local-demo".toCharArray());
+        } finally {
+            is.close();
+        }
+        return (X509Certificate) keyStore.getCertificate(alias);
+    }
+
+    @BeforeClass
+    public static void loadCertificates() throws Exception {
+        trustedCertificate = loadCertificate("trusted");
+        expiredCertificate = loadCertificate("expired");
+    }
+
+    private static void assertUntrusted(X509Credential credential, Iterable<? extends Credential> trustedCredentials) {
+        try {
+            CertificateUtil.checkTrust(credential, trustedCredentials);
+            fail("the credential is not in the trusted credentials");
+        } catch (EIDASSAMLEngineException e) {
+            assertThat(e.getErrorCode(), is(EidasErrorKey.SAML_ENGINE_UNTRUSTED_CERTIFICATE.errorCode()));
+        }
+    }
+
+    @Test
+    public void testToCertificateParsesOnce() throws Exception {
+        String base64Certificate = Base64.encodeBytes(trustedCertificate.getEncoded());
+
+        X509Certificate certificate = CertificateUtil.toCertificate(base64Certificate);
+
+        assertThat(certificate, is(trustedCertificate));
+        assertThat(CertificateUtil.toCertificate(base64Certificate), is(sameInstance(certificate)));
+    }
+
+    @Test
+    public void testCheckTrustAgainstANewTrustListOnEachCall() throws Exception {
+        X509Credential credential = CertificateUtil.createCredential(trustedCertificate, null);
+        X509Credential otherCredential = CertificateUtil.createCredential(expiredCertificate, null);
+
+        for (int i = 0; i < 3; i++) {
+            CertificateUtil.checkTrust(credential,
+                                       ImmutableList.of(CertificateUtil.createCredential(trustedCertificate, null)));
+            // a previous successful check against another list is never reused:
+            assertUntrusted(credential, ImmutableList.of(otherCredential));
+        }
+    }
+}
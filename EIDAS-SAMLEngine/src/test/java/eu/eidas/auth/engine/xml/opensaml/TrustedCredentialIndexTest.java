@@ -0,0 +1,87 @@
+package eu.eidas.auth.engine.xml.opensaml;
+
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.xml.security.credential.Credential;
+import org.opensaml.xml.security.trust.ExplicitKeyTrustEvaluator;
+import org.opensaml.xml.security.x509.X509Credential;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * TrustedCredentialIndexTest
+ *
+ * @since 1.1
+ */
+public final class TrustedCredentialIndexTest {
+
+    private static X509Certificate trustedCertificate;
+
+    private static X509Certificate impostorCertificate;
+
+    private static X509Certificate expiredCertificate;
+
+    @BeforeClass
+    public static void loadCertificates() throws Exception {
+        trustedCertificate = CertificateUtilTest.loadCertificate("trusted");
+        impostorCertificate = CertificateUtilTest.loadCertificate("impostor");
+        expiredCertificate = CertificateUtilTest.loadCertificate("expired");
+    }
+
+    private static X509Credential credential(X509Certificate certificate) {
+        return CertificateUtil.createCredential(certificate, null);
+    }
+
+    /**
+     * The index must give the same answer as the evaluator it replaces.
+     */
+    private static void assertTrusted(boolean expected,
+                                      X509Credential credential,
+                                      Iterable<Credential> trustedCredentials) throws Exception {
+        assertThat(new ExplicitKeyTrustEvaluator().validate(credential, trustedCredentials), is(expected));
+        assertThat(TrustedCredentialIndex.of(trustedCredentials).isTrusted(credential), is(expected));
+    }
+
+    @Test
+    public void testTrustedCertificate() throws Exception {
+        ImmutableList<Credential> trusted = ImmutableList.<Credential>of(credential(trustedCertificate));
+
+        assertTrusted(true, credential(trustedCertificate), trusted);
+        assertThat(TrustedCredentialIndex.of(trusted).size(), is(1));
+    }
+
+    @Test
+    public void testUntrustedCertificateWithTheSameSubject() throws Exception {
+        assertThat(impostorCertificate.getSubjectX500Principal(), is(trustedCertificate.getSubjectX500Principal()));
+
+        assertTrusted(false, credential(impostorCertificate),
+                      ImmutableList.<Credential>of(credential(trustedCertificate)));
+    }
+
+    @Test
+    public void testExpiredCertificate() throws Exception {
+        assertThat(expiredCertificate.getNotAfter().before(new Date()), is(true));
+
+        // the validity period is checked by CertificateValidator, not by the trust check:
+        assertTrusted(true, credential(expiredCertificate),
+                      ImmutableList.<Credential>of(credential(trustedCertificate), credential(expiredCertificate)));
+        assertTrusted(false, credential(expiredCertificate),
+                      ImmutableList.<Credential>of(credential(trustedCertificate)));
+    }
+
+    @Test
+    public void testEmptyTrustSet() throws Exception {
+        TrustedCredentialIndex index = TrustedCredentialIndex.of(Collections.<Credential>emptyList());
+
+        assertThat(index.size(), is(0));
+        assertThat(index.isTrusted(credential(trustedCertificate)), is(false));
+        assertThat(index.isTrusted(credential(expiredCertificate)), is(false));
+    }
+}
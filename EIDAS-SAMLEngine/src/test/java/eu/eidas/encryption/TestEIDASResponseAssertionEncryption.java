@@ -23,6 +23,10 @@ import java.security.spec.RSAPrivateCrtKeySpec;
 import java.util.Calendar;
 import java.util.Date;
 
+import javax.annotation.Nullable;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
 import org.apache.commons.codec.binary.Hex;
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1InputStream;
@@ -48,8 +52,16 @@ import org.custommonkey.xmlunit.XMLUnit;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.opensaml.saml2.core.Assertion;
+import org.opensaml.saml2.core.EncryptedAssertion;
 import org.opensaml.saml2.core.Response;
+import org.opensaml.saml2.encryption.Encrypter;
+import org.opensaml.xml.Configuration;
 import org.opensaml.xml.ConfigurationException;
+import org.opensaml.xml.encryption.CipherValue;
+import org.opensaml.xml.encryption.EncryptionParameters;
+import org.opensaml.xml.encryption.KeyEncryptionParameters;
+import org.opensaml.xml.security.SecurityHelper;
 import org.opensaml.xml.security.x509.BasicX509Credential;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,8 +74,10 @@ import eu.eidas.encryption.exception.MarshallException;
 import eu.eidas.encryption.exception.UnmarshallException;
 import junit.framework.Assert;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by bodabel on 28/11/2014.
@@ -72,6 +86,22 @@ public class TestEIDASResponseAssertionEncryption {
 
     private static final Logger log = LoggerFactory.getLogger(TestEIDASResponseAssertionEncryption.class.getName());
 
+    private static final String RESPONSE_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><saml2p:Response xmlns:saml2p=\"urn:oasis:names:tc:SAML:2.0:protocol\" xmlns:ds=\"http://www.w3.org/2000/09/xmldsig#\" xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" xmlns:stork=\"urn:eu:stork:names:tc:STORK:1.0:assertion\" xmlns:storkp=\"urn:eu:stork:names:tc:STORK:1.0:protocol\" Consent=\"urn:oasis:names:tc:SAML:2.0:consent:obtained\" Destination=\"http://S-PEPS.gov.xx/PEPS/ColleagueResponse\" ID=\"_00df85e9844c610c54865188b99613d7\" InResponseTo=\"THE-SAML-ID\" IssueInstant=\"2014-12-10T16:46:25.872Z\" Version=\"2.0\"><saml2:Issuer Format=\"urn:oasis:names:tc:SAML:2.0:nameid-format:entity\">http://C-PEPS.gov.xx</saml2:Issuer><saml2p:Status><saml2p:StatusCode Value=\"urn:oasis:names:tc:SAML:2.0:status:Success\"/><saml2p:StatusMessage>urn:oasis:names:tc:SAML:2.0:status:Success</saml2p:StatusMessage></saml2p:Status>";
+
+    /**
+     * Assertion template whose ID ends with the {@code %d} placeholder.
+     */
+    private static final String ASSERTION = "<saml2:Assertion ID=\"_50bc3d3dd6cacc7009c663d3cee18bf%d\" IssueInstant=\"2014-12-10T16:46:25.875Z\" Version=\"2.0\"><saml2:Issuer Format=\"urn:oasis:names:tc:SAML:2.0:nameid-format:entity\">http://C-PEPS.gov.xx</saml2:Issuer><saml2:Subject><saml2:NameID Format=\"urn:oasis:names:tc:SAML:1.1:nameid-format:unspecified\" NameQualifier=\"http://C-PEPS.gov.xx\">urn:oasis:names:tc:SAML:1.1:nameid-format:unspecified</saml2:NameID><saml2:SubjectConfirmation Method=\"urn:oasis:names:tc:SAML:2.0:cm:bearer\"><saml2:SubjectConfirmationData Address=\"111.222.333.444\" InResponseTo=\"THE-SAML-ID\" NotOnOrAfter=\"2014-12-10T16:51:25.873Z\" Recipient=\"http://S-PEPS.gov.xx/PEPS/ColleagueResponse\"/></saml2:SubjectConfirmation></saml2:Subject><saml2:Conditions NotBefore=\"2014-12-10T16:46:25.879Z\" NotOnOrAfter=\"2014-12-10T16:51:25.873Z\"><saml2:AudienceRestriction><saml2:Audience>ISSUER</saml2:Audience></saml2:AudienceRestriction><saml2:OneTimeUse/></saml2:Conditions><saml2:AuthnStatement AuthnInstant=\"2014-12-10T16:46:25.884Z\"><saml2:SubjectLocality Address=\"111.222.333.444\"/><saml2:AuthnContext><saml2:AuthnContextDecl/></saml2:AuthnContext></saml2:AuthnStatement><saml2:AttributeStatement><saml2:Attribute Name=\"http://www.stork.gov.eu/1.0/eIdentifier\" NameFormat=\"urn:oasis:names:tc:SAML:2.0:attrname-format:uri\"/><saml2:Attribute Name=\"http://www.stork.gov.eu/1.0/givenName\" NameFormat=\"urn:oasis:names:tc:SAML:2.0:attrname-format:uri\" stork:AttributeStatus=\"Available\"><saml2:AttributeValue xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"xs:anyType\">xavi-from-IdP</saml2:AttributeValue></saml2:Attribute><saml2:Attribute Name=\"http://www.stork.gov.eu/1.0/dateOfBirth\" NameFormat=\"urn:oasis:names:tc:SAML:2.0:attrname-format:uri\"/><saml2:Attribute Name=\"http://www.stork.gov.eu/1.0/isAgeOver\" NameFormat=\"urn:oasis:names:tc:SAML:2.0:attrname-format:uri\"><saml2:AttributeValue xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"xs:anyType\">16</saml2:AttributeValue><saml2:AttributeValue xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:type=\"xs:anyType\">18</saml2:AttributeValue></saml2:Attribute></saml2:AttributeStatement></saml2:Assertion>";
+
+    /**
+     * Start of an assertion declaring the namespaces otherwise declared by the response.
+     */
+    private static final String STANDALONE_ASSERTION_START =
+            "<saml2:Assertion xmlns:saml2=\"urn:oasis:names:tc:SAML:2.0:assertion\" "
+                    + "xmlns:stork=\"urn:eu:stork:names:tc:STORK:1.0:assertion\" ";
+
+    private static final String RESPONSE_END = "</saml2p:Response>";
+
     @BeforeClass
     /**
      * Init EidasAuthenticationRequest details
@@ -176,10 +206,10 @@ public class TestEIDASResponseAssertionEncryption {
         Response responseSource = (Response) OpenSamlHelper.unmarshall(authResponse);
         encryptedAuthnResponse = enc.encryptSAMLResponse(responseSource, credential);
 
-        //check the encrypted response is not the same as the source response, but they have the same ID
-        //(the encrypted response is created by cloning the source response)
-        assertEquals(responseSource.getID(), encryptedAuthnResponse.getID());
-        assertNotSame(responseSource, encryptedAuthnResponse);
+        //check the source response is encrypted in place
+        assertSame(responseSource, encryptedAuthnResponse);
+        assertTrue(encryptedAuthnResponse.getAssertions().isEmpty());
+        assertFalse(encryptedAuthnResponse.getEncryptedAssertions().isEmpty());
         assertNotSame(authResponse, encryptedAuthnResponse);
 
 //         Singature not tested here because of project cycling
@@ -315,4 +345,212 @@ public class TestEIDASResponseAssertionEncryption {
 
         Assert.assertEquals("XML Differences: " + diffs.toString(), 0, diffs.getAllDifferences().size());
     }
+
+    @Test
+    public void testFailedEncryptionLeavesTheResponseUnchanged() throws Exception {
+        Response response = (Response) OpenSamlHelper.unmarshall(newAuthResponse(2));
+        byte[] original = OpenSamlHelper.marshall(response);
+        SAMLAuthnResponseEncrypter enc =
+                SAMLAuthnResponseEncrypter.builder().keyEncryptionAlgorithm("urn:unknown:key-encryption").build();
+
+        try {
+            enc.encryptSAMLResponse(response, newCredential());
+            Assert.fail("the encryption must fail with an unknown key encryption algorithm");
+        } catch (EncryptionException expected) {
+            // expected
+        }
+
+        assertTrue(response.getEncryptedAssertions().isEmpty());
+        Assert.assertEquals(2, response.getAssertions().size());
+        DetailedDiff diffs = new DetailedDiff(
+                XMLUnit.compareXML(OpenSamlHelper.unmarshall(original).getDOM().getOwnerDocument(),
+                                   OpenSamlHelper.unmarshall(OpenSamlHelper.marshall(response))
+                                           .getDOM()
+                                           .getOwnerDocument()));
+        Assert.assertEquals("XML Differences: " + diffs.toString(), 0, diffs.getAllDifferences().size());
+    }
+
+    @Test
+    public void testAssertionsEncryptedWithASharedKeyAreDecrypted() throws Exception {
+        BasicX509Credential credential = newCredential();
+        KeyGenerator keyGenerator = KeyGenerator.getInstance("AES");
+        keyGenerator.init(256);
+        Encrypter encrypter = newEncrypter(credential, keyGenerator.generateKey());
+
+        // every assertion is encrypted with the same data key, sent as the same EncryptedKey:
+        Response response = (Response) OpenSamlHelper.unmarshall(newAuthResponse(0));
+        String sharedCipherValue = null;
+        for (int i = 0; i < 3; i++) {
+            EncryptedAssertion encryptedAssertion = encrypter.encrypt(newStandaloneAssertion(i));
+            CipherValue cipherValue = encryptedAssertion.getEncryptedData()
+                    .getKeyInfo()
+                    .getEncryptedKeys()
+                    .get(0)
+                    .getCipherData()
+                    .getCipherValue();
+            if (null == sharedCipherValue) {
+                sharedCipherValue = cipherValue.getValue();
+            } else {
+                cipherValue.setValue(sharedCipherValue);
+            }
+            response.getEncryptedAssertions().add(encryptedAssertion);
+        }
+        Response encryptedResponse = (Response) OpenSamlHelper.unmarshall(OpenSamlHelper.marshall(response));
+
+        Response decryptedResponse = new SAMLAuthnResponseDecrypter("BC").decryptSAMLResponse(encryptedResponse,
+                                                                                                credential);
+
+        assertTrue(decryptedResponse.getEncryptedAssertions().isEmpty());
+        Assert.assertEquals(3, decryptedResponse.getAssertions().size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("_50bc3d3dd6cacc7009c663d3cee18bf" + i,
+                                decryptedResponse.getAssertions().get(i).getID());
+        }
+        DetailedDiff diffs = new DetailedDiff(
+                XMLUnit.compareXML(OpenSamlHelper.unmarshall(newAuthResponse(3)).getDOM().getOwnerDocument(),
+                                   OpenSamlHelper.unmarshall(OpenSamlHelper.marshall(decryptedResponse))
+                                           .getDOM()
+                                           .getOwnerDocument()));
+        Assert.assertEquals("XML Differences: " + diffs.toString(), 0, diffs.getAllDifferences().size());
+    }
+
+    @Test
+    public void testFailedDecryptionLeavesTheResponseUnchanged() throws Exception {
+        BasicX509Credential credential = newCredential();
+
+        // the first assertion can be decrypted, the second one was encrypted for another recipient:
+        Response response = (Response) OpenSamlHelper.unmarshall(newAuthResponse(0));
+        response.getEncryptedAssertions().add(newEncrypter(credential, null).encrypt(newStandaloneAssertion(0)));
+        response.getEncryptedAssertions().add(newEncrypter(newCredential(), null).encrypt(newStandaloneAssertion(1)));
+        byte[] original = OpenSamlHelper.marshall(response);
+        Response encryptedResponse = (Response) OpenSamlHelper.unmarshall(original);
+
+        try {
+            new SAMLAuthnResponseDecrypter("BC").decryptSAMLResponse(encryptedResponse, credential);
+            Assert.fail("the decryption must fail with the key of another recipient");
+        } catch (DecryptionException expected) {
+            // expected
+        }
+
+        assertTrue(encryptedResponse.getAssertions().isEmpty());
+        Assert.assertEquals(2, encryptedResponse.getEncryptedAssertions().size());
+        DetailedDiff diffs = new DetailedDiff(
+                XMLUnit.compareXML(OpenSamlHelper.unmarshall(original).getDOM().getOwnerDocument(),
+                                   OpenSamlHelper.unmarshall(OpenSamlHelper.marshall(encryptedResponse))
+                                           .getDOM()
+                                           .getOwnerDocument()));
+        Assert.assertEquals("XML Differences: " + diffs.toString(), 0, diffs.getAllDifferences().size());
+    }
+
+    @Test
+    public void testPlainAndEncryptedAssertionsKeepTheirOrder() throws Exception {
+        BasicX509Credential credential = newCredential();
+        Encrypter encrypter = newEncrypter(credential, null);
+
+        // the plain and the encrypted assertions alternate:
+        Response response = (Response) OpenSamlHelper.unmarshall(newAuthResponse(0));
+        for (int i = 0; i < 4; i++) {
+            if (i % 2 == 0) {
+                response.getAssertions().add(newStandaloneAssertion(i));
+            } else {
+                response.getEncryptedAssertions().add(encrypter.encrypt(newStandaloneAssertion(i)));
+            }
+        }
+        Response encryptedResponse = (Response) OpenSamlHelper.unmarshall(OpenSamlHelper.marshall(response));
+
+        Response decryptedResponse = new SAMLAuthnResponseDecrypter("BC").decryptSAMLResponse(encryptedResponse,
+                                                                                                credential);
+
+        assertTrue(decryptedResponse.getEncryptedAssertions().isEmpty());
+        Assert.assertEquals(4, decryptedResponse.getAssertions().size());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals("_50bc3d3dd6cacc7009c663d3cee18bf" + i,
+                                decryptedResponse.getAssertions().get(i).getID());
+        }
+        DetailedDiff diffs = new DetailedDiff(
+                XMLUnit.compareXML(OpenSamlHelper.unmarshall(newAuthResponse(4)).getDOM().getOwnerDocument(),
+                                   OpenSamlHelper.unmarshall(OpenSamlHelper.marshall(decryptedResponse))
+                                           .getDOM()
+                                           .getOwnerDocument()));
+        Assert.assertEquals("XML Differences: " + diffs.toString(), 0, diffs.getAllDifferences().size());
+    }
+
+    private static Assertion newStandaloneAssertion(int index) throws Exception {
+        return (Assertion) OpenSamlHelper.unmarshall(EidasStringUtil.getBytes(
+                String.format(ASSERTION, index).replace("<saml2:Assertion ", STANDALONE_ASSERTION_START)));
+    }
+
+    /**
+     * Returns an encrypter for the given recipient, encrypting the data with the given key or with a new key for each
+     * assertion when it is {@code null}.
+     */
+    private static Encrypter newEncrypter(BasicX509Credential credential, @Nullable SecretKey dataKey)
+            throws Exception {
+        EncryptionParameters encParams = new EncryptionParameters();
+        encParams.setAlgorithm(DefaultEncryptionAlgorithm.DEFAULT_DATA_ENCRYPTION_ALGORITHM.getValue());
+        if (null != dataKey) {
+            encParams.setEncryptionCredential(SecurityHelper.getSimpleCredential(dataKey));
+        }
+        KeyEncryptionParameters kekParams = new KeyEncryptionParameters();
+        kekParams.setEncryptionCredential(credential);
+        kekParams.setAlgorithm(DefaultEncryptionAlgorithm.DEFAULT_KEY_ENCRYPTION_ALGORITHM.getValue());
+        kekParams.setKeyInfoGenerator(Configuration.getGlobalSecurityConfiguration()
+                                              .getKeyInfoGeneratorManager()
+                                              .getDefaultManager()
+                                              .getFactory(credential)
+                                              .newInstance());
+        Encrypter encrypter = new Encrypter(encParams, kekParams);
+        encrypter.setKeyPlacement(Encrypter.KeyPlacement.INLINE);
+        return encrypter;
+    }
+
+    private static byte[] newAuthResponse(int assertionCount) {
+        StringBuilder response = new StringBuilder(RESPONSE_START);
+        for (int i = 0; i < assertionCount; i++) {
+            response.append(String.format(ASSERTION, i));
+        }
+        return EidasStringUtil.getBytes(response.append(RESPONSE_END).toString());
+    }
+
+    /**
+     * Returns a credential holding a new RSA key pair and a self-signed certificate of its public key.
+     */
+    private static BasicX509Credential newCredential() throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+
+        X509Name x509Name = new X509Name("CN=STORKEncTest");
+        Calendar expiry = Calendar.getInstance();
+        expiry.add(Calendar.DAY_OF_YEAR, 1);
+        AlgorithmIdentifier sigAlgId =
+                new AlgorithmIdentifier(PKCSObjectIdentifiers.sha1WithRSAEncryption, new DERNull());
+
+        V3TBSCertificateGenerator certGen = new V3TBSCertificateGenerator();
+        certGen.setSerialNumber(new DERInteger(BigInteger.valueOf(System.currentTimeMillis())));
+        certGen.setIssuer(x509Name);
+        certGen.setSubject(x509Name);
+        certGen.setSignature(sigAlgId);
+        certGen.setSubjectPublicKeyInfo(new SubjectPublicKeyInfo((ASN1Sequence) new ASN1InputStream(
+                new ByteArrayInputStream(keyPair.getPublic().getEncoded())).readObject()));
+        certGen.setStartDate(new Time(new Date(System.currentTimeMillis())));
+        certGen.setEndDate(new Time(expiry.getTime()));
+        TBSCertificate tbsCert = certGen.generateTBSCertificate();
+
+        ByteArrayOutputStream bOut = new ByteArrayOutputStream();
+        new DEROutputStream(bOut).writeObject(tbsCert);
+        Signature sig = Signature.getInstance(PKCSObjectIdentifiers.sha1WithRSAEncryption.getId());
+        sig.initSign(keyPair.getPrivate(), new SecureRandom());
+        sig.update(bOut.toByteArray());
+
+        ASN1EncodableVector v = new ASN1EncodableVector();
+        v.add(tbsCert);
+        v.add(sigAlgId);
+        v.add(new DERBitString(sig.sign()));
+
+        BasicX509Credential credential = new BasicX509Credential();
+        credential.setEntityCertificate(new X509CertificateObject(Certificate.getInstance(new DERSequence(v))));
+        credential.setPrivateKey(keyPair.getPrivate());
+        return credential;
+    }
 }
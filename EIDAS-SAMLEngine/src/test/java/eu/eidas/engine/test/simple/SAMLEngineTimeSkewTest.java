@@ -1,7 +1,5 @@
 package eu.eidas.engine.test.simple;
 
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.Proxy;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -24,7 +22,7 @@ import eu.eidas.auth.commons.protocol.stork.IStorkAuthenticationRequest;
 import eu.eidas.auth.commons.protocol.stork.impl.StorkAuthenticationRequest;
 import eu.eidas.auth.engine.ProtocolEngineFactory;
 import eu.eidas.auth.engine.ProtocolEngineI;
-import eu.eidas.auth.engine.configuration.dom.ReloadableProtocolConfigurationInvocationHandler;
+import eu.eidas.auth.engine.configuration.dom.ReloadableProtocolConfiguration;
 import eu.eidas.auth.engine.core.SAMLCore;
 import eu.eidas.auth.engine.core.eidas.spec.NaturalPersonSpec;
 import eu.eidas.auth.engine.core.stork.StorkExtensionProcessor;
@@ -52,9 +50,7 @@ public class SAMLEngineTimeSkewTest {
         // inject a test clock to do some  time shifting
         engine =
                 ProtocolEngineFactory.getDefaultProtocolEngine("SkewTest");
-        InvocationHandler invocationHandler = Proxy.getInvocationHandler(engine.getClock());
-        ReloadableProtocolConfigurationInvocationHandler ih = (ReloadableProtocolConfigurationInvocationHandler) invocationHandler;
-        clock = (SamlEngineTestClock) ih.getProxiedObject();
+        clock = (SamlEngineTestClock) ReloadableProtocolConfiguration.getCurrentComponent(engine.getClock());
     }
 
     /**